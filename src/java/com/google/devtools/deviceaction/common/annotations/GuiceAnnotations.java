@@ -38,6 +38,18 @@ public final class GuiceAnnotations {
   @Retention(RUNTIME)
   public @interface FileResolver {}
 
+  /** Annotation for the host-wide cache dir of GCS files. */
+  @Qualifier
+  @Target({FIELD, PARAMETER, METHOD})
+  @Retention(RUNTIME)
+  public @interface GCSCacheDir {}
+
+  /** Annotation for the max size in bytes of the host-wide cache dir of GCS files. */
+  @Qualifier
+  @Target({FIELD, PARAMETER, METHOD})
+  @Retention(RUNTIME)
+  public @interface GCSCacheMaxSize {}
+
   /** Annotation for GCS credential. */
   @Qualifier
   @Target({FIELD, PARAMETER, METHOD})
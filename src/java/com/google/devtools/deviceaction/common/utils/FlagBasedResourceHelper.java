@@ -60,6 +60,11 @@ public final class FlagBasedResourceHelper implements ResourceHelper {
   private static final Path CRED_FILE =
       Path.of(Flags.instance().daCredFile.getNonNull()).normalize();
 
+  private static final String GCS_CACHE_DIR = Flags.instance().daGcsCacheDir.getNonNull();
+
+  private static final long GCS_CACHE_MAX_SIZE =
+      Flags.instance().daGcsCacheMaxSizeMb.getNonNull() * 1024L * 1024L;
+
   private static final CommandExecutor executor = new CommandExecutor();
 
   public static FlagBasedResourceHelper getInstance() {
@@ -101,6 +106,16 @@ public final class FlagBasedResourceHelper implements ResourceHelper {
     return filterExistingFile(CRED_FILE);
   }
 
+  @Override
+  public Optional<Path> getGcsCacheDir() {
+    return GCS_CACHE_DIR.isEmpty() ? Optional.empty() : Optional.of(Path.of(GCS_CACHE_DIR));
+  }
+
+  @Override
+  public long getGcsCacheMaxSize() {
+    return GCS_CACHE_MAX_SIZE;
+  }
+
   @Override
   public CommandExecutor getCommandExecutor() {
     return executor;
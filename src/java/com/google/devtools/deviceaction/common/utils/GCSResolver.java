@@ -16,13 +16,29 @@
 
 package com.google.devtools.deviceaction.common.utils;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.lang.Math.min;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.api.services.storage.model.StorageObject;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.MoreFiles;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.common.metrics.stability.model.proto.ErrorTypeProto.ErrorType;
+import com.google.devtools.deviceaction.common.annotations.GuiceAnnotations.GCSCacheDir;
+import com.google.devtools.deviceaction.common.annotations.GuiceAnnotations.GCSCacheMaxSize;
 import com.google.devtools.deviceaction.common.annotations.GuiceAnnotations.GCSCredential;
 import com.google.devtools.deviceaction.common.annotations.GuiceAnnotations.GenFileDirRoot;
 import com.google.devtools.deviceaction.common.error.DeviceActionException;
@@ -33,20 +49,82 @@ import com.google.devtools.deviceaction.framework.proto.ResourcePath;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
 import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
-/** A {@link SimpleResolver} to resolve GCS objects. */
+/**
+ * A {@link SimpleResolver} to resolve GCS objects.
+ *
+ * <p>Files of a GCS directory are downloaded concurrently, and large files are downloaded in
+ * parallel ranges. Failed downloads are resumed from the downloaded bytes. If a cache dir is
+ * given, files are downloaded to the cache dir once per GCS generation and CRC32C checksum, and
+ * are hard linked (or copied) to the resolver root. Reads of a file are pinned to the listed
+ * generation, and downloaded files are verified against the listed CRC32C checksum.
+ *
+ * <p>The last modified time of a cache file is updated when it is used. After files are added to
+ * the cache dir, least recently used files are deleted until the cache dir is not larger than its
+ * max size.
+ */
 class GCSResolver extends SimpleResolver {
 
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   private static final int MAX_RESULTS_UNLIMITED = -1;
 
+  private static final int MAX_CONCURRENT_DOWNLOADS = 8;
+
+  /** Max attempts of downloading a file or a range of a file, including resumed ones. */
+  private static final int MAX_DOWNLOAD_ATTEMPTS = 3;
+
+  /** Files larger than it are downloaded in parallel ranges. */
+  @VisibleForTesting static final long PARALLEL_RANGE_DOWNLOAD_MIN_SIZE = 64L * 1024L * 1024L;
+
+  @VisibleForTesting static final long DOWNLOAD_RANGE_SIZE = 16L * 1024L * 1024L;
+
+  /**
+   * Cache files used or written more recently than it are never deleted, so files which are being
+   * downloaded, linked or copied by other device actions are kept.
+   */
+  @VisibleForTesting static final Duration CACHE_FILE_MIN_IDLE_TIME = Duration.ofHours(1L);
+
+  private static final ListeningExecutorService DOWNLOAD_THREAD_POOL =
+      MoreExecutors.listeningDecorator(
+          Executors.newFixedThreadPool(
+              MAX_CONCURRENT_DOWNLOADS,
+              new ThreadFactoryBuilder().setNameFormat("gcs-resolver-%d").setDaemon(true).build()));
+
   private final LocalFileUtil localFileUtil;
   private final File serviceAccountKey;
   private final File rootDir;
+  private final Optional<Path> cacheDir;
+  private final long cacheMaxSize;
+  private final ListeningExecutorService threadPool;
 
   private final LoadingCache<String, GCSUtil> storageCache;
 
@@ -55,7 +133,9 @@ class GCSResolver extends SimpleResolver {
   public GCSResolver(
       LocalFileUtil localFileUtil,
       @GCSCredential File serviceAccountKey,
-      @GenFileDirRoot File rootDir) {
+      @GenFileDirRoot File rootDir,
+      @GCSCacheDir Optional<Path> cacheDir,
+      @GCSCacheMaxSize long cacheMaxSize) {
     this(
         localFileUtil,
         serviceAccountKey,
@@ -67,7 +147,10 @@ class GCSResolver extends SimpleResolver {
                   public GCSUtil load(String project) throws DeviceActionException {
                     return new GCSUtil(project, serviceAccountKey);
                   }
-                }));
+                }),
+        cacheDir,
+        cacheMaxSize,
+        DOWNLOAD_THREAD_POOL);
   }
 
   @VisibleForTesting
@@ -76,10 +159,32 @@ class GCSResolver extends SimpleResolver {
       File serviceAccountKey,
       File rootDir,
       LoadingCache<String, GCSUtil> storageCache) {
+    this(
+        localFileUtil,
+        serviceAccountKey,
+        rootDir,
+        storageCache,
+        /* cacheDir= */ Optional.empty(),
+        /* cacheMaxSize= */ Long.MAX_VALUE,
+        DOWNLOAD_THREAD_POOL);
+  }
+
+  @VisibleForTesting
+  GCSResolver(
+      LocalFileUtil localFileUtil,
+      File serviceAccountKey,
+      File rootDir,
+      LoadingCache<String, GCSUtil> storageCache,
+      Optional<Path> cacheDir,
+      long cacheMaxSize,
+      ListeningExecutorService threadPool) {
     this.localFileUtil = localFileUtil;
     this.serviceAccountKey = serviceAccountKey;
     this.rootDir = rootDir;
     this.storageCache = storageCache;
+    this.cacheDir = cacheDir;
+    this.cacheMaxSize = cacheMaxSize;
+    this.threadPool = threadPool;
   }
 
   /** Only applies to GCS file specs. */
@@ -111,7 +216,14 @@ class GCSResolver extends SimpleResolver {
             .setPath(objectName)
             .setIsDirectory(gCSUtil.isDirectory(bucketName, objectName))
             .build();
-    downloadToLocalRecursively(gCSUtil, bucketName, resource);
+    Map<String, Optional<StorageObject>> files = new LinkedHashMap<>();
+    if (resource.getIsDirectory()) {
+      listFilesRecursively(gCSUtil, bucketName, resource, files);
+    } else {
+      prepareFile(rootDir, objectName);
+      files.put(objectName, Optional.ofNullable(gCSUtil.getFileItem(bucketName, objectName)));
+    }
+    downloadFiles(gCSUtil, bucketName, files);
     return getResolvedPath(resource).toFile();
   }
 
@@ -121,14 +233,16 @@ class GCSResolver extends SimpleResolver {
       GCSResolver that = (GCSResolver) other;
       return Objects.equals(this.localFileUtil, that.localFileUtil)
           && Objects.equals(this.serviceAccountKey, that.serviceAccountKey)
-          && Objects.equals(this.rootDir, that.rootDir);
+          && Objects.equals(this.rootDir, that.rootDir)
+          && Objects.equals(this.cacheDir, that.cacheDir)
+          && this.cacheMaxSize == that.cacheMaxSize;
     }
     return false;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(localFileUtil, serviceAccountKey, rootDir);
+    return Objects.hash(localFileUtil, serviceAccountKey, rootDir, cacheDir, cacheMaxSize);
   }
 
   /**
@@ -143,21 +257,351 @@ class GCSResolver extends SimpleResolver {
     return uri.substring(Constants.GS_PREFIX.length()).split(Constants.GS_DELIMITER, 2);
   }
 
-  private void downloadToLocalRecursively(GCSUtil gCSUtil, String bucketName, ResourcePath resource)
+  /**
+   * Creates local dirs of the GCS directory tree and collects its files.
+   *
+   * @param files {file item name, metadata if listed}
+   */
+  private void listFilesRecursively(
+      GCSUtil gCSUtil,
+      String bucketName,
+      ResourcePath resource,
+      Map<String, Optional<StorageObject>> files)
       throws DeviceActionException {
     Path dest = getResolvedPath(resource);
-    if (!resource.getIsDirectory()) {
-      prepareFile(rootDir, resource.getPath());
-      gCSUtil.copyFileItemToLocal(bucketName, resource.getPath(), dest);
-      return;
-    }
     try {
       localFileUtil.prepareDir(dest);
     } catch (MobileHarnessException e) {
       throw new DeviceActionException(e, "Failed to create dir %s", dest);
     }
-    for (ResourcePath child : listChildren(gCSUtil, bucketName, resource)) {
-      downloadToLocalRecursively(gCSUtil, bucketName, child);
+    ListResult result =
+        gCSUtil.listItemsAndPrefixes(
+            bucketName,
+            resource.getPath(),
+            Constants.GS_DELIMITER,
+            /* includeTrailingDelimiter= */ true,
+            /* maxResults= */ MAX_RESULTS_UNLIMITED);
+    Set<String> subDirs = new LinkedHashSet<>(result.listPrefixes());
+    for (StorageObject storageObject : result.listItems()) {
+      String name = storageObject.getName();
+      if (GCSUtil.isDirectoryPath(name)) {
+        subDirs.add(name);
+      } else {
+        files.put(name, Optional.of(storageObject));
+      }
+    }
+    for (String subDir : subDirs) {
+      listFilesRecursively(
+          gCSUtil,
+          bucketName,
+          ResourcePath.newBuilder().setPath(subDir).setIsDirectory(true).build(),
+          files);
+    }
+  }
+
+  /**
+   * Downloads the files concurrently and waits until all of them are downloaded. Prunes the cache
+   * dir if any file is added to it.
+   */
+  private void downloadFiles(
+      GCSUtil gCSUtil, String bucketName, Map<String, Optional<StorageObject>> files)
+      throws DeviceActionException {
+    List<ListenableFuture<?>> futures = new ArrayList<>();
+    boolean cacheMissed = false;
+    for (Map.Entry<String, Optional<StorageObject>> file : files.entrySet()) {
+      Optional<Path> cacheFile = file.getValue().flatMap(this::getCacheFile);
+      cacheMissed |= cacheFile.isPresent() && !Files.exists(cacheFile.get());
+      futures.add(downloadFile(gCSUtil, bucketName, file.getKey(), file.getValue(), cacheFile));
+    }
+    try {
+      Futures.allAsList(futures).get();
+    } catch (InterruptedException e) {
+      futures.forEach(future -> future.cancel(/* mayInterruptIfRunning= */ true));
+      Thread.currentThread().interrupt();
+      throw new DeviceActionException(
+          "INTERRUPTED",
+          ErrorType.INFRA_ISSUE,
+          "Interrupted when downloading files from gs://" + bucketName,
+          e);
+    } catch (ExecutionException e) {
+      futures.forEach(future -> future.cancel(/* mayInterruptIfRunning= */ true));
+      if (e.getCause() instanceof DeviceActionException) {
+        throw (DeviceActionException) e.getCause();
+      }
+      throw new DeviceActionException(
+          "DOWNLOAD_ERROR",
+          ErrorType.DEPENDENCY_ISSUE,
+          "Failed to download files from gs://" + bucketName,
+          e.getCause());
+    }
+    if (cacheMissed) {
+      pruneCache();
+    }
+  }
+
+  private ListenableFuture<?> downloadFile(
+      GCSUtil gCSUtil,
+      String bucketName,
+      String itemName,
+      Optional<StorageObject> metadata,
+      Optional<Path> cacheFile) {
+    Path dest = rootDir.toPath().resolve(itemName);
+    if (cacheFile.isEmpty()) {
+      return download(gCSUtil, bucketName, itemName, metadata, dest);
+    }
+    if (Files.exists(cacheFile.get())) {
+      logger.atInfo().log(
+          "Use cached file %s for gs://%s/%s", cacheFile.get(), bucketName, itemName);
+      return threadPool.submit(
+          () -> {
+            touch(cacheFile.get());
+            linkOrCopy(cacheFile.get(), dest);
+            return null;
+          });
+    }
+
+    // Downloads to a temp file first so other processes never use a partial cache file.
+    Path tmpFile =
+        cacheFile.get().resolveSibling(cacheFile.get().getFileName() + "." + UUID.randomUUID());
+    try {
+      localFileUtil.prepareParentDir(tmpFile);
+    } catch (MobileHarnessException e) {
+      return Futures.immediateFailedFuture(
+          new DeviceActionException(e, "Failed to create dir for %s", tmpFile));
+    }
+    ListenableFuture<?> downloaded = download(gCSUtil, bucketName, itemName, metadata, tmpFile);
+    Futures.addCallback(
+        downloaded,
+        new FutureCallback<Object>() {
+          @Override
+          public void onSuccess(@Nullable Object result) {}
+
+          @Override
+          public void onFailure(Throwable t) {
+            try {
+              Files.deleteIfExists(tmpFile);
+            } catch (IOException e) {
+              logger.atWarning().withCause(e).log("Failed to delete temp file %s", tmpFile);
+            }
+          }
+        },
+        directExecutor());
+    return Futures.transformAsync(
+        downloaded,
+        unused ->
+            threadPool.submit(
+                () -> {
+                  try {
+                    // Hard linked resolved files share the permissions of the cache file, so they
+                    // can never be modified to corrupt the cache.
+                    if (!tmpFile.toFile().setReadOnly()) {
+                      logger.atWarning().log("Failed to set %s read only", tmpFile);
+                    }
+                    Files.move(
+                        tmpFile,
+                        cacheFile.get(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                  } finally {
+                    Files.deleteIfExists(tmpFile);
+                  }
+                  linkOrCopy(cacheFile.get(), dest);
+                  return null;
+                }),
+        directExecutor());
+  }
+
+  /**
+   * Downloads a file item to {@code dest}, in parallel ranges if the item is large.
+   *
+   * <p>All reads are pinned to the generation of the metadata if known, and the downloaded file is
+   * verified against the CRC32C checksum of the metadata if known.
+   */
+  private ListenableFuture<?> download(
+      GCSUtil gCSUtil,
+      String bucketName,
+      String itemName,
+      Optional<StorageObject> metadata,
+      Path dest) {
+    Long generation = metadata.map(StorageObject::getGeneration).orElse(/* other= */ null);
+    long size =
+        metadata.map(StorageObject::getSize).map(BigInteger::longValue).orElse(/* other= */ -1L);
+    ListenableFuture<?> downloaded;
+    if (size < PARALLEL_RANGE_DOWNLOAD_MIN_SIZE) {
+      downloaded =
+          threadPool.submit(
+              () -> {
+                if (size < 0 && generation == null) {
+                  gCSUtil.copyFileItemToLocal(bucketName, itemName, dest);
+                } else {
+                  gCSUtil.copyFileItemToLocal(
+                      bucketName, itemName, dest, generation, MAX_DOWNLOAD_ATTEMPTS);
+                }
+                return null;
+              });
+    } else {
+      try (RandomAccessFile file = new RandomAccessFile(dest.toFile(), "rw")) {
+        file.setLength(size);
+      } catch (IOException e) {
+        return Futures.immediateFailedFuture(
+            new DeviceActionException(
+                "IO_ERROR", ErrorType.DEPENDENCY_ISSUE, "Failed to allocate file " + dest, e));
+      }
+      List<ListenableFuture<?>> ranges = new ArrayList<>();
+      for (long firstBytePos = 0L; firstBytePos < size; firstBytePos += DOWNLOAD_RANGE_SIZE) {
+        long rangeFirstBytePos = firstBytePos;
+        long rangeLastBytePos = min(firstBytePos + DOWNLOAD_RANGE_SIZE, size) - 1L;
+        ranges.add(
+            threadPool.submit(
+                () -> {
+                  gCSUtil.copyFileItemRangeToLocal(
+                      bucketName,
+                      itemName,
+                      dest,
+                      generation,
+                      rangeFirstBytePos,
+                      rangeLastBytePos,
+                      MAX_DOWNLOAD_ATTEMPTS);
+                  return null;
+                }));
+      }
+      downloaded = Futures.allAsList(ranges);
+    }
+
+    if (metadata.map(StorageObject::getCrc32c).isEmpty()) {
+      return downloaded;
+    }
+    return Futures.transformAsync(
+        downloaded,
+        unused ->
+            threadPool.submit(
+                () -> {
+                  verifyCrc32c(dest, metadata.get());
+                  return null;
+                }),
+        directExecutor());
+  }
+
+  /**
+   * Gets the cache file of a file item, whose path contains the bucket, name, generation and
+   * CRC32C checksum of the item.
+   */
+  private Optional<Path> getCacheFile(StorageObject metadata) {
+    if (cacheDir.isEmpty() || metadata.getGeneration() == null || metadata.getCrc32c() == null) {
+      return Optional.empty();
+    }
+    String itemKey =
+        Hashing.sha256()
+            .hashString(metadata.getBucket() + "/" + metadata.getName(), UTF_8)
+            .toString();
+    String crc32c = BaseEncoding.base16().lowerCase().encode(decodeCrc32c(metadata));
+    return Optional.of(
+        cacheDir.get().resolve(itemKey).resolve(metadata.getGeneration() + "_" + crc32c));
+  }
+
+  private static void verifyCrc32c(Path file, StorageObject metadata)
+      throws IOException, DeviceActionException {
+    // GCS uses the big-endian bytes of the checksum.
+    byte[] actual = Ints.toByteArray(MoreFiles.asByteSource(file).hash(Hashing.crc32c()).asInt());
+    if (!Arrays.equals(actual, decodeCrc32c(metadata))) {
+      throw new DeviceActionException(
+          "CHECKSUM_MISMATCH",
+          ErrorType.DEPENDENCY_ISSUE,
+          String.format(
+              "CRC32C of downloaded gs://%s/%s mismatches",
+              metadata.getBucket(), metadata.getName()));
+    }
+  }
+
+  private static byte[] decodeCrc32c(StorageObject metadata) {
+    return BaseEncoding.base64().decode(metadata.getCrc32c());
+  }
+
+  /** Marks a cache file as recently used. */
+  private static void touch(Path cacheFile) {
+    try {
+      Files.setLastModifiedTime(cacheFile, FileTime.from(Instant.now()));
+    } catch (IOException e) {
+      // Only the owner of the cache file can update its time. The file may be deleted earlier.
+      logger.atWarning().withCause(e).log("Failed to update last modified time of %s", cacheFile);
+    }
+  }
+
+  /**
+   * Deletes least recently used cache files until the cache dir is not larger than {@link
+   * #cacheMaxSize}. Leftover temp files of failed processes are deleted too. Files used in the last
+   * {@link #CACHE_FILE_MIN_IDLE_TIME} are kept even if the cache dir is still too large.
+   */
+  private void pruneCache() {
+    Instant idleDeadline = Instant.now().minus(CACHE_FILE_MIN_IDLE_TIME);
+    List<Path> idleCacheFiles = new ArrayList<>();
+    Map<Path, BasicFileAttributes> fileAttributes = new HashMap<>();
+    long totalSize = 0L;
+    try {
+      Files.walkFileTree(
+          cacheDir.get(),
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+              if (attrs.isRegularFile()) {
+                fileAttributes.put(file, attrs);
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+              // The file may be deleted by another device action.
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to list cache dir %s", cacheDir.get());
+      return;
+    }
+    for (Map.Entry<Path, BasicFileAttributes> file : fileAttributes.entrySet()) {
+      totalSize += file.getValue().size();
+      if (file.getValue().lastModifiedTime().toInstant().isBefore(idleDeadline)) {
+        idleCacheFiles.add(file.getKey());
+      }
+    }
+    idleCacheFiles.sort(
+        Comparator.comparing(file -> fileAttributes.get(file).lastModifiedTime()));
+
+    for (Path file : idleCacheFiles) {
+      // Temp files are named "<cache file name>.<UUID>".
+      boolean isTmpFile = file.getFileName().toString().contains(".");
+      if (totalSize <= cacheMaxSize && !isTmpFile) {
+        continue;
+      }
+      try {
+        if (Files.deleteIfExists(file)) {
+          logger.atInfo().log("Deleted idle cache file %s", file);
+        }
+        totalSize -= fileAttributes.get(file).size();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Failed to delete cache file %s", file);
+      }
+    }
+    if (totalSize > cacheMaxSize) {
+      logger.atWarning().log(
+          "Size of cache dir %s is %d bytes after pruning, larger than %d bytes, because files"
+              + " used in the last %s are kept",
+          cacheDir.get(), totalSize, cacheMaxSize, CACHE_FILE_MIN_IDLE_TIME);
+    }
+  }
+
+  /**
+   * Hard links {@code dest} to {@code cacheFile}, or copies the file if they are on different file
+   * systems. The cache file is read only, so a linked {@code dest} sharing its inode is read only
+   * too.
+   */
+  private static void linkOrCopy(Path cacheFile, Path dest) throws IOException {
+    Files.deleteIfExists(dest);
+    try {
+      Files.createLink(dest, cacheFile);
+    } catch (IOException | UnsupportedOperationException e) {
+      Files.copy(cacheFile, dest, StandardCopyOption.REPLACE_EXISTING);
     }
   }
 
@@ -173,27 +617,4 @@ class GCSResolver extends SimpleResolver {
       throw new DeviceActionException(e, "Failed to create dir %s", relativePath);
     }
   }
-
-  private ImmutableSet<ResourcePath> listChildren(
-      GCSUtil gCSUtil, String bucketName, ResourcePath resource) throws DeviceActionException {
-    ImmutableSet.Builder<ResourcePath> builder = ImmutableSet.builder();
-    ListResult result =
-        gCSUtil.listItemsAndPrefixes(
-            bucketName,
-            resource.getPath(),
-            Constants.GS_DELIMITER,
-            /* includeTrailingDelimiter= */ true,
-            /* maxResults= */ MAX_RESULTS_UNLIMITED);
-    for (String prefix : result.listPrefixes()) {
-      builder.add(ResourcePath.newBuilder().setPath(prefix).setIsDirectory(true).build());
-    }
-    for (StorageObject storageObject : result.listItems()) {
-      builder.add(
-          ResourcePath.newBuilder()
-              .setPath(storageObject.getName())
-              .setIsDirectory(GCSUtil.isDirectoryPath(storageObject.getName()))
-              .build());
-    }
-    return builder.build();
-  }
 }
@@ -20,6 +20,7 @@ import static com.google.devtools.deviceaction.common.utils.Constants.GS_DELIMIT
 
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.googleapis.media.MediaHttpDownloader;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpStatusCodes;
 import com.google.api.client.json.gson.GsonFactory;
@@ -31,6 +32,7 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.io.CountingOutputStream;
 import com.google.devtools.common.metrics.stability.model.proto.ErrorTypeProto.ErrorType;
 import com.google.devtools.deviceaction.common.error.DeviceActionException;
 import com.google.devtools.deviceaction.common.error.ErrorUtils;
@@ -40,7 +42,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
 import java.time.Duration;
 import java.util.ArrayList;
@@ -325,6 +330,128 @@ class GCSUtil {
     }
   }
 
+  /**
+   * Gets the metadata of a file item.
+   *
+   * @return the metadata, or null if the item is not found
+   */
+  @Nullable
+  public StorageObject getFileItem(String bucketName, String itemName)
+      throws DeviceActionException {
+    try {
+      return storage.objects().get(bucketName, itemName).execute();
+    } catch (IOException e) {
+      if (checkIfFileNotFound(e)) {
+        return null;
+      }
+      throw new DeviceActionException(
+          "IO_ERROR",
+          ErrorType.DEPENDENCY_ISSUE,
+          String.format("Failed to get metadata of gs://%s/%s", bucketName, itemName),
+          e);
+    }
+  }
+
+  /**
+   * Copies file item to local path {@code localDest}. If the download fails, it is resumed from
+   * the bytes which have been written, at most {@code maxAttempts} times in total.
+   *
+   * @param generation the generation of the item to read, or null to read the latest one
+   */
+  public void copyFileItemToLocal(
+      String bucketName,
+      String itemName,
+      Path localDest,
+      @Nullable Long generation,
+      int maxAttempts)
+      throws DeviceActionException {
+    copyFileItemRangeToLocal(
+        bucketName,
+        itemName,
+        localDest,
+        generation,
+        /* firstBytePos= */ 0L,
+        /* lastBytePos= */ -1L,
+        maxAttempts);
+  }
+
+  /**
+   * Copies bytes [{@code firstBytePos}, {@code lastBytePos}] of file item to the same position of
+   * local file {@code localDest}, so that different ranges of a large item can be downloaded in
+   * parallel. If the download fails, it is resumed from the bytes which have been written, at most
+   * {@code maxAttempts} times in total.
+   *
+   * @param generation the generation of the item to read, or null to read the latest one. It should
+   *     be given if ranges are downloaded separately, so they are never from different generations.
+   * @param lastBytePos the last byte position (inclusive), or -1 to copy the whole item and
+   *     truncate {@code localDest}
+   */
+  public void copyFileItemRangeToLocal(
+      String bucketName,
+      String itemName,
+      Path localDest,
+      @Nullable Long generation,
+      long firstBytePos,
+      long lastBytePos,
+      int maxAttempts)
+      throws DeviceActionException {
+    long position = firstBytePos;
+    for (int attempt = 1; ; attempt++) {
+      if (lastBytePos >= 0 && position > lastBytePos) {
+        return;
+      }
+      boolean truncate = lastBytePos < 0 && attempt == 1;
+      try (FileChannel channel =
+          truncate
+              ? FileChannel.open(
+                  localDest,
+                  StandardOpenOption.CREATE,
+                  StandardOpenOption.WRITE,
+                  StandardOpenOption.TRUNCATE_EXISTING)
+              : FileChannel.open(localDest, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+        CountingOutputStream outputStream =
+            new CountingOutputStream(Channels.newOutputStream(channel.position(position)));
+        try {
+          Storage.Objects.Get getObject = storage.objects().get(bucketName, itemName);
+          if (generation != null) {
+            getObject.setGeneration(generation);
+          }
+          MediaHttpDownloader downloader =
+              getObject.getMediaHttpDownloader().setDirectDownloadEnabled(true);
+          if (lastBytePos >= 0) {
+            downloader.setContentRange(position, lastBytePos);
+          } else {
+            downloader.setBytesDownloaded(position);
+          }
+          getObject.executeMediaAndDownloadTo(outputStream);
+          return;
+        } finally {
+          position += outputStream.getCount();
+        }
+      } catch (IOException e) {
+        if (e.getMessage() != null && e.getMessage().contains(OUTPUT_NO_SPACE)) {
+          throw new DeviceActionException(
+              "OUT_OF_SPACE",
+              ErrorType.DEPENDENCY_ISSUE,
+              "Please clean the lab machine to make space for GCS file downloading",
+              e);
+        }
+        if (attempt >= maxAttempts) {
+          throw new DeviceActionException(
+              "IO_ERROR",
+              ErrorType.DEPENDENCY_ISSUE,
+              String.format(
+                  "Fail to copy file gs://%s/%s to %s after %d attempts",
+                  bucketName, itemName, localDest, attempt),
+              e);
+        }
+        logger.atWarning().withCause(e).log(
+            "Failed to copy file gs://%s/%s to %s, resume from byte %d",
+            bucketName, itemName, localDest, position);
+      }
+    }
+  }
+
   /** Checks if the item name prefix represents a directory. */
   public static boolean isDirectoryPath(@Nullable String itemNamePrefix) {
     return !Strings.isNullOrEmpty(itemNamePrefix) && itemNamePrefix.endsWith(GS_DELIMITER);
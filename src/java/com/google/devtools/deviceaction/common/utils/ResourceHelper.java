@@ -55,6 +55,15 @@ public interface ResourceHelper {
   /** Gets a credential file. */
   Optional<Path> getCredFile();
 
+  /** Gets a dir for caching GCS files, which is shared by all sessions on the host. */
+  Optional<Path> getGcsCacheDir();
+
+  /**
+   * Gets the max size in bytes of the dir for caching GCS files. Least recently used files are
+   * deleted when the dir grows larger than it.
+   */
+  long getGcsCacheMaxSize();
+
   /** Gets a {@link CommandExecutor}. */
   CommandExecutor getCommandExecutor();
 }
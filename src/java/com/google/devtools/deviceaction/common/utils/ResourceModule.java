@@ -17,12 +17,16 @@
 package com.google.devtools.deviceaction.common.utils;
 
 import com.google.devtools.deviceaction.common.annotations.GuiceAnnotations.FileResolver;
+import com.google.devtools.deviceaction.common.annotations.GuiceAnnotations.GCSCacheDir;
+import com.google.devtools.deviceaction.common.annotations.GuiceAnnotations.GCSCacheMaxSize;
 import com.google.devtools.deviceaction.common.annotations.GuiceAnnotations.GCSCredential;
 import com.google.devtools.deviceaction.common.annotations.GuiceAnnotations.GenFileDirRoot;
 import com.google.devtools.deviceaction.common.error.DeviceActionException;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import java.io.File;
+import java.nio.file.Path;
+import java.util.Optional;
 import javax.inject.Singleton;
 
 /** Module binding all resources. */
@@ -56,6 +60,18 @@ public final class ResourceModule extends AbstractModule {
     return resourceHelper.getGenFileDir().toFile();
   }
 
+  @Provides
+  @GCSCacheDir
+  static Optional<Path> provideGcsCacheDir(ResourceHelper resourceHelper) {
+    return resourceHelper.getGcsCacheDir();
+  }
+
+  @Provides
+  @GCSCacheMaxSize
+  static long provideGcsCacheMaxSize(ResourceHelper resourceHelper) {
+    return resourceHelper.getGcsCacheMaxSize();
+  }
+
   @Provides
   @GCSCredential
   static File provideGcsCredential(ResourceHelper resourceHelper) {
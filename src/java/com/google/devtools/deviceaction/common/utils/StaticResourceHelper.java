@@ -23,6 +23,7 @@ import static com.google.devtools.deviceaction.common.utils.ResourceUtil.getExis
 import com.google.devtools.deviceaction.common.error.DeviceActionException;
 import com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb.Adb;
 import com.google.devtools.mobileharness.shared.util.command.CommandExecutor;
+import com.google.devtools.mobileharness.shared.util.flags.Flags;
 import com.google.wireless.qa.mobileharness.shared.android.Aapt;
 import java.nio.file.Path;
 import java.util.Optional;
@@ -105,6 +106,18 @@ public final class StaticResourceHelper implements ResourceHelper {
     return filterExistingFile(credFile);
   }
 
+  /** Uses {@code --da_gcs_cache_dir} since the cache is shared by all sessions on the host. */
+  @Override
+  public Optional<Path> getGcsCacheDir() {
+    String gcsCacheDir = Flags.instance().daGcsCacheDir.getNonNull();
+    return gcsCacheDir.isEmpty() ? Optional.empty() : Optional.of(Path.of(gcsCacheDir));
+  }
+
+  @Override
+  public long getGcsCacheMaxSize() {
+    return Flags.instance().daGcsCacheMaxSizeMb.getNonNull() * 1024L * 1024L;
+  }
+
   @Override
   public CommandExecutor getCommandExecutor() {
     return commandExecutor;
@@ -480,6 +480,55 @@ public class Adb {
     return run(serial, ArrayUtils.addAll(new String[] {"shell"}, command), timeout, lineCallback);
   }
 
+  /**
+   * Runs a short adb shell command in a long-lived adb shell session of the device, which saves the
+   * cost of starting an adb process for the command. Stderr of the command is merged into the
+   * returned output.
+   *
+   * <p>Falls back to {@link #runShellWithRetry(String, String, Duration)} if the session of the
+   * device fails to start, is running another command or is broken. So the command should be
+   * idempotent, should not read stdin and should not affect the connection of the device (e.g.,
+   * reboot).
+   *
+   * @param serial device serial number
+   * @param command the shell command
+   * @param timeout max execution time
+   * @throws MobileHarnessException if fails to execute the command, the command exits with a
+   *     non-zero code, or timeout
+   * @throws InterruptedException if the thread executing the commands is interrupted
+   */
+  public String runShellInSession(String serial, String command, @Nullable Duration timeout)
+      throws MobileHarnessException, InterruptedException {
+    if (StrUtil.isEmptyOrWhitespace(command)) {
+      return "";
+    }
+    AdbShellSession session;
+    try {
+      session = AdbShellSession.getOrStart(this, serial);
+    } catch (MobileHarnessException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to start adb shell session of device %s, run command [%s] directly",
+          serial, command);
+      return runShellWithRetry(serial, command, timeout);
+    }
+    Optional<AdbShellSession.Result> result =
+        session.tryRun(command, timeout == null ? DEFAULT_ADB_COMMAND_TIMEOUT : timeout);
+    if (result.isEmpty()) {
+      logger.atFine().log(
+          "Adb shell session of device %s is unavailable, run command [%s] directly",
+          serial, command);
+      return runShellWithRetry(serial, command, timeout);
+    }
+    if (result.get().exitCode() != DEFAULT_ADB_SUCCESS_EXIT_CODE) {
+      throw new MobileHarnessException(
+          AndroidErrorId.ANDROID_ADB_SYNC_CMD_EXECUTION_FAILURE,
+          String.format(
+              "Command [%s] failed in adb shell session of device %s, exit_code=%d, output=[%s]",
+              command, serial, result.get().exitCode(), result.get().output()));
+    }
+    return result.get().output();
+  }
+
   /**
    * Runs an adb shell command asynchronously.
    *
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.mobileharness.api.model.error.AndroidErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.shared.util.command.CommandProcess;
+import com.google.devtools.mobileharness.shared.util.command.LineCallback;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A long-lived {@code adb shell} process of a device, which runs short shell commands one at a
+ * time by writing them to the stdin of the process, to avoid starting an adb process for each of
+ * them.
+ *
+ * <p>The end of the output of a command is found by a sentinel line printed after the command,
+ * which also contains the exit code of the command. Stderr of a command is merged into its stdout,
+ * and line separators of the output are normalized to "\n".
+ */
+class AdbShellSession {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** A session is restarted after this time, so that a stale session does not live forever. */
+  private static final Duration MAX_SESSION_LIFETIME = Duration.ofHours(1L);
+
+  /** {serial, session}. */
+  private static final ConcurrentMap<String, AdbShellSession> SESSIONS = new ConcurrentHashMap<>();
+
+  /** Result of a command in a session. */
+  @AutoValue
+  abstract static class Result {
+
+    abstract String output();
+
+    abstract int exitCode();
+
+    static Result of(String output, int exitCode) {
+      return new AutoValue_AdbShellSession_Result(output, exitCode);
+    }
+  }
+
+  /**
+   * Gets the session of the device, or starts a new one if there is no alive session of the device.
+   */
+  static AdbShellSession getOrStart(Adb adb, String serial) throws MobileHarnessException {
+    AdbShellSession session = SESSIONS.get(serial);
+    if (session != null && !session.isClosed()) {
+      return session;
+    }
+    synchronized (SESSIONS) {
+      session = SESSIONS.get(serial);
+      if (session == null || session.isClosed()) {
+        session = new AdbShellSession(serial);
+        session.start(adb);
+        SESSIONS.put(serial, session);
+      }
+      return session;
+    }
+  }
+
+  private final String serial;
+
+  /** The prefix of the sentinel line, which is followed by the exit code of the command. */
+  private final String sentinel;
+
+  /** Only one command runs in the session at a time. */
+  private final ReentrantLock commandLock = new ReentrantLock();
+
+  private final Object outputLock = new Object();
+
+  @GuardedBy("outputLock")
+  private StringBuilder output = new StringBuilder();
+
+  @GuardedBy("outputLock")
+  @Nullable
+  private SettableFuture<Result> pendingResult;
+
+  @GuardedBy("outputLock")
+  private boolean closed;
+
+  private volatile CommandProcess process;
+
+  private AdbShellSession(String serial) {
+    this.serial = serial;
+    this.sentinel =
+        "__MH_ADB_SHELL_SESSION_" + UUID.randomUUID().toString().replace('-', '_') + "_";
+  }
+
+  private void start(Adb adb) throws MobileHarnessException {
+    logger.atInfo().log("Start adb shell session of device %s", serial);
+    process =
+        adb.runAsync(
+            adb.getAdbCommand()
+                .args("-s", serial, "shell")
+                .timeout(MAX_SESSION_LIFETIME)
+                .redirectStderr(true)
+                .needStdoutInResult(false)
+                .needStderrInResult(false)
+                .onStdout(this::onLine)
+                .onExit(result -> onExit()));
+  }
+
+  /**
+   * Runs a command in the session.
+   *
+   * @return the result of the command, or empty if the session is running another command, or if
+   *     the session is closed before the command ends, in which case the command may or may not
+   *     have run
+   * @throws MobileHarnessException if the command does not end before the timeout, in which case
+   *     the session is closed
+   */
+  Optional<Result> tryRun(String command, Duration timeout)
+      throws MobileHarnessException, InterruptedException {
+    if (!commandLock.tryLock()) {
+      return Optional.empty();
+    }
+    try {
+      SettableFuture<Result> result = SettableFuture.create();
+      synchronized (outputLock) {
+        if (closed) {
+          return Optional.empty();
+        }
+        pendingResult = result;
+        output = new StringBuilder();
+      }
+
+      try {
+        Writer stdinWriter = process.stdinWriter();
+        // Runs the command in a subshell so that "exit" or "cd" in it does not affect the session,
+        // and does not let it read the stdin of the session.
+        stdinWriter.write(
+            String.format("(%s) </dev/null 2>&1; printf '\\n%s%%d\\n' $?\n", command, sentinel));
+        stdinWriter.flush();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Failed to write to adb shell session of device %s", serial);
+        close();
+        return Optional.empty();
+      }
+
+      try {
+        return Optional.of(result.get(timeout.toMillis(), MILLISECONDS));
+      } catch (TimeoutException e) {
+        close();
+        throw new MobileHarnessException(
+            AndroidErrorId.ANDROID_ADB_SYNC_CMD_EXECUTION_TIMEOUT,
+            String.format(
+                "Command [%s] timed out after %s in adb shell session of device %s",
+                command, timeout, serial),
+            e);
+      } catch (ExecutionException e) {
+        return Optional.empty();
+      }
+    } finally {
+      commandLock.unlock();
+    }
+  }
+
+  /** Kills the session. A new session will be started for the next command of the device. */
+  void close() {
+    if (markClosed()) {
+      logger.atInfo().log("Close adb shell session of device %s", serial);
+      process.kill();
+    }
+  }
+
+  private boolean isClosed() {
+    synchronized (outputLock) {
+      return closed;
+    }
+  }
+
+  private LineCallback.Response onLine(String line) {
+    synchronized (outputLock) {
+      if (pendingResult == null) {
+        return LineCallback.Response.empty();
+      }
+      if (!line.startsWith(sentinel)) {
+        output.append(line).append('\n');
+        return LineCallback.Response.empty();
+      }
+      int exitCode;
+      try {
+        exitCode = Integer.parseInt(line.substring(sentinel.length()).trim());
+      } catch (NumberFormatException e) {
+        exitCode = -1;
+      }
+      // Removes the line separator printed before the sentinel.
+      output.setLength(Math.max(0, output.length() - 1));
+      pendingResult.set(Result.of(output.toString(), exitCode));
+      pendingResult = null;
+      output = new StringBuilder();
+    }
+    return LineCallback.Response.empty();
+  }
+
+  private void onExit() {
+    if (markClosed()) {
+      logger.atInfo().log("Adb shell session of device %s exited", serial);
+    }
+  }
+
+  /** Returns whether the session is closed by this call. */
+  private boolean markClosed() {
+    synchronized (outputLock) {
+      if (closed) {
+        return false;
+      }
+      closed = true;
+      if (pendingResult != null) {
+        pendingResult.setException(
+            new IllegalStateException("Adb shell session of device " + serial + " closed"));
+        pendingResult = null;
+      }
+    }
+    SESSIONS.remove(serial, this);
+    return true;
+  }
+}
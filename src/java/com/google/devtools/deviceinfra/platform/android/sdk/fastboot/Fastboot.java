@@ -41,6 +41,7 @@ import com.google.devtools.mobileharness.shared.util.quota.QuotaManager;
 import com.google.devtools.mobileharness.shared.util.quota.QuotaManager.Lease;
 import com.google.devtools.mobileharness.shared.util.quota.proto.Quota.QuotaKey;
 import com.google.devtools.mobileharness.shared.util.system.SystemUtil;
+import java.io.File;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -200,11 +201,11 @@ public class Fastboot {
     try {
       output =
           runWithRetry(
-              serial,
-              fullCommand.toArray(new String[0]),
+              ArrayUtils.addAll(new String[] {"-s", serial}, fullCommand.toArray(new String[0])),
               FLASH_COMMAND_DURATION,
               /* flashSemaphore= */ true,
-              retryTask);
+              retryTask,
+              new File(imagePath).length());
     } catch (MobileHarnessException e) {
       // Bootloader downgrade will not return OKAY message.
       if (Partition.BOOTLOADER == partition
@@ -256,11 +257,12 @@ public class Fastboot {
 
     String output =
         runWithRetry(
-            serial,
-            fullCommandBuilder.build().toArray(new String[0]),
+            ArrayUtils.addAll(
+                new String[] {"-s", serial}, fullCommandBuilder.build().toArray(new String[0])),
             UPDATE_COMMAND_DURATION,
             /* flashSemaphore= */ true,
-            retryTask);
+            retryTask,
+            new File(imageZipFilePath).length());
     if (!FASTBOOT_SUCCESS_PATTERN.matcher(output).find()) {
       throw new MobileHarnessException(
           AndroidErrorId.ANDROID_FASTBOOT_UPDATE_COMMAND_EXEC_ERROR,
@@ -607,9 +609,25 @@ public class Fastboot {
   public String runWithRetry(
       String[] args, Duration timeout, boolean flashSemaphore, @Nullable RetryTask retryTask)
       throws MobileHarnessException, InterruptedException {
+    return runWithRetry(args, timeout, flashSemaphore, retryTask, /* payloadSize= */ 0L);
+  }
+
+  /**
+   * Runs fastboot command with retry.
+   *
+   * @param payloadSize the size of the image file to flash, or 0 if unknown, which lets the quota
+   *     manager compare the flash latencies of images of different sizes
+   */
+  private String runWithRetry(
+      String[] args,
+      Duration timeout,
+      boolean flashSemaphore,
+      @Nullable RetryTask retryTask,
+      long payloadSize)
+      throws MobileHarnessException, InterruptedException {
     Lease lease = null;
     if (flashSemaphore) {
-      lease = quotaManager.acquire(QuotaKey.ADB_PUSH_LARGE_FILE, 1);
+      lease = quotaManager.acquire(QuotaKey.ADB_PUSH_LARGE_FILE, 1, payloadSize);
     }
     try {
       CommandException error = null;
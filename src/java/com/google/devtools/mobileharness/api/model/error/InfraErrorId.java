@@ -152,6 +152,7 @@ public enum InfraErrorId implements ErrorId {
   LAB_STORE_CONFIG_TO_CONFIG_SERVER_ERROR(40_468, ErrorType.INFRA_ISSUE),
   LAB_TAKE_SCREENSHOT_METHOD_UNSUPPORTED(40_469, ErrorType.INFRA_ISSUE),
   LAB_REBOOT_METHOD_UNSUPPORTED(40_470, ErrorType.INFRA_ISSUE),
+  LAB_RPC_EXEC_TEST_GET_TEST_STATUSES_GRPC_ERROR(40_471, ErrorType.UNDETERMINED),
 
   // Test engine/container: 40_701 ~ 40_800
   TE_CREATE_DEVICE_HELPER_CONTAINER_DOES_NOT_HAVE(40_701, ErrorType.INFRA_ISSUE),
@@ -410,6 +411,7 @@ public enum InfraErrorId implements ErrorId {
   // ATS Message Relay: 52_801 ~ 52_900
   MESSAGE_RELAY_NO_AVAILABLE_STREAM(52_801, ErrorType.UNDETERMINED),
   MESSAGE_RELAY_NO_STREAM_INFO(52_802, ErrorType.INFRA_ISSUE),
+  MESSAGE_RELAY_STREAM_QUEUE_FULL(52_803, ErrorType.INFRA_ISSUE),
 
   // Logging: 52_901 ~ 53_000
   LOGGER_CREATE_FILE_HANDLER_ERROR(52_901, ErrorType.INFRA_ISSUE),
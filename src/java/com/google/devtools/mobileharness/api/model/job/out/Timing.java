@@ -19,19 +19,25 @@ package com.google.devtools.mobileharness.api.model.job.out;
 import java.time.Clock;
 import java.time.Instant;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /** The time records of the job/test. */
 public class Timing {
 
+  // Field updaters rather than AtomicReference fields, to save two objects for each job/test.
+  private static final AtomicReferenceFieldUpdater<Timing, Instant> START_TIME_UPDATER =
+      AtomicReferenceFieldUpdater.newUpdater(Timing.class, Instant.class, "startTime");
+  private static final AtomicReferenceFieldUpdater<Timing, Instant> END_TIME_UPDATER =
+      AtomicReferenceFieldUpdater.newUpdater(Timing.class, Instant.class, "endTime");
+
   /** The time when this job/test is created. */
   private final Instant createTime;
 
   /** The time when this job/test is started. Null if not started. */
-  private final AtomicReference<Instant> startTime = new AtomicReference<>();
+  private volatile Instant startTime;
 
   /** The time when this job/test is ended. Null if not ended. */
-  private final AtomicReference<Instant> endTime = new AtomicReference<>();
+  private volatile Instant endTime;
 
   /** Clock for getting the system time. */
   private final Clock clock;
@@ -60,8 +66,8 @@ public class Timing {
 
   protected Timing(Timing other) {
     this.createTime = other.createTime;
-    this.startTime.set(other.startTime.get());
-    this.endTime.set(other.endTime.get());
+    this.startTime = other.startTime;
+    this.endTime = other.endTime;
     this.clock = other.clock;
   }
 
@@ -72,7 +78,7 @@ public class Timing {
   Timing(Clock clock, Instant createTime, Instant startTime) {
     this.clock = clock;
     this.createTime = createTime;
-    this.startTime.set(startTime);
+    this.startTime = startTime;
   }
 
   /** Returns the time when the instance is created. */
@@ -82,7 +88,7 @@ public class Timing {
 
   /** Returns the start time. Or empty if it is not started. */
   public Optional<Instant> getStartTime() {
-    return Optional.ofNullable(startTime.get());
+    return Optional.ofNullable(startTime);
   }
 
   /**
@@ -91,7 +97,7 @@ public class Timing {
    * @return whether the start time is updated from null
    */
   public boolean start() {
-    return startTime.compareAndSet(/* expectedValue= */ null, clock.instant());
+    return START_TIME_UPDATER.compareAndSet(this, /* expect= */ null, clock.instant());
   }
 
   /**
@@ -100,7 +106,7 @@ public class Timing {
    * @return whether the start time is updated from null
    */
   public boolean start(Instant startTime) {
-    return this.startTime.compareAndSet(/* expectedValue= */ null, startTime);
+    return START_TIME_UPDATER.compareAndSet(this, /* expect= */ null, startTime);
   }
 
   /**
@@ -109,7 +115,7 @@ public class Timing {
    * @return whether the end time is updated
    */
   public boolean end() {
-    endTime.set(clock.instant());
+    endTime = clock.instant();
     return true;
   }
 
@@ -119,7 +125,7 @@ public class Timing {
    * @return whether the end time is updated
    */
   public boolean end(Instant endTime) {
-    return this.endTime.compareAndSet(/* expectedValue= */ null, endTime);
+    return END_TIME_UPDATER.compareAndSet(this, /* expect= */ null, endTime);
   }
 
   /**
@@ -127,7 +133,7 @@ public class Timing {
    * test runner stops running.
    */
   public Optional<Instant> getEndTime() {
-    return Optional.ofNullable(endTime.get());
+    return Optional.ofNullable(endTime);
   }
 
   /**
@@ -136,7 +142,7 @@ public class Timing {
    * @return whether the start time is cleared
    */
   public boolean reset() {
-    return startTime.getAndSet(/* newValue= */ null) != null;
+    return START_TIME_UPDATER.getAndSet(this, /* newValue= */ null) != null;
   }
 
   /** Returns the clock used by this instance. */
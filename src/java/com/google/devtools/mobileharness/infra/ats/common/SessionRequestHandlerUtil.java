@@ -38,6 +38,7 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
 import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
@@ -60,6 +61,7 @@ import com.google.devtools.mobileharness.platform.android.xts.config.proto.Devic
 import com.google.devtools.mobileharness.platform.android.xts.config.proto.DeviceConfigurationProto.ModuleDeviceConfiguration;
 import com.google.devtools.mobileharness.platform.android.xts.suite.SuiteCommon;
 import com.google.devtools.mobileharness.platform.android.xts.suite.SuiteTestFilter;
+import com.google.devtools.mobileharness.platform.android.xts.suite.SuiteTestFilterIndex;
 import com.google.devtools.mobileharness.platform.android.xts.suite.TestSuiteHelper;
 import com.google.devtools.mobileharness.platform.android.xts.suite.TestSuiteHelper.DeviceInfo;
 import com.google.devtools.mobileharness.platform.android.xts.suite.retry.PreviousResultLoader;
@@ -334,23 +336,17 @@ public class SessionRequestHandlerUtil {
         modules.isEmpty() ? allTfModules : matchModules(modules, allTfModules);
 
     // Filter modules by include/exclude filters.
-    ImmutableList<SuiteTestFilter> includeFilters =
-        sessionRequestInfo.includeFilters().stream()
-            .map(SuiteTestFilter::create)
-            .collect(toImmutableList());
-    ImmutableList<SuiteTestFilter> excludeFilters =
-        sessionRequestInfo.excludeFilters().stream()
-            .map(SuiteTestFilter::create)
-            .collect(toImmutableList());
+    SuiteTestFilterIndex includeFilters =
+        SuiteTestFilterIndex.ofFilterStrings(sessionRequestInfo.includeFilters());
+    SuiteTestFilterIndex excludeFilters =
+        SuiteTestFilterIndex.ofFilterStrings(sessionRequestInfo.excludeFilters());
     ImmutableList.Builder<String> filteredModulesBuilder = ImmutableList.builder();
     for (String module : givenMatchedTfModules) {
-      if (excludeFilters.stream()
-          .anyMatch(
-              filter -> filter.testName().isEmpty() && filter.matchModule(module, null, null))) {
+      if (excludeFilters.matchEntireModule(
+          module, /* moduleAbi= */ null, /* moduleParameter= */ null)) {
         continue;
       }
-      if (!includeFilters.isEmpty()
-          && includeFilters.stream().noneMatch(filter -> filter.matchModuleName(module))) {
+      if (!includeFilters.isEmpty() && !includeFilters.matchModuleName(module)) {
         continue;
       }
       filteredModulesBuilder.add(module);
@@ -976,31 +972,40 @@ public class SessionRequestHandlerUtil {
         sessionRequestInfo.v2ConfigsMap().entrySet().stream()
             .collect(toImmutableMap(e -> e.getValue().getMetadata().getXtsModule(), Entry::getKey));
 
-    ImmutableList<SuiteTestFilter> includeFilters =
-        Stream.concat(
-                sessionRequestInfo.includeFilters().stream(),
-                testPlanFilter.includeFilters().stream())
-            .map(SuiteTestFilter::create)
-            .collect(toImmutableList());
+    SuiteTestFilterIndex includeFilters =
+        SuiteTestFilterIndex.ofFilterStrings(
+            Stream.concat(
+                    sessionRequestInfo.includeFilters().stream(),
+                    testPlanFilter.includeFilters().stream())
+                .collect(toImmutableList()));
+    // Copies the subplan filters once since each getter call creates a new multimap.
+    ImmutableSet<String> subPlanIncludeModules = ImmutableSet.of();
+    SuiteTestFilterIndex subPlanExcludeFilters = SuiteTestFilterIndex.of(ImmutableList.of());
     if (subPlanOpt.isPresent()) {
+      SetMultimap<String, String> subPlanIncludeFilters =
+          subPlanOpt.get().getNonTfIncludeFiltersMultimap();
+      subPlanIncludeModules = ImmutableSet.copyOf(subPlanIncludeFilters.keySet());
       includeFilters =
-          subPlanOpt.get().getNonTfIncludeFiltersMultimap().entries().stream()
-              .map(
-                  e ->
-                      SuiteTestFilter.create(
+          SuiteTestFilterIndex.ofFilterStrings(
+              subPlanIncludeFilters.entries().stream()
+                  .map(
+                      e ->
                           e.getKey()
                               + (e.getValue().equals(SubPlan.ALL_TESTS_IN_MODULE)
                                   ? ""
-                                  : " " + e.getValue())))
-              .collect(toImmutableList());
+                                  : " " + e.getValue()))
+                  .collect(toImmutableList()));
+      subPlanExcludeFilters =
+          SuiteTestFilterIndex.ofFilterStrings(
+              subPlanOpt.get().getNonTfExcludeFiltersMultimap().keySet());
       logger.atInfo().log("Include filters for Non-TF retry/subplan run: %s", includeFilters);
     }
-    ImmutableList<SuiteTestFilter> excludeFilters =
-        Stream.concat(
-                sessionRequestInfo.excludeFilters().stream(),
-                testPlanFilter.excludeFilters().stream())
-            .map(SuiteTestFilter::create)
-            .collect(toImmutableList());
+    SuiteTestFilterIndex excludeFilters =
+        SuiteTestFilterIndex.ofFilterStrings(
+            Stream.concat(
+                    sessionRequestInfo.excludeFilters().stream(),
+                    testPlanFilter.excludeFilters().stream())
+                .collect(toImmutableList()));
 
     Duration jobTimeout =
         sessionRequestInfo.jobTimeout().isZero()
@@ -1026,8 +1031,7 @@ public class SessionRequestHandlerUtil {
       String expandedModuleName = entry.getKey();
       // If it has a subplan(either from the retry command or the subplan command), do a early check
       // for whether the module should be ran
-      if (subPlanOpt.isPresent()
-          && !subPlanOpt.get().getNonTfIncludeFiltersMultimap().containsKey(expandedModuleName)) {
+      if (subPlanOpt.isPresent() && !subPlanIncludeModules.contains(expandedModuleName)) {
         continue;
       }
       ImmutableList.Builder<String> matchedTestCasesBuilder = ImmutableList.builder();
@@ -1039,19 +1043,10 @@ public class SessionRequestHandlerUtil {
         String moduleParameter = getModuleParameter(expandedModuleName).orElse(null);
 
         // Filters the module by include-filter and exclude-filter.
-        if (excludeFilters.stream()
-            .anyMatch(
-                excludeFilter ->
-                    excludeFilter.matchModule(originalModuleName, moduleAbi, moduleParameter))) {
+        if (excludeFilters.matchModule(originalModuleName, moduleAbi, moduleParameter)) {
           continue;
         }
-        if (subPlanOpt.isPresent()
-            && subPlanOpt.get().getNonTfExcludeFiltersMultimap().keySet().stream()
-                .map(SuiteTestFilter::create)
-                .anyMatch(
-                    excludeFilter ->
-                        excludeFilter.matchModule(
-                            originalModuleName, moduleAbi, moduleParameter))) {
+        if (subPlanExcludeFilters.matchModule(originalModuleName, moduleAbi, moduleParameter)) {
           continue;
         }
         if (sessionRequestInfo.testName().isPresent()) {
@@ -1062,19 +1057,18 @@ public class SessionRequestHandlerUtil {
             continue;
           }
         } else if (!includeFilters.isEmpty()) {
-          boolean matched = false;
-          for (SuiteTestFilter filter : includeFilters) {
-            if (filter.matchModule(originalModuleName, moduleAbi, moduleParameter)) {
-              matched = true;
-              String parsedTestName = parseTestName(filter.testName().orElse(null));
-              if (!parsedTestName.isEmpty()) {
-                matchedTestCasesBuilder.add(parsedTestName);
-              }
-            }
-          }
-          if (!matched) {
+          ImmutableList<SuiteTestFilter> matchedFilters =
+              includeFilters.getModuleMatchedFilters(
+                  originalModuleName, moduleAbi, moduleParameter);
+          if (matchedFilters.isEmpty()) {
             continue;
           }
+          for (SuiteTestFilter filter : matchedFilters) {
+            String parsedTestName = parseTestName(filter.testName().orElse(null));
+            if (!parsedTestName.isEmpty()) {
+              matchedTestCasesBuilder.add(parsedTestName);
+            }
+          }
         }
 
         Optional<JobInfo> jobInfoOpt =
@@ -18,6 +18,7 @@ package com.google.devtools.mobileharness.infra.client.api.controller.job;
 
 import static com.google.common.collect.Comparators.min;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.devtools.mobileharness.shared.util.concurrent.MoreFutures.logFailure;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.joining;
@@ -27,6 +28,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Joiner.MapJoiner;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Streams;
@@ -64,6 +66,9 @@ import com.google.devtools.mobileharness.infra.controller.test.manager.TestManag
 import com.google.devtools.mobileharness.infra.controller.test.manager.TestMessagePosterUtil;
 import com.google.devtools.mobileharness.infra.controller.test.util.SubscriberExceptionLoggingHandler;
 import com.google.devtools.mobileharness.shared.constant.closeable.MobileHarnessAutoCloseable;
+import com.google.devtools.mobileharness.shared.trace.CriticalPath;
+import com.google.devtools.mobileharness.shared.trace.SpanRecorder;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Type.SpanType;
 import com.google.devtools.mobileharness.shared.util.comm.messaging.poster.TestMessagePoster;
 import com.google.devtools.mobileharness.shared.util.concurrent.ThreadPools;
 import com.google.devtools.mobileharness.shared.util.error.ErrorModelConverter;
@@ -81,6 +86,7 @@ import com.google.wireless.qa.mobileharness.shared.constant.Dimension.Value;
 import com.google.wireless.qa.mobileharness.shared.constant.ErrorCode;
 import com.google.wireless.qa.mobileharness.shared.constant.PropertyName;
 import com.google.wireless.qa.mobileharness.shared.constant.PropertyName.Job;
+import com.google.wireless.qa.mobileharness.shared.controller.event.TestEndedEvent;
 import com.google.wireless.qa.mobileharness.shared.controller.event.util.ScopedEventBus;
 import com.google.wireless.qa.mobileharness.shared.controller.event.util.SkipInformationHandler;
 import com.google.wireless.qa.mobileharness.shared.controller.event.util.SkipInformationHandler.SkipInformation;
@@ -172,6 +178,9 @@ public class JobRunner implements Runnable {
   /** Interval for checking the tests which are waiting for allocating devices. */
   private static final Duration CHECK_NEW_TESTS_INTERVAL = Duration.ofSeconds(30);
 
+  /** The max interval between two checks of the job if the job runner waits for events. */
+  private static final Duration MAX_EVENT_DRIVEN_WAIT_INTERVAL = Duration.ofSeconds(10L);
+
   /** Logger for this job. */
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
@@ -236,6 +245,21 @@ public class JobRunner implements Runnable {
 
   private final int maxQueryDeviceTimes;
 
+  /**
+   * Signal for waking up this runner when a test ends, or null if this runner checks its job at a
+   * fixed interval.
+   */
+  @Nullable private final JobRunnerWakeUpSignal wakeUpSignal;
+
+  /** The number of times this runner wakes up to check its job, if it waits for test events. */
+  private int wakeUpCount = 0;
+
+  /** The number of wakeups triggered by test events. */
+  private int eventWakeUpCount = 0;
+
+  /** The max latency between a test event and this runner handling it. */
+  private Duration maxEventLatency = Duration.ZERO;
+
   /** Creates a job runner to run the given job in the given mode. */
   public JobRunner(
       JobInfo jobInfo,
@@ -348,6 +372,12 @@ public class JobRunner implements Runnable {
         maxQueryDeviceTimes = NORMAL_MAX_QUERY_DEVICE_TIMES;
         break;
     }
+    if (Flags.instance().jobRunnerEventDrivenWait.getNonNull()) {
+      wakeUpSignal = new JobRunnerWakeUpSignal(clock);
+      registerEventHandler(new TestEndedWakeUpHandler(wakeUpSignal), EventScope.INTERNAL_PLUGIN);
+    } else {
+      wakeUpSignal = null;
+    }
   }
 
   /** Returns the job executed by this runner. */
@@ -435,8 +465,13 @@ public class JobRunner implements Runnable {
         Instant nextCheckNewTestTime = clock.instant();
         int countPollAllocation = 0;
         Instant nextPollAllocationTime = getNextPollAllocationTime(countPollAllocation);
+        // Whether the last wakeup is triggered by a test event when the runner waits for events.
+        boolean lastWakeUpByEvent = false;
         // Uses this to log allocation start point of retry tests incrementally.
         Set<String> loggedTests = new HashSet<>();
+        // The test set version when the tests were checked for the logging above, to skip the
+        // check when no test is added.
+        long loggedTestSetVersion = -1L;
 
         SuitableDeviceChecker suitableDeviceChecker = new SuitableDeviceChecker();
         // Don't check whether there's potential suitable device for tests in M&M. b/124489785
@@ -445,13 +480,17 @@ public class JobRunner implements Runnable {
         }
         try (MobileHarnessAutoCloseable ignored = getRunAllTestsSpan()) {
           while (true) {
-            for (TestInfo testInfo : jobInfo.tests().getAll().values()) {
-              String testId = testInfo.locator().getId();
-              if (loggedTests.contains(testId)) {
-                continue;
+            long testSetVersion = jobInfo.tests().getTestSetVersion();
+            if (testSetVersion != loggedTestSetVersion) {
+              loggedTestSetVersion = testSetVersion;
+              for (TestInfo testInfo : jobInfo.tests().getAllAsView()) {
+                String testId = testInfo.locator().getId();
+                if (loggedTests.contains(testId)) {
+                  continue;
+                }
+                jobInfo.log().atInfo().alsoTo(logger).log("Device allocation started");
+                loggedTests.add(testId);
               }
-              jobInfo.log().atInfo().alsoTo(logger).log("Device allocation started");
-              loggedTests.add(testId);
             }
             if (jobInfo.tests().allDone() && !testManager.isAnyTestRunning()) {
               jobInfo.log().atInfo().alsoTo(logger).log("Job done");
@@ -469,8 +508,13 @@ public class JobRunner implements Runnable {
               break;
             }
             Instant beforeSleep = clock.instant();
-            sleeper.sleep(BASE_INTERVAL);
-            if (clock.instant().isAfter(beforeSleep.plus(BASE_INTERVAL.multipliedBy(4)))) {
+            if (wakeUpSignal == null) {
+              sleeper.sleep(BASE_INTERVAL);
+            } else {
+              lastWakeUpByEvent = waitForTestEvent(lastWakeUpByEvent, nextPollAllocationTime);
+            }
+            if (wakeUpSignal == null
+                && clock.instant().isAfter(beforeSleep.plus(BASE_INTERVAL.multipliedBy(4)))) {
               logger.atInfo().log(
                   "Sleep too long for %d ms in JobRunner.run. Before: %s, After %s.",
                   Duration.between(beforeSleep, clock.instant()).toMillis(),
@@ -692,9 +736,11 @@ public class JobRunner implements Runnable {
       if (isDeviceAllocatorSetUp) {
         tearDownAllocator();
       }
+      recordWakeUpStats();
       try (MobileHarnessAutoCloseable ignored = getPostRunJobSpan()) {
         postRunJob(jobError, failFastError.orElse(null), isDeviceAllocatorSetUp);
       }
+      logTestCriticalPaths();
     }
   }
 
@@ -709,6 +755,95 @@ public class JobRunner implements Runnable {
         : jobStartDeviceAllocationTime;
   }
 
+  /**
+   * Waits until a test event happens or the next scheduled check of the job.
+   *
+   * <p>After a wakeup by a test event, the job is checked again after {@link #BASE_INTERVAL},
+   * because the test runner may still be finishing when the event is handled. Otherwise, the next
+   * check is the next allocation polling, the job timeout, or at most {@link
+   * #MAX_EVENT_DRIVEN_WAIT_INTERVAL} later.
+   *
+   * <p>Only test ended events signal the wait. New allocations are only returned by the allocation
+   * polling, which keeps its own schedule, and killing the job interrupts this thread. Other
+   * changes, e.g., tests added by plugins or retries, are picked up within {@link
+   * #MAX_EVENT_DRIVEN_WAIT_INTERVAL}, which is acceptable because nothing in the loop needs to
+   * react to them faster than the allocation polling does.
+   *
+   * @return whether the runner is woken up by a test event
+   */
+  private boolean waitForTestEvent(boolean lastWakeUpByEvent, Instant nextPollAllocationTime)
+      throws InterruptedException {
+    Instant now = clock.instant();
+    Instant wakeUpTime;
+    if (lastWakeUpByEvent) {
+      wakeUpTime = now.plus(BASE_INTERVAL);
+    } else {
+      wakeUpTime = now.plus(MAX_EVENT_DRIVEN_WAIT_INTERVAL);
+      if (nextPollAllocationTime.isAfter(now)) {
+        wakeUpTime = min(wakeUpTime, nextPollAllocationTime);
+      }
+      try {
+        Instant jobExpireTime = jobInfo.timer().expireTime();
+        if (jobExpireTime.isAfter(now)) {
+          wakeUpTime = min(wakeUpTime, jobExpireTime);
+        }
+      } catch (MobileHarnessException e) {
+        // The job timer is not started. Ignores it.
+      }
+    }
+
+    Optional<Instant> eventTime = wakeUpSignal.await(wakeUpTime);
+    wakeUpCount++;
+    if (eventTime.isEmpty()) {
+      return false;
+    }
+    eventWakeUpCount++;
+    Duration latency = Duration.between(eventTime.get(), clock.instant());
+    if (latency.compareTo(maxEventLatency) > 0) {
+      maxEventLatency = latency;
+    }
+    return true;
+  }
+
+  /**
+   * Records the wakeup stats of this runner to the job properties, if it waits for test events
+   * rather than checking its job at a fixed interval.
+   */
+  private void recordWakeUpStats() {
+    if (wakeUpSignal == null) {
+      return;
+    }
+    jobInfo
+        .properties()
+        .add(PropertyName.Job.JOB_RUNNER_WAKEUP_COUNT, Integer.toString(wakeUpCount));
+    jobInfo
+        .properties()
+        .add(PropertyName.Job.JOB_RUNNER_EVENT_WAKEUP_COUNT, Integer.toString(eventWakeUpCount));
+    jobInfo
+        .properties()
+        .add(
+            PropertyName.Job.JOB_RUNNER_MAX_EVENT_LATENCY_MS,
+            Long.toString(maxEventLatency.toMillis()));
+    logger.atInfo().log(
+        "Job runner of job %s woke up %d times (%d by test events, max event latency %s)",
+        jobInfo.locator().getId(), wakeUpCount, eventWakeUpCount, maxEventLatency);
+  }
+
+  /** Wakes up the job runner when a test of the job ends. */
+  private static class TestEndedWakeUpHandler {
+
+    private final JobRunnerWakeUpSignal wakeUpSignal;
+
+    private TestEndedWakeUpHandler(JobRunnerWakeUpSignal wakeUpSignal) {
+      this.wakeUpSignal = wakeUpSignal;
+    }
+
+    @Subscribe
+    public void onTestEnded(TestEndedEvent event) {
+      wakeUpSignal.signal();
+    }
+  }
+
   /** Gets the test message poster by the test id. */
   public Optional<TestMessagePoster> getTestMessagePoster(String testId) {
     return TestMessagePosterUtil.getPosterFromDirectTestManager(testManager, testId);
@@ -721,13 +856,13 @@ public class JobRunner implements Runnable {
   /** Gets the span to be used in pre run job logic. */
   @SuppressWarnings("MustBeClosedChecker")
   private MobileHarnessAutoCloseable getPreRunJobSpan() {
-    return new MobileHarnessAutoCloseable();
+    return SpanRecorder.getInstance().startSpan(SpanType.PRE_RUN_JOB, "job_runner.pre_run_job");
   }
 
   /** Gets the span to be used in run all tests logic. */
   @SuppressWarnings("MustBeClosedChecker")
   private MobileHarnessAutoCloseable getRunAllTestsSpan() {
-    return new MobileHarnessAutoCloseable();
+    return SpanRecorder.getInstance().startSpan(SpanType.RUN_JOB, "job_runner.run_all_tests");
   }
 
   /** Gets the span to be used in allocate device logic. */
@@ -735,13 +870,33 @@ public class JobRunner implements Runnable {
   @VisibleForTesting
   MobileHarnessAutoCloseable getAllocateDeviceSpan(
       Instant startDeviceAllocationTime, TestInfo testInfo) {
-    return new MobileHarnessAutoCloseable();
+    return SpanRecorder.getInstance()
+        .startSpan(
+            SpanType.DEVICE_ALLOCATION,
+            "job_runner.allocate_device",
+            /* parentId= */ null,
+            startDeviceAllocationTime,
+            ImmutableList.of(SpanRecorder.testIdTag(testInfo.locator().getId())));
   }
 
   /** Gets the span to be used in post run job logic. */
   @SuppressWarnings("MustBeClosedChecker")
   private MobileHarnessAutoCloseable getPostRunJobSpan() {
-    return new MobileHarnessAutoCloseable();
+    return SpanRecorder.getInstance().startSpan(SpanType.POST_RUN_JOB, "job_runner.post_run_job");
+  }
+
+  /** Logs the critical paths of the tests of the job by the recorded spans. */
+  private void logTestCriticalPaths() {
+    ImmutableMap<String, TestInfo> tests =
+        jobInfo.tests().getAllAsView().stream()
+            .collect(toImmutableMap(testInfo -> testInfo.locator().getId(), testInfo -> testInfo));
+    CriticalPath.ofTests(SpanRecorder.getInstance().getSpans(), tests.keySet())
+        .forEach(
+            (testId, criticalPath) -> {
+              if (!criticalPath.segments().isEmpty()) {
+                tests.get(testId).log().atInfo().alsoTo(logger).log("%s", criticalPath.toSummary());
+              }
+            });
   }
 
   /** Resolves running files of the job. */
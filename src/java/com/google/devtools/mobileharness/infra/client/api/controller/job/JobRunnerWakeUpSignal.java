@@ -0,0 +1,79 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.client.api.controller.job;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Signal for waking up a {@link JobRunner} when an event which may change the state of its job
+ * happens, e.g., a test ends, so the job runner does not need to check its job every second.
+ *
+ * <p>Signals are not lost: a signal sent while nobody is waiting is kept until the next {@link
+ * #await}. Several signals before one {@link #await} are merged into one wakeup.
+ */
+class JobRunnerWakeUpSignal {
+
+  private final Clock clock;
+
+  private final Object lock = new Object();
+
+  /** The time of the first signal which has not been consumed by {@link #await}. */
+  @GuardedBy("lock")
+  @Nullable
+  private Instant pendingSignalTime;
+
+  JobRunnerWakeUpSignal(Clock clock) {
+    this.clock = clock;
+  }
+
+  /** Wakes up the job runner waiting in {@link #await}, or the next call of it. */
+  void signal() {
+    synchronized (lock) {
+      if (pendingSignalTime == null) {
+        pendingSignalTime = clock.instant();
+      }
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Waits until the signal is sent or the deadline is reached.
+   *
+   * @return the time of the first signal since the last call, or empty if the deadline is reached
+   *     without any signal
+   */
+  Optional<Instant> await(Instant deadline) throws InterruptedException {
+    synchronized (lock) {
+      while (pendingSignalTime == null) {
+        Duration remaining = Duration.between(clock.instant(), deadline);
+        if (remaining.isNegative() || remaining.isZero()) {
+          return Optional.empty();
+        }
+        // Rounds up so the wait never ends before the deadline.
+        lock.wait(remaining.plusNanos(999_999L).toMillis());
+      }
+      Instant signalTime = pendingSignalTime;
+      pendingSignalTime = null;
+      return Optional.of(signalTime);
+    }
+  }
+}
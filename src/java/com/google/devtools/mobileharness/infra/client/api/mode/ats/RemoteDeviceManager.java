@@ -19,10 +19,12 @@ package com.google.devtools.mobileharness.infra.client.api.mode.ats;
 import static com.google.common.base.Ascii.toLowerCase;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.flogger.LazyArgs.lazy;
 import static com.google.devtools.mobileharness.shared.util.concurrent.Callables.threadRenaming;
 import static com.google.devtools.mobileharness.shared.util.concurrent.MoreFutures.logFailure;
 import static com.google.devtools.mobileharness.shared.util.error.MoreThrowables.shortDebugString;
 import static com.google.protobuf.TextFormat.shortDebugString;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.auto.value.AutoValue;
 import com.google.auto.value.extension.memoized.Memoized;
@@ -74,6 +76,7 @@ import com.google.devtools.mobileharness.infra.master.rpc.proto.LabSyncServicePr
 import com.google.devtools.mobileharness.infra.master.rpc.proto.LabSyncServiceProto.SignUpLabResponse;
 import com.google.devtools.mobileharness.shared.labinfo.LabInfoProvider;
 import com.google.devtools.mobileharness.shared.util.comm.server.GrpcContexts;
+import com.google.devtools.mobileharness.shared.util.logging.LogSummary;
 import com.google.devtools.mobileharness.shared.version.Version;
 import com.google.devtools.mobileharness.shared.version.checker.ServiceSideVersionChecker;
 import com.google.devtools.mobileharness.shared.version.proto.Version.VersionCheckResponse;
@@ -110,6 +113,12 @@ class RemoteDeviceManager implements LabInfoProvider {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /**
+   * Counts the frequent operations, whose INFO logs are rate-limited so that logging doesn't
+   * dominate the device manager under load.
+   */
+  private static final LogSummary logSummary = LogSummary.create("RemoteDeviceManager");
+
   private static final Duration LAB_AND_DEVICE_CLEANUP_INTERVAL = Duration.ofMinutes(2L);
   private static final Duration LAB_REMOVAL_TIME = Duration.ofHours(1L);
   private static final Duration DEVICE_REMOVAL_TIME = Duration.ofMinutes(10L);
@@ -207,8 +216,9 @@ class RemoteDeviceManager implements LabInfoProvider {
       }
     }
     Duration queryTime = Duration.between(timestamp, Instant.now());
-    logger.atInfo().log(
-        "Get lab info, filter=[%s], time_used=%s", shortDebugString(filter), queryTime);
+    logger.atInfo().atMostEvery(logSummary.rateLimitSeconds(), SECONDS).log(
+        "Get lab info, filter=[%s], time_used=%s", lazy(() -> shortDebugString(filter)), queryTime);
+    logSummary.count("get_lab_info");
 
     // Builds proto.
     return LabView.newBuilder()
@@ -350,8 +360,11 @@ class RemoteDeviceManager implements LabInfoProvider {
     private HeartbeatLabResponse doHeartbeatLab(HeartbeatLabRequest request)
         throws InterruptedException {
       Optional<SocketAddress> labAddress = GrpcContexts.clientAddress();
-      logger.atInfo().log(
-          "Heartbeat lab, req=[%s], lab_address=[%s]", shortDebugString(request), labAddress);
+      logger.atInfo().atMostEvery(logSummary.rateLimitSeconds(), SECONDS).log(
+          "Heartbeat lab, req=[%s], lab_address=[%s]",
+          lazy(() -> shortDebugString(request)),
+          labAddress);
+      logSummary.count("heartbeat_lab");
 
       List<String> outdatedDeviceIds = new ArrayList<>();
       synchronized (lock) {
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.client.api.mode.remote;
+
+import static com.google.common.util.concurrent.Futures.immediateVoidFuture;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.util.concurrent.ExecutionSequencer;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
+import com.google.devtools.mobileharness.shared.util.path.PathUtil;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GenFileChange;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Downloads the new or changed gen files of a running test from lab server in the background, so
+ * that the thread which receives test statuses is never blocked by copying files.
+ *
+ * <p>The files are copied only if the remote gen file dir is reachable from the client, e.g., the
+ * lab server runs on the same host. Otherwise they are left to the download after the test ends. A
+ * copied file whose checksum mismatches the change is removed, because it has been changed again
+ * and a later change will bring it. Downloads run one by one in the order they are submitted, so a
+ * later change of a file is never overwritten by an earlier one.
+ */
+class GenFileChangeDownloader {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final LocalFileUtil fileUtil;
+  private final Executor executor;
+  private final ExecutionSequencer sequencer = ExecutionSequencer.create();
+
+  @GuardedBy("this")
+  private ListenableFuture<Void> lastDownload = immediateVoidFuture();
+
+  GenFileChangeDownloader(LocalFileUtil fileUtil, Executor executor) {
+    this.fileUtil = fileUtil;
+    this.executor = executor;
+  }
+
+  /** Submits a download of the changed files from the remote gen file dir to the local one. */
+  synchronized void submit(
+      String testId, String genFileDir, String remoteGenFileDir, List<GenFileChange> changes) {
+    ImmutableList<GenFileChange> changesCopy = ImmutableList.copyOf(changes);
+    lastDownload =
+        sequencer.submit(
+            () -> {
+              download(testId, genFileDir, remoteGenFileDir, changesCopy);
+              return null;
+            },
+            executor);
+  }
+
+  /**
+   * Waits until all submitted downloads finish.
+   *
+   * @return whether all downloads finish in the timeout
+   */
+  boolean awaitDownloads(Duration timeout) throws InterruptedException {
+    ListenableFuture<Void> download;
+    synchronized (this) {
+      download = lastDownload;
+    }
+    try {
+      download.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+      return true;
+    } catch (ExecutionException e) {
+      logger.atWarning().withCause(e).log("Failed to download gen file changes");
+      return true;
+    } catch (TimeoutException e) {
+      return false;
+    }
+  }
+
+  private void download(
+      String testId, String genFileDir, String remoteGenFileDir, List<GenFileChange> changes) {
+    if (!fileUtil.isDirExist(remoteGenFileDir)) {
+      return;
+    }
+    if (Path.of(genFileDir).toAbsolutePath().equals(Path.of(remoteGenFileDir).toAbsolutePath())) {
+      return;
+    }
+    for (GenFileChange change : changes) {
+      String relatedPath = change.getGenFileRelatedPath();
+      String destPath = PathUtil.join(genFileDir, relatedPath);
+      try {
+        fileUtil.prepareParentDir(destPath);
+        fileUtil.copyFileOrDir(PathUtil.join(remoteGenFileDir, relatedPath), destPath);
+        if (MoreFiles.asByteSource(Path.of(destPath)).hash(Hashing.crc32c()).asInt()
+            != change.getCrc32C()) {
+          fileUtil.removeFileOrDir(destPath);
+        }
+      } catch (MobileHarnessException | IOException e) {
+        logger.atInfo().log(
+            "Failed to copy gen file %s of test %s: %s", relatedPath, testId, e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+}
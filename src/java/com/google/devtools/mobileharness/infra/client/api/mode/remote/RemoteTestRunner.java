@@ -58,7 +58,9 @@ import com.google.devtools.mobileharness.infra.lab.proto.PrepareTestServiceProto
 import com.google.devtools.mobileharness.infra.lab.proto.PrepareTestServiceProto.TestRunnerTiming;
 import com.google.devtools.mobileharness.infra.lab.rpc.stub.ExecTestStub;
 import com.google.devtools.mobileharness.infra.lab.rpc.stub.PrepareTestStub;
+import com.google.devtools.mobileharness.shared.constant.closeable.NonThrowingAutoCloseable;
 import com.google.devtools.mobileharness.shared.constant.environment.MobileHarnessServerEnvironment;
+import com.google.devtools.mobileharness.shared.trace.SpanRecorder;
 import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.ParentSpan;
 import com.google.devtools.mobileharness.shared.util.comm.messaging.message.TestMessageInfo;
 import com.google.devtools.mobileharness.shared.util.error.ErrorModelConverter;
@@ -77,12 +79,15 @@ import com.google.protobuf.util.Durations;
 import com.google.protobuf.util.Timestamps;
 import com.google.wireless.qa.mobileharness.client.api.util.stub.StubManager;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.ForwardTestMessageRequest;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GenFileChange;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestGenDataRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestGenDataResponse;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusResponse;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.KickOffTestRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.SubTestGenDataResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.SubTestStatusResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.SubscribeTestStatusRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.TestMessage;
 import com.google.wireless.qa.mobileharness.shared.comm.message.CacheableTestMessageHandler;
 import com.google.wireless.qa.mobileharness.shared.comm.message.TestMessageManager;
@@ -106,6 +111,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -141,6 +147,15 @@ public class RemoteTestRunner extends BaseTestRunner<RemoteTestRunner> {
   /** See ContainerSetting.getSyncStartingTimeoutMs(). */
   private static final Duration LAB_SERVER_TEST_ENGINE_SYNC_STARTING_TIMEOUT = Duration.ZERO;
 
+  /**
+   * If no response is received from a test status subscription in this duration (the lab server
+   * sends heartbeats more frequently), the subscription is treated as broken.
+   */
+  private static final Duration TEST_STATUS_SUBSCRIPTION_STALL_TIMEOUT = Duration.ofSeconds(90L);
+
+  /** The max time to wait for the gen file changes being downloaded after the test ends. */
+  private static final Duration GEN_FILE_CHANGE_DOWNLOAD_TIMEOUT = Duration.ofMinutes(2L);
+
   private static final int KICK_OFF_TEST_MAX_TRY_COUNT = 15;
   private static final Duration KICK_OFF_TEST_RETRY_INTERVAL = Duration.ofSeconds(2L);
 
@@ -153,6 +168,11 @@ public class RemoteTestRunner extends BaseTestRunner<RemoteTestRunner> {
   private final LabServerLocator labServerLocator;
   private final MobileHarnessServerEnvironment mhEnvironment;
   private final List<String> downloadedGenDirs = new ArrayList<>();
+
+  /** {test ID, sequence of the last gen file change received from lab server}. */
+  private final Map<String, Long> genFileChangeSequences = new ConcurrentHashMap<>();
+
+  private final GenFileChangeDownloader genFileChangeDownloader;
   private final LocalFileUtil fileUtil;
   private final JobSpecHelper jobSpecHelper;
   private final StubManager stubManager;
@@ -220,6 +240,7 @@ public class RemoteTestRunner extends BaseTestRunner<RemoteTestRunner> {
     this.impersonationUser =
         supportImpersonation ? setting.testInfo().jobInfo().jobUser().getRunAs() : null;
     this.testMessageForwarder = new CachedTestMessageForwarder(threadPool);
+    this.genFileChangeDownloader = new GenFileChangeDownloader(fileUtil, threadPool);
     this.labServerLocator =
         LabServerLocator.longRunningLabServer(getAllocation().getDevice().labLocator());
 
@@ -411,6 +432,11 @@ public class RemoteTestRunner extends BaseTestRunner<RemoteTestRunner> {
         if (Flags.instance().enableClientFileTransfer.getNonNull()) {
           updateTestEngineFileTransferClient(testInfo);
         }
+        if (!genFileChangeDownloader.awaitDownloads(GEN_FILE_CHANGE_DOWNLOAD_TIMEOUT)) {
+          logger.atWarning().log(
+              "Gen file changes of test %s are not downloaded in %s",
+              testInfo.locator().getId(), GEN_FILE_CHANGE_DOWNLOAD_TIMEOUT);
+        }
         getTestGenData(testInfo);
       }
       if (Flags.instance().enableClientFileTransfer.getNonNull()) {
@@ -508,9 +534,15 @@ public class RemoteTestRunner extends BaseTestRunner<RemoteTestRunner> {
     return defaultSandboxPreference;
   }
 
-  /** Gets the {@link ParentSpan} of the current instance, empty by default. */
+  /**
+   * Gets the {@link ParentSpan} of the lab RPCs, which is the innermost unfinished span of the
+   * current thread, so that the lab spans of the test can be linked to the client spans.
+   */
   private ParentSpan getParentSpan() {
-    return ParentSpan.getDefaultInstance();
+    return SpanRecorder.getInstance()
+        .getCurrentSpanId()
+        .map(spanId -> ParentSpan.newBuilder().setId(spanId).build())
+        .orElse(ParentSpan.getDefaultInstance());
   }
 
   /** Sends job level running files of the test to lab, does nothing by default. */
@@ -543,6 +575,26 @@ public class RemoteTestRunner extends BaseTestRunner<RemoteTestRunner> {
   private void sendJobFilesCore(TestInfo testInfo)
       throws MobileHarnessException, InterruptedException {}
 
+  /**
+   * Downloads the new or changed gen files of a running test from lab server in the background, so
+   * that they need not be downloaded after the test ends.
+   */
+  private void downloadGenFileChanges(
+      TestInfo testInfo, String remoteGenFileDir, List<GenFileChange> genFileChanges) {
+    String testId = testInfo.locator().getId();
+    if (remoteGenFileDir.isEmpty()) {
+      return;
+    }
+    String genFileDir;
+    try {
+      genFileDir = testInfo.getGenFileDir();
+    } catch (MobileHarnessException e) {
+      logger.atWarning().withCause(e).log("Failed to get gen file dir of test %s", testId);
+      return;
+    }
+    genFileChangeDownloader.submit(testId, genFileDir, remoteGenFileDir, genFileChanges);
+  }
+
   /** Downloads the whole gen file directory from lab server. */
   @VisibleForTesting
   void downloadGenDir(TestInfo testInfo, final String remoteGenFileDir)
@@ -776,6 +828,10 @@ public class RemoteTestRunner extends BaseTestRunner<RemoteTestRunner> {
     GetTestStatusResponse resp;
     @Nullable Instant consecutiveNonFatalRpcErrorStartingTime = null;
     ExecTestStub execTestStub = getTestEngineExecTestStub();
+    if (Flags.instance().enableTestStatusStreaming.getNonNull()
+        && waitTestResultBySubscription(testInfo, deviceLocators, remoteLogOffset, execTestStub)) {
+      return;
+    }
     Duration rpcCallInterval = Flags.instance().getTestStatusRpcCallInterval.getNonNull();
     if (rpcCallInterval.compareTo(MIN_GET_TEST_STATUS_RPC_CALL_INTERVAL) < 0) {
       rpcCallInterval = MIN_GET_TEST_STATUS_RPC_CALL_INTERVAL;
@@ -868,6 +924,48 @@ public class RemoteTestRunner extends BaseTestRunner<RemoteTestRunner> {
     logger.atWarning().log("Timeout on device(s) %s!", deviceLocators);
   }
 
+  /**
+   * Waits until the test is finished in lab server by subscribing the test status, so the test
+   * completion is noticed immediately without polling.
+   *
+   * @return true if the test is finished, or false if the subscription is not supported or is
+   *     broken, in which case the caller should fall back to polling from the current log offsets
+   */
+  private boolean waitTestResultBySubscription(
+      TestInfo testInfo,
+      List<DeviceLocator> deviceLocators,
+      Map<String, Integer> remoteLogOffset,
+      ExecTestStub execTestStub)
+      throws InterruptedException, MobileHarnessException {
+    SubscribeTestStatusRequest request =
+        SubscribeTestStatusRequest.newBuilder()
+            .setGetTestStatusRequest(createGetTestStatusRequest(testInfo, remoteLogOffset))
+            .build();
+    TestStatusSubscriber subscriber = new TestStatusSubscriber();
+    boolean done;
+    try (NonThrowingAutoCloseable subscription =
+        execTestStub.subscribeTestStatus(request, subscriber, impersonationUser)) {
+      done =
+          subscriber.awaitDone(
+              TEST_STATUS_SUBSCRIPTION_STALL_TIMEOUT,
+              resp -> {
+                // Update root testInfo.
+                updateTestStatus(resp, testInfo, remoteLogOffset);
+                return resp.getTestStatus().equals(TestStatus.DONE);
+              });
+    }
+    if (done) {
+      logger.atInfo().log(
+          "Finished on device(s) %s with result %s!",
+          deviceLocators, testInfo.result().toNewResult());
+    } else {
+      logger.atWarning().log(
+          "Test status subscription on device(s) %s is broken, fall back to polling",
+          deviceLocators);
+    }
+    return done;
+  }
+
   /** Gets the test generated properties and downloads the generated files from lab server. */
   private void getTestGenData(TestInfo testInfo)
       throws MobileHarnessException, InterruptedException {
@@ -912,9 +1010,14 @@ public class RemoteTestRunner extends BaseTestRunner<RemoteTestRunner> {
             .setJobId(testInfo.jobInfo().locator().getId())
             .setTestId(testId)
             .setTestLogOffset(offset);
+    if (Flags.instance().enableGenFileChangeFeed.getNonNull()) {
+      builder.setGenFileChangeSequence(genFileChangeSequences.getOrDefault(testId, 0L));
+    }
     // Request known sub-testInfo.
-    for (TestInfo subTestInfo : testInfo.subTests().getAll().values()) {
-      builder.addSubTest(createGetTestStatusRequest(subTestInfo, remoteLogOffset).build());
+    if (testInfo.hasSubTests()) {
+      for (TestInfo subTestInfo : testInfo.subTests().getAll().values()) {
+        builder.addSubTest(createGetTestStatusRequest(subTestInfo, remoteLogOffset).build());
+      }
     }
     return builder;
   }
@@ -937,6 +1040,31 @@ public class RemoteTestRunner extends BaseTestRunner<RemoteTestRunner> {
             e);
       }
     }
+    if (Flags.instance().enableGenFileChangeFeed.getNonNull()) {
+      handleGenFileChanges(resp, testInfo);
+    }
+  }
+
+  /** Recursively handles the gen file changes of root testInfo and all its sub-tests. */
+  private void handleGenFileChanges(GetTestStatusResponse resp, TestInfo testInfo) {
+    if (resp.getGenFileChangeCount() > 0) {
+      long sequence = 0L;
+      for (GenFileChange genFileChange : resp.getGenFileChangeList()) {
+        sequence = Math.max(sequence, genFileChange.getSequence());
+      }
+      genFileChangeSequences.merge(testInfo.locator().getId(), sequence, Math::max);
+      logger.atFine().log(
+          "Test %s has %d new or changed gen files",
+          testInfo.locator().getId(), resp.getGenFileChangeCount());
+      downloadGenFileChanges(testInfo, resp.getGenFileDir(), resp.getGenFileChangeList());
+    }
+    for (SubTestStatusResponse subTestResp : resp.getSubTestList()) {
+      TestInfo subTestInfo =
+          testInfo.hasSubTests() ? testInfo.subTests().getById(subTestResp.getTestId()) : null;
+      if (subTestInfo != null) {
+        handleGenFileChanges(subTestResp.getStatus(), subTestInfo);
+      }
+    }
   }
 
   /**
@@ -950,8 +1078,10 @@ public class RemoteTestRunner extends BaseTestRunner<RemoteTestRunner> {
             .setJobId(testInfo.jobInfo().locator().getId())
             .setTestId(testInfo.locator().getId());
     // Request known sub-testInfo.
-    for (TestInfo subTestInfo : testInfo.subTests().getAll().values()) {
-      builder.addSubTest(createGetTestGenDataRequest(subTestInfo).build());
+    if (testInfo.hasSubTests()) {
+      for (TestInfo subTestInfo : testInfo.subTests().getAll().values()) {
+        builder.addSubTest(createGetTestGenDataRequest(subTestInfo).build());
+      }
     }
     return builder;
   }
@@ -973,6 +1103,9 @@ public class RemoteTestRunner extends BaseTestRunner<RemoteTestRunner> {
     }
 
     // Update sub-testInfo received requested and returned from lab server.
+    if (!testInfo.hasSubTests()) {
+      return;
+    }
     Set<String> leftOverSubTestIds =
         testInfo.subTests().getAll().values().stream()
             .map(t -> t.locator().getId())
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.client.api.mode.remote;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusResponse;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Receives responses of a test status subscription, and hands them to the test runner on its own
+ * thread.
+ */
+class TestStatusSubscriber implements StreamObserver<GetTestStatusResponse> {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Handles a response of the subscription. */
+  interface ResponseHandler {
+
+    /** Returns whether the test is done after the response. */
+    boolean handle(GetTestStatusResponse response) throws MobileHarnessException;
+  }
+
+  /** The received responses. An empty element is added after the stream ends. */
+  private final BlockingQueue<Optional<GetTestStatusResponse>> responses =
+      new LinkedBlockingQueue<>();
+
+  @Nullable private volatile Throwable error;
+
+  @Override
+  public void onNext(GetTestStatusResponse response) {
+    responses.add(Optional.of(response));
+  }
+
+  @Override
+  public void onError(Throwable error) {
+    this.error = error;
+    responses.add(Optional.empty());
+  }
+
+  @Override
+  public void onCompleted() {
+    responses.add(Optional.empty());
+  }
+
+  /**
+   * Hands the responses to the handler in order until it reports that the test is done.
+   *
+   * @param stallTimeout the max time to wait for the next response
+   * @return true if the test is done, or false if no response is received in the stall timeout or
+   *     the stream ends before the test is done, in which case the caller should fall back to
+   *     polling
+   */
+  boolean awaitDone(Duration stallTimeout, ResponseHandler handler)
+      throws MobileHarnessException, InterruptedException {
+    while (true) {
+      Optional<GetTestStatusResponse> response =
+          responses.poll(stallTimeout.toMillis(), TimeUnit.MILLISECONDS);
+      if (response == null) {
+        logger.atWarning().log("No test status is received in %s", stallTimeout);
+        return false;
+      }
+      if (response.isEmpty()) {
+        logger.atWarning().withCause(error).log(
+            "Test status subscription ended before the test is done");
+        return false;
+      }
+      if (handler.handle(response.get())) {
+        return true;
+      }
+    }
+  }
+}
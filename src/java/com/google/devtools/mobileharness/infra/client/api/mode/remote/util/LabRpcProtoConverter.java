@@ -125,9 +125,11 @@ public class LabRpcProtoConverter {
 
     // Update sub-testInfo when sub-tests are available.
     Set<String> leftOverSubTestIds =
-        testInfo.subTests().getAll().values().stream()
-            .map(t -> t.locator().getId())
-            .collect(toCollection(LinkedHashSet::new));
+        testInfo.hasSubTests()
+            ? testInfo.subTests().getAll().values().stream()
+                .map(t -> t.locator().getId())
+                .collect(toCollection(LinkedHashSet::new))
+            : new LinkedHashSet<>();
     for (SubTestStatusResponse subTestResp : resp.getSubTestList()) {
       String subTestId = subTestResp.getTestId();
       TestInfo subTestInfo = testInfo.subTests().getById(subTestId);
@@ -50,8 +50,10 @@ public class GenFileHandler {
     TestInfo testInfo = event.getTest();
     testInfo.log().atInfo().alsoTo(logger).log("Start uploading test generated files");
     generateTestLogFile(testInfo);
-    for (TestInfo subTest : testInfo.subTests().getAll().values()) {
-      generateTestLogFile(subTest);
+    if (testInfo.hasSubTests()) {
+      for (TestInfo subTest : testInfo.subTests().getAll().values()) {
+        generateTestLogFile(subTest);
+      }
     }
 
     testInfo.log().atInfo().alsoTo(logger).log("Finish uploading test generated files");
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.controller.plugin;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
+import com.google.devtools.mobileharness.shared.util.flags.Flags;
+import com.google.wireless.qa.mobileharness.shared.controller.plugin.Plugin;
+import com.google.wireless.qa.mobileharness.shared.controller.plugin.PluginModule;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.reflections.Reflections;
+import org.reflections.util.ConfigurationBuilder;
+
+/**
+ * Index of the classes annotated with {@link Plugin} or {@link PluginModule} in plugin jars, keyed
+ * by the content hash of the jars, so that the same jar is only scanned by {@link Reflections}
+ * once.
+ *
+ * <p>If {@code --plugin_class_index_dir} is specified, the index is also persisted in the
+ * directory and shared by all processes on the host.
+ */
+class PluginClassIndex {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String INDEX_FILE_SUFFIX = ".plugin_class_index";
+  private static final String PLUGIN_CLASS_PREFIX = "plugin:";
+  private static final String PLUGIN_MODULE_CLASS_PREFIX = "module:";
+
+  private static final long MAX_INDEX_SIZE = 1_000L;
+
+  /** Holder of the singleton, so that the flag is read after flags are parsed. */
+  private static class InstanceHolder {
+    private static final PluginClassIndex INSTANCE =
+        new PluginClassIndex(new LocalFileUtil(), Flags.instance().pluginClassIndexDir.get());
+  }
+
+  static PluginClassIndex getInstance() {
+    return InstanceHolder.INSTANCE;
+  }
+
+  /** Names of the annotated classes in a jar. */
+  @AutoValue
+  abstract static class AnnotatedClassNames {
+
+    /** Names of the classes annotated with {@link Plugin}. */
+    abstract ImmutableSet<String> pluginClassNames();
+
+    /** Names of the classes annotated with {@link PluginModule}. */
+    abstract ImmutableSet<String> pluginModuleClassNames();
+
+    static AnnotatedClassNames of(
+        ImmutableSet<String> pluginClassNames, ImmutableSet<String> pluginModuleClassNames) {
+      return new AutoValue_PluginClassIndex_AnnotatedClassNames(
+          pluginClassNames, pluginModuleClassNames);
+    }
+  }
+
+  /** The key to detect whether a jar file changes without reading its content. */
+  @AutoValue
+  abstract static class JarFileKey {
+
+    abstract String path();
+
+    abstract long size();
+
+    abstract long lastModifiedTimeMs();
+
+    static JarFileKey of(File jarFile) {
+      return new AutoValue_PluginClassIndex_JarFileKey(
+          jarFile.getAbsolutePath(), jarFile.length(), jarFile.lastModified());
+    }
+  }
+
+  private final LocalFileUtil localFileUtil;
+
+  /** The directory for persisting the index, or empty if the index is only kept in memory. */
+  private final Optional<String> indexDir;
+
+  /** {jar content hash, annotated class names}. */
+  private final Cache<String, AnnotatedClassNames> index =
+      CacheBuilder.newBuilder().maximumSize(MAX_INDEX_SIZE).build();
+
+  /** {jar file key, jar content hash}, to avoid hashing an unchanged jar repeatedly. */
+  private final Cache<JarFileKey, String> jarHashes =
+      CacheBuilder.newBuilder().maximumSize(MAX_INDEX_SIZE).build();
+
+  @VisibleForTesting
+  PluginClassIndex(LocalFileUtil localFileUtil, String indexDir) {
+    this.localFileUtil = localFileUtil;
+    this.indexDir =
+        indexDir == null || indexDir.isEmpty() ? Optional.empty() : Optional.of(indexDir);
+  }
+
+  /**
+   * Gets the names of the annotated classes in a jar. If the jar is not indexed, scans it with the
+   * given class loader and adds the result to the index.
+   */
+  AnnotatedClassNames getAnnotatedClassNames(URL jarUrl, ClassLoader classLoader) {
+    Optional<String> jarHash = getJarHash(jarUrl);
+    if (jarHash.isPresent()) {
+      AnnotatedClassNames classNames = index.getIfPresent(jarHash.get());
+      if (classNames == null) {
+        classNames = readIndexFile(jarHash.get()).orElse(null);
+      }
+      if (classNames != null) {
+        logger.atInfo().log("Use indexed plugin classes of jar [%s]: %s", jarUrl, classNames);
+        index.put(jarHash.get(), classNames);
+        return classNames;
+      }
+    }
+
+    AnnotatedClassNames classNames = scan(jarUrl, classLoader);
+    if (jarHash.isPresent()) {
+      index.put(jarHash.get(), classNames);
+      writeIndexFile(jarHash.get(), classNames);
+    }
+    return classNames;
+  }
+
+  private static AnnotatedClassNames scan(URL jarUrl, ClassLoader classLoader) {
+    logger.atInfo().log("Scanning plugin classes in jar [%s]", jarUrl);
+    Reflections reflections =
+        new Reflections(
+            new ConfigurationBuilder()
+                .setUrls(ImmutableList.of(jarUrl))
+                .addClassLoader(classLoader));
+    return AnnotatedClassNames.of(
+        reflections.getTypesAnnotatedWith(Plugin.class).stream()
+            .map(Class::getName)
+            .collect(toImmutableSet()),
+        reflections.getTypesAnnotatedWith(PluginModule.class).stream()
+            .map(Class::getName)
+            .collect(toImmutableSet()));
+  }
+
+  /** Gets the content hash of the jar, or empty if the jar is not a regular local file. */
+  private Optional<String> getJarHash(URL jarUrl) {
+    File jarFile;
+    try {
+      jarFile = new File(jarUrl.toURI());
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      return Optional.empty();
+    }
+    if (!jarFile.isFile()) {
+      return Optional.empty();
+    }
+    JarFileKey jarFileKey = JarFileKey.of(jarFile);
+    String jarHash = jarHashes.getIfPresent(jarFileKey);
+    if (jarHash == null) {
+      try {
+        jarHash = MoreFiles.asByteSource(jarFile.toPath()).hash(Hashing.sha256()).toString();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Failed to hash plugin jar [%s]", jarUrl);
+        return Optional.empty();
+      }
+      jarHashes.put(jarFileKey, jarHash);
+    }
+    return Optional.of(jarHash);
+  }
+
+  private Optional<AnnotatedClassNames> readIndexFile(String jarHash) {
+    if (indexDir.isEmpty()) {
+      return Optional.empty();
+    }
+    Path indexFile = getIndexFile(jarHash);
+    if (!localFileUtil.isFileExist(indexFile)) {
+      return Optional.empty();
+    }
+    try {
+      ImmutableSet.Builder<String> pluginClassNames = ImmutableSet.builder();
+      ImmutableSet.Builder<String> pluginModuleClassNames = ImmutableSet.builder();
+      List<String> lines =
+          Splitter.on('\n').omitEmptyStrings().splitToList(localFileUtil.readFile(indexFile));
+      for (String line : lines) {
+        if (line.startsWith(PLUGIN_CLASS_PREFIX)) {
+          pluginClassNames.add(line.substring(PLUGIN_CLASS_PREFIX.length()));
+        } else if (line.startsWith(PLUGIN_MODULE_CLASS_PREFIX)) {
+          pluginModuleClassNames.add(line.substring(PLUGIN_MODULE_CLASS_PREFIX.length()));
+        }
+      }
+      return Optional.of(
+          AnnotatedClassNames.of(pluginClassNames.build(), pluginModuleClassNames.build()));
+    } catch (MobileHarnessException e) {
+      logger.atWarning().withCause(e).log("Failed to read plugin class index file %s", indexFile);
+      return Optional.empty();
+    }
+  }
+
+  private void writeIndexFile(String jarHash, AnnotatedClassNames classNames) {
+    if (indexDir.isEmpty()) {
+      return;
+    }
+    StringBuilder content = new StringBuilder();
+    classNames
+        .pluginClassNames()
+        .forEach(name -> content.append(PLUGIN_CLASS_PREFIX).append(name).append('\n'));
+    classNames
+        .pluginModuleClassNames()
+        .forEach(name -> content.append(PLUGIN_MODULE_CLASS_PREFIX).append(name).append('\n'));
+    Path indexFile = getIndexFile(jarHash);
+    // Writes to a temp file first so other processes never read a partial index file.
+    Path tmpFile = indexFile.resolveSibling(indexFile.getFileName() + "." + UUID.randomUUID());
+    try {
+      localFileUtil.prepareDir(indexDir.get());
+      localFileUtil.writeToFile(tmpFile.toString(), content.toString());
+      Files.move(
+          tmpFile,
+          indexFile,
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (MobileHarnessException | IOException e) {
+      logger.atWarning().withCause(e).log("Failed to write plugin class index file %s", indexFile);
+    }
+  }
+
+  private Path getIndexFile(String jarHash) {
+    return Path.of(indexDir.orElseThrow(), jarHash + INDEX_FILE_SUFFIX);
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.controller.plugin;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.devtools.mobileharness.infra.controller.plugin.PluginClassIndex.JarFileKey;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Cache of plugin class loaders shared by the plugins loaded from the same jars with the same
+ * settings.
+ *
+ * <p>A class loader is closed when it has not been used by any plugin creator and it is one of the
+ * least recently used idle class loaders beyond {@link #MAX_IDLE_CLASS_LOADER_NUM}.
+ */
+class PluginClassLoaderCache {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  @VisibleForTesting static final int MAX_IDLE_CLASS_LOADER_NUM = 8;
+
+  private static final PluginClassLoaderCache INSTANCE = new PluginClassLoaderCache();
+
+  static PluginClassLoaderCache getInstance() {
+    return INSTANCE;
+  }
+
+  /** The key of a shared class loader. */
+  @AutoValue
+  abstract static class Key {
+
+    /** The jar files, whose sizes and modified times are included to detect changed jars. */
+    abstract ImmutableList<JarFileKey> jars();
+
+    abstract ClassLoader parentClassLoader();
+
+    abstract Optional<String> forceLoadFromJarClassRegex();
+
+    /** Creates a key, or returns empty if any of the jars is not a local file. */
+    static Optional<Key> of(
+        List<URL> jarUrls,
+        ClassLoader parentClassLoader,
+        @Nullable String forceLoadFromJarClassRegex) {
+      ImmutableList.Builder<JarFileKey> jars = ImmutableList.builder();
+      for (URL jarUrl : jarUrls) {
+        File jarFile;
+        try {
+          jarFile = new File(jarUrl.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+          return Optional.empty();
+        }
+        if (!jarFile.exists()) {
+          return Optional.empty();
+        }
+        jars.add(JarFileKey.of(jarFile));
+      }
+      return Optional.of(
+          new AutoValue_PluginClassLoaderCache_Key(
+              jars.build(), parentClassLoader, Optional.ofNullable(forceLoadFromJarClassRegex)));
+    }
+  }
+
+  private static class Entry {
+
+    private final URLClassLoader classLoader;
+
+    private int refCount;
+
+    private Entry(URLClassLoader classLoader) {
+      this.classLoader = classLoader;
+    }
+  }
+
+  /** Shared class loaders in access order. */
+  @GuardedBy("itself")
+  private final Map<Key, Entry> entries =
+      new LinkedHashMap<>(
+          /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+
+  @VisibleForTesting
+  PluginClassLoaderCache() {}
+
+  /**
+   * Gets a shared class loader of the given jars, or creates one if there is no such class loader.
+   * {@link #release} should be called after the class loader is no longer used.
+   */
+  URLClassLoader acquire(
+      List<URL> jarUrls,
+      ClassLoader parentClassLoader,
+      @Nullable String forceLoadFromJarClassRegex) {
+    Optional<Key> key = Key.of(jarUrls, parentClassLoader, forceLoadFromJarClassRegex);
+    if (key.isEmpty()) {
+      return PluginLoader.createClassLoader(
+          jarUrls, parentClassLoader, forceLoadFromJarClassRegex);
+    }
+    synchronized (entries) {
+      Entry entry = entries.get(key.get());
+      if (entry == null) {
+        entry =
+            new Entry(
+                PluginLoader.createClassLoader(
+                    jarUrls, parentClassLoader, forceLoadFromJarClassRegex));
+        entries.put(key.get(), entry);
+      } else {
+        logger.atInfo().log(
+            "Reuse shared plugin class loader of jars %s",
+            key.get().jars().stream().map(JarFileKey::path).collect(toImmutableList()));
+      }
+      entry.refCount++;
+      return entry.classLoader;
+    }
+  }
+
+  /** Releases a class loader returned by {@link #acquire}. */
+  void release(URLClassLoader classLoader) {
+    synchronized (entries) {
+      boolean shared = false;
+      for (Entry entry : entries.values()) {
+        if (entry.classLoader == classLoader) {
+          entry.refCount--;
+          shared = true;
+          break;
+        }
+      }
+      if (!shared) {
+        close(classLoader);
+        return;
+      }
+
+      // Closes the least recently used idle class loaders.
+      long idleCount = entries.values().stream().filter(entry -> entry.refCount <= 0).count();
+      Iterator<Entry> iterator = entries.values().iterator();
+      while (idleCount > MAX_IDLE_CLASS_LOADER_NUM && iterator.hasNext()) {
+        Entry entry = iterator.next();
+        if (entry.refCount <= 0) {
+          iterator.remove();
+          close(entry.classLoader);
+          idleCount--;
+        }
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  private static void close(URLClassLoader classLoader) {
+    try {
+      classLoader.close();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to close plugin class loader");
+    }
+  }
+}
@@ -22,6 +22,7 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
 import com.google.devtools.mobileharness.api.model.error.BasicErrorId;
+import com.google.devtools.mobileharness.infra.controller.plugin.PluginClassIndex.AnnotatedClassNames;
 import com.google.devtools.mobileharness.infra.controller.plugin.loader.PluginInstantiator;
 import com.google.devtools.mobileharness.infra.controller.plugin.provider.AnnotatedPluginClassProvider;
 import com.google.devtools.mobileharness.infra.controller.plugin.provider.AnnotatedPluginModuleClassProvider;
@@ -31,6 +32,7 @@ import com.google.devtools.mobileharness.infra.controller.plugin.provider.Plugin
 import com.google.devtools.mobileharness.infra.controller.plugin.provider.PluginModuleClassProvider;
 import com.google.devtools.mobileharness.infra.controller.plugin.provider.RetryPluginClassProvider;
 import com.google.devtools.mobileharness.infra.controller.plugin.provider.RetryPluginModuleClassProvider;
+import com.google.devtools.mobileharness.shared.util.flags.Flags;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.inject.Module;
 import com.google.wireless.qa.mobileharness.shared.MobileHarnessException;
@@ -44,17 +46,18 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.NotThreadSafe;
-import org.reflections.Reflections;
-import org.reflections.util.ConfigurationBuilder;
 
 /**
  * Plugin loader for loading classes from the jar files.
@@ -72,6 +75,10 @@ import org.reflections.util.ConfigurationBuilder;
  * if they are present).
  *
  * <p>{@code moduleClassNames} follows the same pattern, however uses {@link PluginModule} instead.
+ *
+ * <p>Annotated classes in a jar are looked up from {@link PluginClassIndex}, so a jar is only
+ * scanned once even if it is loaded by many tests. If {@code --enable_plugin_class_loader_sharing}
+ * is true, creators of the same jars share one class loader from {@link PluginClassLoaderCache}.
  */
 @NotThreadSafe
 public class PluginCreator implements AutoCloseable {
@@ -131,6 +138,10 @@ public class PluginCreator implements AutoCloseable {
   @Nullable
   private ClassLoader classLoader;
 
+  /** Whether {@link #classLoader} is from {@link PluginClassLoaderCache}. */
+  @GuardedBy("lock")
+  private boolean isClassLoaderShared;
+
   /**
    * Creates a plugin loader.
    *
@@ -194,9 +205,17 @@ public class PluginCreator implements AutoCloseable {
         }
       }
       logger.atInfo().log("Loading plugins from jars %s", jarUrls);
-      classLoader =
-          PluginLoader.createClassLoader(
-              jarUrls, getClass().getClassLoader(), forceLoadFromJarClassRegex);
+      if (Flags.instance().enablePluginClassLoaderSharing.getNonNull()) {
+        classLoader =
+            PluginClassLoaderCache.getInstance()
+                .acquire(jarUrls, getClass().getClassLoader(), forceLoadFromJarClassRegex);
+        isClassLoaderShared = true;
+      } else {
+        classLoader =
+            PluginLoader.createClassLoader(
+                jarUrls, getClass().getClassLoader(), forceLoadFromJarClassRegex);
+      }
+      Map<URL, AnnotatedClassNames> annotatedClassNames = new HashMap<>();
 
       // Finds plugin module classes.
       Set<Class<? extends Module>> moduleClasses;
@@ -208,17 +227,20 @@ public class PluginCreator implements AutoCloseable {
         for (URL jarUrl : jarUrls) {
           logger.atInfo().log("Searching plugin module classes in jar [%s]", jarUrl);
 
-          ConfigurationBuilder configBuilder =
-              new ConfigurationBuilder()
-                  .setUrls(ImmutableList.of(jarUrl))
-                  .addClassLoader(classLoader);
-          Reflections reflections = new Reflections(configBuilder);
+          Set<Class<?>> annotatedClasses =
+              loadClasses(
+                  annotatedClassNames
+                      .computeIfAbsent(jarUrl, this::getAnnotatedClassNames)
+                      .pluginModuleClassNames());
           PluginModuleClassProvider moduleClassProvider =
               new RetryPluginModuleClassProvider(
                   new AnnotatedPluginModuleClassProvider(
-                      reflections, log, true /* warnUnmatchedTypes */, pluginType),
+                      annotatedClasses, log, true /* warnUnmatchedTypes */, pluginType),
                   new AnnotatedPluginModuleClassProvider(
-                      reflections, log, false /* warnUnmatchedTypes */, PluginType.UNSPECIFIED));
+                      annotatedClasses,
+                      log,
+                      false /* warnUnmatchedTypes */,
+                      PluginType.UNSPECIFIED));
 
           Set<Class<? extends Module>> newModuleClasses;
           try {
@@ -255,17 +277,20 @@ public class PluginCreator implements AutoCloseable {
           logger.atInfo().log("Searching plugin classes in jar [%s]", jarUrl);
 
           // Class name not specified, finds all classes marked with @Plugin.
-          ConfigurationBuilder configBuilder =
-              new ConfigurationBuilder()
-                  .setUrls(ImmutableList.of(jarUrl))
-                  .addClassLoader(classLoader);
-          Reflections reflections = new Reflections(configBuilder);
+          Set<Class<?>> annotatedClasses =
+              loadClasses(
+                  annotatedClassNames
+                      .computeIfAbsent(jarUrl, this::getAnnotatedClassNames)
+                      .pluginClassNames());
           PluginClassProvider classProvider =
               new RetryPluginClassProvider(
                   new AnnotatedPluginClassProvider(
-                      reflections, log, true /* warnUnmatchedTypes */, pluginType),
+                      annotatedClasses, log, true /* warnUnmatchedTypes */, pluginType),
                   new AnnotatedPluginClassProvider(
-                      reflections, log, false /* warnUnmatchedTypes */, PluginType.UNSPECIFIED));
+                      annotatedClasses,
+                      log,
+                      false /* warnUnmatchedTypes */,
+                      PluginType.UNSPECIFIED));
 
           Set<Class<?>> newClasses;
           try {
@@ -318,6 +343,25 @@ public class PluginCreator implements AutoCloseable {
     }
   }
 
+  @GuardedBy("lock")
+  private AnnotatedClassNames getAnnotatedClassNames(URL jarUrl) {
+    return PluginClassIndex.getInstance().getAnnotatedClassNames(jarUrl, classLoader);
+  }
+
+  /** Loads the given classes. Classes which fail to load are skipped, like Reflections does. */
+  @GuardedBy("lock")
+  private Set<Class<?>> loadClasses(Collection<String> classNames) {
+    Set<Class<?>> classes = new HashSet<>();
+    for (String className : classNames) {
+      try {
+        classes.add(classLoader.loadClass(className));
+      } catch (ClassNotFoundException | LinkageError e) {
+        logger.atWarning().withCause(e).log("Failed to load plugin class [%s]", className);
+      }
+    }
+    return classes;
+  }
+
   /** Gets the plugin instances if there is any plugin loaded. Never return null. */
   public List<Object> getPlugins() {
     synchronized (lock) {
@@ -334,6 +378,11 @@ public class PluginCreator implements AutoCloseable {
     synchronized (lock) {
       isClosed = true;
       if (classLoader != null) {
+        if (isClassLoaderShared) {
+          PluginClassLoaderCache.getInstance().release((URLClassLoader) classLoader);
+          classLoader = null;
+          return;
+        }
         try {
           if (classLoader instanceof Closeable) {
             ((Closeable) classLoader).close();
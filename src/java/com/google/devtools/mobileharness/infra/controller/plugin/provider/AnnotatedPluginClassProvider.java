@@ -21,8 +21,10 @@ import com.google.common.flogger.FluentLogger;
 import com.google.wireless.qa.mobileharness.shared.controller.plugin.Plugin;
 import com.google.wireless.qa.mobileharness.shared.controller.plugin.Plugin.PluginType;
 import com.google.wireless.qa.mobileharness.shared.log.LogCollector;
+import java.util.Collection;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.reflections.Reflections;
@@ -32,7 +34,7 @@ public class AnnotatedPluginClassProvider implements PluginClassProvider {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
-  private final Reflections reflections;
+  private final Supplier<Collection<Class<?>>> annotatedClassesSupplier;
   @Nullable private final LogCollector<?> log;
   private final boolean warnUnmatchedTypes;
   private final ImmutableSet<PluginType> pluginTypes;
@@ -46,7 +48,32 @@ public class AnnotatedPluginClassProvider implements PluginClassProvider {
       @Nullable LogCollector<?> log,
       boolean warnUnmatchedTypes,
       PluginType... pluginTypes) {
-    this.reflections = reflections;
+    this(
+        () -> reflections.getTypesAnnotatedWith(Plugin.class),
+        log,
+        warnUnmatchedTypes,
+        pluginTypes);
+  }
+
+  /**
+   * @param annotatedClasses The classes annotated with {@link Plugin}, e.g., from an index of the
+   *     plugin jars.
+   * @param pluginTypes The types of plugin to allow.
+   */
+  public AnnotatedPluginClassProvider(
+      Collection<Class<?>> annotatedClasses,
+      @Nullable LogCollector<?> log,
+      boolean warnUnmatchedTypes,
+      PluginType... pluginTypes) {
+    this(() -> annotatedClasses, log, warnUnmatchedTypes, pluginTypes);
+  }
+
+  private AnnotatedPluginClassProvider(
+      Supplier<Collection<Class<?>>> annotatedClassesSupplier,
+      @Nullable LogCollector<?> log,
+      boolean warnUnmatchedTypes,
+      PluginType... pluginTypes) {
+    this.annotatedClassesSupplier = annotatedClassesSupplier;
     this.log = log;
     this.warnUnmatchedTypes = warnUnmatchedTypes;
     this.pluginTypes = ImmutableSet.copyOf(pluginTypes);
@@ -54,7 +81,7 @@ public class AnnotatedPluginClassProvider implements PluginClassProvider {
 
   @Override
   public Set<Class<?>> getPluginClasses() {
-    return reflections.getTypesAnnotatedWith(Plugin.class).stream()
+    return annotatedClassesSupplier.get().stream()
         .filter(
             aClass ->
                 checkPluginType(
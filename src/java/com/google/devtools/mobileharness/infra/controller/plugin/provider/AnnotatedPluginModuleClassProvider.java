@@ -23,7 +23,9 @@ import com.google.wireless.qa.mobileharness.shared.constant.ErrorCode;
 import com.google.wireless.qa.mobileharness.shared.controller.plugin.Plugin.PluginType;
 import com.google.wireless.qa.mobileharness.shared.controller.plugin.PluginModule;
 import com.google.wireless.qa.mobileharness.shared.log.LogCollector;
+import java.util.Collection;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.reflections.Reflections;
@@ -31,7 +33,7 @@ import org.reflections.Reflections;
 /** Provides plugin module classes that have been annotated with the given {@link PluginType}s. */
 public class AnnotatedPluginModuleClassProvider implements PluginModuleClassProvider {
 
-  private final Reflections reflections;
+  private final Supplier<Collection<Class<?>>> annotatedClassesSupplier;
   @Nullable private final LogCollector<?> log;
   private final boolean warnUnmatchedTypes;
   private final ImmutableSet<PluginType> pluginTypes;
@@ -45,7 +47,32 @@ public class AnnotatedPluginModuleClassProvider implements PluginModuleClassProv
       @Nullable LogCollector<?> log,
       boolean warnUnmatchedTypes,
       PluginType... pluginTypes) {
-    this.reflections = reflections;
+    this(
+        () -> reflections.getTypesAnnotatedWith(PluginModule.class),
+        log,
+        warnUnmatchedTypes,
+        pluginTypes);
+  }
+
+  /**
+   * @param annotatedClasses The classes annotated with {@link PluginModule}, e.g., from an index of
+   *     the plugin jars.
+   * @param pluginTypes The types of plugin to allow.
+   */
+  public AnnotatedPluginModuleClassProvider(
+      Collection<Class<?>> annotatedClasses,
+      @Nullable LogCollector<?> log,
+      boolean warnUnmatchedTypes,
+      PluginType... pluginTypes) {
+    this(() -> annotatedClasses, log, warnUnmatchedTypes, pluginTypes);
+  }
+
+  private AnnotatedPluginModuleClassProvider(
+      Supplier<Collection<Class<?>>> annotatedClassesSupplier,
+      @Nullable LogCollector<?> log,
+      boolean warnUnmatchedTypes,
+      PluginType... pluginTypes) {
+    this.annotatedClassesSupplier = annotatedClassesSupplier;
     this.log = log;
     this.warnUnmatchedTypes = warnUnmatchedTypes;
     this.pluginTypes = ImmutableSet.copyOf(pluginTypes);
@@ -54,7 +81,7 @@ public class AnnotatedPluginModuleClassProvider implements PluginModuleClassProv
   @Override
   public Set<Class<? extends Module>> getPluginModuleClasses() throws MobileHarnessException {
     try {
-      return reflections.getTypesAnnotatedWith(PluginModule.class).stream()
+      return annotatedClassesSupplier.get().stream()
           .filter(
               aClass ->
                   AnnotatedPluginClassProvider.checkPluginType(
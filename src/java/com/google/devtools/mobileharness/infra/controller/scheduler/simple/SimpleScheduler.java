@@ -16,6 +16,8 @@
 
 package com.google.devtools.mobileharness.infra.controller.scheduler.simple;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
 import com.google.devtools.mobileharness.api.model.allocation.Allocation;
@@ -25,6 +27,7 @@ import com.google.devtools.mobileharness.api.model.lab.LabLocator;
 import com.google.devtools.mobileharness.api.model.lab.LabScheduleUnit;
 import com.google.devtools.mobileharness.infra.controller.scheduler.AbstractScheduler;
 import com.google.devtools.mobileharness.infra.controller.scheduler.AdhocTestbedSchedulingUtil;
+import com.google.devtools.mobileharness.shared.util.logging.LogSummary;
 import com.google.devtools.mobileharness.shared.util.time.Sleeper;
 import com.google.wireless.qa.mobileharness.shared.MobileHarnessException;
 import com.google.wireless.qa.mobileharness.shared.constant.ErrorCode;
@@ -55,6 +58,12 @@ public class SimpleScheduler extends AbstractScheduler implements Runnable {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /**
+   * Counts the frequent operations, whose INFO logs are rate-limited so that logging doesn't
+   * dominate the scheduler under load.
+   */
+  private static final LogSummary logSummary = LogSummary.create("SimpleScheduler");
+
   private static final Duration SCHEDULING_SMALL_INTERVAL = Duration.ofMillis(10L);
   private static final Duration SCHEDULING_LARGE_INTERVAL = Duration.ofMillis(50L);
 
@@ -161,7 +170,11 @@ public class SimpleScheduler extends AbstractScheduler implements Runnable {
     TestLocator testLocator = test.locator();
     SimpleJobInfo job = checkJob(testLocator.getJobLocator().getId());
     job.addTest(testLocator);
-    logger.atInfo().log("Added test %s", testLocator);
+    logger
+        .atInfo()
+        .atMostEvery(logSummary.rateLimitSeconds(), SECONDS)
+        .log("Added test %s", testLocator);
+    logSummary.count("test_added");
   }
 
   /**
@@ -181,17 +194,19 @@ public class SimpleScheduler extends AbstractScheduler implements Runnable {
 
       TestLocator testLocator = job.removeTest(testId);
       if (testLocator == null) {
-        logger.atWarning().log("%s", String.format("Test %s not found in job %s", testId, jobId));
+        logger.atWarning().log("Test %s not found in job %s", testId, jobId);
       } else {
         Allocation allocation = testAllocations.get(testId);
         if (allocation != null) {
           logger.atSevere().log(
-              "%s",
-              String.format(
-                  "Test %s removed from job %s, but its allocation is not released: %s",
-                  testId, jobId, allocation));
+              "Test %s removed from job %s, but its allocation is not released: %s",
+              testId, jobId, allocation);
         } else {
-          logger.atInfo().log("%s", String.format("Test %s removed from job %s", testId, jobId));
+          logger
+              .atInfo()
+              .atMostEvery(logSummary.rateLimitSeconds(), SECONDS)
+              .log("Test %s removed from job %s", testId, jobId);
+          logSummary.count("test_removed");
         }
       }
     }
@@ -209,8 +224,15 @@ public class SimpleScheduler extends AbstractScheduler implements Runnable {
     synchronized (allocationLock) {
       exDevice = lab.upsertDevice(deviceUnit);
     }
-    logger.atInfo().log(
-        "%s device %s", (exDevice == null ? "Added" : "Updated"), deviceUnit.locator());
+    if (exDevice == null) {
+      logger.atInfo().log("Added device %s", deviceUnit.locator());
+    } else {
+      logger
+          .atInfo()
+          .atMostEvery(logSummary.rateLimitSeconds(), SECONDS)
+          .log("Updated device %s", deviceUnit.locator());
+      logSummary.count("device_updated");
+    }
   }
 
   /**
@@ -233,12 +255,10 @@ public class SimpleScheduler extends AbstractScheduler implements Runnable {
           Allocation allocation = deviceAllocations.get(deviceLocator.universalId());
           if (allocation != null) {
             logger.atSevere().log(
-                "%s",
-                String.format(
-                    "Device %s removed. But its allocation is not release: %s",
-                    deviceLocator, allocation));
+                "Device %s removed. But its allocation is not release: %s",
+                deviceLocator, allocation);
           } else {
-            logger.atInfo().log("%s", String.format("Device %s removed", deviceLocator));
+            logger.atInfo().log("Device %s removed", deviceLocator);
           }
         }
       }
@@ -271,8 +291,9 @@ public class SimpleScheduler extends AbstractScheduler implements Runnable {
         String deviceId = deviceLocator.universalId();
         Allocation deviceAllocation = deviceAllocations.get(deviceId);
         if (deviceAllocation == null) {
-          logger.atInfo().log(
+          logger.atInfo().atMostEvery(logSummary.rateLimitSeconds(), SECONDS).log(
               "Skip unallocate device %s because it is already idle", deviceLocator);
+          logSummary.count("device_already_idle");
         } else if (deviceAllocation.equals(allocation)) {
           deviceAllocations.remove(deviceId);
           unallocated = true;
@@ -280,14 +301,16 @@ public class SimpleScheduler extends AbstractScheduler implements Runnable {
             removeDevice(deviceLocator);
             logger.atInfo().log("Free and remove device %s", deviceLocator);
           } else {
-            logger.atInfo().log("Free device %s", deviceLocator);
+            logger
+                .atInfo()
+                .atMostEvery(logSummary.rateLimitSeconds(), SECONDS)
+                .log("Free device %s", deviceLocator);
           }
+          logSummary.count("device_freed");
         } else {
           logger.atWarning().log(
-              "%s",
-              String.format(
-                  "Skip unallocate device %s because it is assigned to a different test: %s",
-                  deviceLocator, deviceAllocation));
+              "Skip unallocate device %s because it is assigned to a different test: %s",
+              deviceLocator, deviceAllocation);
         }
       }
       // Closes the test.
@@ -296,26 +319,34 @@ public class SimpleScheduler extends AbstractScheduler implements Runnable {
       String testId = testLocator.id();
       Allocation testAllocation = testAllocations.get(testId);
       if (testAllocation == null) {
-        logger.atInfo().log("Skip unallocate test because it is new/closed");
+        logger.atInfo().atMostEvery(logSummary.rateLimitSeconds(), SECONDS).log(
+            "Skip unallocate test because it is new/closed");
+        logSummary.count("test_already_unassigned");
       } else if (testAllocation.equals(allocation)) {
         testAllocations.remove(testId);
         unallocated = true;
         if (closeTest) {
-          logger.atInfo().log("Unassign and remove test %s", testLocator);
+          logger
+              .atInfo()
+              .atMostEvery(logSummary.rateLimitSeconds(), SECONDS)
+              .log("Unassign and remove test %s", testLocator);
           removeTest(testLocator.jobLocator().id(), testId);
         } else {
-          logger.atInfo().log("Unassign test %s", testLocator);
+          logger
+              .atInfo()
+              .atMostEvery(logSummary.rateLimitSeconds(), SECONDS)
+              .log("Unassign test %s", testLocator);
         }
+        logSummary.count("test_unassigned");
       } else {
         // Should not reach here.
         logger.atSevere().log(
-            "%s",
-            String.format(
-                "Inconsistent allocation info with test %s, expect %s, got %s",
-                testLocator, allocation, testAllocation));
+            "Inconsistent allocation info with test %s, expect %s, got %s",
+            testLocator, allocation, testAllocation);
       }
       if (unallocated) {
         logger.atInfo().log("Allocation %s released", allocation);
+        logSummary.count("allocation_released");
       }
     }
   }
@@ -372,10 +403,8 @@ public class SimpleScheduler extends AbstractScheduler implements Runnable {
         return false;
       } else if (testAllocations.containsKey(testId)) {
         logger.atWarning().log(
-            "%s",
-            String.format(
-                "Test %s has allocation %s. Can not create allocation %s.",
-                testId, testAllocations.get(testId), allocation));
+            "Test %s has allocation %s. Can not create allocation %s.",
+            testId, testAllocations.get(testId), allocation);
         return false;
       }
 
@@ -401,10 +430,8 @@ public class SimpleScheduler extends AbstractScheduler implements Runnable {
         }
         if (deviceAllocations.containsKey(deviceLocator.universalId())) {
           logger.atWarning().log(
-              "%s",
-              String.format(
-                  "Device %s has allocation %s. Can not create allocation %s.",
-                  deviceLocator, deviceAllocations.get(deviceLocator.universalId()), allocation));
+              "Device %s has allocation %s. Can not create allocation %s.",
+              deviceLocator, deviceAllocations.get(deviceLocator.universalId()), allocation);
           return false;
         }
       }
@@ -415,6 +442,7 @@ public class SimpleScheduler extends AbstractScheduler implements Runnable {
       }
     }
     logger.atInfo().log("Created allocation %s", allocation);
+    logSummary.count("allocation_created");
 
     // After the allocation, we send out event to notify external framework. If the framework can
     // not accept the event because the test/devices are removed, it will call scheduler to undo the
@@ -40,6 +40,8 @@ import com.google.devtools.mobileharness.infra.controller.test.exception.TestRun
 import com.google.devtools.mobileharness.infra.controller.test.model.TestExecutionResult;
 import com.google.devtools.mobileharness.infra.controller.test.util.SubscriberExceptionLoggingHandler;
 import com.google.devtools.mobileharness.shared.constant.closeable.MobileHarnessAutoCloseable;
+import com.google.devtools.mobileharness.shared.trace.SpanRecorder;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Type.SpanType;
 import com.google.devtools.mobileharness.shared.util.comm.messaging.message.TestMessageInfo;
 import com.google.devtools.mobileharness.shared.util.comm.messaging.poster.TestMessagePoster;
 import com.google.devtools.mobileharness.shared.util.error.ErrorModelConverter;
@@ -281,7 +283,12 @@ public abstract class BaseTestRunner<T extends BaseTestRunner<T>> extends Abstra
       // Pre-runs the test.
       boolean skipRunTest = false;
       if (shouldRunDoPreRunTest(testInfo)) {
-        try (MobileHarnessAutoCloseable ignored = new MobileHarnessAutoCloseable()) {
+        try (MobileHarnessAutoCloseable ignored =
+            SpanRecorder.getInstance()
+                .startSpan(
+                    SpanType.PRE_RUN_TEST,
+                    "test_runner.pre_run_test",
+                    SpanRecorder.testIdTag(testInfo.locator().getId()))) {
           skipRunTest = doPreRunTest();
         } finally {
           testInfo
@@ -306,7 +313,12 @@ public abstract class BaseTestRunner<T extends BaseTestRunner<T>> extends Abstra
             .log(
                 "Start running test %s on device(s) %s",
                 testInfo.locator().getName(), allocation.getAllDeviceLocators());
-        try (MobileHarnessAutoCloseable ignored = new MobileHarnessAutoCloseable()) {
+        try (MobileHarnessAutoCloseable ignored =
+            SpanRecorder.getInstance()
+                .startSpan(
+                    SpanType.RUN_TEST,
+                    "test_runner.run_test",
+                    SpanRecorder.testIdTag(testInfo.locator().getId()))) {
           runTest(testInfo, allocation);
         } finally {
           testInfo
@@ -435,7 +447,12 @@ public abstract class BaseTestRunner<T extends BaseTestRunner<T>> extends Abstra
           .add(PropertyName.Test.DEVICE_DONE_EPOCH_MS, String.valueOf(Clock.systemUTC().millis()));
 
       // Post-runs the test.
-      try (MobileHarnessAutoCloseable ignored = new MobileHarnessAutoCloseable()) {
+      try (MobileHarnessAutoCloseable ignored =
+          SpanRecorder.getInstance()
+              .startSpan(
+                  SpanType.POST_RUN_TEST,
+                  "test_runner.post_run_test",
+                  SpanRecorder.testIdTag(testInfo.locator().getId()))) {
         // Makes sure we finalize the test result.
         if (testInfo.result().get() == TestResult.UNKNOWN) {
           String errMsg = "Test result not found when test finished normally. Mark as ERROR.";
@@ -33,6 +33,12 @@ public class Annotations {
   @BindingAnnotation
   public @interface DebugThreadPool {}
 
+  /** Annotation for binding the thread pool which pushes test statuses to subscribers. */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER})
+  @BindingAnnotation
+  public @interface TestStatusPublisherThreadPool {}
+
   /** Annotation for binding RPC port flag value. */
   @Retention(RetentionPolicy.RUNTIME)
   @Target({ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER})
@@ -43,6 +43,7 @@ import com.google.devtools.mobileharness.infra.lab.Annotations.DebugThreadPool;
 import com.google.devtools.mobileharness.infra.lab.Annotations.GlobalEventBus;
 import com.google.devtools.mobileharness.infra.lab.Annotations.RpcPort;
 import com.google.devtools.mobileharness.infra.lab.Annotations.ServViaStubby;
+import com.google.devtools.mobileharness.infra.lab.Annotations.TestStatusPublisherThreadPool;
 import com.google.devtools.mobileharness.infra.lab.common.dir.DirUtil;
 import com.google.devtools.mobileharness.infra.lab.controller.DeviceConfigManager;
 import com.google.devtools.mobileharness.infra.lab.controller.JobManager;
@@ -113,6 +114,7 @@ public class LabServer {
   private final EventBus globalInternalBus;
   private final ListeningExecutorService mainThreadPool;
   private final ListeningScheduledExecutorService debugExecutor;
+  private final ListeningScheduledExecutorService testStatusPublisherThreadPool;
   private final boolean enableStubbyRpcServer;
   private final int rpcPort;
 
@@ -129,6 +131,8 @@ public class LabServer {
       @GlobalEventBus EventBus globalInternalBus,
       ListeningExecutorService mainThreadPool,
       @DebugThreadPool ListeningScheduledExecutorService debugExecutor,
+      @TestStatusPublisherThreadPool
+          ListeningScheduledExecutorService testStatusPublisherThreadPool,
       @ServViaStubby boolean enableStubbyRpcServer,
       @RpcPort int rpcPort) {
     this.testManager = testManager;
@@ -142,6 +146,7 @@ public class LabServer {
     this.globalInternalBus = globalInternalBus;
     this.mainThreadPool = mainThreadPool;
     this.debugExecutor = debugExecutor;
+    this.testStatusPublisherThreadPool = testStatusPublisherThreadPool;
     this.enableStubbyRpcServer = enableStubbyRpcServer;
     this.rpcPort = rpcPort;
   }
@@ -312,6 +317,7 @@ public class LabServer {
     if (mainThreadPool != null) {
       mainThreadPool.shutdownNow();
     }
+    testStatusPublisherThreadPool.shutdownNow();
     // TODO: Shutdown socketFileReceiver.
 
     Set<Integer> processIds = null;
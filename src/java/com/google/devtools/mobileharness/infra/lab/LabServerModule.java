@@ -44,6 +44,7 @@ import com.google.devtools.mobileharness.infra.lab.Annotations.LabRpcPort;
 import com.google.devtools.mobileharness.infra.lab.Annotations.RpcPort;
 import com.google.devtools.mobileharness.infra.lab.Annotations.ServViaCloudRpc;
 import com.google.devtools.mobileharness.infra.lab.Annotations.ServViaStubby;
+import com.google.devtools.mobileharness.infra.lab.Annotations.TestStatusPublisherThreadPool;
 import com.google.devtools.mobileharness.infra.lab.controller.LabDirectTestRunnerHolder;
 import com.google.devtools.mobileharness.infra.lab.rpc.service.ExecTestServiceImpl;
 import com.google.devtools.mobileharness.shared.file.resolver.AbstractFileResolver;
@@ -118,6 +119,9 @@ public class LabServerModule extends AbstractModule {
     bind(ListeningScheduledExecutorService.class)
         .annotatedWith(DebugThreadPool.class)
         .toInstance(createStandardScheduledThreadPool("mh-lab-server-debug-random-exit-task", 1));
+    bind(ListeningScheduledExecutorService.class)
+        .annotatedWith(TestStatusPublisherThreadPool.class)
+        .toInstance(createStandardScheduledThreadPool("mh-lab-server-test-status-publisher", 1));
     bind(LocalFileUtil.class).in(Singleton.class);
     bind(SystemUtil.class).in(Singleton.class);
     bind(NetUtil.class).in(Singleton.class);
@@ -194,12 +198,14 @@ public class LabServerModule extends AbstractModule {
   ExecTestServiceImpl provideExecTestService(
       ExecTestServiceImpl.ExecTestServiceImplFactory factory,
       ProxyTestManager testManager,
-      ListeningExecutorService mainThreadPool) {
+      ListeningExecutorService mainThreadPool,
+      @TestStatusPublisherThreadPool
+          ListeningScheduledExecutorService testStatusPublisherThreadPool) {
     // TestMessageManager is created for ExecTestServiceImpl to consume. It's a singleton that
     // requires testManager to be injected, hence it's initialization when ExecTestServiceImpl
     // object is provided.
     TestMessageManager.createInstance(
         testId -> LabTestMessagePosterUtil.getPosterFromProxyTestManager(testManager, testId));
-    return factory.create(mainThreadPool);
+    return factory.create(mainThreadPool, testStatusPublisherThreadPool);
   }
 }
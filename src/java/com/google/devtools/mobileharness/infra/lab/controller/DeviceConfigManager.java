@@ -105,7 +105,7 @@ public abstract class DeviceConfigManager implements Runnable {
         useLongCheckInterval = true;
       }
       try {
-        sleeper.sleep(
+        waitForNextCheck(
             useLongCheckInterval
                 ? CHECK_DEVICE_CONFIG_LONG_INTERVAL
                 : CHECK_DEVICE_CONFIG_SHORT_INTERVAL);
@@ -162,7 +162,13 @@ public abstract class DeviceConfigManager implements Runnable {
       // the config in server; If not exists, prepare to update server from local device config.
       DeviceConfig remoteDeviceConfig = remoteDeviceUuidToConfigMap.get(deviceUuid);
       if (remoteDeviceConfig != null) {
-        deviceConfigsNeedToUpdateToLocal.put(deviceControlId, remoteDeviceConfig);
+        // Compares with the current local config rather than the last updated one, because the
+        // local config may be changed by others.
+        Optional<DeviceConfig> localDeviceConfig =
+            apiConfig.getDeviceConfigToStore(deviceControlId);
+        if (!localDeviceConfig.equals(Optional.of(remoteDeviceConfig))) {
+          deviceConfigsNeedToUpdateToLocal.put(deviceControlId, remoteDeviceConfig);
+        }
       } else {
         Optional<DeviceConfig> localDeviceConfig =
             apiConfig.getDeviceConfigToStore(deviceControlId);
@@ -222,6 +228,14 @@ public abstract class DeviceConfigManager implements Runnable {
    */
   protected abstract boolean beginUsingLongCheckInterval(long checkCount);
 
+  /**
+   * Waits for the given interval before the next check. Subclasses can end the wait earlier, e.g.,
+   * when the config storage changes.
+   */
+  protected void waitForNextCheck(Duration interval) throws InterruptedException {
+    sleeper.sleep(interval);
+  }
+
   /** Loads the lab config from the config storage, like config service, local file, etc. */
   protected abstract Optional<LabConfig> loadLabConfig(String hostName)
       throws MobileHarnessException;
@@ -16,26 +16,45 @@
 
 package com.google.devtools.mobileharness.infra.lab.controller;
 
+import static java.util.concurrent.TimeUnit.MINUTES;
+
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.flogger.FluentLogger;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
 import com.google.devtools.mobileharness.infra.controller.test.TestInfoManager;
 import com.google.devtools.mobileharness.shared.util.comm.messaging.message.TestMessageInfo;
 import com.google.wireless.qa.mobileharness.shared.comm.message.event.TestMessageEvent;
+import com.google.wireless.qa.mobileharness.shared.controller.event.TestEndedEvent;
+import com.google.wireless.qa.mobileharness.shared.model.job.TestInfo;
+import java.time.Clock;
 import java.time.Duration;
-import java.util.Collection;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
 
 /**
  * The forwarding test message buffer for buffering test messages to forward from the lab side to
  * the client side.
+ *
+ * <p>Each root test has its own lock-free message queue, so adding and polling messages of
+ * different tests do not block each other. Listeners are notified when a message is buffered, so
+ * the messages can be pushed to the client immediately rather than waiting for its next poll.
+ *
+ * <p>A message is added to a queue, and an ended and empty queue is removed, inside the atomic
+ * compute operations of the map, so a message is never added to a queue which has been removed.
  */
 public class ForwardingTestMessageBuffer {
 
@@ -45,6 +64,22 @@ public class ForwardingTestMessageBuffer {
   /** The interval of cleaning up. */
   @VisibleForTesting static final Duration CLEAN_UP_INTERVAL = Duration.ofMinutes(11L);
 
+  /** The max number of buffered messages of a root test. The oldest messages are dropped. */
+  @VisibleForTesting static final int MAX_BUFFERED_MESSAGE_NUM_PER_TEST = 10_000;
+
+  /** The max age of a buffered message. Older messages are dropped when cleaning up. */
+  @VisibleForTesting static final Duration MAX_BUFFERED_MESSAGE_AGE = Duration.ofMinutes(30L);
+
+  /** How long the messages of an ended root test are kept for the last poll of the client. */
+  @VisibleForTesting static final Duration ENDED_TEST_MESSAGE_RETENTION = Duration.ofMinutes(5L);
+
+  /** Listener of the buffered messages. */
+  public interface MessageListener {
+
+    /** Invoked after a message of the given root test is buffered. */
+    void onMessageBuffered(String rootTestId);
+  }
+
   /** The cleaner task. */
   @VisibleForTesting
   final TimerTask cleanerTask =
@@ -52,53 +87,53 @@ public class ForwardingTestMessageBuffer {
 
         @Override
         public void run() {
-          synchronized (bufferedMessages) {
-            // For each test:
-            Iterator<Entry<String, Collection<TestMessageInfo>>> iterator =
-                bufferedMessages.asMap().entrySet().iterator();
-            while (iterator.hasNext()) {
-              Entry<String, Collection<TestMessageInfo>> entry = iterator.next();
-              String rootTestId = entry.getKey();
-              Collection<TestMessageInfo> messages = entry.getValue();
-
-              // If the job manager can not find the test info, the messages of the test can be
-              // removed.
-              try {
-                testInfoManager.getTestInfo(rootTestId);
-              } catch (MobileHarnessException e) {
-                logger.atInfo().log(
-                    "Remove test messages of expired root test %s: %s", rootTestId, messages);
-                iterator.remove();
-              }
-            }
-          }
+          cleanUp();
         }
       };
 
-  /** The forwarding messages {@code <rootTestId, message>}. */
-  @VisibleForTesting final ListMultimap<String, TestMessageInfo> bufferedMessages;
+  /** The forwarding messages {@code <rootTestId, messages>}. */
+  @VisibleForTesting final ConcurrentMap<String, MessageQueue> bufferedMessages;
 
   /** The job manager. */
   private final TestInfoManager testInfoManager;
 
+  private final Clock clock;
+
+  private final List<MessageListener> messageListeners = new CopyOnWriteArrayList<>();
+
   /** The constructor. */
   public ForwardingTestMessageBuffer(TestInfoManager testInfoManager) {
-    this(testInfoManager, new Timer("ForwardingTestMessageBufferCleaner", /* isDaemon= */ true));
+    this(
+        testInfoManager,
+        new Timer("ForwardingTestMessageBufferCleaner", /* isDaemon= */ true),
+        Clock.systemUTC());
   }
 
   /** The constructor for testing. */
   @VisibleForTesting
-  ForwardingTestMessageBuffer(TestInfoManager testInfoManager, Timer cleanerTimer) {
+  ForwardingTestMessageBuffer(TestInfoManager testInfoManager, Timer cleanerTimer, Clock clock) {
     this.testInfoManager = testInfoManager;
-    bufferedMessages = ArrayListMultimap.create();
+    this.clock = clock;
+    bufferedMessages = new ConcurrentHashMap<>();
     cleanerTimer.schedule(cleanerTask, CLEAN_UP_INTERVAL.toMillis(), CLEAN_UP_INTERVAL.toMillis());
   }
 
+  /** Adds a listener which is notified when a message is buffered. */
+  public void addMessageListener(MessageListener messageListener) {
+    messageListeners.add(messageListener);
+  }
+
   /** Polls the buffered forwarding test messages of a root test. */
   public List<TestMessageInfo> pollForwardingTestMessages(String rootTestId) {
-    synchronized (bufferedMessages) {
-      return bufferedMessages.removeAll(rootTestId);
+    MessageQueue queue = bufferedMessages.get(rootTestId);
+    if (queue == null) {
+      return ImmutableList.of();
     }
+    List<TestMessageInfo> messages = queue.pollAll();
+    if (queue.isEnded()) {
+      removeIfEndedAndEmpty(rootTestId);
+    }
+    return messages;
   }
 
   /** Adds a forwarding test message. */
@@ -108,9 +143,177 @@ public class ForwardingTestMessageBuffer {
     if (!testMessageEvent.getTestMessageInfo().isRemote()) {
       TestMessageInfo testMessageInfo = testMessageEvent.getTestMessageInfo();
       logger.atFine().log("Forward test message to client: %s", testMessageInfo);
-      synchronized (bufferedMessages) {
-        bufferedMessages.put(testMessageInfo.rootTestId(), testMessageInfo);
+      String rootTestId = testMessageInfo.rootTestId();
+      Instant now = clock.instant();
+      bufferedMessages.compute(
+          rootTestId,
+          (testId, queue) -> {
+            if (queue == null) {
+              queue = new MessageQueue();
+            }
+            if (queue.add(testMessageInfo, now)) {
+              logger.atWarning().atMostEvery(1, MINUTES).log(
+                  "Too many buffered test messages of root test %s, drop the oldest one", testId);
+            }
+            return queue;
+          });
+      for (MessageListener messageListener : messageListeners) {
+        messageListener.onMessageBuffered(rootTestId);
+      }
+    }
+  }
+
+  /** Marks the messages of a root test as removable after the test ends. */
+  @Subscribe
+  private void onTestEnded(TestEndedEvent event) {
+    TestInfo testInfo = event.getTest();
+    if (testInfo.isRootTest()) {
+      onRootTestEnded(testInfo.locator().getId());
+    }
+  }
+
+  @VisibleForTesting
+  void onRootTestEnded(String rootTestId) {
+    MessageQueue queue = bufferedMessages.get(rootTestId);
+    if (queue == null) {
+      return;
+    }
+    queue.end(clock.instant());
+    removeIfEndedAndEmpty(rootTestId);
+  }
+
+  /**
+   * Removes the message queue of a root test if the test has ended and all its messages have been
+   * polled. It is atomic with adding messages in {@link #addForwardingTestMessage}.
+   */
+  private void removeIfEndedAndEmpty(String rootTestId) {
+    bufferedMessages.computeIfPresent(
+        rootTestId, (testId, queue) -> queue.isEnded() && queue.isEmpty() ? null : queue);
+  }
+
+  /**
+   * Removes the expired messages, and the messages of the ended root tests or the root tests which
+   * can not be found by the job manager.
+   */
+  @VisibleForTesting
+  void cleanUp() {
+    Instant now = clock.instant();
+    Iterator<Entry<String, MessageQueue>> iterator = bufferedMessages.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Entry<String, MessageQueue> entry = iterator.next();
+      String rootTestId = entry.getKey();
+      MessageQueue queue = entry.getValue();
+
+      int expiredMessageNum = queue.removeOlderThan(now.minus(MAX_BUFFERED_MESSAGE_AGE));
+      if (expiredMessageNum > 0) {
+        logger.atInfo().log(
+            "Remove %d expired test messages of root test %s", expiredMessageNum, rootTestId);
+      }
+
+      Instant endTime = queue.getEndTime();
+      if (endTime != null) {
+        if (endTime.plus(ENDED_TEST_MESSAGE_RETENTION).isBefore(now)) {
+          logger.atInfo().log(
+              "Remove test messages of ended root test %s: %s", rootTestId, queue.pollAll());
+          iterator.remove();
+        }
+        continue;
       }
+
+      // If the job manager can not find the test info, the messages of the test can be removed.
+      try {
+        testInfoManager.getTestInfo(rootTestId);
+      } catch (MobileHarnessException e) {
+        logger.atInfo().log(
+            "Remove test messages of expired root test %s: %s", rootTestId, queue.pollAll());
+        iterator.remove();
+      }
+    }
+  }
+
+  /** The buffered messages of a root test. */
+  @VisibleForTesting
+  static class MessageQueue {
+
+    private final Queue<BufferedMessage> messages = new ConcurrentLinkedQueue<>();
+
+    /** The size of {@link #messages}, whose {@code size()} is not a constant-time operation. */
+    private final AtomicInteger size = new AtomicInteger();
+
+    @Nullable private volatile Instant endTime;
+
+    /**
+     * Adds a message to the queue.
+     *
+     * @return whether the oldest message is dropped because the queue is full
+     */
+    private boolean add(TestMessageInfo message, Instant time) {
+      messages.add(new BufferedMessage(message, time));
+      if (size.incrementAndGet() > MAX_BUFFERED_MESSAGE_NUM_PER_TEST) {
+        if (messages.poll() != null) {
+          size.decrementAndGet();
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private List<TestMessageInfo> pollAll() {
+      List<TestMessageInfo> result = new ArrayList<>();
+      BufferedMessage message;
+      while ((message = messages.poll()) != null) {
+        size.decrementAndGet();
+        result.add(message.message);
+      }
+      return result;
+    }
+
+    /** Removes the messages added before the given time, and returns the number of them. */
+    private int removeOlderThan(Instant time) {
+      int count = 0;
+      BufferedMessage message;
+      while ((message = messages.peek()) != null && message.time.isBefore(time)) {
+        if (messages.remove(message)) {
+          size.decrementAndGet();
+          count++;
+        }
+      }
+      return count;
+    }
+
+    @VisibleForTesting
+    int size() {
+      return size.get();
+    }
+
+    private boolean isEmpty() {
+      return size.get() <= 0;
+    }
+
+    private void end(Instant time) {
+      endTime = time;
+    }
+
+    private boolean isEnded() {
+      return endTime != null;
+    }
+
+    @Nullable
+    private Instant getEndTime() {
+      return endTime;
+    }
+  }
+
+  private static class BufferedMessage {
+
+    private final TestMessageInfo message;
+
+    /** The time when the message is buffered. */
+    private final Instant time;
+
+    private BufferedMessage(TestMessageInfo message, Instant time) {
+      this.message = message;
+      this.time = time;
     }
   }
 }
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.lab.controller;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.flogger.FluentLogger;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GenFileChange;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32C;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Incremental feed of the new or changed files in the gen file dir of a running test, so that
+ * clients can download them while the test runs rather than all of them after the test ends.
+ *
+ * <p>The dir is scanned in a background task, so that reading the changes never walks the dir or
+ * reads the files. It is rescanned when a file system watcher reports changes in it, or at least
+ * every {@link #RESCAN_INTERVAL} since the watcher may miss changes (e.g., in sub dirs created
+ * before they are registered, or on file systems without native watch support). A file is only
+ * published after its size and last modified time do not change between two scans, so files which
+ * are being written are not published repeatedly. A file is published again only if its checksum
+ * changes.
+ */
+public class GenFileChangeFeed implements AutoCloseable {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** The max interval between two scans of the dir. */
+  @VisibleForTesting static final Duration RESCAN_INTERVAL = Duration.ofSeconds(5L);
+
+  /** The min interval between two scans of the dir, unless the test is done. */
+  private static final Duration MIN_SCAN_INTERVAL = Duration.ofSeconds(1L);
+
+  /** State of a file in the dir. */
+  private static class FileState {
+
+    private long size;
+    private long lastModifiedMs;
+
+    /** Whether the size and last modified time above are published. */
+    private boolean published;
+
+    /** The checksum of the last published content, or null if the file is never published. */
+    @Nullable private Long publishedCrc32c;
+  }
+
+  private final Path genFileDir;
+  private final Clock clock;
+  @Nullable private final ScheduledExecutorService scanExecutor;
+  private final AtomicBoolean testDone = new AtomicBoolean();
+
+  /** Guards the scan state below, so that scans never run concurrently. */
+  private final Object scanLock = new Object();
+
+  @GuardedBy("scanLock")
+  @Nullable
+  private WatchService watchService;
+
+  @GuardedBy("scanLock")
+  private final Set<Path> watchedDirs = new HashSet<>();
+
+  /** {related path, state}. */
+  @GuardedBy("scanLock")
+  private final Map<String, FileState> files = new HashMap<>();
+
+  @GuardedBy("scanLock")
+  private Instant lastScanTime = Instant.EPOCH;
+
+  /** Whether the watcher has reported changes since the last scan. */
+  @GuardedBy("scanLock")
+  private boolean watchEventsPending;
+
+  /** Whether any file found in the last scan is waiting for the next scan to be published. */
+  @GuardedBy("scanLock")
+  private boolean filesPending;
+
+  @GuardedBy("scanLock")
+  @Nullable
+  private Future<?> scanFuture;
+
+  /** {sequence, change} of the latest change of each file. */
+  @GuardedBy("this")
+  private final TreeMap<Long, GenFileChange> changes = new TreeMap<>();
+
+  /** {related path, sequence of its latest change}. */
+  @GuardedBy("this")
+  private final Map<String, Long> changeSequences = new HashMap<>();
+
+  @GuardedBy("this")
+  private long lastSequence;
+
+  /**
+   * Creates a feed and starts scanning the dir in the given executor.
+   *
+   * @param initialSequence the sequence after which the changes of this feed are numbered. A feed
+   *     which replaces an expired one should use the last sequence its clients have retrieved, so
+   *     that they never skip the changes of the new feed.
+   */
+  public GenFileChangeFeed(
+      Path genFileDir, long initialSequence, ScheduledExecutorService scanExecutor) {
+    this(genFileDir, initialSequence, Clock.systemUTC(), scanExecutor);
+    synchronized (scanLock) {
+      scanFuture =
+          scanExecutor.scheduleWithFixedDelay(
+              this::scanIfNeeded,
+              /* initialDelay= */ 0L,
+              MIN_SCAN_INTERVAL.toMillis(),
+              TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Creates a feed which only scans the dir when {@link #scanIfNeeded} is called. */
+  @VisibleForTesting
+  GenFileChangeFeed(Path genFileDir, long initialSequence, Clock clock) {
+    this(genFileDir, initialSequence, clock, /* scanExecutor= */ null);
+  }
+
+  private GenFileChangeFeed(
+      Path genFileDir,
+      long initialSequence,
+      Clock clock,
+      @Nullable ScheduledExecutorService scanExecutor) {
+    this.genFileDir = genFileDir;
+    this.clock = clock;
+    this.scanExecutor = scanExecutor;
+    this.lastSequence = initialSequence;
+    try {
+      watchService = genFileDir.getFileSystem().newWatchService();
+    } catch (IOException | UnsupportedOperationException e) {
+      logger.atInfo().withCause(e).log(
+          "Failed to watch gen file dir %s, only rescan it periodically", genFileDir);
+    }
+  }
+
+  public Path getGenFileDir() {
+    return genFileDir;
+  }
+
+  /**
+   * Gets the latest changes of the files whose sequences are larger than the given one, in the
+   * order of their sequences.
+   *
+   * @param sequence the sequence of the last change which has been retrieved, or 0 for all changes
+   */
+  public synchronized ImmutableList<GenFileChange> getChangesAfter(long sequence) {
+    return ImmutableList.copyOf(changes.tailMap(sequence, /* inclusive= */ false).values());
+  }
+
+  /**
+   * Notifies the feed that the test is done. The periodic scans stop, and the dir is scanned once
+   * more to publish all files no matter whether they are still changing.
+   */
+  public void onTestDone() {
+    if (!testDone.compareAndSet(false, true) || scanExecutor == null) {
+      return;
+    }
+    synchronized (scanLock) {
+      if (scanFuture != null) {
+        scanFuture.cancel(/* mayInterruptIfRunning= */ false);
+      }
+      scanFuture = scanExecutor.submit(this::scanIfNeeded);
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (scanLock) {
+      if (scanFuture != null) {
+        scanFuture.cancel(/* mayInterruptIfRunning= */ false);
+        scanFuture = null;
+      }
+      if (watchService != null) {
+        try {
+          watchService.close();
+        } catch (IOException e) {
+          logger.atInfo().withCause(e).log("Failed to close watcher of %s", genFileDir);
+        }
+        watchService = null;
+      }
+    }
+  }
+
+  /**
+   * Scans the dir if the watcher reports changes, files are waiting to be published, the dir has
+   * not been scanned for {@link #RESCAN_INTERVAL}, or the test is done.
+   */
+  @VisibleForTesting
+  void scanIfNeeded() {
+    synchronized (scanLock) {
+      Instant now = clock.instant();
+      watchEventsPending |= pollWatchEvents();
+      Duration sinceLastScan = Duration.between(lastScanTime, now);
+      boolean isTestDone = testDone.get();
+      if (isTestDone
+          || (sinceLastScan.compareTo(MIN_SCAN_INTERVAL) >= 0
+              && (watchEventsPending
+                  || filesPending
+                  || sinceLastScan.compareTo(RESCAN_INTERVAL) >= 0))) {
+        scan(isTestDone);
+        lastScanTime = now;
+        watchEventsPending = false;
+      }
+    }
+  }
+
+  /** Returns whether the watcher reports any change since the last call. */
+  @GuardedBy("scanLock")
+  private boolean pollWatchEvents() {
+    if (watchService == null) {
+      return false;
+    }
+    boolean changed = false;
+    WatchKey watchKey;
+    while ((watchKey = watchService.poll()) != null) {
+      changed |= !watchKey.pollEvents().isEmpty();
+      if (!watchKey.reset()) {
+        watchedDirs.remove((Path) watchKey.watchable());
+      }
+    }
+    return changed;
+  }
+
+  @GuardedBy("scanLock")
+  private void scan(boolean testDone) {
+    if (!Files.isDirectory(genFileDir)) {
+      return;
+    }
+    filesPending = false;
+    Map<String, BasicFileAttributes> currentFiles = new TreeMap<>();
+    try {
+      Files.walkFileTree(
+          genFileDir,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+              watch(dir);
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+              if (attrs.isRegularFile()) {
+                currentFiles.put(genFileDir.relativize(file).toString(), attrs);
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+              // The file may be deleted during the scan.
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to scan gen file dir %s", genFileDir);
+      return;
+    }
+
+    // Removes deleted files, so that clients do not try to download them.
+    Set<String> deletedFiles =
+        Sets.difference(files.keySet(), currentFiles.keySet()).immutableCopy();
+    for (String deletedFile : deletedFiles) {
+      files.remove(deletedFile);
+    }
+    unpublish(deletedFiles);
+    for (Map.Entry<String, BasicFileAttributes> entry : currentFiles.entrySet()) {
+      String relatedPath = entry.getKey();
+      long size = entry.getValue().size();
+      long lastModifiedMs = entry.getValue().lastModifiedTime().toMillis();
+      FileState state = files.computeIfAbsent(relatedPath, path -> new FileState());
+      boolean unchanged = state.size == size && state.lastModifiedMs == lastModifiedMs;
+      if (!unchanged) {
+        state.size = size;
+        state.lastModifiedMs = lastModifiedMs;
+        state.published = false;
+      }
+      if (state.published) {
+        continue;
+      }
+      if (!unchanged && !testDone) {
+        // Waits for the next scan to make sure the file is not being written.
+        filesPending = true;
+        continue;
+      }
+      state.published = true;
+      long crc32c;
+      try {
+        crc32c = getCrc32c(genFileDir.resolve(relatedPath));
+      } catch (IOException e) {
+        logger.atInfo().withCause(e).log("Failed to read gen file %s", relatedPath);
+        state.published = false;
+        filesPending = true;
+        continue;
+      }
+      if (state.publishedCrc32c != null && state.publishedCrc32c == crc32c) {
+        continue;
+      }
+      state.publishedCrc32c = crc32c;
+      publish(
+          GenFileChange.newBuilder()
+              .setGenFileRelatedPath(relatedPath)
+              .setSize(size)
+              .setLastModifiedMs(lastModifiedMs)
+              .setCrc32C((int) crc32c)
+              .build());
+    }
+  }
+
+  /** Publishes a change of a file, which supersedes the previous change of the same file. */
+  private synchronized void publish(GenFileChange change) {
+    long sequence = ++lastSequence;
+    Long previousSequence = changeSequences.put(change.getGenFileRelatedPath(), sequence);
+    if (previousSequence != null) {
+      changes.remove(previousSequence);
+    }
+    changes.put(sequence, change.toBuilder().setSequence(sequence).build());
+  }
+
+  /** Removes the changes of the deleted files. */
+  private synchronized void unpublish(Set<String> deletedFiles) {
+    for (String deletedFile : deletedFiles) {
+      Long sequence = changeSequences.remove(deletedFile);
+      if (sequence != null) {
+        changes.remove(sequence);
+      }
+    }
+  }
+
+  @GuardedBy("scanLock")
+  private void watch(Path dir) {
+    if (watchService == null || watchedDirs.contains(dir)) {
+      return;
+    }
+    try {
+      dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+      watchedDirs.add(dir);
+    } catch (IOException | RuntimeException e) {
+      logger.atInfo().withCause(e).log("Failed to watch dir %s", dir);
+    }
+  }
+
+  private static long getCrc32c(Path file) throws IOException {
+    CRC32C crc32c = new CRC32C();
+    byte[] buffer = new byte[64 * 1024];
+    try (InputStream input = Files.newInputStream(file)) {
+      int length;
+      while ((length = input.read(buffer)) != -1) {
+        crc32c.update(buffer, 0, length);
+      }
+    }
+    return crc32c.getValue();
+  }
+}
@@ -17,10 +17,15 @@
 package com.google.devtools.mobileharness.infra.lab.controller;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
-import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.flogger.FluentLogger;
 import com.google.devtools.mobileharness.api.deviceconfig.proto.Device.DeviceConfig;
 import com.google.devtools.mobileharness.api.deviceconfig.proto.Device.DeviceLocator;
 import com.google.devtools.mobileharness.api.deviceconfig.proto.Device.DeviceLocatorConfigPair;
@@ -31,15 +36,57 @@ import com.google.devtools.mobileharness.infra.controller.device.LocalDeviceMana
 import com.google.devtools.mobileharness.infra.controller.device.config.ApiConfig;
 import com.google.devtools.mobileharness.infra.controller.device.config.ApiConfigFileProcessor;
 import com.google.devtools.mobileharness.infra.controller.device.config.ApiConfigFileProcessor.LabConfigAndDeviceConfigs;
+import com.google.devtools.mobileharness.shared.util.flags.Flags;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
-/** The device config manager based on local config file. */
+/**
+ * The device config manager based on local config file.
+ *
+ * <p>The config file is only re-read after it changes, which is detected by watching its directory.
+ * A change of the file also ends the wait of the current check, so that it takes effect at once.
+ * If the directory can not be watched, the file is re-read in every check.
+ */
 public class LocalFileBasedDeviceConfigManager extends DeviceConfigManager {
 
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   private final ApiConfigFileProcessor apiConfigFileProcessor;
 
+  private final Object configLock = new Object();
+
+  /** Whether the config file needs to be re-read. */
+  @GuardedBy("configLock")
+  private boolean configFileChanged = true;
+
+  @GuardedBy("configLock")
+  private Optional<LabConfigAndDeviceConfigs> config = Optional.empty();
+
+  /** {device UUID, device configs}. */
+  @GuardedBy("configLock")
+  private ImmutableListMultimap<String, DeviceConfig> deviceConfigsByUuid =
+      ImmutableListMultimap.of();
+
+  /** Watches the directory of the config file, or null if the file is not watched yet. */
+  @GuardedBy("configLock")
+  @Nullable
+  private WatchService watchService;
+
+  @GuardedBy("configLock")
+  @Nullable
+  private Path watchedFileName;
+
+  @GuardedBy("configLock")
+  private boolean watchFailed;
+
   public LocalFileBasedDeviceConfigManager(
       LocalDeviceManager localDeviceManager,
       DeviceIdManager deviceIdManager,
@@ -59,8 +106,9 @@ public class LocalFileBasedDeviceConfigManager extends DeviceConfigManager {
 
   @Override
   protected Optional<LabConfig> loadLabConfig(String hostName) throws MobileHarnessException {
-    Optional<LabConfigAndDeviceConfigs> result = apiConfigFileProcessor.readApiConfigFile();
-    return result.map(LabConfigAndDeviceConfigs::labConfig);
+    synchronized (configLock) {
+      return readConfigIfChanged().map(LabConfigAndDeviceConfigs::labConfig);
+    }
   }
 
   @Override
@@ -69,16 +117,14 @@ public class LocalFileBasedDeviceConfigManager extends DeviceConfigManager {
   @Override
   protected List<DeviceConfig> loadDeviceConfigs(List<DeviceLocator> deviceLocators)
       throws MobileHarnessException {
-    ImmutableSet<String> deviceUuids =
-        deviceLocators.stream().map(DeviceLocator::getDeviceUuid).collect(toImmutableSet());
-    Optional<LabConfigAndDeviceConfigs> result = apiConfigFileProcessor.readApiConfigFile();
-    return result
-        .map(
-            labConfigAndDeviceConfigs ->
-                labConfigAndDeviceConfigs.deviceConfigs().stream()
-                    .filter(config -> deviceUuids.contains(config.getUuid()))
-                    .collect(toImmutableList()))
-        .orElseGet(ImmutableList::of);
+    synchronized (configLock) {
+      readConfigIfChanged();
+      return deviceLocators.stream()
+          .map(DeviceLocator::getDeviceUuid)
+          .distinct()
+          .flatMap(deviceUuid -> deviceConfigsByUuid.get(deviceUuid).stream())
+          .collect(toImmutableList());
+    }
   }
 
   @Override
@@ -86,4 +132,105 @@ public class LocalFileBasedDeviceConfigManager extends DeviceConfigManager {
 
   @Override
   protected void onDeviceConfigUpdatedToLocal() {}
+
+  @Override
+  protected void waitForNextCheck(Duration interval) throws InterruptedException {
+    WatchService watchService;
+    synchronized (configLock) {
+      watchService = this.watchService;
+    }
+    if (watchService == null) {
+      super.waitForNextCheck(interval);
+      return;
+    }
+
+    long deadlineNanos = System.nanoTime() + interval.toNanos();
+    while (true) {
+      WatchKey watchKey = watchService.poll(deadlineNanos - System.nanoTime(), NANOSECONDS);
+      if (watchKey == null) {
+        return;
+      }
+      synchronized (configLock) {
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+          if (event.kind() == OVERFLOW || event.context().equals(watchedFileName)) {
+            configFileChanged = true;
+          }
+        }
+        if (!watchKey.reset()) {
+          // The directory is no longer accessible. Watches it again in the next check.
+          closeWatchService();
+          configFileChanged = true;
+        }
+        if (configFileChanged) {
+          logger.atInfo().log("Config file %s changed", watchedFileName);
+          return;
+        }
+      }
+    }
+  }
+
+  @GuardedBy("configLock")
+  private Optional<LabConfigAndDeviceConfigs> readConfigIfChanged() throws MobileHarnessException {
+    // Starts watching before reading the file, so that no change after the reading is missed.
+    watchConfigFile();
+    if (configFileChanged) {
+      // If the directory is not watched, reads the file every time.
+      configFileChanged = watchService == null;
+      config = apiConfigFileProcessor.readApiConfigFile();
+      deviceConfigsByUuid =
+          config
+              .map(
+                  labConfigAndDeviceConfigs ->
+                      Multimaps.index(
+                          labConfigAndDeviceConfigs.deviceConfigs(), DeviceConfig::getUuid))
+              .orElseGet(ImmutableListMultimap::of);
+    }
+    return config;
+  }
+
+  @GuardedBy("configLock")
+  private void watchConfigFile() {
+    if (watchService != null || watchFailed) {
+      return;
+    }
+    String configFile = Flags.instance().apiConfigFile.getNonNull();
+    if (configFile.isEmpty()) {
+      return;
+    }
+    Path configFilePath = Path.of(configFile).toAbsolutePath();
+    Path configDir = configFilePath.getParent();
+    WatchService newWatchService = null;
+    try {
+      newWatchService = configDir.getFileSystem().newWatchService();
+      configDir.register(newWatchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to watch config file %s, re-read it in every check", configFilePath);
+      watchFailed = true;
+      if (newWatchService != null) {
+        closeQuietly(newWatchService);
+      }
+      return;
+    }
+    watchService = newWatchService;
+    watchedFileName = configFilePath.getFileName();
+    // The file may change before it is watched.
+    configFileChanged = true;
+  }
+
+  @GuardedBy("configLock")
+  private void closeWatchService() {
+    if (watchService != null) {
+      closeQuietly(watchService);
+      watchService = null;
+    }
+  }
+
+  private static void closeQuietly(WatchService watchService) {
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to close watch service");
+    }
+  }
 }
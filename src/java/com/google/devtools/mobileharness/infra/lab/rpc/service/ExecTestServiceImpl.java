@@ -21,6 +21,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.devtools.common.metrics.stability.converter.ErrorModelConverter;
 import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
 import com.google.devtools.mobileharness.api.model.job.out.Result.ResultTypeWithCause;
@@ -39,6 +41,7 @@ import com.google.devtools.mobileharness.infra.lab.controller.LabLocalTestRunner
 import com.google.devtools.mobileharness.infra.lab.controller.util.LabFileNotifier;
 import com.google.devtools.mobileharness.infra.lab.rpc.service.util.LabResponseProtoGenerator;
 import com.google.devtools.mobileharness.infra.lab.rpc.service.util.TestInfoCreator;
+import com.google.devtools.mobileharness.infra.lab.rpc.service.util.TestStatusSubscriptionManager;
 import com.google.devtools.mobileharness.shared.util.comm.messaging.message.TestMessageInfo;
 import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
 import com.google.devtools.mobileharness.shared.util.message.StrPairUtil;
@@ -52,8 +55,12 @@ import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestGenDat
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestGenDataResponse;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusesRequest;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusesResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusesResponse.TestStatusResult;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.KickOffTestRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.KickOffTestResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.SubscribeTestStatusRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.Stat;
 import com.google.wireless.qa.mobileharness.lab.proto.Stat.Test;
 import com.google.wireless.qa.mobileharness.shared.api.device.Device;
@@ -65,6 +72,7 @@ import com.google.wireless.qa.mobileharness.shared.model.job.JobInfo;
 import com.google.wireless.qa.mobileharness.shared.model.job.TestInfo;
 import com.google.wireless.qa.mobileharness.shared.model.lab.DeviceLocator;
 import com.google.wireless.qa.mobileharness.shared.proto.Job.TestResult;
+import io.grpc.stub.StreamObserver;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -77,7 +85,14 @@ public class ExecTestServiceImpl {
 
   /** Factory for creating ExecTestServiceImpl in UTRS. */
   public interface ExecTestServiceImplFactory {
-    ExecTestServiceImpl create(ListeningExecutorService threadPool);
+
+    /**
+     * @param testStatusPublisherThreadPool the thread pool for pushing test statuses to
+     *     subscribers, which is owned by the caller
+     */
+    ExecTestServiceImpl create(
+        ListeningExecutorService threadPool,
+        ListeningScheduledExecutorService testStatusPublisherThreadPool);
   }
 
   /** Logger for this service. */
@@ -99,6 +114,8 @@ public class ExecTestServiceImpl {
 
   private final TestInfoCreator testInfoCreator;
 
+  private final TestStatusSubscriptionManager testStatusSubscriptionManager;
+
   @Nullable private final EventBus globalInternalEventBus;
 
   private volatile boolean forceCleanUpForDrainTimeout = false;
@@ -108,12 +125,14 @@ public class ExecTestServiceImpl {
   ExecTestServiceImpl(
       LabDirectTestRunnerHolder testRunnerHolder,
       DeviceHelperFactory deviceHelperFactory,
-      @Assisted ListeningExecutorService threadPool) {
+      @Assisted ListeningExecutorService threadPool,
+      @Assisted ListeningScheduledExecutorService testStatusPublisherThreadPool) {
     this(
         testRunnerHolder,
         deviceHelperFactory,
         new LabResponseProtoGenerator(new FilePublisher(), new LocalFileUtil()),
         threadPool,
+        testStatusPublisherThreadPool,
         null,
         TestMessageManager.getInstance(),
         new ForwardingTestMessageBuffer(testRunnerHolder),
@@ -124,12 +143,14 @@ public class ExecTestServiceImpl {
       LabDirectTestRunnerHolder testRunnerHolder,
       DeviceHelperFactory deviceHelperFactory,
       ListeningExecutorService threadPool,
+      ListeningScheduledExecutorService testStatusPublisherThreadPool,
       @Nullable EventBus globalInternalEventBus) {
     this(
         testRunnerHolder,
         deviceHelperFactory,
         new LabResponseProtoGenerator(new FilePublisher(), new LocalFileUtil()),
         threadPool,
+        testStatusPublisherThreadPool,
         globalInternalEventBus,
         TestMessageManager.getInstance(),
         new ForwardingTestMessageBuffer(testRunnerHolder),
@@ -142,6 +163,7 @@ public class ExecTestServiceImpl {
       DeviceHelperFactory deviceHelperFactory,
       LabResponseProtoGenerator labResponseProtoGenerator,
       ListeningExecutorService threadPool,
+      ListeningScheduledExecutorService testStatusPublisherThreadPool,
       @Nullable EventBus globalInternalEventBus,
       TestMessageManager testMessageManager,
       ForwardingTestMessageBuffer forwardingTestMessageBuffer,
@@ -154,6 +176,9 @@ public class ExecTestServiceImpl {
     this.testMessageManager = testMessageManager;
     this.forwardingTestMessageBuffer = forwardingTestMessageBuffer;
     this.testInfoCreator = testInfoCreator;
+    this.testStatusSubscriptionManager =
+        new TestStatusSubscriptionManager(this::getTestStatus, testStatusPublisherThreadPool);
+    forwardingTestMessageBuffer.addMessageListener(testStatusSubscriptionManager::onTestChanged);
   }
 
   @CanIgnoreReturnValue
@@ -220,6 +245,7 @@ public class ExecTestServiceImpl {
       return KickOffTestResponse.getDefaultInstance();
     }
     testRunner.registerTestEventSubscriber(forwardingTestMessageBuffer, EventScope.TEST_MESSAGE);
+    testRunner.registerTestEventSubscriber(forwardingTestMessageBuffer, EventScope.CLASS_INTERNAL);
 
     // Starts DirectTestRunner.
     testRunner.start();
@@ -240,6 +266,31 @@ public class ExecTestServiceImpl {
     return builder.build();
   }
 
+  /**
+   * Subscribes the status of a test. A response is pushed whenever the status, result, log, test
+   * messages or sub-tests of the test change, and the stream is completed after the test is DONE.
+   */
+  public void subscribeTestStatus(
+      SubscribeTestStatusRequest req, StreamObserver<GetTestStatusResponse> responseObserver) {
+    testStatusSubscriptionManager.subscribe(req.getGetTestStatusRequest(), responseObserver);
+  }
+
+  /** Gets the status of multiple tests. A test which is not found does not fail other tests. */
+  public GetTestStatusesResponse getTestStatuses(GetTestStatusesRequest req) {
+    GetTestStatusesResponse.Builder builder = GetTestStatusesResponse.newBuilder();
+    for (GetTestStatusRequest testReq : req.getGetTestStatusRequestList()) {
+      TestStatusResult.Builder result =
+          TestStatusResult.newBuilder().setTestId(testReq.getTestId());
+      try {
+        result.setGetTestStatusResponse(getTestStatus(testReq));
+      } catch (MobileHarnessException e) {
+        result.setError(ErrorModelConverter.toExceptionDetail(e));
+      }
+      builder.addTestStatusResult(result);
+    }
+    return builder.build();
+  }
+
   /**
    * Gets test detail.
    *
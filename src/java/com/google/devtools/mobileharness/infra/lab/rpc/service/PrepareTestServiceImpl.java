@@ -85,6 +85,9 @@ import com.google.devtools.mobileharness.infra.lab.proto.PrepareTestServiceProto
 import com.google.devtools.mobileharness.shared.file.resolver.FileResolver;
 import com.google.devtools.mobileharness.shared.file.resolver.FileResolver.ResolveResult;
 import com.google.devtools.mobileharness.shared.file.resolver.FileResolver.ResolveSource;
+import com.google.devtools.mobileharness.shared.trace.SpanRecorder;
+import com.google.devtools.mobileharness.shared.trace.TraceSpan;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Type.SpanType;
 import com.google.devtools.mobileharness.shared.util.error.ErrorModelConverter;
 import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
 import com.google.devtools.mobileharness.shared.util.file.local.ResUtil;
@@ -170,6 +173,21 @@ public class PrepareTestServiceImpl {
   @CanIgnoreReturnValue
   public CreateTestResponse createTest(CreateTestRequest req)
       throws MobileHarnessException, InterruptedException {
+    // Links the lab span of the test to the client span which sends the request.
+    try (TraceSpan ignored =
+        SpanRecorder.getInstance()
+            .startSpan(
+                SpanType.PRE_RUN_TEST,
+                "lab.create_test",
+                req.getParentSpan().getId(),
+                Instant.now(),
+                ImmutableList.of(SpanRecorder.testIdTag(req.getTest().getTestId())))) {
+      return doCreateTest(req);
+    }
+  }
+
+  private CreateTestResponse doCreateTest(CreateTestRequest req)
+      throws MobileHarnessException, InterruptedException {
     logger.atInfo().log("CreateTestRequest [%s]", req);
 
     // Checks the client version.
@@ -26,8 +26,11 @@ import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestGenDat
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestGenDataResponse;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusesRequest;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusesResponse;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.KickOffTestRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.KickOffTestResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.SubscribeTestStatusRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServiceGrpc;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServiceGrpc.ExecTestServiceImplBase;
 import io.grpc.stub.StreamObserver;
@@ -63,6 +66,23 @@ public class ExecTestGrpcImpl extends ExecTestServiceImplBase {
         ExecTestServiceGrpc.getGetTestStatusMethod());
   }
 
+  @Override
+  public void subscribeTestStatus(
+      SubscribeTestStatusRequest req, StreamObserver<GetTestStatusResponse> responseObserver) {
+    base.subscribeTestStatus(req, responseObserver);
+  }
+
+  @Override
+  public void getTestStatuses(
+      GetTestStatusesRequest req, StreamObserver<GetTestStatusesResponse> responseObserver) {
+    GrpcServiceUtil.invoke(
+        req,
+        responseObserver,
+        base::getTestStatuses,
+        ExecTestServiceGrpc.getServiceDescriptor(),
+        ExecTestServiceGrpc.getGetTestStatusesMethod());
+  }
+
   @Override
   public void getTestDetail(
       GetTestDetailRequest req, StreamObserver<GetTestDetailResponse> responseObserver) {
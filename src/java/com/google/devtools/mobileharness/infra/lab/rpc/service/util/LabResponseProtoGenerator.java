@@ -17,20 +17,30 @@
 package com.google.devtools.mobileharness.infra.lab.rpc.service.util;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.devtools.mobileharness.shared.util.concurrent.MoreFutures.logFailure;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
 import com.google.devtools.mobileharness.api.model.job.out.Result.ResultTypeWithCause;
 import com.google.devtools.mobileharness.api.model.proto.Device.DeviceFeature;
 import com.google.devtools.mobileharness.infra.lab.controller.FilePublisher;
 import com.google.devtools.mobileharness.infra.lab.controller.ForwardingTestMessageBuffer;
+import com.google.devtools.mobileharness.infra.lab.controller.GenFileChangeFeed;
 import com.google.devtools.mobileharness.shared.util.comm.messaging.message.TestMessageInfo;
+import com.google.devtools.mobileharness.shared.util.concurrent.ThreadPools;
 import com.google.devtools.mobileharness.shared.util.error.ErrorModelConverter;
 import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
 import com.google.devtools.mobileharness.shared.util.message.StrPairUtil;
 import com.google.devtools.mobileharness.shared.util.path.PathUtil;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GenFileChange;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestGenDataRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestGenDataResponse;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusRequest;
@@ -41,10 +51,13 @@ import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.TestMessage;
 import com.google.wireless.qa.mobileharness.shared.model.job.TestInfo;
 import com.google.wireless.qa.mobileharness.shared.proto.Job.TestResult;
 import com.google.wireless.qa.mobileharness.shared.proto.Job.TestStatus;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.logging.Level;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
@@ -57,15 +70,62 @@ public class LabResponseProtoGenerator {
   /** Logger for this service. */
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  @VisibleForTesting
+  static final Duration GEN_FILE_CHANGE_FEED_EXPIRATION = Duration.ofMinutes(10L);
+
+  /**
+   * The interval for closing expired feeds. The cache only evicts entries when it is accessed, so a
+   * feed whose client goes away would otherwise keep scanning its dir.
+   */
+  private static final Duration GEN_FILE_CHANGE_FEED_CLEANUP_INTERVAL = Duration.ofMinutes(1L);
+
+  /** Scans the gen file dirs of the feeds, so that RPC threads never walk the dirs. */
+  private static final ListeningScheduledExecutorService GEN_FILE_SCAN_THREAD_POOL =
+      ThreadPools.createStandardScheduledThreadPool(
+          "lab-gen-file-change-scanner", /* corePoolSize= */ 1);
+
   /** Public test generated file publisher. */
   private final FilePublisher filePublisher;
 
   private final LocalFileUtil fileUtil;
 
+  private final ListeningScheduledExecutorService genFileScanThreadPool;
+
+  /**
+   * {test ID, gen file change feed}. Feeds are kept for a while after tests end, in case clients
+   * request the changes again.
+   */
+  private final Cache<String, GenFileChangeFeed> genFileChangeFeeds;
+
   @Inject
   public LabResponseProtoGenerator(FilePublisher filePublisher, LocalFileUtil fileUtil) {
+    this(filePublisher, fileUtil, GEN_FILE_SCAN_THREAD_POOL, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  LabResponseProtoGenerator(
+      FilePublisher filePublisher,
+      LocalFileUtil fileUtil,
+      ListeningScheduledExecutorService genFileScanThreadPool,
+      Ticker ticker) {
     this.filePublisher = filePublisher;
     this.fileUtil = fileUtil;
+    this.genFileScanThreadPool = genFileScanThreadPool;
+    this.genFileChangeFeeds =
+        CacheBuilder.newBuilder()
+            .expireAfterAccess(GEN_FILE_CHANGE_FEED_EXPIRATION)
+            .ticker(ticker)
+            .removalListener(
+                (RemovalNotification<String, GenFileChangeFeed> notification) ->
+                    notification.getValue().close())
+            .build();
+    logFailure(
+        genFileScanThreadPool.scheduleWithFixedDelay(
+            this::cleanUpGenFileChangeFeeds,
+            GEN_FILE_CHANGE_FEED_CLEANUP_INTERVAL,
+            GEN_FILE_CHANGE_FEED_CLEANUP_INTERVAL),
+        Level.SEVERE,
+        "Fatal error when cleaning up gen file change feeds");
   }
 
   /**
@@ -260,6 +320,75 @@ public class LabResponseProtoGenerator {
       builder.addAllDeviceFeature(deviceFeatures.get());
     }
 
+    if (req != null && req.hasGenFileChangeSequence()) {
+      addGenFileChanges(
+          builder, testInfo, req.getGenFileChangeSequence(), testStatus == TestStatus.DONE);
+    }
+
     return builder;
   }
+
+  /** Adds the gen file changes of the test after the given sequence to the response. */
+  private void addGenFileChanges(
+      GetTestStatusResponse.Builder builder, TestInfo testInfo, long sequence, boolean testDone) {
+    if (!testInfo.hasGenFileDir()) {
+      return;
+    }
+    String genFileDir;
+    try {
+      genFileDir = testInfo.getGenFileDir();
+    } catch (MobileHarnessException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to get gen file dir of test %s", testInfo.locator().getId());
+      return;
+    }
+    addGenFileChanges(builder, testInfo.locator().getId(), genFileDir, sequence, testDone);
+  }
+
+  @VisibleForTesting
+  void addGenFileChanges(
+      GetTestStatusResponse.Builder builder,
+      String testId,
+      String genFileDir,
+      long sequence,
+      boolean testDone) {
+    // A new feed, e.g., after the previous one expired, numbers its changes after the sequence the
+    // client has retrieved, so that the client never skips them.
+    GenFileChangeFeed feed =
+        genFileChangeFeeds
+            .asMap()
+            .computeIfAbsent(
+                testId,
+                id -> new GenFileChangeFeed(Path.of(genFileDir), sequence, genFileScanThreadPool));
+    if (testDone) {
+      feed.onTestDone();
+    }
+    ImmutableList<GenFileChange> changes = feed.getChangesAfter(sequence);
+    if (changes.isEmpty()) {
+      return;
+    }
+    for (GenFileChange change : changes) {
+      try {
+        fileUtil.grantFileOrDirFullAccess(
+            PathUtil.join(genFileDir, change.getGenFileRelatedPath()));
+      } catch (MobileHarnessException e) {
+        // The file may be deleted after it is scanned.
+        logger.atInfo().log(
+            "Failed to grant access of gen file %s: %s",
+            change.getGenFileRelatedPath(), e.getMessage());
+      }
+    }
+    builder.addAllGenFileChange(changes).setGenFileDir(genFileDir);
+  }
+
+  /** Closes the expired gen file change feeds. */
+  @VisibleForTesting
+  void cleanUpGenFileChangeFeeds() {
+    genFileChangeFeeds.cleanUp();
+  }
+
+  @VisibleForTesting
+  long getGenFileChangeFeedCount() {
+    return genFileChangeFeeds.size();
+  }
 }
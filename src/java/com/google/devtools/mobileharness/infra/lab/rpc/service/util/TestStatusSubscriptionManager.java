@@ -0,0 +1,320 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.lab.rpc.service.util;
+
+import static com.google.devtools.mobileharness.shared.util.concurrent.MoreFutures.logFailure;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.devtools.common.metrics.stability.rpc.grpc.GrpcExceptionUtil;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.shared.util.flags.Flags;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GenFileChange;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusRequest;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.SubTestStatusResponse;
+import com.google.wireless.qa.mobileharness.shared.proto.Job.TestStatus;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import javax.annotation.Nullable;
+
+/**
+ * Manager of the test status subscriptions of the lab server.
+ *
+ * <p>All subscriptions are checked by one shared thread at a short interval. A subscriber only
+ * receives a response when the status, result, log, test messages, gen files or sub-tests of its
+ * test change, or when no response has been sent for {@link #HEARTBEAT_INTERVAL}.
+ */
+public class TestStatusSubscriptionManager {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** The max interval between two responses of a subscription, for detecting broken streams. */
+  @VisibleForTesting static final Duration HEARTBEAT_INTERVAL = Duration.ofSeconds(30L);
+
+  private static final Duration MIN_PUSH_INTERVAL = Duration.ofMillis(50L);
+
+  /** Supplies the current status of a test. */
+  public interface TestStatusSupplier {
+
+    /**
+     * Gets the current status of the test, whose logs start from the offsets in the request.
+     *
+     * @throws MobileHarnessException if the test is not found
+     */
+    GetTestStatusResponse getTestStatus(GetTestStatusRequest request)
+        throws MobileHarnessException;
+  }
+
+  private final TestStatusSupplier testStatusSupplier;
+  private final ListeningScheduledExecutorService scheduledThreadPool;
+  private final Clock clock;
+  private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @param scheduledThreadPool the thread pool for pushing test statuses, which is owned by the
+   *     caller. Pushing stops when it is shut down.
+   */
+  public TestStatusSubscriptionManager(
+      TestStatusSupplier testStatusSupplier,
+      ListeningScheduledExecutorService scheduledThreadPool) {
+    this(testStatusSupplier, scheduledThreadPool, Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  TestStatusSubscriptionManager(
+      TestStatusSupplier testStatusSupplier,
+      ListeningScheduledExecutorService scheduledThreadPool,
+      Clock clock) {
+    this.testStatusSupplier = testStatusSupplier;
+    this.scheduledThreadPool = scheduledThreadPool;
+    this.clock = clock;
+
+    Duration pushInterval = Flags.instance().testStatusPushInterval.getNonNull();
+    if (pushInterval.compareTo(MIN_PUSH_INTERVAL) < 0) {
+      pushInterval = MIN_PUSH_INTERVAL;
+    }
+    logFailure(
+        scheduledThreadPool.scheduleWithFixedDelay(this::pushAll, pushInterval, pushInterval),
+        Level.SEVERE,
+        "Fatal error in test status publisher");
+  }
+
+  /**
+   * Subscribes the status of a test.
+   *
+   * <p>The first response is sent immediately. The stream is completed after the response whose
+   * status is DONE, and is closed with an error if the test is not found.
+   */
+  public void subscribe(
+      GetTestStatusRequest request, StreamObserver<GetTestStatusResponse> responseObserver) {
+    Subscription subscription = new Subscription(request, responseObserver);
+    logger.atInfo().log("Start test status subscription of test %s", request.getTestId());
+    subscriptions.add(subscription);
+    subscription.push();
+  }
+
+  /**
+   * Pushes the status of the given root test to its subscribers as soon as possible rather than at
+   * the next interval, e.g., when a test message of the test is buffered.
+   */
+  public void onTestChanged(String rootTestId) {
+    if (subscriptions.isEmpty()) {
+      return;
+    }
+    logFailure(
+        scheduledThreadPool.submit(() -> pushTest(rootTestId)),
+        Level.WARNING,
+        "Failed to push status of test %s",
+        rootTestId);
+  }
+
+  @VisibleForTesting
+  int getSubscriptionCount() {
+    return subscriptions.size();
+  }
+
+  @VisibleForTesting
+  void pushAll() {
+    for (Subscription subscription : subscriptions) {
+      subscription.push();
+    }
+  }
+
+  @VisibleForTesting
+  void pushTest(String rootTestId) {
+    for (Subscription subscription : subscriptions) {
+      if (subscription.getTestId().equals(rootTestId)) {
+        subscription.push();
+      }
+    }
+  }
+
+  /** A subscription of the status of a root test. */
+  private class Subscription {
+
+    private final String testId;
+    private final StreamObserver<GetTestStatusResponse> responseObserver;
+
+    /** The request for the next response, whose log offsets are maintained by the lab server. */
+    private GetTestStatusRequest request;
+
+    /** The last sent response without logs and test messages, for detecting changes. */
+    @Nullable private GetTestStatusResponse lastResponseSnapshot;
+
+    private Instant lastResponseTime = Instant.EPOCH;
+
+    private boolean closed;
+
+    private Subscription(
+        GetTestStatusRequest request, StreamObserver<GetTestStatusResponse> responseObserver) {
+      this.testId = request.getTestId();
+      this.request = request;
+      this.responseObserver = responseObserver;
+    }
+
+    /** The id of the root test, which does not change even if the request is updated. */
+    private String getTestId() {
+      return testId;
+    }
+
+    private synchronized void push() {
+      if (closed) {
+        return;
+      }
+      if (responseObserver instanceof ServerCallStreamObserver
+          && ((ServerCallStreamObserver<?>) responseObserver).isCancelled()) {
+        logger.atInfo().log(
+            "Test status subscription of test %s is cancelled by client", request.getTestId());
+        close();
+        return;
+      }
+
+      GetTestStatusResponse response;
+      try {
+        response = testStatusSupplier.getTestStatus(request);
+      } catch (MobileHarnessException | RuntimeException e) {
+        logger.atWarning().withCause(e).log(
+            "Failed to get status of subscribed test %s", request.getTestId());
+        close();
+        responseObserver.onError(GrpcExceptionUtil.toStatusRuntimeException(e));
+        return;
+      }
+
+      // Test messages have been consumed from the buffer when creating the response, so a response
+      // with test messages must be sent.
+      GetTestStatusResponse responseSnapshot = removeDeltas(response);
+      Instant now = clock.instant();
+      boolean done = response.getTestStatus() == TestStatus.DONE;
+      if (!done
+          && !hasDeltas(response)
+          && responseSnapshot.equals(lastResponseSnapshot)
+          && Duration.between(lastResponseTime, now).compareTo(HEARTBEAT_INTERVAL) < 0) {
+        return;
+      }
+
+      try {
+        responseObserver.onNext(response);
+      } catch (RuntimeException e) {
+        logger.atWarning().withCause(e).log(
+            "Failed to push status of test %s, close the subscription", request.getTestId());
+        close();
+        return;
+      }
+      request = createNextRequest(request, response);
+      lastResponseSnapshot = responseSnapshot;
+      lastResponseTime = now;
+
+      if (done) {
+        logger.atInfo().log(
+            "Test %s is done, complete its test status subscription", request.getTestId());
+        close();
+        responseObserver.onCompleted();
+      }
+    }
+
+    private void close() {
+      closed = true;
+      subscriptions.remove(this);
+    }
+  }
+
+  /**
+   * Creates the request for getting the next status of a test, whose log offsets are the ends of
+   * the logs in the given response. Sub-tests which first appear in the response are also added.
+   */
+  @VisibleForTesting
+  static GetTestStatusRequest createNextRequest(
+      GetTestStatusRequest request, GetTestStatusResponse response) {
+    Map<String, GetTestStatusRequest> subTestRequests = new HashMap<>();
+    for (GetTestStatusRequest subTestRequest : request.getSubTestList()) {
+      subTestRequests.put(subTestRequest.getTestId(), subTestRequest);
+    }
+    GetTestStatusRequest.Builder builder =
+        GetTestStatusRequest.newBuilder()
+            .setJobId(request.getJobId())
+            .setTestId(request.getTestId())
+            .setTestLogOffset(request.getTestLogOffset() + response.getTestLog().length());
+    if (request.hasGenFileChangeSequence()) {
+      long sequence = request.getGenFileChangeSequence();
+      for (GenFileChange genFileChange : response.getGenFileChangeList()) {
+        sequence = Math.max(sequence, genFileChange.getSequence());
+      }
+      builder.setGenFileChangeSequence(sequence);
+    }
+    for (SubTestStatusResponse subTestResponse : response.getSubTestList()) {
+      GetTestStatusRequest subTestRequest = subTestRequests.get(subTestResponse.getTestId());
+      if (subTestRequest == null) {
+        // A new sub-test whose log in the response starts from the beginning.
+        GetTestStatusRequest.Builder subTestRequestBuilder =
+            GetTestStatusRequest.newBuilder()
+                .setJobId(request.getJobId())
+                .setTestId(subTestResponse.getTestId())
+                .setTestLogOffset(0);
+        if (request.hasGenFileChangeSequence()) {
+          subTestRequestBuilder.setGenFileChangeSequence(0L);
+        }
+        subTestRequest = subTestRequestBuilder.build();
+      }
+      builder.addSubTest(createNextRequest(subTestRequest, subTestResponse.getStatus()));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Whether the response or any of its sub-tests contains new logs, test messages or gen file
+   * changes.
+   */
+  private static boolean hasDeltas(GetTestStatusResponse response) {
+    if (!response.getTestLog().isEmpty()
+        || response.getTestMessageCount() > 0
+        || response.getGenFileChangeCount() > 0) {
+      return true;
+    }
+    for (SubTestStatusResponse subTestResponse : response.getSubTestList()) {
+      if (hasDeltas(subTestResponse.getStatus())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Removes logs, test messages and gen file changes from the response and all its sub-tests. */
+  private static GetTestStatusResponse removeDeltas(GetTestStatusResponse response) {
+    GetTestStatusResponse.Builder builder =
+        response.toBuilder()
+            .setTestLog("")
+            .clearTestMessage()
+            .clearGenFileChange()
+            .clearGenFileDir()
+            .clearSubTest();
+    for (SubTestStatusResponse subTestResponse : response.getSubTestList()) {
+      builder.addSubTest(
+          subTestResponse.toBuilder().setStatus(removeDeltas(subTestResponse.getStatus())));
+    }
+    return builder.build();
+  }
+}
@@ -27,8 +27,12 @@ import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestGenDat
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestGenDataResponse;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusesRequest;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusesResponse;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.KickOffTestRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.KickOffTestResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.SubscribeTestStatusRequest;
+import io.grpc.stub.StreamObserver;
 import javax.annotation.Nullable;
 
 /** RPC stub interface for talking to Lab Server for ExecTestService. */
@@ -64,6 +68,41 @@ public interface ExecTestStub extends NonThrowingAutoCloseable {
     return getTestStatus(request);
   }
 
+  /**
+   * Subscribes the status of a test. Responses are pushed to the observer whenever the test
+   * changes, and the observer is completed after the test is DONE.
+   *
+   * <p>It should only be invoked by MH client RemoteTestRunner because MH test messaging system
+   * depends on this assumption.
+   *
+   * @return a handle for cancelling the subscription
+   */
+  default NonThrowingAutoCloseable subscribeTestStatus(
+      SubscribeTestStatusRequest request, StreamObserver<GetTestStatusResponse> responseObserver) {
+    responseObserver.onError(
+        new UnsupportedOperationException("Test status subscription is not supported"));
+    return () -> {};
+  }
+
+  /** Subscribes the status of a test with the impersonation user. */
+  default NonThrowingAutoCloseable subscribeTestStatus(
+      SubscribeTestStatusRequest request,
+      StreamObserver<GetTestStatusResponse> responseObserver,
+      @Nullable String impersonationUser) {
+    return subscribeTestStatus(request, responseObserver);
+  }
+
+  /** Gets the current status of multiple tests. */
+  GetTestStatusesResponse getTestStatuses(GetTestStatusesRequest request)
+      throws RpcExceptionWithErrorId;
+
+  /** Gets the current status of multiple tests with the impersonation user. */
+  default GetTestStatusesResponse getTestStatuses(
+      GetTestStatusesRequest request, @Nullable String impersonationUser)
+      throws RpcExceptionWithErrorId {
+    return getTestStatuses(request);
+  }
+
   /** Gets the test detail information of a running test. */
   GetTestDetailResponse getTestDetail(GetTestDetailRequest request) throws RpcExceptionWithErrorId;
 
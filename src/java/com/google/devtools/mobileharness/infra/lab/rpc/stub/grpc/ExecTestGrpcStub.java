@@ -20,6 +20,7 @@ import com.google.devtools.common.metrics.stability.rpc.RpcExceptionWithErrorId;
 import com.google.devtools.common.metrics.stability.rpc.grpc.GrpcStubUtil;
 import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
 import com.google.devtools.mobileharness.infra.lab.rpc.stub.ExecTestStub;
+import com.google.devtools.mobileharness.shared.constant.closeable.NonThrowingAutoCloseable;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.ForwardTestMessageRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.ForwardTestMessageResponse;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestDetailRequest;
@@ -28,19 +29,28 @@ import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestGenDat
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestGenDataResponse;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusesRequest;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusesResponse;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.KickOffTestRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.KickOffTestResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.SubscribeTestStatusRequest;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServiceGrpc;
 import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServiceGrpc.ExecTestServiceBlockingStub;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServiceGrpc.ExecTestServiceStub;
 import io.grpc.Channel;
+import io.grpc.Context;
+import io.grpc.Context.CancellableContext;
+import io.grpc.stub.StreamObserver;
 
 /** gRPC stub of {@code ExecTestService}. */
 public class ExecTestGrpcStub implements ExecTestStub {
 
   private final ExecTestServiceBlockingStub stub;
+  private final ExecTestServiceStub asyncStub;
 
   public ExecTestGrpcStub(Channel channel) {
     this.stub = ExecTestServiceGrpc.newBlockingStub(channel);
+    this.asyncStub = ExecTestServiceGrpc.newStub(channel);
   }
 
   @Override
@@ -63,6 +73,24 @@ public class ExecTestGrpcStub implements ExecTestStub {
         "Failed to get test status, test_id=" + request.getTestId());
   }
 
+  @Override
+  public NonThrowingAutoCloseable subscribeTestStatus(
+      SubscribeTestStatusRequest request, StreamObserver<GetTestStatusResponse> responseObserver) {
+    CancellableContext context = Context.current().withCancellation();
+    context.run(() -> asyncStub.subscribeTestStatus(request, responseObserver));
+    return () -> context.cancel(/* cause= */ null);
+  }
+
+  @Override
+  public GetTestStatusesResponse getTestStatuses(GetTestStatusesRequest request)
+      throws RpcExceptionWithErrorId {
+    return GrpcStubUtil.invoke(
+        stub::getTestStatuses,
+        request,
+        InfraErrorId.LAB_RPC_EXEC_TEST_GET_TEST_STATUSES_GRPC_ERROR,
+        "Failed to get test statuses, test_count=" + request.getGetTestStatusRequestCount());
+  }
+
   @Override
   public GetTestDetailResponse getTestDetail(GetTestDetailRequest request)
       throws RpcExceptionWithErrorId {
@@ -32,6 +32,7 @@ import com.google.devtools.mobileharness.platform.android.sdktool.adb.IntentArgs
 import com.google.devtools.mobileharness.platform.android.shared.autovalue.UtilArgs;
 import com.google.devtools.mobileharness.platform.android.shared.constant.Splitters;
 import com.google.devtools.mobileharness.platform.android.systemspec.AndroidSystemSpecUtil;
+import com.google.devtools.mobileharness.shared.util.flags.Flags;
 import com.google.devtools.mobileharness.shared.util.system.SystemUtil.KillSignal;
 import java.time.Clock;
 import java.time.Duration;
@@ -209,7 +210,10 @@ public class AndroidProcessUtil {
     }
 
     try {
-      psOutput = adb.runShellWithRetry(args.serial(), psCommand);
+      psOutput =
+          Flags.instance().enableAdbShellSession.getNonNull()
+              ? adb.runShellInSession(args.serial(), psCommand, /* timeout= */ null)
+              : adb.runShellWithRetry(args.serial(), psCommand);
     } catch (MobileHarnessException e) {
       throw new MobileHarnessException(
           AndroidErrorId.ANDROID_PROCESS_GET_PROCESS_STATUS_ERROR, e.getMessage(), e);
@@ -250,7 +254,10 @@ public class AndroidProcessUtil {
     String shell = String.format(ADB_SHELL_TEMPLATE_DUMP_SYS_SERVICE, packageName);
     String output;
     try {
-      output = adb.runShellWithRetry(serial, shell);
+      output =
+          Flags.instance().enableAdbShellSession.getNonNull()
+              ? adb.runShellInSession(serial, shell, /* timeout= */ null)
+              : adb.runShellWithRetry(serial, shell);
     } catch (MobileHarnessException e) {
       throw new MobileHarnessException(
           AndroidErrorId.ANDROID_PROCESS_DUMPSYS_SERVICE_ERROR, e.getMessage(), e);
@@ -39,6 +39,7 @@ import com.google.devtools.mobileharness.platform.android.sdktool.adb.IntentArgs
 import com.google.devtools.mobileharness.platform.android.sdktool.adb.WaitArgs;
 import com.google.devtools.mobileharness.platform.android.shared.autovalue.UtilArgs;
 import com.google.devtools.mobileharness.platform.android.systemstate.AndroidSystemStateUtil;
+import com.google.devtools.mobileharness.shared.util.flags.Flags;
 import com.google.devtools.mobileharness.shared.util.time.Sleeper;
 import com.google.wireless.qa.mobileharness.shared.util.ScreenResolution;
 import java.time.Clock;
@@ -1177,7 +1178,11 @@ public class AndroidSystemSettingUtil {
   public Instant getSystemTime(String serial) throws MobileHarnessException, InterruptedException {
     long milliSeconds = 0;
     try {
-      String output = adb.runShell(serial, ADB_SHELL_GET_SECONDS_UTC).trim();
+      String output =
+          (Flags.instance().enableAdbShellSession.getNonNull()
+                  ? adb.runShellInSession(serial, ADB_SHELL_GET_SECONDS_UTC, /* timeout= */ null)
+                  : adb.runShell(serial, ADB_SHELL_GET_SECONDS_UTC))
+              .trim();
       milliSeconds = Duration.ofSeconds(Long.parseLong(output)).toMillis();
     } catch (MobileHarnessException e) {
       throw new MobileHarnessException(
@@ -1799,7 +1804,10 @@ public class AndroidSystemSettingUtil {
   private String getSystemEpochTime(String serial)
       throws MobileHarnessException, InterruptedException {
     try {
-      return adb.runShell(serial, ADB_SHELL_GET_EPOCH_TIME).trim();
+      return (Flags.instance().enableAdbShellSession.getNonNull()
+              ? adb.runShellInSession(serial, ADB_SHELL_GET_EPOCH_TIME, /* timeout= */ null)
+              : adb.runShell(serial, ADB_SHELL_GET_EPOCH_TIME))
+          .trim();
     } catch (MobileHarnessException e) {
       throw new MobileHarnessException(
           AndroidErrorId.ANDROID_SYSTEM_SETTING_GET_EPOCH_SYSTEM_TIME_ERROR, e.getMessage(), e);
@@ -105,7 +105,7 @@ public abstract class SuiteTestFilter {
 
   /** Matches the given {@code moduleName} and ignoring the module parameter if any. */
   public boolean matchModuleName(String moduleName) {
-    return getBaseModuleName().equals(moduleName);
+    return baseModuleName().equals(moduleName);
   }
 
   @Memoized
@@ -115,7 +115,8 @@ public abstract class SuiteTestFilter {
   }
 
   /** Returns the base module name without the module parameter. */
-  private String getBaseModuleName() {
+  @Memoized
+  String baseModuleName() {
     Matcher matcher = PARAMETERIZED_MODULE_REGEX.matcher(moduleName());
     if (matcher.matches()) {
       return matcher.group(1);
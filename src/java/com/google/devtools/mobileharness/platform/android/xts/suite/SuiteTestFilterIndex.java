@@ -0,0 +1,158 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.platform.android.xts.suite;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+import javax.annotation.Nullable;
+
+/**
+ * Index of {@link SuiteTestFilter}s keyed by module name, for matching modules against a large
+ * number of filters (e.g., filters of a retry subplan of a full CTS run).
+ *
+ * <p>Matching a module only checks the filters with the same module name, instead of all filters.
+ * The result is the same as calling {@link SuiteTestFilter#matchModule} and {@link
+ * SuiteTestFilter#matchModuleName} on every filter.
+ */
+public final class SuiteTestFilterIndex {
+
+  private static final SuiteTestFilterIndex EMPTY = new SuiteTestFilterIndex(ImmutableList.of());
+
+  public static SuiteTestFilterIndex of(Collection<SuiteTestFilter> filters) {
+    return filters.isEmpty() ? EMPTY : new SuiteTestFilterIndex(filters);
+  }
+
+  /** Creates an index from filter strings in --include-filter or --exclude-filter. */
+  public static SuiteTestFilterIndex ofFilterStrings(Collection<String> filterStrings) {
+    return of(filterStrings.stream().map(SuiteTestFilter::create).collect(toImmutableList()));
+  }
+
+  private final ImmutableList<SuiteTestFilter> filters;
+
+  /** {module name with module parameter, filters in the original order}. */
+  private final ImmutableListMultimap<String, SuiteTestFilter> filtersByModuleName;
+
+  /** Module names without module parameters. */
+  private final ImmutableSet<String> baseModuleNames;
+
+  private SuiteTestFilterIndex(Collection<SuiteTestFilter> filters) {
+    this.filters = ImmutableList.copyOf(filters);
+    ImmutableListMultimap.Builder<String, SuiteTestFilter> filtersByModuleName =
+        ImmutableListMultimap.builder();
+    for (SuiteTestFilter filter : this.filters) {
+      filtersByModuleName.put(filter.moduleName(), filter);
+    }
+    this.filtersByModuleName = filtersByModuleName.build();
+    this.baseModuleNames =
+        this.filters.stream().map(SuiteTestFilter::baseModuleName).collect(toImmutableSet());
+  }
+
+  public boolean isEmpty() {
+    return filters.isEmpty();
+  }
+
+  /**
+   * Returns the filters whose {@link SuiteTestFilter#matchModule} returns true for the given
+   * module, in the original order.
+   */
+  public ImmutableList<SuiteTestFilter> getModuleMatchedFilters(
+      String originalModuleName, @Nullable String moduleAbi, @Nullable String moduleParameter) {
+    ImmutableList<SuiteTestFilter> candidates =
+        filtersByModuleName.get(getModuleName(originalModuleName, moduleParameter));
+    if (candidates.isEmpty()) {
+      return candidates;
+    }
+    ImmutableList.Builder<SuiteTestFilter> result = ImmutableList.builder();
+    for (SuiteTestFilter filter : candidates) {
+      if (matchAbi(filter, moduleAbi)) {
+        result.add(filter);
+      }
+    }
+    return result.build();
+  }
+
+  /** Returns whether any filter matches the given module by {@link SuiteTestFilter#matchModule}. */
+  public boolean matchModule(
+      String originalModuleName, @Nullable String moduleAbi, @Nullable String moduleParameter) {
+    for (SuiteTestFilter filter :
+        filtersByModuleName.get(getModuleName(originalModuleName, moduleParameter))) {
+      if (matchAbi(filter, moduleAbi)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether any module level filter (without test name) matches the given module by {@link
+   * SuiteTestFilter#matchModule}.
+   */
+  public boolean matchEntireModule(
+      String originalModuleName, @Nullable String moduleAbi, @Nullable String moduleParameter) {
+    for (SuiteTestFilter filter :
+        filtersByModuleName.get(getModuleName(originalModuleName, moduleParameter))) {
+      if (filter.testName().isEmpty() && matchAbi(filter, moduleAbi)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether any filter with a test name matches the given module by {@link
+   * SuiteTestFilter#matchModule}.
+   */
+  public boolean matchTestInModule(
+      String originalModuleName, @Nullable String moduleAbi, @Nullable String moduleParameter) {
+    for (SuiteTestFilter filter :
+        filtersByModuleName.get(getModuleName(originalModuleName, moduleParameter))) {
+      if (filter.testName().isPresent() && matchAbi(filter, moduleAbi)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether any filter matches the given module name by {@link
+   * SuiteTestFilter#matchModuleName}.
+   */
+  public boolean matchModuleName(String moduleName) {
+    return baseModuleNames.contains(moduleName);
+  }
+
+  @Override
+  public String toString() {
+    return filters.toString();
+  }
+
+  private static String getModuleName(
+      String originalModuleName, @Nullable String moduleParameter) {
+    return moduleParameter == null
+        ? originalModuleName
+        : String.format("%s[%s]", originalModuleName, moduleParameter);
+  }
+
+  private static boolean matchAbi(SuiteTestFilter filter, @Nullable String moduleAbi) {
+    return filter.abi().isEmpty() || filter.abi().get().equals(moduleAbi);
+  }
+}
@@ -21,7 +21,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.devtools.mobileharness.infra.ats.console.result.proto.ReportProto.Module;
 import com.google.devtools.mobileharness.infra.ats.console.result.proto.ReportProto.Test;
 import com.google.devtools.mobileharness.platform.android.xts.common.TestStatus;
-import com.google.devtools.mobileharness.platform.android.xts.suite.SuiteTestFilter;
+import com.google.devtools.mobileharness.platform.android.xts.suite.SuiteTestFilterIndex;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -77,8 +77,8 @@ public final class RetryResultHelper {
       Module module,
       Set<String> types,
       boolean addSubPlanCmd,
-      Set<SuiteTestFilter> prevResultIncludeFilters,
-      Set<SuiteTestFilter> prevResultExcludeFilters) {
+      SuiteTestFilterIndex prevResultIncludeFilters,
+      SuiteTestFilterIndex prevResultExcludeFilters) {
     if (!types.contains("not_executed") && !module.getDone()) {
       // If module is not done but types do not contain not_executed, should not run the entire
       // module.
@@ -98,24 +98,14 @@ public final class RetryResultHelper {
 
     // User passed in include-filter matches a test in the module, so only part of the module tests
     // were ran.
-    if (!prevResultIncludeFilters.isEmpty()
-        && prevResultIncludeFilters.stream()
-            .anyMatch(
-                filter ->
-                    filter.matchModule(
-                            module.getName(), module.getAbi(), /* moduleParameter= */ null)
-                        && filter.testName().isPresent())) {
+    if (prevResultIncludeFilters.matchTestInModule(
+        module.getName(), module.getAbi(), /* moduleParameter= */ null)) {
       return false;
     }
     // User passed in exclude-filter matches a test in the module, so only part of the module tests
     // were ran.
-    if (!prevResultExcludeFilters.isEmpty()
-        && prevResultExcludeFilters.stream()
-            .anyMatch(
-                filter ->
-                    filter.matchModule(
-                            module.getName(), module.getAbi(), /* moduleParameter= */ null)
-                        && filter.testName().isPresent())) {
+    if (prevResultExcludeFilters.matchTestInModule(
+        module.getName(), module.getAbi(), /* moduleParameter= */ null)) {
       return false;
     }
 
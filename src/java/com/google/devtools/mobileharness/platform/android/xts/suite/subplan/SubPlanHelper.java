@@ -16,8 +16,11 @@
 
 package com.google.devtools.mobileharness.platform.android.xts.suite.subplan;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
 import com.google.common.base.Ascii;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
@@ -28,6 +31,7 @@ import com.google.devtools.mobileharness.infra.ats.console.result.proto.ReportPr
 import com.google.devtools.mobileharness.infra.ats.console.result.proto.ReportProto.TestCase;
 import com.google.devtools.mobileharness.infra.ats.console.result.xml.XmlConstants;
 import com.google.devtools.mobileharness.platform.android.xts.suite.SuiteTestFilter;
+import com.google.devtools.mobileharness.platform.android.xts.suite.SuiteTestFilterIndex;
 import com.google.devtools.mobileharness.platform.android.xts.suite.retry.RetryResultHelper;
 import java.util.Optional;
 import java.util.Set;
@@ -51,6 +55,10 @@ public class SubPlanHelper {
       ImmutableSet<SuiteTestFilter> prevResultExcludeFilters,
       ImmutableSet<String> passedInModules) {
     SubPlan subPlan = new SubPlan();
+    SuiteTestFilterIndex prevResultIncludeFilterIndex =
+        SuiteTestFilterIndex.of(prevResultIncludeFilters);
+    SuiteTestFilterIndex prevResultExcludeFilterIndex =
+        SuiteTestFilterIndex.of(prevResultExcludeFilters);
     for (Module module : previousResult.getModuleInfoList()) {
       boolean isNonTfModule = module.getIsNonTfModule();
       // Always add the include filter for the module, and rely on below to determine whether to
@@ -85,7 +93,11 @@ public class SubPlanHelper {
             }
           }
         } else if (!RetryResultHelper.shouldRunEntireModule(
-            module, types, addSubPlanCmd, prevResultIncludeFilters, prevResultExcludeFilters)) {
+            module,
+            types,
+            addSubPlanCmd,
+            prevResultIncludeFilterIndex,
+            prevResultExcludeFilterIndex)) {
           // Only include test cases that should be run if the module is done in previous run, and
           // only some of test cases(not all) in the module should be run.
           for (TestCase testCase : module.getTestCaseList()) {
@@ -150,10 +162,11 @@ public class SubPlanHelper {
       ImmutableSet<SuiteTestFilter> passedInExcludeFilters,
       ImmutableSet<String> allNonTfModules)
       throws MobileHarnessException {
+    ImmutableList<String> lowerCaseNonTfModules =
+        allNonTfModules.stream().map(Ascii::toLowerCase).collect(toImmutableList());
 
     for (SuiteTestFilter filter : passedInIncludeFilters) {
-      if (allNonTfModules.stream()
-          .map(Ascii::toLowerCase)
+      if (lowerCaseNonTfModules.stream()
           .anyMatch(Ascii.toLowerCase(filter.moduleName())::contains)) {
         subPlan.addNonTfIncludeFilter(filter.filterString());
       } else {
@@ -162,8 +175,7 @@ public class SubPlanHelper {
     }
 
     for (SuiteTestFilter filter : passedInExcludeFilters) {
-      if (allNonTfModules.stream()
-          .map(Ascii::toLowerCase)
+      if (lowerCaseNonTfModules.stream()
           .anyMatch(Ascii.toLowerCase(filter.moduleName())::contains)) {
         if (filter.testName().isPresent()) {
           throw new MobileHarnessException(
@@ -19,17 +19,44 @@ package com.google.devtools.mobileharness.shared.commandhistory.controller;
 import static com.google.devtools.mobileharness.shared.util.time.TimeUtils.toProtoDuration;
 import static com.google.devtools.mobileharness.shared.util.time.TimeUtils.toProtoTimestamp;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.devtools.common.metrics.stability.model.proto.ExceptionProto.StackTrace;
 import com.google.devtools.mobileharness.shared.commandhistory.proto.CommandRecordProto.LocalCommandRecord;
 import com.google.devtools.mobileharness.shared.commandhistory.proto.CommandRecordProto.LocalCommandRecords;
 import com.google.errorprone.annotations.concurrent.GuardedBy;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import javax.annotation.Nullable;
 
-/** Manager for managing command history of the current process. */
+/**
+ * Manager for managing command history of the current process.
+ *
+ * <p>Records are kept in a fixed-size ring buffer. When it is full, the oldest record is evicted,
+ * and is appended to the spill file if any. Identical stack traces of the records are stored once
+ * and referenced by ID.
+ */
 public class LocalCommandHistoryManager {
 
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  @VisibleForTesting static final int DEFAULT_MAX_RECORD_NUM = 100_000;
+
+  /** The max number of distinct stack traces. Stack traces beyond it are not deduplicated. */
+  @VisibleForTesting static final int MAX_STACK_TRACE_NUM = 10_000;
+
   private static final LocalCommandHistoryManager INSTANCE = new LocalCommandHistoryManager();
 
   public static LocalCommandHistoryManager getInstance() {
@@ -38,8 +65,35 @@ public class LocalCommandHistoryManager {
 
   private final Object lock = new Object();
 
+  /** The ring buffer of the records. */
+  @GuardedBy("lock")
+  private LocalCommandRecord[] records = new LocalCommandRecord[DEFAULT_MAX_RECORD_NUM];
+
+  /** The index of the oldest record in {@link #records}. */
+  @GuardedBy("lock")
+  private int head;
+
+  @GuardedBy("lock")
+  private int size;
+
+  @GuardedBy("lock")
+  private long evictedRecordCount;
+
+  @GuardedBy("lock")
+  @Nullable
+  private Path spillFile;
+
+  @GuardedBy("lock")
+  @Nullable
+  private OutputStream spillOutputStream;
+
+  /** {stack trace, ID}. */
+  @GuardedBy("lock")
+  private final Map<ImmutableList<StackTraceElement>, Long> stackTraceIds = new HashMap<>();
+
+  /** {ID, stack trace}. */
   @GuardedBy("lock")
-  private final List<LocalCommandRecord> records = new ArrayList<>();
+  private final Map<Long, StackTrace> stackTraces = new LinkedHashMap<>();
 
   @GuardedBy("lock")
   private Duration startElapsedTime = Duration.ZERO;
@@ -47,30 +101,125 @@ public class LocalCommandHistoryManager {
   @GuardedBy("lock")
   private Instant startTimestamp = Instant.EPOCH;
 
-  private LocalCommandHistoryManager() {}
+  @VisibleForTesting
+  LocalCommandHistoryManager() {}
 
   /** Do NOT make it public. */
   void add(LocalCommandRecord record) {
     synchronized (lock) {
-      records.add(record);
+      if (size == records.length) {
+        spill(records[head]);
+        records[head] = record;
+        head = (head + 1) % records.length;
+        evictedRecordCount++;
+      } else {
+        records[(head + size) % records.length] = record;
+        size++;
+      }
+    }
+  }
+
+  /**
+   * Do NOT make it public.
+   *
+   * <p>Gets the ID of the given stack trace, or adds it with the proto created by the converter if
+   * it is new.
+   *
+   * @return the ID, or 0 if there are too many distinct stack traces
+   */
+  long getStackTraceId(
+      List<StackTraceElement> stackTrace,
+      Function<List<StackTraceElement>, StackTrace> stackTraceConverter) {
+    ImmutableList<StackTraceElement> key = ImmutableList.copyOf(stackTrace);
+    synchronized (lock) {
+      Long id = stackTraceIds.get(key);
+      if (id != null) {
+        return id;
+      }
+      if (stackTraceIds.size() >= MAX_STACK_TRACE_NUM) {
+        return 0L;
+      }
+      long newId = stackTraceIds.size() + 1L;
+      stackTraceIds.put(key, newId);
+      stackTraces.put(newId, stackTraceConverter.apply(key));
+      return newId;
     }
   }
 
   /** Do NOT make it public. */
-  void start(Duration startElapsedTime, Instant startTimestamp) {
+  void start(
+      Duration startElapsedTime,
+      Instant startTimestamp,
+      int maxRecordNum,
+      @Nullable Path spillFile) {
     synchronized (lock) {
       this.startElapsedTime = startElapsedTime;
       this.startTimestamp = startTimestamp;
+      int capacity = maxRecordNum > 0 ? maxRecordNum : DEFAULT_MAX_RECORD_NUM;
+      if (capacity != records.length) {
+        LocalCommandRecord[] newRecords = new LocalCommandRecord[capacity];
+        int newSize = 0;
+        for (int i = 0; i < size; i++) {
+          LocalCommandRecord record = records[(head + i) % records.length];
+          if (size - i > capacity) {
+            spill(record);
+            evictedRecordCount++;
+          } else {
+            newRecords[newSize++] = record;
+          }
+        }
+        records = newRecords;
+        head = 0;
+        size = newSize;
+      }
+      this.spillFile = spillFile;
     }
   }
 
   public LocalCommandRecords getAll() {
     synchronized (lock) {
-      return LocalCommandRecords.newBuilder()
-          .addAllRecord(records)
-          .setLocalStartElapsedTime(toProtoDuration(startElapsedTime))
-          .setLocalStartTimestamp(toProtoTimestamp(startTimestamp))
-          .build();
+      flushSpillFile();
+      LocalCommandRecords.Builder result =
+          LocalCommandRecords.newBuilder()
+              .setLocalStartElapsedTime(toProtoDuration(startElapsedTime))
+              .setLocalStartTimestamp(toProtoTimestamp(startTimestamp))
+              .putAllStackTrace(stackTraces)
+              .setEvictedRecordCount(evictedRecordCount);
+      for (int i = 0; i < size; i++) {
+        result.addRecord(records[(head + i) % records.length]);
+      }
+      return result.build();
+    }
+  }
+
+  @GuardedBy("lock")
+  private void spill(LocalCommandRecord record) {
+    if (spillFile == null) {
+      return;
+    }
+    try {
+      if (spillOutputStream == null) {
+        spillOutputStream =
+            new BufferedOutputStream(
+                Files.newOutputStream(
+                    spillFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+      }
+      record.writeDelimitedTo(spillOutputStream);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to spill command history to %s, stop spilling", spillFile);
+      spillFile = null;
+    }
+  }
+
+  @GuardedBy("lock")
+  private void flushSpillFile() {
+    if (spillOutputStream != null) {
+      try {
+        spillOutputStream.flush();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Failed to flush command history spill file");
+      }
     }
   }
 }
@@ -16,13 +16,11 @@
 
 package com.google.devtools.mobileharness.shared.commandhistory.controller;
 
-import static com.google.devtools.mobileharness.shared.util.concurrent.MoreFutures.logFailure;
 import static com.google.devtools.mobileharness.shared.util.time.TimeUtils.toProtoTimestamp;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Ticker;
 import com.google.common.flogger.FluentLogger;
-import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.devtools.common.metrics.stability.converter.ErrorModelConverter;
 import com.google.devtools.mobileharness.shared.commandhistory.proto.CommandRecordProto.LocalCommandRecord;
 import com.google.devtools.mobileharness.shared.commandhistory.proto.CommandRecordProto.LocalCommandRecord.CommandEndedEvent;
@@ -31,13 +29,12 @@ import com.google.devtools.mobileharness.shared.commandhistory.proto.CommandReco
 import com.google.devtools.mobileharness.shared.commandhistory.proto.CommandRecordProto.LocalCommandRecord.CommandStartedEvent.CommandStartSuccess;
 import com.google.devtools.mobileharness.shared.commandhistory.proto.CommandRecordProto.LocalCommandRecord.CommandStartedEvent.InvocationInfo;
 import com.google.devtools.mobileharness.shared.subprocess.listener.ProcessBuilderListener;
-import com.google.devtools.mobileharness.shared.util.concurrent.ThreadPools;
 import com.google.protobuf.util.Durations;
+import java.nio.file.Path;
 import java.time.Clock;
 import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.logging.Level;
 import javax.annotation.Nullable;
 
 /**
@@ -55,28 +52,18 @@ public class LocalCommandHistoryRecorder implements ProcessBuilderListener.Handl
   }
 
   private final LocalCommandHistoryManager manager;
-  private final ListeningExecutorService threadPool;
   private final Ticker ticker;
   private final Clock clock;
 
   private final AtomicLong nextCommandSequenceNumber = new AtomicLong(0L);
 
   private LocalCommandHistoryRecorder() {
-    this(
-        LocalCommandHistoryManager.getInstance(),
-        ThreadPools.createStandardThreadPool("subprocess-listener"),
-        Ticker.systemTicker(),
-        Clock.systemUTC());
+    this(LocalCommandHistoryManager.getInstance(), Ticker.systemTicker(), Clock.systemUTC());
   }
 
   @VisibleForTesting
-  LocalCommandHistoryRecorder(
-      LocalCommandHistoryManager manager,
-      ListeningExecutorService threadPool,
-      Ticker ticker,
-      Clock clock) {
+  LocalCommandHistoryRecorder(LocalCommandHistoryManager manager, Ticker ticker, Clock clock) {
     this.manager = manager;
-    this.threadPool = threadPool;
     this.ticker = ticker;
     this.clock = clock;
   }
@@ -92,7 +79,7 @@ public class LocalCommandHistoryRecorder implements ProcessBuilderListener.Handl
       LocalCommandRecord.Builder record = createCommandRecordBuilder(commandSequenceNumber);
 
       record.setCommandStartedEvent(
-          createCommandStartedEvent(command, process, exception, stackTrace));
+          createCommandStartedEvent(command, process, exception, stackTrace, manager));
 
       manager.add(record.build());
 
@@ -106,28 +93,59 @@ public class LocalCommandHistoryRecorder implements ProcessBuilderListener.Handl
 
   /** Records the starting time of the current process. */
   public void start() {
-    manager.start(Duration.ofNanos(ticker.read()), clock.instant());
+    start(/* maxRecordNum= */ 0, /* spillFilePath= */ "");
   }
 
-  private void addProcessEndedListener(Process process, long commandSequenceNumber) {
-    logFailure(
-        threadPool.submit(() -> waitAndHandleProcessEnded(process, commandSequenceNumber)),
-        Level.WARNING,
-        "Exception thrown while waiting or handling process ended,"
-            + " process=%s, command_sequence_number=%s",
-        process,
-        commandSequenceNumber);
+  /**
+   * Records the starting time of the current process.
+   *
+   * @param maxRecordNum the max number of records kept in memory, or not positive to use the
+   *     default value
+   * @param spillFilePath the file to append records evicted from memory, or empty to drop them
+   */
+  public void start(int maxRecordNum, String spillFilePath) {
+    manager.start(
+        Duration.ofNanos(ticker.read()),
+        clock.instant(),
+        maxRecordNum,
+        spillFilePath.isEmpty() ? null : Path.of(spillFilePath));
   }
 
-  /** Synchronously waits a subprocess to exit and then adds corresponding record. */
-  private Void waitAndHandleProcessEnded(Process process, long commandSequenceNumber)
-      throws InterruptedException {
-    int processExitCode = process.waitFor();
+  /**
+   * Adds the ended record when the subprocess exits.
+   *
+   * <p>Uses {@link Process#onExit()} rather than blocking a thread per subprocess in {@link
+   * Process#waitFor()}, so the exit is observed by the process reaper thread of the JDK.
+   */
+  private void addProcessEndedListener(Process process, long commandSequenceNumber) {
+    process
+        .onExit()
+        .whenComplete(
+            (exitedProcess, error) -> {
+              if (error != null) {
+                logger.atWarning().withCause(error).log(
+                    "Exception thrown while waiting process ended,"
+                        + " process=%s, command_sequence_number=%s",
+                    process,
+                    commandSequenceNumber);
+                return;
+              }
+              try {
+                handleProcessEnded(exitedProcess.exitValue(), commandSequenceNumber);
+              } catch (RuntimeException | Error e) {
+                logger.atWarning().withCause(e).log(
+                    "Exception thrown while handling process ended,"
+                        + " process=%s, command_sequence_number=%s",
+                    process,
+                    commandSequenceNumber);
+              }
+            });
+  }
 
+  private void handleProcessEnded(int processExitCode, long commandSequenceNumber) {
     LocalCommandRecord.Builder record = createCommandRecordBuilder(commandSequenceNumber);
     record.setCommandEndedEvent(CommandEndedEvent.newBuilder().setExitCode(processExitCode));
     manager.add(record.build());
-    return null;
   }
 
   private LocalCommandRecord.Builder createCommandRecordBuilder(long commandSequenceNumber) {
@@ -141,16 +159,23 @@ public class LocalCommandHistoryRecorder implements ProcessBuilderListener.Handl
       List<String> command,
       @Nullable Process process,
       @Nullable Throwable exception,
-      List<StackTraceElement> stackTrace) {
+      List<StackTraceElement> stackTrace,
+      LocalCommandHistoryManager manager) {
     Thread currentThread = Thread.currentThread();
+    InvocationInfo.Builder invocationInfo =
+        InvocationInfo.newBuilder()
+            .setThreadId(currentThread.getId())
+            .setThreadName(currentThread.getName());
+    long stackTraceId =
+        manager.getStackTraceId(
+            stackTrace, elements -> ErrorModelConverter.toStackTraceProto(elements.stream()));
+    if (stackTraceId > 0L) {
+      invocationInfo.setStackTraceId(stackTraceId);
+    } else {
+      invocationInfo.setStackTrace(ErrorModelConverter.toStackTraceProto(stackTrace.stream()));
+    }
     CommandStartedEvent.Builder result =
-        CommandStartedEvent.newBuilder()
-            .addAllCommand(command)
-            .setInvocationInfo(
-                InvocationInfo.newBuilder()
-                    .setThreadId(currentThread.getId())
-                    .setThreadName(currentThread.getName())
-                    .setStackTrace(ErrorModelConverter.toStackTraceProto(stackTrace.stream())));
+        CommandStartedEvent.newBuilder().addAllCommand(command).setInvocationInfo(invocationInfo);
 
     if (exception == null) {
       CommandStartSuccess.Builder commandStartSuccess = CommandStartSuccess.newBuilder();
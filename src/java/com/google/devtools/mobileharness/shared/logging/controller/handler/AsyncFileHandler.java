@@ -0,0 +1,404 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.logging.controller.handler;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * A log handler which writes records to rotated local files in a background thread, so that
+ * logging threads never block on formatting or disk I/O.
+ *
+ * <p>{@link #publish} only snapshots the message parameters of the record and adds the record to a
+ * bounded lock-free queue, and drops the record if the queue is full. The writer thread formats the
+ * records and writes them in batches. Files are rotated when their size reaches the limit or when
+ * they are older than the rotation interval, and rotated files are compressed by the writer thread.
+ *
+ * <p>The pattern must contain "%g", which is replaced by the generation number. For example,
+ * "{@code log%g.txt}" will make the handler write logs into "{@code log0.txt}" and rotate them into
+ * "{@code log1.txt.gz}", "{@code log2.txt.gz}", etc.
+ */
+public final class AsyncFileHandler extends Handler {
+
+  /** Max number of records written in one batch. */
+  private static final int MAX_BATCH_SIZE = 1024;
+
+  /** Interval of the writer thread checking the queue when it is empty. */
+  private static final Duration WRITER_IDLE_INTERVAL = Duration.ofMillis(100L);
+
+  /** Max time to wait for the writer thread to write the queued records when flushing. */
+  private static final Duration FLUSH_TIMEOUT = Duration.ofSeconds(1L);
+
+  /** Max time to wait for the writer thread to write the remaining records when closing. */
+  private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5L);
+
+  private static final String COMPRESSED_FILE_SUFFIX = ".gz";
+
+  private final String pattern;
+  private final long sizeLimit;
+  private final int count;
+  @Nullable private final Duration rotationInterval;
+  private final int queueCapacity;
+
+  private final Queue<LogRecord> queue = new ConcurrentLinkedQueue<>();
+
+  /** Number of records in {@link #queue}, since {@link ConcurrentLinkedQueue#size()} is O(n). */
+  private final AtomicInteger queueSize = new AtomicInteger();
+
+  private final AtomicLong droppedRecordCount = new AtomicLong();
+
+  /** Number of dropped records which have not been reported in the log file. */
+  private final AtomicLong unreportedDroppedRecordCount = new AtomicLong();
+
+  /** Number of records added to {@link #queue}. */
+  private final AtomicLong queuedRecordCount = new AtomicLong();
+
+  /** Number of records polled from {@link #queue} and written by the writer thread. */
+  private final AtomicLong writtenRecordCount = new AtomicLong();
+
+  /** Notified by the writer thread after it writes a batch. */
+  private final Object writtenRecordCountMonitor = new Object();
+
+  private final Thread writerThread;
+
+  private volatile boolean closed;
+
+  // Fields below are only accessed by the writer thread, or in the constructor before the writer
+  // thread starts.
+
+  @Nullable private FileChannel channel;
+  private long fileSize;
+  private long fileOpenNanos;
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+  /**
+   * Creates a handler and starts its writer thread.
+   *
+   * @param pattern the pattern of the log file paths, which must contain "%g"
+   * @param sizeLimit the approximate max number of bytes to write to one file, or 0 for no limit
+   * @param count the number of files to use, including the current one
+   * @param rotationInterval the max time to write to one file, or null for no limit
+   * @param queueCapacity the max number of records waiting to be written
+   * @throws IOException if fails to open the log file
+   */
+  AsyncFileHandler(
+      String pattern,
+      long sizeLimit,
+      int count,
+      @Nullable Duration rotationInterval,
+      int queueCapacity)
+      throws IOException {
+    checkArgument(pattern.contains("%g"), "Pattern [%s] does not contain %%g", pattern);
+    checkArgument(sizeLimit >= 0L, "Invalid size limit %s", sizeLimit);
+    checkArgument(count >= 1, "Invalid file count %s", count);
+    checkArgument(queueCapacity >= 1, "Invalid queue capacity %s", queueCapacity);
+    this.pattern = pattern;
+    this.sizeLimit = sizeLimit;
+    this.count = count;
+    this.rotationInterval = rotationInterval;
+    this.queueCapacity = queueCapacity;
+
+    // Like FileHandler, keeps the log file of the previous run as a rotated file.
+    rotateFiles();
+    openFile();
+
+    writerThread = new Thread(this::runWriter, "async-log-file-writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  @Override
+  public void publish(LogRecord logRecord) {
+    if (closed || !isLoggable(logRecord)) {
+      return;
+    }
+    if (queueSize.incrementAndGet() > queueCapacity) {
+      queueSize.decrementAndGet();
+      droppedRecordCount.incrementAndGet();
+      unreportedDroppedRecordCount.incrementAndGet();
+      return;
+    }
+    // The source class and method are inferred from the stack of the logging thread if they are
+    // not set, so infers them before the record is formatted in the writer thread.
+    logRecord.getSourceClassName();
+    // The parameters may be changed by the logging thread after this method returns, so snapshots
+    // them now. The message is still formatted in the writer thread.
+    Object[] parameters = logRecord.getParameters();
+    if (parameters != null && parameters.length > 0) {
+      logRecord.setParameters(snapshotParameters(parameters));
+    }
+    queue.add(logRecord);
+    queuedRecordCount.incrementAndGet();
+  }
+
+  /**
+   * Wakes up the writer thread and waits until it writes the records queued before this call, or
+   * until {@link #FLUSH_TIMEOUT} elapses.
+   */
+  @Override
+  public void flush() {
+    long targetRecordCount = queuedRecordCount.get();
+    LockSupport.unpark(writerThread);
+    long deadlineNanos = System.nanoTime() + FLUSH_TIMEOUT.toNanos();
+    synchronized (writtenRecordCountMonitor) {
+      long remainingNanos;
+      while (writtenRecordCount.get() < targetRecordCount
+          && (remainingNanos = deadlineNanos - System.nanoTime()) > 0L) {
+        try {
+          // Rounds up so that it does not return before the deadline.
+          writtenRecordCountMonitor.wait(
+              Duration.ofNanos(remainingNanos).plusNanos(999_999L).toMillis());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /** Writes the queued records and closes the file. */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    LockSupport.unpark(writerThread);
+    try {
+      writerThread.join(CLOSE_TIMEOUT.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Returns the number of records dropped because the queue is full. */
+  public long getDroppedRecordCount() {
+    return droppedRecordCount.get();
+  }
+
+  /**
+   * Copies the parameters, and converts the parameters which may be mutable to strings. Immutable
+   * parameters, which are the common case, are kept so that formatting them is still done in the
+   * writer thread and respects the format elements of the message like "{@code {0,number}}".
+   */
+  private static Object[] snapshotParameters(Object[] parameters) {
+    Object[] snapshot = new Object[parameters.length];
+    for (int i = 0; i < parameters.length; i++) {
+      Object parameter = parameters[i];
+      snapshot[i] =
+          parameter == null || isImmutable(parameter) ? parameter : String.valueOf(parameter);
+    }
+    return snapshot;
+  }
+
+  private static boolean isImmutable(Object parameter) {
+    return parameter instanceof String
+        || parameter instanceof Integer
+        || parameter instanceof Long
+        || parameter instanceof Double
+        || parameter instanceof Float
+        || parameter instanceof Short
+        || parameter instanceof Byte
+        || parameter instanceof BigInteger
+        || parameter instanceof BigDecimal
+        || parameter instanceof Boolean
+        || parameter instanceof Character
+        || parameter instanceof Enum
+        || parameter instanceof Duration
+        || parameter instanceof Instant;
+  }
+
+  private void runWriter() {
+    while (true) {
+      boolean closing = closed;
+      int written = writeBatch();
+      if (written == 0) {
+        if (closing) {
+          break;
+        }
+        LockSupport.parkNanos(WRITER_IDLE_INTERVAL.toNanos());
+      }
+      if (rotationInterval != null
+          && fileSize > 0L
+          && System.nanoTime() - fileOpenNanos >= rotationInterval.toNanos()) {
+        rotate();
+      }
+    }
+    closeFile();
+  }
+
+  /** Writes at most {@link #MAX_BATCH_SIZE} queued records, and returns the number of them. */
+  private int writeBatch() {
+    long dropped = unreportedDroppedRecordCount.getAndSet(0L);
+    if (dropped > 0L) {
+      append(
+          String.format(
+              "%d log records were dropped because the log queue was full\n", dropped));
+    }
+
+    Formatter formatter = getFormatter();
+    int written = 0;
+    LogRecord logRecord;
+    while (written < MAX_BATCH_SIZE && (logRecord = queue.poll()) != null) {
+      queueSize.decrementAndGet();
+      written++;
+      String message;
+      try {
+        message = formatter == null ? logRecord.getMessage() + "\n" : formatter.format(logRecord);
+      } catch (RuntimeException e) {
+        reportError(null, e, ErrorManager.FORMAT_FAILURE);
+        continue;
+      }
+      append(message);
+    }
+    writeBuffer();
+    if (written > 0) {
+      writtenRecordCount.addAndGet(written);
+      synchronized (writtenRecordCountMonitor) {
+        writtenRecordCountMonitor.notifyAll();
+      }
+    }
+    return written;
+  }
+
+  /** Appends a formatted record to the buffer, and rotates the file first if it is full. */
+  private void append(String message) {
+    byte[] bytes = message.getBytes(UTF_8);
+    if (sizeLimit > 0L
+        && fileSize + buffer.size() > 0L
+        && fileSize + buffer.size() + bytes.length > sizeLimit) {
+      writeBuffer();
+      rotate();
+    }
+    buffer.write(bytes, 0, bytes.length);
+  }
+
+  private void writeBuffer() {
+    if (buffer.size() == 0) {
+      return;
+    }
+    try {
+      if (channel == null) {
+        openFile();
+      }
+      ByteBuffer byteBuffer = ByteBuffer.wrap(buffer.toByteArray());
+      while (byteBuffer.hasRemaining()) {
+        fileSize += channel.write(byteBuffer);
+      }
+    } catch (IOException e) {
+      reportError(null, e, ErrorManager.WRITE_FAILURE);
+    } finally {
+      buffer.reset();
+    }
+  }
+
+  private void rotate() {
+    closeFile();
+    try {
+      rotateFiles();
+      openFile();
+    } catch (IOException e) {
+      reportError(null, e, ErrorManager.OPEN_FAILURE);
+    }
+  }
+
+  /** Shifts the rotated files, and moves the current file to generation 1 and compresses it. */
+  private void rotateFiles() throws IOException {
+    Path currentFile = getFile(0);
+    if (count == 1 || !Files.exists(currentFile)) {
+      Files.deleteIfExists(currentFile);
+      return;
+    }
+    for (int generation = count - 1; generation >= 1; generation--) {
+      for (String suffix : new String[] {"", COMPRESSED_FILE_SUFFIX}) {
+        Path file = getFile(generation, suffix);
+        if (generation == count - 1) {
+          Files.deleteIfExists(file);
+        } else if (Files.exists(file)) {
+          Files.move(file, getFile(generation + 1, suffix), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+    }
+    Path rotatedFile = getFile(1);
+    Files.move(currentFile, rotatedFile, StandardCopyOption.REPLACE_EXISTING);
+    try (InputStream input = Files.newInputStream(rotatedFile);
+        OutputStream output =
+            new GZIPOutputStream(Files.newOutputStream(getFile(1, COMPRESSED_FILE_SUFFIX)))) {
+      input.transferTo(output);
+    }
+    Files.delete(rotatedFile);
+  }
+
+  private void openFile() throws IOException {
+    channel =
+        FileChannel.open(
+            getFile(0),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+    fileSize = channel.size();
+    fileOpenNanos = System.nanoTime();
+  }
+
+  private void closeFile() {
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      reportError(null, e, ErrorManager.CLOSE_FAILURE);
+    } finally {
+      channel = null;
+    }
+  }
+
+  private Path getFile(int generation) {
+    return getFile(generation, /* suffix= */ "");
+  }
+
+  private Path getFile(int generation, String suffix) {
+    return Paths.get(pattern.replace("%g", Integer.toString(generation)) + suffix);
+  }
+}
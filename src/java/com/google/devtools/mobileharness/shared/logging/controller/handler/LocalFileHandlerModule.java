@@ -31,23 +31,34 @@ import com.google.inject.throwingproviders.CheckedProvides;
 import com.google.inject.throwingproviders.ThrowingProviderBinder;
 import com.google.wireless.qa.mobileharness.shared.constant.DirCommon;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Optional;
 import java.util.logging.FileHandler;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import javax.annotation.Nullable;
 
-/** Module for providing local {@link FileHandler}. */
+/**
+ * Module for providing local file log handler, which is a {@link FileHandler}, or an {@link
+ * AsyncFileHandler} if {@code --enable_async_log_file_handler} is true.
+ */
 public final class LocalFileHandlerModule extends AbstractModule {
-  /** The provider for providing {@link FileHandler}s. */
-  public interface LocalFileHandlerProvider extends CheckedProvider<Optional<FileHandler>> {
+  /** The provider for providing local file log handlers. */
+  public interface LocalFileHandlerProvider extends CheckedProvider<Optional<Handler>> {
 
     @Override
-    Optional<FileHandler> get() throws MobileHarnessException;
+    Optional<Handler> get() throws MobileHarnessException;
   }
 
   /** Maximum number of bytes to write to any one file. */
   private static final int LOG_FILE_SIZE_LIMIT = 10 * 1024 * 1024;
 
+  /** Max time to write to any one file, only for {@link AsyncFileHandler}. */
+  private static final Duration LOG_FILE_ROTATION_INTERVAL = Duration.ofHours(1L);
+
+  /** Max number of log records waiting to be written, only for {@link AsyncFileHandler}. */
+  private static final int ASYNC_LOG_QUEUE_CAPACITY = 64 * 1024;
+
   @Nullable private final String logFileDir;
 
   LocalFileHandlerModule(@Nullable String logFileDir) {
@@ -62,8 +73,7 @@ public final class LocalFileHandlerModule extends AbstractModule {
   @CanIgnoreReturnValue
   @CheckedProvides(LocalFileHandlerProvider.class)
   @Singleton
-  Optional<FileHandler> provideFileHandler(LocalFileUtil localFileUtil)
-      throws MobileHarnessException {
+  Optional<Handler> provideFileHandler(LocalFileUtil localFileUtil) throws MobileHarnessException {
     if (logFileDir == null) {
       return Optional.empty();
     }
@@ -77,9 +87,16 @@ public final class LocalFileHandlerModule extends AbstractModule {
     try {
       localFileUtil.prepareDir(logFileDir);
       localFileUtil.grantFileOrDirFullAccess(logFileDir);
-      FileHandler fileHandler =
-          new FileHandler(
-              logFilePattern, LOG_FILE_SIZE_LIMIT, Flags.instance().logFileNumber.get());
+      Handler fileHandler =
+          Flags.instance().enableAsyncLogFileHandler.getNonNull()
+              ? new AsyncFileHandler(
+                  logFilePattern,
+                  LOG_FILE_SIZE_LIMIT,
+                  Flags.instance().logFileNumber.getNonNull(),
+                  LOG_FILE_ROTATION_INTERVAL,
+                  ASYNC_LOG_QUEUE_CAPACITY)
+              : new FileHandler(
+                  logFilePattern, LOG_FILE_SIZE_LIMIT, Flags.instance().logFileNumber.get());
       fileHandler.setFormatter(MobileHarnessLogFormatter.getDefaultFormatter());
       fileHandler.setLevel(Level.INFO);
       return Optional.of(fileHandler);
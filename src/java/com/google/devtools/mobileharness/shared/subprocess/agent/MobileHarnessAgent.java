@@ -86,7 +86,9 @@ public class MobileHarnessAgent {
 
     interceptProcessBuilder(inst);
 
-    LocalCommandHistoryRecorder.getInstance().start();
+    LocalCommandHistoryRecorder.getInstance()
+        .start(
+            config.getMaxCommandHistoryRecordNum(), config.getCommandHistorySpillFilePath());
     ProcessBuilderListener.getInstance().setHandler(LocalCommandHistoryRecorder.getInstance());
 
     if (!config.getCommandHistoryFilePath().isEmpty()) {
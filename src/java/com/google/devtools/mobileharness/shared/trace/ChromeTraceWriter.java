@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.trace;
+
+import static com.google.devtools.mobileharness.shared.util.time.TimeUtils.toJavaInstant;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Span;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer of spans in the JSON object format of Chrome trace events, which can be opened by
+ * chrome://tracing or https://ui.perfetto.dev.
+ *
+ * <p>Each source (process) of the spans is shown as a process, and each test in it is shown as a
+ * thread. Spans which do not belong to any test are in thread 0.
+ */
+class ChromeTraceWriter {
+
+  private static final String NO_TEST_THREAD_NAME = "(no test)";
+
+  static void write(List<Span> spans, Path file) throws IOException {
+    Map<String, Integer> pids = new HashMap<>();
+    Map<String, Map<String, Integer>> tids = new HashMap<>();
+    JsonArray events = new JsonArray();
+    for (Span span : spans) {
+      String sourceId = span.getSource().getId();
+      Integer pid = pids.get(sourceId);
+      if (pid == null) {
+        pid = pids.size() + 1;
+        pids.put(sourceId, pid);
+        events.add(
+            createMetadataEvent(
+                "process_name",
+                pid,
+                /* tid= */ 0,
+                span.getSource().getSourceType() + " " + sourceId));
+        events.add(createMetadataEvent("thread_name", pid, /* tid= */ 0, NO_TEST_THREAD_NAME));
+      }
+      String testId = SpanRecorder.getTestId(span).orElse("");
+      Map<String, Integer> testTids = tids.computeIfAbsent(sourceId, key -> new HashMap<>());
+      Integer tid = testId.isEmpty() ? Integer.valueOf(0) : testTids.get(testId);
+      if (tid == null) {
+        tid = testTids.size() + 1;
+        testTids.put(testId, tid);
+        events.add(createMetadataEvent("thread_name", pid, tid, "test " + testId));
+      }
+      events.add(createCompleteEvent(span, pid, tid));
+    }
+
+    JsonObject trace = new JsonObject();
+    trace.add("traceEvents", events);
+    trace.addProperty("displayTimeUnit", "ms");
+    try (Writer writer = Files.newBufferedWriter(file, UTF_8);
+        JsonWriter jsonWriter = new JsonWriter(writer)) {
+      new Gson().toJson(trace, jsonWriter);
+    }
+  }
+
+  private static JsonObject createCompleteEvent(Span span, int pid, int tid) {
+    long startMicros = toMicros(toJavaInstant(span.getTimeline().getLocalStartTimestamp()));
+    long endMicros = toMicros(toJavaInstant(span.getTimeline().getLocalEndTimestamp()));
+    JsonObject args = new JsonObject();
+    args.addProperty("id", span.getId());
+    args.addProperty("parent_id", span.getParentId());
+    JsonArray tags = new JsonArray();
+    span.getTags().getTagList().forEach(tags::add);
+    args.add("tags", tags);
+
+    JsonObject event = new JsonObject();
+    event.addProperty("name", span.getName().getName());
+    event.addProperty("cat", span.getType().getType().name());
+    event.addProperty("ph", "X");
+    event.addProperty("ts", startMicros);
+    event.addProperty("dur", Math.max(0L, endMicros - startMicros));
+    event.addProperty("pid", pid);
+    event.addProperty("tid", tid);
+    event.add("args", args);
+    return event;
+  }
+
+  private static JsonObject createMetadataEvent(String name, int pid, int tid, String value) {
+    JsonObject args = new JsonObject();
+    args.addProperty("name", value);
+    JsonObject event = new JsonObject();
+    event.addProperty("name", name);
+    event.addProperty("ph", "M");
+    event.addProperty("pid", pid);
+    event.addProperty("tid", tid);
+    event.add("args", args);
+    return event;
+  }
+
+  private static long toMicros(Instant instant) {
+    return SECONDS.toMicros(instant.getEpochSecond()) + instant.getNano() / 1_000L;
+  }
+
+  private ChromeTraceWriter() {}
+}
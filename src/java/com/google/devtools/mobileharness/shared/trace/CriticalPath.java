@@ -0,0 +1,184 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.trace;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.devtools.mobileharness.shared.util.time.TimeUtils.toJavaInstant;
+import static java.util.Comparator.comparing;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Span;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Critical path of the spans of a test.
+ *
+ * <p>The critical path is computed backwards from the end of the test: among the spans which end
+ * before the current point, the one ending the latest is on the path, and the path continues from
+ * its children and then from its start. Time on the path not covered by any span is reported as
+ * untracked.
+ */
+@AutoValue
+public abstract class CriticalPath {
+
+  /** A span on the critical path, with its time not covered by its children on the path. */
+  @AutoValue
+  public abstract static class Segment {
+
+    public abstract Span span();
+
+    public abstract Duration selfTime();
+
+    static Segment of(Span span, Duration selfTime) {
+      return new AutoValue_CriticalPath_Segment(span, selfTime);
+    }
+  }
+
+  /** The segments in the order of their start times. */
+  public abstract ImmutableList<Segment> segments();
+
+  /** The time from the start of the first span to the end of the last span of the test. */
+  public abstract Duration totalTime();
+
+  /** The time on the critical path not covered by any span. */
+  public abstract Duration untrackedTime();
+
+  /** Computes the critical path of the spans with the test ID tag of the given test. */
+  public static CriticalPath of(Collection<Span> allSpans, String testId) {
+    return ofTestSpans(
+        allSpans.stream()
+            .filter(span -> SpanRecorder.getTestId(span).filter(testId::equals).isPresent())
+            .collect(toImmutableList()));
+  }
+
+  /**
+   * Computes the critical paths of the given tests, indexing the spans by their test ID tags once.
+   *
+   * @return {test ID, critical path} of the tests which have spans
+   */
+  public static ImmutableMap<String, CriticalPath> ofTests(
+      Collection<Span> allSpans, Set<String> testIds) {
+    ListMultimap<String, Span> spansByTestId = ArrayListMultimap.create();
+    for (Span span : allSpans) {
+      SpanRecorder.getTestId(span)
+          .filter(testIds::contains)
+          .ifPresent(testId -> spansByTestId.put(testId, span));
+    }
+    return spansByTestId.asMap().entrySet().stream()
+        .collect(
+            toImmutableMap(
+                Map.Entry::getKey, entry -> ofTestSpans(ImmutableList.copyOf(entry.getValue()))));
+  }
+
+  private static CriticalPath ofTestSpans(ImmutableList<Span> spans) {
+    if (spans.isEmpty()) {
+      return new AutoValue_CriticalPath(ImmutableList.of(), Duration.ZERO, Duration.ZERO);
+    }
+
+    Set<String> ids = spans.stream().map(Span::getId).collect(Collectors.toSet());
+    ImmutableListMultimap<String, Span> children =
+        Multimaps.index(spans, span -> ids.contains(span.getParentId()) ? span.getParentId() : "");
+    Instant start = spans.stream().map(CriticalPath::start).min(Instant::compareTo).orElseThrow();
+    Instant end = spans.stream().map(CriticalPath::end).max(Instant::compareTo).orElseThrow();
+
+    List<Segment> segments = new ArrayList<>();
+    Duration tracked = walk(children.get(""), children, start, end, segments);
+    segments.sort(comparing(segment -> start(segment.span())));
+    Duration total = Duration.between(start, end);
+    return new AutoValue_CriticalPath(
+        ImmutableList.copyOf(segments), total, total.minus(tracked));
+  }
+
+  /**
+   * Walks the critical path of the given sibling spans within [from, to) backwards.
+   *
+   * @return the time covered by the spans on the path
+   */
+  private static Duration walk(
+      List<Span> siblings,
+      ImmutableListMultimap<String, Span> children,
+      Instant from,
+      Instant to,
+      List<Segment> segments) {
+    Duration tracked = Duration.ZERO;
+    Instant cursor = to;
+    while (cursor.isAfter(from)) {
+      Instant currentCursor = cursor;
+      Span last =
+          siblings.stream()
+              .filter(span -> !end(span).isAfter(currentCursor) && end(span).isAfter(from))
+              .max(comparing(CriticalPath::end))
+              .orElse(null);
+      if (last == null) {
+        break;
+      }
+      Instant spanStart = max(start(last), from);
+      Instant spanEnd = end(last);
+      Duration childTime = walk(children.get(last.getId()), children, spanStart, spanEnd, segments);
+      Duration spanTime = Duration.between(spanStart, spanEnd);
+      segments.add(Segment.of(last, spanTime.minus(childTime)));
+      tracked = tracked.plus(spanTime);
+      cursor = spanStart;
+    }
+    return tracked;
+  }
+
+  /** Gets a readable summary of the critical path. */
+  public String toSummary() {
+    StringBuilder summary =
+        new StringBuilder(
+            String.format(
+                "Critical path: total %s ms, untracked %s ms",
+                totalTime().toMillis(), untrackedTime().toMillis()));
+    for (Segment segment : segments()) {
+      summary.append(
+          String.format(
+              "%n  %s [%s]: %s ms (self %s ms)",
+              segment.span().getName().getName(),
+              segment.span().getType().getType(),
+              Duration.between(start(segment.span()), end(segment.span())).toMillis(),
+              segment.selfTime().toMillis()));
+    }
+    return summary.toString();
+  }
+
+  private static Instant start(Span span) {
+    return toJavaInstant(span.getTimeline().getLocalStartTimestamp());
+  }
+
+  private static Instant end(Span span) {
+    return toJavaInstant(span.getTimeline().getLocalEndTimestamp());
+  }
+
+  private static Instant max(Instant a, Instant b) {
+    return a.isAfter(b) ? a : b;
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.trace;
+
+import static com.google.devtools.mobileharness.shared.util.time.TimeUtils.toProtoTimestamp;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Name;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Source;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Span;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Tags;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Timeline;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Type;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Type.SpanType;
+import com.google.devtools.mobileharness.shared.util.flags.Flags;
+import com.google.errorprone.annotations.MustBeClosed;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nullable;
+
+/**
+ * Recorder of the {@link Span}s of the current process.
+ *
+ * <p>Finished spans are kept in a fixed-size lock-free ring buffer, in which the oldest spans are
+ * overwritten. A span started without an explicit parent uses the innermost unfinished span of
+ * the current thread as its parent.
+ *
+ * <p>If {@code --trace_span_file} is specified, the spans are written to the file in the Chrome
+ * trace JSON format when the process exits.
+ */
+public class SpanRecorder {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  @VisibleForTesting static final int DEFAULT_CAPACITY = 65_536;
+
+  private static final String TEST_ID_TAG_PREFIX = "test_id=";
+
+  private static final SpanRecorder INSTANCE =
+      new SpanRecorder(DEFAULT_CAPACITY, Clock.systemUTC());
+
+  public static SpanRecorder getInstance() {
+    return INSTANCE;
+  }
+
+  /** Gets the tag which marks a span as a part of the given test. */
+  public static String testIdTag(String testId) {
+    return TEST_ID_TAG_PREFIX + testId;
+  }
+
+  /** Gets the test ID from the tags of a span, if any. */
+  public static Optional<String> getTestId(Span span) {
+    return span.getTags().getTagList().stream()
+        .filter(tag -> tag.startsWith(TEST_ID_TAG_PREFIX))
+        .map(tag -> tag.substring(TEST_ID_TAG_PREFIX.length()))
+        .findFirst();
+  }
+
+  private final Clock clock;
+
+  private final Source source =
+      Source.newBuilder().setId(UUID.randomUUID().toString()).build();
+
+  private final AtomicReferenceArray<Span> spans;
+
+  /** The number of spans ever recorded. */
+  private final AtomicLong recordedCount = new AtomicLong();
+
+  private final ThreadLocal<TraceSpan> currentSpan = new ThreadLocal<>();
+
+  private final AtomicBoolean exportHookAdded = new AtomicBoolean();
+
+  @VisibleForTesting
+  SpanRecorder(int capacity, Clock clock) {
+    this.spans = new AtomicReferenceArray<>(capacity);
+    this.clock = clock;
+  }
+
+  /**
+   * Starts a span now, whose parent is the innermost unfinished span of the current thread.
+   *
+   * @param name the name of the span, in the "name_space.concrete_name" format
+   */
+  @MustBeClosed
+  public TraceSpan startSpan(SpanType type, String name, String... tags) {
+    return startSpan(
+        type, name, /* parentId= */ null, clock.instant(), ImmutableList.copyOf(tags));
+  }
+
+  /**
+   * Starts a span.
+   *
+   * @param parentId the ID of the parent span, which may be from another process, or null to use
+   *     the innermost unfinished span of the current thread
+   * @param startTime the start time of the span, which may be earlier than now
+   */
+  @MustBeClosed
+  public TraceSpan startSpan(
+      SpanType type,
+      String name,
+      @Nullable String parentId,
+      Instant startTime,
+      List<String> tags) {
+    addExportHookIfNecessary();
+    TraceSpan parent = currentSpan.get();
+    TraceSpan span =
+        new TraceSpan(
+            this,
+            parent,
+            Span.newBuilder()
+                .setId(UUID.randomUUID().toString())
+                .setParentId(
+                    parentId != null && !parentId.isEmpty()
+                        ? parentId
+                        : parent == null ? "" : parent.id())
+                .setName(Name.newBuilder().setName(name))
+                .setType(Type.newBuilder().setType(type))
+                .setTags(Tags.newBuilder().addAllTag(tags))
+                .setSource(source),
+            startTime);
+    currentSpan.set(span);
+    return span;
+  }
+
+  /** Gets the ID of the innermost unfinished span of the current thread, if any. */
+  public Optional<String> getCurrentSpanId() {
+    return Optional.ofNullable(currentSpan.get()).map(TraceSpan::id);
+  }
+
+  /** Gets the recorded spans which are not overwritten, from the oldest to the newest. */
+  public ImmutableList<Span> getSpans() {
+    long end = recordedCount.get();
+    long start = Math.max(0L, end - spans.length());
+    ImmutableList.Builder<Span> result = ImmutableList.builder();
+    for (long i = start; i < end; i++) {
+      Span span = spans.get((int) (i % spans.length()));
+      // The slot may be still being written.
+      if (span != null) {
+        result.add(span);
+      }
+    }
+    return result.build();
+  }
+
+  /** Writes the recorded spans to the file in the Chrome trace JSON format. */
+  public void exportChromeTrace(Path file) throws IOException {
+    ChromeTraceWriter.write(getSpans(), file);
+  }
+
+  /** Called when a span finishes. */
+  void finish(TraceSpan span, Span.Builder spanBuilder, Instant startTime) {
+    if (currentSpan.get() == span) {
+      if (span.parent() == null) {
+        currentSpan.remove();
+      } else {
+        currentSpan.set(span.parent());
+      }
+    }
+    Span finished =
+        spanBuilder
+            .setTimeline(
+                Timeline.newBuilder()
+                    .setLocalStartTimestamp(toProtoTimestamp(startTime))
+                    .setLocalEndTimestamp(toProtoTimestamp(clock.instant())))
+            .build();
+    spans.set((int) (recordedCount.getAndIncrement() % spans.length()), finished);
+  }
+
+  private void addExportHookIfNecessary() {
+    if (exportHookAdded.get() || !exportHookAdded.compareAndSet(false, true)) {
+      return;
+    }
+    String traceSpanFile = Flags.instance().traceSpanFile.get();
+    if (traceSpanFile == null || traceSpanFile.isEmpty()) {
+      return;
+    }
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  try {
+                    exportChromeTrace(Path.of(traceSpanFile));
+                  } catch (IOException e) {
+                    logger.atWarning().withCause(e).log(
+                        "Failed to write trace spans to %s", traceSpanFile);
+                  }
+                },
+                "span-recorder-export"));
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.trace;
+
+import com.google.devtools.mobileharness.shared.constant.closeable.MobileHarnessAutoCloseable;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Span;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/** An unfinished span started by {@link SpanRecorder}. Closing it finishes and records it. */
+public class TraceSpan extends MobileHarnessAutoCloseable {
+
+  private final SpanRecorder recorder;
+  @Nullable private final TraceSpan parent;
+  private final Span.Builder spanBuilder;
+  private final Instant startTime;
+  private final AtomicBoolean finished = new AtomicBoolean();
+
+  TraceSpan(
+      SpanRecorder recorder,
+      @Nullable TraceSpan parent,
+      Span.Builder spanBuilder,
+      Instant startTime) {
+    this.recorder = recorder;
+    this.parent = parent;
+    this.spanBuilder = spanBuilder;
+    this.startTime = startTime;
+  }
+
+  /** The ID of the span. */
+  public String id() {
+    return spanBuilder.getId();
+  }
+
+  /** The innermost unfinished span of the thread when this span started. */
+  @Nullable
+  TraceSpan parent() {
+    return parent;
+  }
+
+  @Override
+  public void close() {
+    if (!finished.getAndSet(true)) {
+      recorder.finish(this, spanBuilder, startTime);
+    }
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.google.devtools.mobileharness.shared.util.comm.messagerelay.service;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 import com.google.common.flogger.FluentLogger;
 import com.google.devtools.common.metrics.stability.rpc.grpc.GrpcExceptionUtil;
 import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
@@ -26,6 +28,7 @@ import com.google.devtools.mobileharness.shared.util.comm.messagerelay.proto.Mes
 import com.google.devtools.mobileharness.shared.util.comm.messagerelay.proto.MessageRelayServiceProto.StreamInfo;
 import com.google.devtools.mobileharness.shared.util.comm.messagerelay.proto.MessageRelayServiceProto.UnaryMessage;
 import com.google.devtools.mobileharness.shared.util.comm.messagerelay.service.StreamManager.RelayStream;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import javax.inject.Inject;
 
@@ -41,28 +44,31 @@ public final class MessageRelayService extends MessageRelayServiceGrpc.MessageRe
 
   @Override
   public StreamObserver<RelayMessage> relay(StreamObserver<RelayMessage> responseObserver) {
-    return new RelayRequestObserver(responseObserver);
+    RelayRequestObserver requestObserver = new RelayRequestObserver(responseObserver);
+    if (responseObserver instanceof ServerCallStreamObserver) {
+      ((ServerCallStreamObserver<RelayMessage>) responseObserver)
+          .setOnReadyHandler(requestObserver::onReady);
+    }
+    return requestObserver;
   }
 
-  private void handleUnaryMessage(UnaryMessage message) throws MobileHarnessException {
+  private void handleUnaryMessage(RelayMessage request) throws MobileHarnessException {
+    long receiveNanoTime = System.nanoTime();
+    UnaryMessage message = request.getUnaryMessage();
     Locator locator = message.getLocator();
-    String source = locator.getSource();
-    String destination = locator.getDestination();
-    String messageId = message.getId();
-
-    RelayStream stream = streamManager.pickUpStream(destination);
-    StreamObserver<RelayMessage> obs = stream.observer();
-    logger.atInfo().log(
-        "Forwarding message %s from host %s to host %s using stream %s",
-        messageId, source, destination, stream.streamId());
-    obs.onNext(RelayMessage.newBuilder().setUnaryMessage(message).build());
-    logger.atInfo().log("Forwarded message %s", messageId);
+
+    // Forwards the received message as is, rather than copying it into a new one.
+    RelayStream stream = streamManager.forward(request, receiveNanoTime);
+    logger.atInfo().atMostEvery(1, SECONDS).log(
+        "Forwarded message %s from host %s to host %s using stream %s",
+        message.getId(), locator.getSource(), locator.getDestination(), stream.streamId());
   }
 
   private final class RelayRequestObserver implements StreamObserver<RelayMessage> {
 
     private final StreamObserver<RelayMessage> responseObserver;
-    private RelayStream stream = null;
+    // Accessed by the on-ready handler, which may run in another thread.
+    private volatile RelayStream stream = null;
 
     RelayRequestObserver(StreamObserver<RelayMessage> responseObserver) {
       this.responseObserver = responseObserver;
@@ -93,7 +99,7 @@ public final class MessageRelayService extends MessageRelayServiceGrpc.MessageRe
           responseObserver.onError(GrpcExceptionUtil.toStatusRuntimeException(err));
         }
         try {
-          handleUnaryMessage(request.getUnaryMessage());
+          handleUnaryMessage(request);
         } catch (MobileHarnessException e) {
           // TODO: Retry after a certain period of time, or respond to the client
           // with an error.
@@ -113,7 +119,7 @@ public final class MessageRelayService extends MessageRelayServiceGrpc.MessageRe
       } else {
         logger.atWarning().withCause(t).log("Error on unknown stream");
       }
-      responseObserver.onError(t);
+      closeResponseObserver(() -> responseObserver.onError(t));
     }
 
     @Override
@@ -126,7 +132,26 @@ public final class MessageRelayService extends MessageRelayServiceGrpc.MessageRe
       } else {
         logger.atWarning().log("Completion on unknown stream");
       }
-      responseObserver.onCompleted();
+      closeResponseObserver(responseObserver::onCompleted);
+    }
+
+    private void onReady() {
+      RelayStream stream = this.stream;
+      if (stream != null) {
+        streamManager.onStreamReady(stream);
+      }
+    }
+
+    /** Closes the response observer without racing with messages forwarded by other streams. */
+    private void closeResponseObserver(Runnable closer) {
+      RelayStream stream = this.stream;
+      if (stream == null) {
+        closer.run();
+      } else {
+        synchronized (stream) {
+          closer.run();
+        }
+      }
     }
   }
 }
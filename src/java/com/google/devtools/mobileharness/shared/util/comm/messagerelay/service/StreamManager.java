@@ -16,25 +16,65 @@
 
 package com.google.devtools.mobileharness.shared.util.comm.messagerelay.service;
 
-import com.google.auto.value.AutoValue;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
 import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.shared.util.comm.messagerelay.proto.MessageRelayServiceProto.Locator;
+import com.google.devtools.mobileharness.shared.util.comm.messagerelay.proto.MessageRelayServiceProto.MessageType;
 import com.google.devtools.mobileharness.shared.util.comm.messagerelay.proto.MessageRelayServiceProto.RelayMessage;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
-import java.util.Collection;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.concurrent.GuardedBy;
 
-/** Manages all the bidirectional gRPC streams that connects the MessageRelayService. */
+/**
+ * Manages all the bidirectional gRPC streams that connects the MessageRelayService.
+ *
+ * <p>A host may connect several streams to the service. Messages to the host are balanced among
+ * them by picking up the stream with the fewest outstanding messages, i.e., the forwarded requests
+ * whose responses have not come back plus the messages waiting for the stream to be ready.
+ */
 final class StreamManager {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** How long a forwarded request is counted as outstanding if its response never comes back. */
+  private static final Duration OUTSTANDING_REQUEST_TIMEOUT = Duration.ofMinutes(10L);
+
+  /** The max number of messages waiting for a stream to be ready. */
+  @VisibleForTesting static final int MAX_PENDING_MESSAGE_COUNT = 10_000;
+
   /** The instance of this singleton. */
   private static final StreamManager instance = new StreamManager();
 
   // Stores all valid bidirectional streams connected to this service. The key is hostname, and
-  // value is the stream's information.
-  private final Multimap<String, RelayStream> validStreams =
-      Multimaps.synchronizedMultimap(HashMultimap.create());
+  // value is the streams of the host. A host is removed when its last stream is removed.
+  private final ConcurrentMap<String, HostStreams> validStreams = new ConcurrentHashMap<>();
+
+  // Forwarded requests whose responses have not come back. The key is the destination hostname
+  // and the message ID of a request, and value is the stream that the request is forwarded to.
+  private final Cache<String, RelayStream> outstandingRequests =
+      CacheBuilder.newBuilder()
+          .expireAfterWrite(OUTSTANDING_REQUEST_TIMEOUT)
+          .removalListener(
+              (RemovalNotification<String, RelayStream> notification) ->
+                  notification.getValue().outstandingRequestCount.decrementAndGet())
+          .build();
+
+  private final RelayStats stats = new RelayStats();
 
   private StreamManager() {}
 
@@ -44,47 +84,310 @@ final class StreamManager {
 
   /** Adds a stream to the manager */
   void addStream(RelayStream stream) {
-    validStreams.put(stream.hostname(), stream);
+    validStreams.compute(
+        stream.hostname(),
+        (hostname, hostStreams) -> {
+          ImmutableList<RelayStream> streams =
+              hostStreams == null
+                  ? ImmutableList.of(stream)
+                  : ImmutableList.<RelayStream>builder()
+                      .addAll(hostStreams.streams)
+                      .add(stream)
+                      .build();
+          return new HostStreams(streams, hostStreams);
+        });
   }
 
-  /** Removes a stream from the manager. */
+  /** Removes a stream from the manager. Messages waiting to be sent by the stream are dropped. */
   void removeStream(RelayStream stream) {
-    validStreams.remove(stream.hostname(), stream);
+    validStreams.computeIfPresent(
+        stream.hostname(),
+        (hostname, hostStreams) -> {
+          ImmutableList<RelayStream> streams =
+              hostStreams.streams.stream()
+                  .filter(hostStream -> !hostStream.equals(stream))
+                  .collect(ImmutableList.toImmutableList());
+          return streams.isEmpty() ? null : new HostStreams(streams, hostStreams);
+        });
+    outstandingRequests.asMap().values().removeIf(stream::equals);
+    int droppedMessageCount = stream.close();
+    if (droppedMessageCount > 0) {
+      logger.atWarning().log(
+          "Dropped %d messages waiting for stream %s of host %s",
+          droppedMessageCount, stream.streamId(), stream.hostname());
+    }
   }
 
   /** Gets the number of streams that are connected from the host. */
   int getStreamSize(String hostname) {
-    Collection<RelayStream> hostStreams = validStreams.get(hostname);
-    synchronized (validStreams) {
-      return hostStreams.size();
-    }
+    HostStreams hostStreams = validStreams.get(hostname);
+    return hostStreams == null ? 0 : hostStreams.streams.size();
   }
 
-  /** Picks up a stream to forward message to the host. */
+  /**
+   * Picks up a stream to forward message to the host.
+   *
+   * <p>Streams which are ready to send are preferred. Among them the one with the fewest
+   * outstanding messages is picked up, and ties are broken in round robin.
+   */
   RelayStream pickUpStream(String hostname) throws MobileHarnessException {
-    Collection<RelayStream> hostStreams = validStreams.get(hostname);
-    synchronized (validStreams) {
-      if (!hostStreams.isEmpty()) {
-        return hostStreams.iterator().next();
-      } else {
-        throw new MobileHarnessException(
-            InfraErrorId.MESSAGE_RELAY_NO_AVAILABLE_STREAM,
-            String.format("No available stream for host %s to forward message", hostname));
+    HostStreams hostStreams = validStreams.get(hostname);
+    if (hostStreams == null) {
+      throw new MobileHarnessException(
+          InfraErrorId.MESSAGE_RELAY_NO_AVAILABLE_STREAM,
+          String.format("No available stream for host %s to forward message", hostname));
+    }
+    ImmutableList<RelayStream> streams = hostStreams.streams;
+    int start = Math.floorMod(hostStreams.nextIndex.getAndIncrement(), streams.size());
+    RelayStream picked = null;
+    boolean pickedReady = false;
+    int pickedOutstandingCount = 0;
+    for (int i = 0; i < streams.size(); i++) {
+      RelayStream stream = streams.get((start + i) % streams.size());
+      boolean ready = stream.isReady();
+      int outstandingCount = stream.getOutstandingMessageCount();
+      if (picked == null
+          || (ready && !pickedReady)
+          || (ready == pickedReady && outstandingCount < pickedOutstandingCount)) {
+        picked = stream;
+        pickedReady = ready;
+        pickedOutstandingCount = outstandingCount;
+      }
+    }
+    return picked;
+  }
+
+  /**
+   * Forwards a message to its destination host.
+   *
+   * <p>If the picked up stream is not ready because of flow control, the message waits in the
+   * stream and is sent in {@link #onStreamReady}, rather than being buffered in gRPC. At most
+   * {@link #MAX_PENDING_MESSAGE_COUNT} messages wait for a stream.
+   *
+   * @param receiveNanoTime the {@link System#nanoTime} when the message is received by the service
+   * @return the stream which the message is forwarded to
+   * @throws MobileHarnessException if there is no stream of the destination host, or the picked up
+   *     stream is closed or has too many messages waiting for it
+   */
+  RelayStream forward(RelayMessage message, long receiveNanoTime) throws MobileHarnessException {
+    Locator locator = message.getUnaryMessage().getLocator();
+    String messageId = message.getUnaryMessage().getId();
+    if (locator.getType() == MessageType.RESPONSE) {
+      outstandingRequests.invalidate(getRequestKey(locator.getSource(), messageId));
+    }
+    RelayStream stream = pickUpStream(locator.getDestination());
+    String requestKey = null;
+    if (locator.getType() == MessageType.REQUEST) {
+      requestKey = getRequestKey(locator.getDestination(), messageId);
+      stream.outstandingRequestCount.incrementAndGet();
+      outstandingRequests.put(requestKey, stream);
+    }
+    boolean sent;
+    try {
+      sent = stream.send(message, receiveNanoTime, stats);
+    } catch (MobileHarnessException e) {
+      if (requestKey != null) {
+        outstandingRequests.invalidate(requestKey);
       }
+      stats.rejectedMessageCount.increment();
+      throw e;
+    }
+    if (!sent) {
+      stats.queuedMessageCount.increment();
     }
+    logger.atInfo().atMostEvery(1, MINUTES).log("Message relay stats: %s", stats);
+    return stream;
   }
 
-  @AutoValue
-  abstract static class RelayStream {
+  /** Sends the messages waiting for the stream once it becomes ready. */
+  void onStreamReady(RelayStream stream) {
+    stream.sendPendingMessages(stats);
+  }
+
+  RelayStats getStats() {
+    return stats;
+  }
+
+  private static String getRequestKey(String destination, String messageId) {
+    return destination + "/" + messageId;
+  }
+
+  /** The streams of a host. The list is copied on write so picking up a stream is lock-free. */
+  private static final class HostStreams {
+
+    private final ImmutableList<RelayStream> streams;
+    private final AtomicInteger nextIndex;
+
+    private HostStreams(ImmutableList<RelayStream> streams, HostStreams previous) {
+      this.streams = streams;
+      this.nextIndex = previous == null ? new AtomicInteger() : previous.nextIndex;
+    }
+  }
+
+  /** Throughput and latency of forwarding messages. */
+  static final class RelayStats {
+
+    private final LongAdder forwardedMessageCount = new LongAdder();
+    private final LongAdder queuedMessageCount = new LongAdder();
+    private final LongAdder rejectedMessageCount = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private void recordForwarded(long receiveNanoTime) {
+      long latencyNanos = System.nanoTime() - receiveNanoTime;
+      forwardedMessageCount.increment();
+      totalLatencyNanos.add(latencyNanos);
+      maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    /** The number of messages which have been sent to their destination streams. */
+    long getForwardedMessageCount() {
+      return forwardedMessageCount.sum();
+    }
+
+    /** The number of messages which have waited for their destination streams to be ready. */
+    long getQueuedMessageCount() {
+      return queuedMessageCount.sum();
+    }
+
+    /** The number of messages which are rejected because their streams are closed or full. */
+    long getRejectedMessageCount() {
+      return rejectedMessageCount.sum();
+    }
+
+    @Override
+    public String toString() {
+      long count = forwardedMessageCount.sum();
+      return String.format(
+          "forwarded=%d, queued=%d, rejected=%d, avg_latency=%s, max_latency=%s",
+          count,
+          queuedMessageCount.sum(),
+          rejectedMessageCount.sum(),
+          Duration.ofNanos(count == 0L ? 0L : totalLatencyNanos.sum() / count),
+          Duration.ofNanos(maxLatencyNanos.get()));
+    }
+  }
+
+  /**
+   * A stream connected to the service, and the state of the messages forwarded to it. Streams are
+   * compared by identity.
+   */
+  static final class RelayStream {
+
+    private final String hostname;
+    private final String streamId;
+    private final StreamObserver<RelayMessage> observer;
+
+    /** The number of forwarded requests whose responses have not come back. */
+    private final AtomicInteger outstandingRequestCount = new AtomicInteger();
+
+    /** Messages waiting for the stream to be ready, with their receive time. */
+    @GuardedBy("this")
+    private final Queue<PendingMessage> pendingMessages = new ArrayDeque<>();
+
+    private volatile int pendingMessageCount;
+
+    @GuardedBy("this")
+    private boolean closed;
+
     static RelayStream create(
         String hostname, String streamId, StreamObserver<RelayMessage> observer) {
-      return new AutoValue_StreamManager_RelayStream(hostname, streamId, observer);
+      return new RelayStream(hostname, streamId, observer);
+    }
+
+    private RelayStream(String hostname, String streamId, StreamObserver<RelayMessage> observer) {
+      this.hostname = hostname;
+      this.streamId = streamId;
+      this.observer = observer;
+    }
+
+    String hostname() {
+      return hostname;
+    }
+
+    String streamId() {
+      return streamId;
+    }
+
+    /**
+     * The observer to send messages to the host. Since it is not thread-safe, callers outside
+     * {@link StreamManager} must hold the lock of this stream when calling it.
+     */
+    StreamObserver<RelayMessage> observer() {
+      return observer;
     }
 
-    abstract String hostname();
+    int getOutstandingMessageCount() {
+      return outstandingRequestCount.get() + pendingMessageCount;
+    }
+
+    /** Whether the stream can send a message without it being buffered by gRPC. */
+    boolean isReady() {
+      StreamObserver<RelayMessage> observer = observer();
+      return !(observer instanceof ServerCallStreamObserver)
+          || ((ServerCallStreamObserver<RelayMessage>) observer).isReady();
+    }
 
-    abstract String streamId();
+    /**
+     * Returns whether the message is sent immediately rather than waiting to be sent.
+     *
+     * @throws MobileHarnessException if the stream is closed or too many messages are waiting
+     */
+    private synchronized boolean send(RelayMessage message, long receiveNanoTime, RelayStats stats)
+        throws MobileHarnessException {
+      if (closed) {
+        throw new MobileHarnessException(
+            InfraErrorId.MESSAGE_RELAY_NO_AVAILABLE_STREAM,
+            String.format("Stream %s of host %s is closed", streamId(), hostname()));
+      }
+      if (pendingMessages.isEmpty() && isReady()) {
+        observer().onNext(message);
+        stats.recordForwarded(receiveNanoTime);
+        return true;
+      }
+      if (pendingMessages.size() >= MAX_PENDING_MESSAGE_COUNT) {
+        throw new MobileHarnessException(
+            InfraErrorId.MESSAGE_RELAY_STREAM_QUEUE_FULL,
+            String.format(
+                "Stream %s of host %s has %d messages waiting to be sent",
+                streamId(), hostname(), pendingMessages.size()));
+      }
+      pendingMessages.add(new PendingMessage(message, receiveNanoTime));
+      pendingMessageCount = pendingMessages.size();
+      return false;
+    }
 
-    abstract StreamObserver<RelayMessage> observer();
+    private synchronized void sendPendingMessages(RelayStats stats) {
+      while (!closed && !pendingMessages.isEmpty() && isReady()) {
+        PendingMessage pendingMessage = pendingMessages.remove();
+        observer().onNext(pendingMessage.message);
+        stats.recordForwarded(pendingMessage.receiveNanoTime);
+      }
+      pendingMessageCount = pendingMessages.size();
+    }
+
+    /**
+     * Stops sending messages by the stream, and clears the messages waiting to be sent.
+     *
+     * @return the number of the cleared messages
+     */
+    private synchronized int close() {
+      closed = true;
+      int count = pendingMessages.size();
+      pendingMessages.clear();
+      pendingMessageCount = 0;
+      return count;
+    }
+  }
+
+  private static final class PendingMessage {
+
+    private final RelayMessage message;
+    private final long receiveNanoTime;
+
+    private PendingMessage(RelayMessage message, long receiveNanoTime) {
+      this.message = message;
+      this.receiveNanoTime = receiveNanoTime;
+    }
   }
 }
@@ -27,12 +27,15 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.mobileharness.infra.controller.test.TestContext;
 import com.google.devtools.mobileharness.infra.controller.test.TestContext.TestContextRunnable;
+import com.google.devtools.mobileharness.infra.controller.test.TestContext.WithTestContext;
 import com.google.devtools.mobileharness.shared.util.command.LineCallback.Response;
 import com.google.devtools.mobileharness.shared.util.command.history.CommandRecord;
 import com.google.devtools.mobileharness.shared.util.command.history.CommandRecorder;
 import com.google.devtools.mobileharness.shared.util.command.io.LineCollector;
 import com.google.devtools.mobileharness.shared.util.command.io.LineReader;
+import com.google.devtools.mobileharness.shared.util.flags.Flags;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.errorprone.annotations.CheckReturnValue;
 import com.google.wireless.qa.mobileharness.shared.MobileHarnessException;
@@ -305,9 +308,10 @@ public class CommandExecutor {
         getBackendCommand(command, stdoutReader, stderrReader);
 
     // Starts backend process.
+    boolean asyncWait = Flags.instance().commandAsyncWait.getNonNull();
     com.google.devtools.mobileharness.shared.util.command.backend.CommandProcess backendProcess;
     try {
-      backendProcess = backend.start(backendCommand);
+      backendProcess = getBackend(asyncWait).start(backendCommand);
     } catch (
         com.google.devtools.mobileharness.shared.util.command.backend.CommandStartException e) {
       throw new CommandStartException("Failed to start command", e, command);
@@ -343,23 +347,21 @@ public class CommandExecutor {
         new LineConsumer(
             commandProcess, command.getStderrLineCallback().orElse(null), startTimeoutTaskFuture));
 
-    // Starts reading outputs.
-    threadPool.execute(
-        new TestContextRunnable(
-            () -> readOutput(stdoutReader, stdoutCollector, commandProcess.command())));
-    threadPool.execute(
-        new TestContextRunnable(
-            () ->
-                readOutput(
-                    stderrReader,
-                    redirectStderr ? stdoutCollector : stderrCollector,
-                    commandProcess.command())));
+    // Starts handling outputs, which are handled in the threads copying them from the process.
+    stdoutReader.start(stdoutCollector);
+    stderrReader.start(redirectStderr ? stdoutCollector : stderrCollector);
 
     // Schedules post run task.
-    threadPool.execute(
+    Runnable postRunTask =
         new TestContextRunnable(
             () ->
-                postRun(commandProcess, timeoutTaskFuture, startTimeoutTaskFuture, commandRecord)));
+                postRun(commandProcess, timeoutTaskFuture, startTimeoutTaskFuture, commandRecord));
+    if (asyncWait) {
+      // Runs the task after the process exits rather than blocking a thread to wait for it.
+      backendProcess.asFuture().addListener(postRunTask, threadPool);
+    } else {
+      threadPool.execute(postRunTask);
+    }
 
     return commandProcess;
   }
@@ -427,6 +429,17 @@ public class CommandExecutor {
     return defaultRedirectStderr;
   }
 
+  private com.google.devtools.mobileharness.shared.util.command.backend.CommandExecutor getBackend(
+      boolean asyncWait) {
+    return asyncWait
+            && backend
+                == com.google.devtools.mobileharness.shared.util.command.backend.Command
+                    .NATIVE_EXECUTOR
+        ? com.google.devtools.mobileharness.shared.util.command.backend.Command
+            .NATIVE_ASYNC_WAIT_EXECUTOR
+        : backend;
+  }
+
   // This lambda implements @Immutable interface 'SuccessCondition', but the declaration of type
   // 'com.google.devtools.mobileharness.shared.util.command.Command' is not annotated with
   // @com.google.errorprone.annotations.Immutable
@@ -471,15 +484,6 @@ public class CommandExecutor {
     }
   }
 
-  private static void readOutput(
-      LineReader lineReader, LineCollector lineCollector, Command command) {
-    try {
-      lineReader.start(lineCollector);
-    } catch (IOException e) {
-      logger.atWarning().withCause(e).log("Failed to read from command [%s]", command);
-    }
-  }
-
   private static void postRun(
       CommandProcess commandProcess,
       ListenableFuture<?> timeoutTaskFuture,
@@ -541,6 +545,9 @@ public class CommandExecutor {
     @Nullable private final ListenableFuture<?> startTimeoutTaskFuture;
     @Nullable private LineCallback lineCallback;
 
+    /** Lines are consumed in output copying threads, which do not have the test context. */
+    private final TestContext testContext = TestContext.get();
+
     private LineConsumer(
         CommandProcess commandProcess,
         @Nullable LineCallback lineCallback,
@@ -552,6 +559,12 @@ public class CommandExecutor {
 
     @Override
     public boolean test(String line) {
+      try (WithTestContext context = TestContext.set(testContext)) {
+        return consume(line);
+      }
+    }
+
+    private boolean consume(String line) {
       // Tests successful start.
       if (testSuccessfulStart(line)) {
         if (startTimeoutTaskFuture != null) {
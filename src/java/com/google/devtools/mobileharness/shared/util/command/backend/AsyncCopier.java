@@ -19,6 +19,8 @@ package com.google.devtools.mobileharness.shared.util.command.backend;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
 import java.io.InputStream;
@@ -58,6 +60,7 @@ final class AsyncCopier {
 
   private final CountDownLatch copyStarted = new CountDownLatch(1);
   private final CountDownLatch copyTerminated = new CountDownLatch(1);
+  private final SettableFuture<Void> copyTerminatedFuture = SettableFuture.create();
 
   @VisibleForTesting
   AsyncCopier(
@@ -90,9 +93,15 @@ final class AsyncCopier {
       logger.atSevere().withCause(e).log();
     } finally {
       copyTerminated.countDown();
+      copyTerminatedFuture.set(null);
     }
   }
 
+  /** Returns a future which is done when the asynchronous copy completes. */
+  ListenableFuture<Void> terminationFuture() {
+    return copyTerminatedFuture;
+  }
+
   /** Waits for the asynchronous copy to complete. */
   void await() throws InterruptedException {
     copyTerminated.await();
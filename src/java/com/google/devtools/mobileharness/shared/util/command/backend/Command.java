@@ -69,6 +69,13 @@ public abstract class Command {
   /** The default command executor: runs commands on the native OS. */
   public static final CommandExecutor NATIVE_EXECUTOR = NativeProcess.EXECUTOR;
 
+  /**
+   * A command executor that runs commands on the native OS like {@link #NATIVE_EXECUTOR}, but waits
+   * for the process exits asynchronously rather than in a blocked thread per process.
+   */
+  public static final CommandExecutor NATIVE_ASYNC_WAIT_EXECUTOR =
+      NativeProcess.ASYNC_WAIT_EXECUTOR;
+
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   Command() {}
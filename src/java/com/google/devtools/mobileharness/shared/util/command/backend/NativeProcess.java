@@ -19,12 +19,17 @@ package com.google.devtools.mobileharness.shared.util.command.backend;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.devtools.mobileharness.shared.util.concurrent.ThreadPools;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
@@ -36,17 +41,22 @@ final class NativeProcess extends CommandProcess {
   static final ExecutorService EXECUTOR_SERVICE =
       ThreadPools.createStandardThreadPool("native-process");
 
-  static final CommandExecutor EXECUTOR =
-      new CommandExecutor() {
-        @Override
-        public CommandProcess start(Command command) throws CommandStartException {
-          try {
-            return new NativeProcess(command);
-          } catch (IOException e) {
-            throw new CommandStartException(command, e);
-          }
+  static final CommandExecutor EXECUTOR = createExecutor(/* asyncWait= */ false);
+
+  static final CommandExecutor ASYNC_WAIT_EXECUTOR = createExecutor(/* asyncWait= */ true);
+
+  private static CommandExecutor createExecutor(boolean asyncWait) {
+    return new CommandExecutor() {
+      @Override
+      public CommandProcess start(Command command) throws CommandStartException {
+        try {
+          return new NativeProcess(command, asyncWait);
+        } catch (IOException e) {
+          throw new CommandStartException(command, e);
         }
-      };
+      }
+    };
+  }
 
   private static Redirect sourceToRedirect(InputSource source) {
     InputSource.Kind kind = source.kind();
@@ -89,7 +99,7 @@ final class NativeProcess extends CommandProcess {
   private final Optional<AsyncCopier> stderrPump;
   private final Supplier<Long> pid = Suppliers.memoize(this::fetchPid);
 
-  private NativeProcess(Command command) throws IOException {
+  private NativeProcess(Command command, boolean asyncWait) throws IOException {
     super(command);
 
     ProcessBuilder processBuilder = new ProcessBuilder();
@@ -132,7 +142,11 @@ final class NativeProcess extends CommandProcess {
             process::getErrorStream,
             this::openStderrSinkStream,
             "from stderr");
-    EXECUTOR_SERVICE.execute(this::awaitAndNotify);
+    if (asyncWait) {
+      process.onExit().thenRunAsync(this::notifyAfterPumps, EXECUTOR_SERVICE);
+    } else {
+      EXECUTOR_SERVICE.execute(this::awaitAndNotify);
+    }
   }
 
   @Override
@@ -206,6 +220,28 @@ final class NativeProcess extends CommandProcess {
     }
   }
 
+  /**
+   * Notifies the completion after the stdout and stderr pumps terminate, without blocking on them.
+   * It is called after the process exits.
+   */
+  private void notifyAfterPumps() {
+    int exitCode = process.exitValue();
+    // Stopping the stdin pump of an exited process does not block for long.
+    if (stdinPump.isPresent()) {
+      try {
+        stdinPump.get().stop();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        logger.atWarning().withCause(e).log("Interrupted when stopping stdin pump");
+      }
+    }
+    List<ListenableFuture<Void>> pumpFutures = new ArrayList<>();
+    stdoutPump.ifPresent(pump -> pumpFutures.add(pump.terminationFuture()));
+    stderrPump.ifPresent(pump -> pumpFutures.add(pump.terminationFuture()));
+    Futures.successfulAsList(pumpFutures)
+        .addListener(() -> notifyComplete(exitCode), MoreExecutors.directExecutor());
+  }
+
   private final class IOExceptionLogger implements Consumer<IOException> {
     private final String desc;
 
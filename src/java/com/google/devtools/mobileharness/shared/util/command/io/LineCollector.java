@@ -16,7 +16,10 @@
 
 package com.google.devtools.mobileharness.shared.util.command.io;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.devtools.mobileharness.shared.util.command.io.LineReader.LineHandler;
+import java.io.ByteArrayOutputStream;
 import java.time.Duration;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -26,6 +29,9 @@ import javax.annotation.concurrent.GuardedBy;
 /**
  * Line collector for collecting lines from {@link LineReader}.
  *
+ * <p>Lines are kept as UTF-8 bytes and are only decoded into strings for the line consumer, or
+ * once for all lines when they are requested.
+ *
  * <p>The class is thread safe.
  */
 public class LineCollector implements LineHandler {
@@ -35,7 +41,7 @@ public class LineCollector implements LineHandler {
   private final Object handleLineLock = new Object();
 
   @GuardedBy("handleLineLock")
-  private final StringBuilder allLinesBuilder = new StringBuilder();
+  private final ByteArrayOutputStream allLinesBuilder = new ByteArrayOutputStream();
 
   @GuardedBy("handleLineLock")
   private String allLines;
@@ -52,14 +58,16 @@ public class LineCollector implements LineHandler {
   }
 
   @Override
-  public boolean handleLine(String line, String end) {
+  public boolean handleLine(byte[] buffer, int offset, int length, String end) {
     synchronized (handleLineLock) {
       if (needAllLines) {
-        allLinesBuilder.append(line);
-        allLinesBuilder.append(end);
+        allLinesBuilder.write(buffer, offset, length);
+        for (int i = 0; i < end.length(); i++) {
+          allLinesBuilder.write(end.charAt(i));
+        }
       }
       if (!stopConsumingLines && lineConsumer != null) {
-        stopConsumingLines = lineConsumer.test(line);
+        stopConsumingLines = lineConsumer.test(new String(buffer, offset, length, UTF_8));
       }
       return !needAllLines && stopConsumingLines;
     }
@@ -100,10 +108,15 @@ public class LineCollector implements LineHandler {
 
   private String getAllLines() {
     synchronized (handleLineLock) {
-      if (allLines == null) {
-        allLines = allLinesBuilder.toString();
+      if (allLines != null) {
+        return allLines;
+      }
+      String result = new String(allLinesBuilder.toByteArray(), UTF_8);
+      // Only memoizes the lines when no more lines can be added.
+      if (!notAllSourceClosed()) {
+        allLines = result;
       }
-      return allLines;
+      return result;
     }
   }
 }
@@ -17,37 +17,37 @@
 package com.google.devtools.mobileharness.shared.util.command.io;
 
 import com.google.common.io.ByteSink;
-import com.google.errorprone.annotations.CanIgnoreReturnValue;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.io.Reader;
-import java.io.UncheckedIOException;
-import java.nio.charset.StandardCharsets;
-import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * Line reader that implements the line reading algorithm. Line separators are per {@link
  * java.io.BufferedReader}: line feed, carriage return, or carriage return followed immediately by a
  * linefeed.
+ *
+ * <p>Lines are found by scanning the bytes written into the output stream returned by {@link
+ * #openStream()} directly in the writing thread, without a pipe or a decoding reader thread. It
+ * works for UTF-8 data because CR and LF bytes never appear in multi-byte UTF-8 sequences. Line
+ * bytes are passed to the {@link LineHandler}, which decodes them only if necessary.
  */
-@NotThreadSafe
 public class LineReader extends ByteSink {
 
   /** Handler for handling a line with line separator. */
   interface LineHandler {
 
     /**
-     * Called for each line found in the character data.
+     * Called for each line found in the UTF-8 data.
      *
-     * @param line a line of text (possibly empty), without any line separators
+     * @param buffer the buffer containing the line, which is only valid during the call
+     * @param offset the offset of the line in the buffer
+     * @param length the length of the line, without any line separators
      * @param end the line separator; one of {@code "\r"}, {@code "\n"}, {@code "\r\n"}, or {@code
      *     ""}
      * @return whether to stop handling new lines
      */
-    boolean handleLine(String line, String end);
+    boolean handleLine(byte[] buffer, int offset, int length, String end);
 
     /**
      * Called after the output stream returned by {@link #openStream()} is closed and all lines are
@@ -56,30 +56,75 @@ public class LineReader extends ByteSink {
     void onSourceClosed();
   }
 
-  private static final int READ_BUFFER_SIZE = 512;
+  private static final int INITIAL_LINE_BUFFER_SIZE = 512;
+
+  private final Object lock = new Object();
 
   /** Holds partial line contents. */
-  private StringBuilder line = new StringBuilder();
+  @GuardedBy("lock")
+  private byte[] line = new byte[INITIAL_LINE_BUFFER_SIZE];
+
+  @GuardedBy("lock")
+  private int lineLength;
 
   /** Whether a line ending with a CR is pending processing. */
+  @GuardedBy("lock")
   private boolean sawReturn;
 
   /** Whether to stop handling new lines. Line reading will not be affected. */
+  @GuardedBy("lock")
   private boolean stopHandling;
 
-  private final PipedOutputStream outputStream;
-  private final Reader reader;
-  private final char[] readBuffer = new char[READ_BUFFER_SIZE];
+  /** Data written before {@link #start} is called, or null if started. */
+  @GuardedBy("lock")
+  @Nullable
+  private byte[] pending = new byte[0];
 
-  public LineReader() {
-    this.outputStream = new PipedOutputStream();
-    try {
-      this.reader =
-          new InputStreamReader(new PipedInputStream(this.outputStream), StandardCharsets.UTF_8);
-    } catch (IOException e) {
-      throw new UncheckedIOException(e);
-    }
-  }
+  @GuardedBy("lock")
+  @Nullable
+  private LineHandler lineHandler;
+
+  @GuardedBy("lock")
+  private boolean closed;
+
+  private final OutputStream outputStream =
+      new OutputStream() {
+        @Override
+        public void write(int b) {
+          write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+          synchronized (lock) {
+            if (closed) {
+              return;
+            }
+            if (lineHandler == null) {
+              int pendingLength = pending.length;
+              pending = Arrays.copyOf(pending, pendingLength + len);
+              System.arraycopy(b, off, pending, pendingLength, len);
+            } else {
+              add(b, off, len);
+            }
+          }
+        }
+
+        @Override
+        public void close() {
+          synchronized (lock) {
+            if (closed) {
+              return;
+            }
+            closed = true;
+            if (lineHandler != null) {
+              finish();
+            }
+          }
+        }
+      };
+
+  public LineReader() {}
 
   @Override
   public OutputStream openStream() {
@@ -87,58 +132,63 @@ public class LineReader extends ByteSink {
   }
 
   /**
-   * Starts to read lines from data written into the output stream returned by {@link
-   * #openStream()}.
+   * Starts to handle lines from data written into the output stream returned by {@link
+   * #openStream()}, including the data written before this method is called.
    *
-   * <p>This method returns when the output stream is closed and all lines are handled.
+   * <p>Lines are handled in the thread writing the data. {@link LineHandler#onSourceClosed()} is
+   * called when the output stream is closed and all lines are handled.
    */
-  public void start(LineHandler lineHandler) throws IOException {
-    try {
-      int count;
-      while ((count = reader.read(readBuffer)) != -1) {
-        if (!stopHandling) {
-          add(count, lineHandler);
-        }
+  public void start(LineHandler lineHandler) {
+    synchronized (lock) {
+      this.lineHandler = lineHandler;
+      byte[] pendingData = pending;
+      pending = null;
+      add(pendingData, 0, pendingData.length);
+      if (closed) {
+        finish();
       }
-      finish(lineHandler);
-    } finally {
-      lineHandler.onSourceClosed();
     }
   }
 
   /**
-   * Process additional characters from the stream. When a line separator is found the contents of
-   * the line and the line separator itself are passed to the {@link LineHandler#handleLine} method.
+   * Process additional bytes from the stream. When a line separator is found the contents of the
+   * line and the line separator itself are passed to the {@link LineHandler#handleLine} method.
    *
-   * @param len the number of characters to process
    * @see #finish
    */
-  private void add(int len, LineHandler lineHandler) {
-    int pos = 0;
-    if (sawReturn && len > 0) {
+  @GuardedBy("lock")
+  private void add(byte[] buffer, int offset, int len) {
+    if (stopHandling) {
+      return;
+    }
+    int end = offset + len;
+    int pos = offset;
+    if (sawReturn && pos < end) {
       // Last call to add ended with a CR; we can handle the line now.
-      if (finishLine(readBuffer[pos] == '\n', lineHandler)) {
+      if (finishLine(buffer[pos] == '\n')) {
         pos++;
       }
     }
 
     int start = pos;
-    for (; pos < len; pos++) {
-      switch (readBuffer[pos]) {
+    for (; pos < end; pos++) {
+      switch (buffer[pos]) {
         case '\r':
-          line.append(readBuffer, start, pos - start);
           sawReturn = true;
-          if (pos + 1 < len) {
-            if (finishLine(readBuffer[pos + 1] == '\n', lineHandler)) {
+          boolean sawNewline = pos + 1 < end && buffer[pos + 1] == '\n';
+          if (pos + 1 < end) {
+            handleLine(buffer, start, pos - start, sawNewline);
+            if (sawNewline) {
               pos++;
             }
+          } else {
+            appendToLine(buffer, start, pos - start);
           }
           start = pos + 1;
           break;
 
         case '\n':
-          line.append(readBuffer, start, pos - start);
-          finishLine(true, lineHandler);
+          handleLine(buffer, start, pos - start, /* sawNewline= */ true);
           start = pos + 1;
           break;
 
@@ -146,28 +196,68 @@ public class LineReader extends ByteSink {
           // Does nothing.
       }
     }
-    line.append(readBuffer, start, len - start);
+    appendToLine(buffer, start, end - start);
   }
 
-  /** Called when a line is complete. */
-  @CanIgnoreReturnValue
-  private boolean finishLine(boolean sawNewline, LineHandler lineHandler) {
+  /**
+   * Handles a line whose end is in the given buffer. If there are partial line contents, they are
+   * joined with the given bytes. Otherwise, the bytes are handled in place without copying.
+   */
+  @GuardedBy("lock")
+  private void handleLine(byte[] buffer, int offset, int length, boolean sawNewline) {
+    if (lineLength == 0) {
+      handleLineBytes(buffer, offset, length, sawNewline);
+    } else {
+      appendToLine(buffer, offset, length);
+      finishLine(sawNewline);
+    }
+  }
+
+  @GuardedBy("lock")
+  private void appendToLine(byte[] buffer, int offset, int length) {
+    if (length == 0) {
+      return;
+    }
+    if (lineLength + length > line.length) {
+      line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+    }
+    System.arraycopy(buffer, offset, line, lineLength, length);
+    lineLength += length;
+  }
+
+  /** Called when a line in {@link #line} is complete. */
+  @GuardedBy("lock")
+  private boolean finishLine(boolean sawNewline) {
+    handleLineBytes(line, 0, lineLength, sawNewline);
+    lineLength = 0;
+    if (line.length > INITIAL_LINE_BUFFER_SIZE * 16) {
+      // Does not keep a large buffer for a rare long line.
+      line = new byte[INITIAL_LINE_BUFFER_SIZE];
+    }
+    return sawNewline;
+  }
+
+  @GuardedBy("lock")
+  private void handleLineBytes(byte[] buffer, int offset, int length, boolean sawNewline) {
     String separator = sawReturn ? (sawNewline ? "\r\n" : "\r") : (sawNewline ? "\n" : "");
     if (!stopHandling) {
-      stopHandling = lineHandler.handleLine(line.toString(), separator);
+      stopHandling = lineHandler.handleLine(buffer, offset, length, separator);
     }
-    line = new StringBuilder();
     sawReturn = false;
-    return sawNewline;
   }
 
   /**
-   * Must call this method after finishing character processing, in order to ensure that any
+   * Must call this method after finishing byte processing, in order to ensure that any
    * unterminated line in the buffer is passed to {@link LineHandler#handleLine}.
    */
-  private void finish(LineHandler lineHandler) {
-    if (sawReturn || line.length() > 0) {
-      finishLine(false, lineHandler);
+  @GuardedBy("lock")
+  private void finish() {
+    try {
+      if (!stopHandling && (sawReturn || lineLength > 0)) {
+        finishLine(false);
+      }
+    } finally {
+      lineHandler.onSourceClosed();
     }
   }
 }
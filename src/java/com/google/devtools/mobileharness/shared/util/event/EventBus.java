@@ -16,6 +16,8 @@
 
 package com.google.devtools.mobileharness.shared.util.event;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
@@ -26,12 +28,17 @@ import com.google.devtools.mobileharness.shared.util.event.proto.EventBusProto.E
 import com.google.devtools.mobileharness.shared.util.event.proto.EventBusProto.EventStatistics;
 import com.google.devtools.mobileharness.shared.util.event.proto.EventBusProto.ObjectSummary;
 import com.google.devtools.mobileharness.shared.util.event.proto.EventBusProto.TimingInfo;
+import com.google.devtools.mobileharness.shared.util.flags.Flags;
+import com.google.devtools.mobileharness.shared.util.logging.LogSummary;
 import com.google.devtools.mobileharness.shared.util.time.TimeUtils;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import java.lang.reflect.Method;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
@@ -92,9 +99,62 @@ public class EventBus {
 
   @Nullable private final SubscriberExceptionHandler globalExceptionHandler;
 
-  @GuardedBy("itself")
+  /** Counter of event receivings for sampling their logs. */
+  private static final AtomicLong EVENT_RECEIVING_COUNT = new AtomicLong();
+
+  /** Counts the event receivings by event class, since most of their logs may be sampled out. */
+  private static final LogSummary logSummary = LogSummary.create("EventBus");
+
+  /**
+   * Registered subscribers and the subscriber methods that can receive each event class, in the
+   * subscriber registration order. A new one is created when a subscriber is registered.
+   */
+  private static class DispatchTable {
+
+    private final ImmutableList<Subscriber> subscribers;
+
+    /** {event class, subscriber methods which can receive the event class}. */
+    private final ConcurrentMap<Class<?>, ImmutableList<SubscriberMethodEntry>> entries =
+        new ConcurrentHashMap<>();
+
+    private DispatchTable(ImmutableList<Subscriber> subscribers) {
+      this.subscribers = subscribers;
+    }
+
+    private ImmutableList<SubscriberMethodEntry> getEntries(Class<?> eventClass) {
+      return entries.computeIfAbsent(
+          eventClass,
+          clazz ->
+              subscribers.stream()
+                  .flatMap(
+                      subscriber ->
+                          subscriber.subscriberMethods().stream()
+                              .filter(subscriberMethod -> subscriberMethod.canReceiveEvent(clazz))
+                              .map(
+                                  subscriberMethod ->
+                                      new SubscriberMethodEntry(subscriber, subscriberMethod)))
+                  .collect(toImmutableList()));
+    }
+  }
+
+  private static class SubscriberMethodEntry {
+
+    private final Subscriber subscriber;
+    private final SubscriberMethod subscriberMethod;
+
+    private SubscriberMethodEntry(Subscriber subscriber, SubscriberMethod subscriberMethod) {
+      this.subscriber = subscriber;
+      this.subscriberMethod = subscriberMethod;
+    }
+  }
+
+  private final Object registerLock = new Object();
+
+  @GuardedBy("registerLock")
   private final List<Subscriber> subscribers = new ArrayList<>();
 
+  private volatile DispatchTable dispatchTable = new DispatchTable(ImmutableList.of());
+
   /** Creates an event bus without event bus global exception handler. */
   public EventBus() {
     this(null);
@@ -121,8 +181,9 @@ public class EventBus {
           subscriber.invalidSubscriberMethods());
     }
 
-    synchronized (subscribers) {
+    synchronized (registerLock) {
       subscribers.add(subscriber);
+      dispatchTable = new DispatchTable(ImmutableList.copyOf(subscribers));
     }
   }
 
@@ -170,6 +231,9 @@ public class EventBus {
    * cause the successor subscriber method to throw {@link InterruptedException}.
    *
    * <p><b>Logging:</b> The start and end that a subscriber method receives an event will be logged.
+   * If {@code --event_bus_log_every_n} is larger than 1, only 1 in every N receivings is logged,
+   * except that the end of a receiving which throws an exception is always logged. The numbers of
+   * receivings of each event class are logged periodically.
    *
    * <p><b>Statistic:</b> Execution time of each subscriber method is recorded in the returned
    * {@link EventStatistics}.
@@ -184,91 +248,115 @@ public class EventBus {
       @Nullable SubscriberExceptionHandler exceptionHandler) {
     EventStatistics.Builder statistics = EventStatistics.newBuilder();
 
-    // Gets a snapshot of subscribers.
-    ImmutableList<Subscriber> subscribers;
-    synchronized (this.subscribers) {
-      subscribers = ImmutableList.copyOf(this.subscribers);
+    DispatchTable dispatchTable = this.dispatchTable;
+    if (events.size() == 1) {
+      // Uses the cached subscriber methods of the event class.
+      Object event = events.get(0);
+      ImmutableList<SubscriberMethodEntry> entries = dispatchTable.getEntries(event.getClass());
+      for (SubscriberMethodEntry entry :
+          order.equals(SubscriberOrder.REGISTER) ? entries : entries.reverse()) {
+        postEvent(event, entry.subscriber, entry.subscriberMethod, exceptionHandler, statistics);
+      }
+    } else {
+      ImmutableList<Subscriber> subscribers = dispatchTable.subscribers;
+      for (Subscriber subscriber :
+          order.equals(SubscriberOrder.REGISTER) ? subscribers : subscribers.reverse()) {
+        ImmutableList<SubscriberMethod> subscriberMethods = subscriber.subscriberMethods();
+        for (SubscriberMethod subscriberMethod :
+            order.equals(SubscriberOrder.REGISTER)
+                ? subscriberMethods
+                : subscriberMethods.reverse()) {
+          for (Object event : events) {
+            if (subscriberMethod.canReceiveEvent(event.getClass())) {
+              postEvent(event, subscriber, subscriberMethod, exceptionHandler, statistics);
+            }
+          }
+        }
+      }
     }
 
-    // Finds all suitable subscriber methods.
-    for (Subscriber subscriber :
-        order.equals(SubscriberOrder.REGISTER) ? subscribers : subscribers.reverse()) {
-      ImmutableList<SubscriberMethod> subscriberMethods = subscriber.subscriberMethods();
-      for (SubscriberMethod subscriberMethod :
-          order.equals(SubscriberOrder.REGISTER)
-              ? subscriberMethods
-              : subscriberMethods.reverse()) {
-        for (Object event : events) {
-          if (subscriberMethod.canReceiveEvent(event.getClass())) {
-
-            // Posts the event to the subscriber method.
-            logger.atInfo().log("Posting event [%s] to subscriber [%s]", event, subscriberMethod);
-            Throwable exception = null;
-            boolean interrupted = false;
-            TimingInfo.Builder timingInfo =
-                TimingInfo.newBuilder().setStartTime(TimeUtils.toProtoTimestamp(Instant.now()));
-            try {
-              subscriberMethod.receiveEvent(event);
-            } catch (Throwable e) {
-              exception = e;
-              if (e instanceof InterruptedException) {
-                interrupted = true;
-              }
-            }
-            timingInfo.setEndTime(TimeUtils.toProtoTimestamp(Instant.now()));
-            logger.atInfo().withCause(exception).log(
-                "Event [%s] posted to subscriber [%s]", event, subscriberMethod);
-
-            // Calls SubscriberExceptionHandler.
-            if (exception != null && (exceptionHandler != null || globalExceptionHandler != null)) {
-              SubscriberExceptionContext context =
-                  SubscriberExceptionContext.of(
-                      event, exception, subscriber.subscriberObject(), subscriberMethod.method());
-              if (globalExceptionHandler != null) {
-                try {
-                  globalExceptionHandler.handleException(exception, context);
-                } catch (RuntimeException | Error e) {
-                  logger.atWarning().withCause(e).log(
-                      "Error occurred when event bus global exception handler is handling"
-                          + " subscriber exception, event=%s, subscriber=%s",
-                      event, subscriberMethod);
-                }
-              }
-              if (exceptionHandler != null) {
-                try {
-                  exceptionHandler.handleException(exception, context);
-                } catch (RuntimeException | Error e) {
-                  logger.atWarning().withCause(e).log(
-                      "Error occurred when handling subscriber exception, event=%s, subscriber=%s",
-                      event, subscriberMethod);
-                }
-              }
-            }
+    return statistics.build();
+  }
 
-            // Creates EventReceiving proto.
-            EventReceiving.Builder eventReceiving =
-                EventReceiving.newBuilder()
-                    .setSubscriberObject(getObjectSummary(subscriber.subscriberObject()))
-                    .setSubscriberMethod(
-                        EventBusProto.SubscriberMethod.newBuilder()
-                            .setMethodName(subscriberMethod.method().getName())
-                            .setParameterClassName(subscriberMethod.parameter().getName()))
-                    .setEvent(getObjectSummary(event))
-                    .setTimingInfo(timingInfo);
-            if (exception != null) {
-              eventReceiving.setException(getObjectSummary(exception));
-            }
-            statistics.addEventReceiving(eventReceiving);
+  private void postEvent(
+      Object event,
+      Subscriber subscriber,
+      SubscriberMethod subscriberMethod,
+      @Nullable SubscriberExceptionHandler exceptionHandler,
+      EventStatistics.Builder statistics) {
+    // Posts the event to the subscriber method.
+    boolean logReceiving =
+        EVENT_RECEIVING_COUNT.getAndIncrement()
+                % Math.max(1, Flags.instance().eventBusLogEveryN.getNonNull())
+            == 0;
+    if (logReceiving) {
+      logger.atInfo().log("Posting event [%s] to subscriber [%s]", event, subscriberMethod);
+    }
+    logSummary.count(event.getClass().getSimpleName());
+    Throwable exception = null;
+    boolean interrupted = false;
+    Instant startTime = Instant.now();
+    try {
+      subscriberMethod.receiveEvent(event);
+    } catch (Throwable e) {
+      exception = e;
+      if (e instanceof InterruptedException) {
+        interrupted = true;
+      }
+    }
+    Instant endTime = Instant.now();
+    if (logReceiving || exception != null) {
+      logger.atInfo().withCause(exception).log(
+          "Event [%s] posted to subscriber [%s]", event, subscriberMethod);
+    }
 
-            if (interrupted) {
-              Thread.currentThread().interrupt();
-            }
-          }
+    // Calls SubscriberExceptionHandler.
+    if (exception != null && (exceptionHandler != null || globalExceptionHandler != null)) {
+      SubscriberExceptionContext context =
+          SubscriberExceptionContext.of(
+              event, exception, subscriber.subscriberObject(), subscriberMethod.method());
+      if (globalExceptionHandler != null) {
+        try {
+          globalExceptionHandler.handleException(exception, context);
+        } catch (RuntimeException | Error e) {
+          logger.atWarning().withCause(e).log(
+              "Error occurred when event bus global exception handler is handling"
+                  + " subscriber exception, event=%s, subscriber=%s",
+              event, subscriberMethod);
+        }
+      }
+      if (exceptionHandler != null) {
+        try {
+          exceptionHandler.handleException(exception, context);
+        } catch (RuntimeException | Error e) {
+          logger.atWarning().withCause(e).log(
+              "Error occurred when handling subscriber exception, event=%s, subscriber=%s",
+              event, subscriberMethod);
         }
       }
     }
 
-    return statistics.build();
+    // Creates EventReceiving proto.
+    EventReceiving.Builder eventReceiving =
+        EventReceiving.newBuilder()
+            .setSubscriberObject(getObjectSummary(subscriber.subscriberObject()))
+            .setSubscriberMethod(
+                EventBusProto.SubscriberMethod.newBuilder()
+                    .setMethodName(subscriberMethod.method().getName())
+                    .setParameterClassName(subscriberMethod.parameter().getName()))
+            .setEvent(getObjectSummary(event))
+            .setTimingInfo(
+                TimingInfo.newBuilder()
+                    .setStartTime(TimeUtils.toProtoTimestamp(startTime))
+                    .setEndTime(TimeUtils.toProtoTimestamp(endTime)));
+    if (exception != null) {
+      eventReceiving.setException(getObjectSummary(exception));
+    }
+    statistics.addEventReceiving(eventReceiving);
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   private static ObjectSummary getObjectSummary(Object object) {
@@ -24,8 +24,11 @@ import com.google.auto.value.extension.memoized.Memoized;
 import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.List;
 
 /** Backend of MH {@code EventBus} library which enhances Guava {@link EventBus} library. */
@@ -63,13 +66,25 @@ public class EventBusBackend {
      */
     public void receiveEvent(Object event) throws Throwable {
       checkArgument(canReceiveEvent(event.getClass()));
+      methodHandle().invokeExact(event);
+    }
+
+    /**
+     * Returns the method handle of the subscriber method, whose receiver is bound to the subscriber
+     * object and whose type is {@code (Object)void}, which is faster than reflective invocation.
+     */
+    @Memoized
+    MethodHandle methodHandle() {
+      MethodHandle methodHandle;
       try {
-        method().invoke(subscriberObject(), event);
+        methodHandle = MethodHandles.lookup().unreflect(method());
       } catch (IllegalAccessException e) {
         throw new AssertionError(e); // The method has been set to accessible.
-      } catch (InvocationTargetException e) {
-        throw e.getTargetException();
       }
+      if (!Modifier.isStatic(method().getModifiers())) {
+        methodHandle = methodHandle.bindTo(subscriberObject());
+      }
+      return methodHandle.asType(MethodType.methodType(void.class, Object.class));
     }
 
     @Memoized
@@ -302,6 +302,16 @@ public class Flags {
       converter = Flag.BooleanConverter.class)
   public Flag<Boolean> clearAndroidDeviceMultiUsers = clearAndroidDeviceMultiUsersDefault;
 
+  private static final Flag<Boolean> commandAsyncWaitDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--command_async_wait",
+      description =
+          "Whether CommandExecutor waits for native processes and runs their post-run tasks"
+              + " asynchronously, without a blocked thread per running command. Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> commandAsyncWait = commandAsyncWaitDefault;
+
   private static final Flag<Integer> commandPortDefault = Flag.value(9995);
 
   @com.beust.jcommander.Parameter(
@@ -348,6 +358,28 @@ public class Flags {
       converter = Flag.StringConverter.class)
   public Flag<String> daCredFile = daCredFileDefault;
 
+  private static final Flag<String> daGcsCacheDirDefault = Flag.value("");
+
+  @com.beust.jcommander.Parameter(
+      names = "--da_gcs_cache_dir",
+      description =
+          "Path to the dir for caching GCS files of device action, which is shared by all device"
+              + " actions on the host. Files are keyed by their GCS generations and CRC32C"
+              + " checksums. Empty to disable the cache. Default is empty.",
+      converter = Flag.StringConverter.class)
+  public Flag<String> daGcsCacheDir = daGcsCacheDirDefault;
+
+  private static final Flag<Integer> daGcsCacheMaxSizeMbDefault = Flag.value(51_200);
+
+  @com.beust.jcommander.Parameter(
+      names = "--da_gcs_cache_max_size_mb",
+      description =
+          "Max size of --da_gcs_cache_dir. When a device action adds files to the cache and the"
+              + " cache is larger than it, least recently used files are deleted, except files"
+              + " used in the last hour. Unit is MB. Default is 51200 MB.",
+      converter = Flag.IntegerConverter.class)
+  public Flag<Integer> daGcsCacheMaxSizeMb = daGcsCacheMaxSizeMbDefault;
+
   private static final Flag<String> daGenFileDirDefault = Flag.value(null);
 
   @com.beust.jcommander.Parameter(
@@ -418,6 +450,28 @@ public class Flags {
       converter = Flag.BooleanConverter.class)
   public Flag<Boolean> disableDeviceReboot = disableDeviceRebootDefault;
 
+  private static final Flag<Boolean> enableAdaptiveQuotaDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--enable_adaptive_quota",
+      description =
+          "Whether to adjust the local quota limits (e.g., --max_concurrent_flash_device) between 1"
+              + " and 4 times of the configured values, by the latency of the leased operations."
+              + " Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> enableAdaptiveQuota = enableAdaptiveQuotaDefault;
+
+  private static final Flag<Boolean> enableAdbShellSessionDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--enable_adb_shell_session",
+      description =
+          "Whether utilities run some short adb shell commands in a long-lived adb shell session of"
+              + " the device rather than starting an adb process for each of them. Default is"
+              + " false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> enableAdbShellSession = enableAdbShellSessionDefault;
+
   private static final Flag<Boolean> enableAndroidDeviceReadyCheckDefault = Flag.value(true);
 
   @com.beust.jcommander.Parameter(
@@ -426,6 +480,16 @@ public class Flags {
       converter = Flag.BooleanConverter.class)
   public Flag<Boolean> enableAndroidDeviceReadyCheck = enableAndroidDeviceReadyCheckDefault;
 
+  private static final Flag<Boolean> enableAsyncLogFileHandlerDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--enable_async_log_file_handler",
+      description =
+          "Whether to write local log files in a background thread, so logging threads never"
+              + " block on disk. Rotated log files are compressed. Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> enableAsyncLogFileHandler = enableAsyncLogFileHandlerDefault;
+
   private static final Flag<Boolean> enableAteDualStackDefault = Flag.value(false);
 
   @com.beust.jcommander.Parameter(
@@ -605,6 +669,16 @@ public class Flags {
       converter = Flag.BooleanConverter.class)
   public Flag<Boolean> enableFastbootInAndroidRealDevice = enableFastbootInAndroidRealDeviceDefault;
 
+  private static final Flag<Boolean> enableGenFileChangeFeedDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--enable_gen_file_change_feed",
+      description =
+          "Whether the client receives the new or changed gen files of a remote test while the"
+              + " test runs, so they can be downloaded before the test ends. Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> enableGenFileChangeFeed = enableGenFileChangeFeedDefault;
+
   private static final Flag<Boolean> enableGrpcLabServerDefault = Flag.value(false);
 
   @com.beust.jcommander.Parameter(
@@ -621,6 +695,16 @@ public class Flags {
       converter = Flag.BooleanConverter.class)
   public Flag<Boolean> enableMasterSyncer = enableMasterSyncerDefault;
 
+  private static final Flag<Boolean> enablePluginClassLoaderSharingDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--enable_plugin_class_loader_sharing",
+      description =
+          "Whether plugins loaded from the same jars with the same settings share one class loader,"
+              + " which also shares static states of the plugin classes. Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> enablePluginClassLoaderSharing = enablePluginClassLoaderSharingDefault;
+
   private static final Flag<Boolean> enableRdhDefault = Flag.value(false);
 
   @com.beust.jcommander.Parameter(
@@ -653,6 +737,16 @@ public class Flags {
       converter = Flag.BooleanConverter.class)
   public Flag<Boolean> enableStubbyRpcServer = enableStubbyRpcServerDefault;
 
+  private static final Flag<Boolean> enableTestStatusStreamingDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--enable_test_status_streaming",
+      description =
+          "Whether to subscribe the test status from the lab server instead of polling it. If the"
+              + " lab server does not support it, falls back to polling. Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> enableTestStatusStreaming = enableTestStatusStreamingDefault;
+
   private static final Flag<Boolean> enableTraceSpanProcessorDefault = Flag.value(true);
 
   @com.beust.jcommander.Parameter(
@@ -681,6 +775,16 @@ public class Flags {
       converter = Flag.BooleanConverter.class)
   public Flag<Boolean> enforceSafeDischarge = enforceSafeDischargeDefault;
 
+  private static final Flag<Integer> eventBusLogEveryNDefault = Flag.value(1);
+
+  @com.beust.jcommander.Parameter(
+      names = "--event_bus_log_every_n",
+      description =
+          "Logs the start and end of 1 in every N event receivings of subscriber methods of"
+              + " EventBus. Receivings which throw exceptions are always logged. Default is 1.",
+      converter = Flag.IntegerConverter.class)
+  public Flag<Integer> eventBusLogEveryN = eventBusLogEveryNDefault;
+
   private static final Flag<String> adbKeyPathsFromUserDefault = Flag.value("");
 
   @com.beust.jcommander.Parameter(
@@ -766,6 +870,16 @@ public class Flags {
       converter = DurationFlag.DurationConverter.class)
   public Flag<Duration> jobGenFileExpiredTime = jobGenFileExpiredTimeDefault;
 
+  private static final Flag<Boolean> jobRunnerEventDrivenWaitDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--job_runner_event_driven_wait",
+      description =
+          "Whether a job runner waits for test events and its next scheduled check instead of"
+              + " waking up every second. Default is false.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> jobRunnerEventDrivenWait = jobRunnerEventDrivenWaitDefault;
+
   private static final Flag<Integer> logFileNumberDefault = Flag.value(100);
 
   @com.beust.jcommander.Parameter(
@@ -782,6 +896,17 @@ public class Flags {
       converter = Flag.BooleanConverter.class)
   public Flag<Boolean> logFileSizeNoLimit = logFileSizeNoLimitDefault;
 
+  private static final Flag<Boolean> logHotPathSummaryDefault = Flag.value(false);
+
+  @com.beust.jcommander.Parameter(
+      names = "--log_hot_path_summary",
+      description =
+          "Whether the per-operation INFO logs of hot paths (e.g., the scheduler and the device"
+              + " manager) are rate-limited to one per second per log statement, with a periodic"
+              + " summary of the operation counts. Default is false, which logs every operation.",
+      converter = Flag.BooleanConverter.class)
+  public Flag<Boolean> logHotPathSummary = logHotPathSummaryDefault;
+
   private static final Flag<Duration> logUploadDelayDefault =
       DurationFlag.value(Duration.ofSeconds(40L));
 
@@ -968,6 +1093,17 @@ public class Flags {
       converter = Flag.IntegerConverter.class)
   public Flag<Integer> olcServerPort = olcServerPortDefault;
 
+  private static final Flag<String> pluginClassIndexDirDefault = Flag.value("");
+
+  @com.beust.jcommander.Parameter(
+      names = "--plugin_class_index_dir",
+      description =
+          "The directory for persisting the index of the plugin classes in plugin jars, keyed by"
+              + " the content hash of the jars. If empty, the index is only kept in memory."
+              + " Default is empty.",
+      converter = Flag.StringConverter.class)
+  public Flag<String> pluginClassIndexDir = pluginClassIndexDirDefault;
+
   private static final Flag<Boolean> printLabStatsDefault = Flag.value(false);
 
   @com.beust.jcommander.Parameter(
@@ -1214,6 +1350,17 @@ public class Flags {
       converter = Flag.StringConverter.class)
   public Flag<String> supplementalResDir = supplementalResDirDefault;
 
+  private static final Flag<Duration> testStatusPushIntervalDefault =
+      DurationFlag.value(Duration.ofMillis(200L));
+
+  @com.beust.jcommander.Parameter(
+      names = "--test_status_push_interval",
+      description =
+          "Interval of checking subscribed tests in the lab server. A subscriber only receives"
+              + " the test status when it changes. Default is 200ms.",
+      converter = DurationFlag.DurationConverter.class)
+  public Flag<Duration> testStatusPushInterval = testStatusPushIntervalDefault;
+
   private static final Flag<String> tmpDirRootDefault = Flag.value(getTmpDirRootDefaultOss());
 
   @com.beust.jcommander.Parameter(
@@ -1226,6 +1373,17 @@ public class Flags {
     return Strings.nullToEmpty(System.getenv("HOME")) + "/mobileharness";
   }
 
+  private static final Flag<String> traceSpanFileDefault = Flag.value("");
+
+  @com.beust.jcommander.Parameter(
+      names = "--trace_span_file",
+      description =
+          "If not empty, the spans recorded in the process (e.g., pre-run test, run test) are"
+              + " written to the file in the Chrome trace JSON format when the process exits."
+              + " Default is empty.",
+      converter = Flag.StringConverter.class)
+  public Flag<String> traceSpanFile = traceSpanFileDefault;
+
   private static final Flag<Boolean> useAltsDefault = Flag.value(false);
 
   @com.beust.jcommander.Parameter(
@@ -1255,6 +1413,18 @@ public class Flags {
     return Strings.nullToEmpty(System.getenv("HOME")) + "/xts";
   }
 
+  private static final Flag<String> xtsTfCdsArchiveDirDefault = Flag.value("");
+
+  @com.beust.jcommander.Parameter(
+      names = "--xts_tf_cds_archive_dir",
+      description =
+          "If non-empty, TF of XtsTradefedTest uses a class data sharing archive in this directory"
+              + " per xTS root directory, TF version and JDK to reduce its startup time. The"
+              + " archive is created once by the first TF run and is only read by later runs. It"
+              + " needs JDK 13+ of TF and is ignored by older JDKs. Default is empty.",
+      converter = Flag.StringConverter.class)
+  public Flag<String> xtsTfCdsArchiveDir = xtsTfCdsArchiveDirDefault;
+
   private static final Flag<String> xtsTfXmxDefault = Flag.value("24g");
 
   @com.beust.jcommander.Parameter(
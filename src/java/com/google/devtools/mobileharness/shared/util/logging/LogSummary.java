@@ -0,0 +1,145 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.logging;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.devtools.mobileharness.shared.util.flags.Flags;
+import java.time.Duration;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts the operations of a hot path, and periodically logs a summary of the counts at INFO.
+ *
+ * <p>It is used together with rate-limited log statements in hot paths, so that the counts of all
+ * operations are still logged when most of the log statements are skipped. For example:
+ *
+ * <pre>{@code
+ * private final LogSummary logSummary = LogSummary.create("SimpleScheduler");
+ *
+ * logger
+ *     .atInfo()
+ *     .atMostEvery(logSummary.rateLimitSeconds(), SECONDS)
+ *     .log("Free device %s", deviceLocator);
+ * logSummary.count("device_freed");
+ * }</pre>
+ *
+ * <p>It is enabled only if --log_hot_path_summary is set. Otherwise, {@link #rateLimitSeconds()}
+ * returns 0 so every log statement is logged, and {@link #count} does nothing.
+ *
+ * <p>The summary is logged by the thread which counts the first operation after a period ends,
+ * so no extra thread is needed and nothing is logged if there is no operation.
+ */
+public class LogSummary {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final Duration DEFAULT_PERIOD = Duration.ofMinutes(1L);
+
+  /** Creates a summary which is logged at most once every minute. */
+  public static LogSummary create(String name) {
+    return create(name, DEFAULT_PERIOD);
+  }
+
+  /** Creates a summary which is logged at most once every period. */
+  public static LogSummary create(String name, Duration period) {
+    return new LogSummary(
+        () -> Flags.instance().logHotPathSummary.getNonNull(),
+        period,
+        System::nanoTime,
+        summary ->
+            logger.atInfo().log(
+                "%s operations in the last period (%s): %s", name, period, summary));
+  }
+
+  /** Whether to rate-limit the log statements and log summaries. Read on every call. */
+  private final BooleanSupplier enabled;
+
+  private final Duration period;
+  private final LongSupplier nanoTime;
+
+  /** Logs the summary, e.g., "operation_1=1, operation_2=2". */
+  private final Consumer<String> summaryLogger;
+
+  /** {operation, count in the current period}. */
+  private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+  private final AtomicLong periodEndNanos;
+
+  @VisibleForTesting
+  LogSummary(
+      BooleanSupplier enabled,
+      Duration period,
+      LongSupplier nanoTime,
+      Consumer<String> summaryLogger) {
+    this.enabled = enabled;
+    this.period = period;
+    this.nanoTime = nanoTime;
+    this.summaryLogger = summaryLogger;
+    this.periodEndNanos = new AtomicLong(nanoTime.getAsLong() + period.toNanos());
+  }
+
+  /**
+   * Returns the period in seconds of the rate limit of the log statements used together with this
+   * summary, or 0 (no rate limit) if this summary is disabled.
+   */
+  public int rateLimitSeconds() {
+    return enabled.getAsBoolean() ? 1 : 0;
+  }
+
+  /**
+   * Counts an operation, and logs the summary if the current period ends. Does nothing if this
+   * summary is disabled.
+   */
+  public void count(String operation) {
+    if (!enabled.getAsBoolean()) {
+      return;
+    }
+    counters.computeIfAbsent(operation, key -> new LongAdder()).increment();
+
+    long now = nanoTime.getAsLong();
+    long periodEnd = periodEndNanos.get();
+    if (now - periodEnd >= 0L && periodEndNanos.compareAndSet(periodEnd, now + period.toNanos())) {
+      logSummary();
+    }
+  }
+
+  private void logSummary() {
+    Map<String, Long> counts = new TreeMap<>();
+    for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+      long count = counter.getValue().sumThenReset();
+      if (count > 0L) {
+        counts.put(counter.getKey(), count);
+      }
+    }
+    if (counts.isEmpty()) {
+      return;
+    }
+    StringJoiner summary = new StringJoiner(", ");
+    counts.forEach((operation, count) -> summary.add(operation + "=" + count));
+    summaryLogger.accept(summary.toString());
+  }
+}
@@ -18,6 +18,7 @@ package com.google.devtools.mobileharness.shared.util.quota;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Suppliers;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.flogger.FluentLogger;
 import com.google.devtools.mobileharness.shared.util.flags.Flags;
@@ -26,10 +27,15 @@ import com.google.errorprone.annotations.Keep;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.concurrent.Semaphore;
+import java.util.OptionalLong;
 import java.util.function.Supplier;
 
-/** Local implementation of {@link QuotaManager}. */
+/**
+ * Local implementation of {@link QuotaManager}.
+ *
+ * <p>If {@code --enable_adaptive_quota} is true, the limits are adjusted by the latencies of the
+ * leased operations. See {@link QuotaPermits}.
+ */
 class LocalQuotaManager extends QuotaManager {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
@@ -38,20 +44,24 @@ class LocalQuotaManager extends QuotaManager {
 
     private final QuotaKey key;
     private final int amount;
+    private final long payloadSize;
+    private final long acquiredNanos;
 
-    private LocalLease(QuotaKey key, int amount) {
+    private LocalLease(QuotaKey key, int amount, long payloadSize, long acquiredNanos) {
       this.key = key;
       this.amount = amount;
+      this.payloadSize = payloadSize;
+      this.acquiredNanos = acquiredNanos;
     }
 
     @Override
     void actuallyRelease() {
-      semaphoresSupplier.get().get(key).release(amount);
+      permitsSupplier.get().get(key).release(amount, acquiredNanos, payloadSize);
       logger.atInfo().log("Released amount %d on QuotaKey %s.", amount, key);
     }
   }
 
-  private final Supplier<ImmutableMap<QuotaKey, Semaphore>> semaphoresSupplier;
+  private final Supplier<ImmutableMap<QuotaKey, QuotaPermits>> permitsSupplier;
 
   @Keep
   LocalQuotaManager() {
@@ -65,37 +75,62 @@ class LocalQuotaManager extends QuotaManager {
                 QuotaKey.FASTBOOT_FLASH_DEVICE,
                 Flags.instance().maxConcurrentFlashDevice.getNonNull(),
                 QuotaKey.TF_CONTAINER_INSTANCE,
-                1));
+                1),
+        () -> Flags.instance().enableAdaptiveQuota.getNonNull(),
+        Ticker.systemTicker());
   }
 
   @VisibleForTesting
   LocalQuotaManager(Supplier<Map<QuotaKey, Integer>> quotasSupplier) {
-    this.semaphoresSupplier =
+    this(quotasSupplier, () -> false, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  LocalQuotaManager(
+      Supplier<Map<QuotaKey, Integer>> quotasSupplier,
+      Supplier<Boolean> adaptiveSupplier,
+      Ticker ticker) {
+    this.permitsSupplier =
         Suppliers.memoize(
-            () ->
-                quotasSupplier.get().entrySet().stream()
-                    .collect(
-                        ImmutableMap.toImmutableMap(
-                            Entry::getKey, e -> new Semaphore(e.getValue()))));
+            () -> {
+              boolean adaptive = adaptiveSupplier.get();
+              return quotasSupplier.get().entrySet().stream()
+                  .collect(
+                      ImmutableMap.toImmutableMap(
+                          Entry::getKey,
+                          e -> new QuotaPermits(e.getKey(), e.getValue(), adaptive, ticker)));
+            });
   }
 
   @Override
   public Lease acquire(QuotaKey key, int amount) throws InterruptedException {
-    if (semaphoresSupplier.get().containsKey(key)) {
-      semaphoresSupplier.get().get(key).acquire(amount);
-      return new LocalLease(key, amount);
+    return acquire(key, amount, /* payloadSize= */ 0L);
+  }
+
+  @Override
+  public Lease acquire(QuotaKey key, int amount, long payloadSize) throws InterruptedException {
+    if (permitsSupplier.get().containsKey(key)) {
+      long acquiredNanos = permitsSupplier.get().get(key).acquire(amount);
+      return new LocalLease(key, amount, payloadSize, acquiredNanos);
     }
     return EMPTY_LEASE;
   }
 
   @Override
   public Optional<Lease> tryAcquire(QuotaKey key, int amount) {
-    if (semaphoresSupplier.get().containsKey(key)) {
-      if (semaphoresSupplier.get().get(key).tryAcquire(amount)) {
-        return Optional.of(new LocalLease(key, amount));
+    if (permitsSupplier.get().containsKey(key)) {
+      OptionalLong acquiredNanos = permitsSupplier.get().get(key).tryAcquire(amount);
+      if (acquiredNanos.isPresent()) {
+        return Optional.of(
+            new LocalLease(key, amount, /* payloadSize= */ 0L, acquiredNanos.getAsLong()));
       }
       return Optional.empty();
     }
     return Optional.of(EMPTY_LEASE);
   }
+
+  @Override
+  public Optional<QuotaStats> getStats(QuotaKey key) {
+    return Optional.ofNullable(permitsSupplier.get().get(key)).map(QuotaPermits::getStats);
+  }
 }
@@ -16,9 +16,11 @@
 
 package com.google.devtools.mobileharness.shared.util.quota;
 
+import com.google.auto.value.AutoValue;
 import com.google.common.flogger.FluentLogger;
 import com.google.devtools.mobileharness.shared.util.quota.proto.Quota.QuotaKey;
 import com.google.errorprone.annotations.CheckReturnValue;
+import java.time.Duration;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -89,6 +91,40 @@ public abstract class QuotaManager {
     abstract void actuallyRelease();
   }
 
+  /** Statistics of a managed quota key. */
+  @AutoValue
+  public abstract static class QuotaStats {
+
+    /** The current limit, which may differ from the configured one if the quota is adaptive. */
+    public abstract int limit();
+
+    /** The amount currently leased. */
+    public abstract int leasedAmount();
+
+    /** The number of threads waiting for the quota. */
+    public abstract int waitingCount();
+
+    /** The number of leases since the process started. */
+    public abstract long leaseCount();
+
+    /** The total time spent waiting for the quota since the process started. */
+    public abstract Duration totalWaitTime();
+
+    /** The max time spent waiting for the quota since the process started. */
+    public abstract Duration maxWaitTime();
+
+    public static QuotaStats of(
+        int limit,
+        int leasedAmount,
+        int waitingCount,
+        long leaseCount,
+        Duration totalWaitTime,
+        Duration maxWaitTime) {
+      return new AutoValue_QuotaManager_QuotaStats(
+          limit, leasedAmount, waitingCount, leaseCount, totalWaitTime, maxWaitTime);
+    }
+  }
+
   static final class EmptyLease implements Lease {
 
     @Override
@@ -123,7 +159,24 @@ public abstract class QuotaManager {
   @CheckReturnValue
   public abstract Lease acquire(QuotaKey key, int amount) throws InterruptedException;
 
+  /**
+   * Acquires quota with the given key and amount, for an operation which processes the given size
+   * of payload (e.g., the size of the file to push).
+   *
+   * <p>The payload size lets an adaptive quota manager compare the latencies of operations of
+   * different sizes. By default it is ignored.
+   */
+  @CheckReturnValue
+  public Lease acquire(QuotaKey key, int amount, long payloadSize) throws InterruptedException {
+    return acquire(key, amount);
+  }
+
   /** Tries to acquire quota with the given key and amount. */
   @CheckReturnValue
   public abstract Optional<Lease> tryAcquire(QuotaKey key, int amount);
+
+  /** Gets the statistics of the quota key, or empty if the key is not managed. */
+  public Optional<QuotaStats> getStats(QuotaKey key) {
+    return Optional.empty();
+  }
 }
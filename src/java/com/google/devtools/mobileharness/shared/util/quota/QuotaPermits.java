@@ -0,0 +1,202 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.quota;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.flogger.FluentLogger;
+import com.google.devtools.mobileharness.shared.util.quota.QuotaManager.QuotaStats;
+import com.google.devtools.mobileharness.shared.util.quota.proto.Quota.QuotaKey;
+import java.time.Duration;
+import java.util.OptionalLong;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Permits of a quota key.
+ *
+ * <p>If adaptive, the limit is adjusted in the AIMD way by the latencies of the released leases: it
+ * increases by 1 per {@code limit} leases while there are waiting threads and the latency is close
+ * to the best one seen, and decreases by 25% when the latency is more than twice the best one.
+ * Latencies are normalized by the payload sizes of the leases if given.
+ */
+class QuotaPermits {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** The max limit is this factor times the configured limit. */
+  @VisibleForTesting static final int MAX_LIMIT_FACTOR = 4;
+
+  private static final double DECREASE_FACTOR = 0.75;
+
+  /** A latency more than this factor times the baseline means the resource is congested. */
+  private static final double CONGESTION_FACTOR = 2.0;
+
+  /** A latency less than this factor times the baseline means the resource is not congested. */
+  private static final double NO_CONGESTION_FACTOR = 1.25;
+
+  /** How fast the baseline latency follows slower latencies, e.g., after the workload changes. */
+  private static final double BASELINE_DRIFT = 0.01;
+
+  private static final long BYTES_PER_MB = 1024L * 1024L;
+
+  private final QuotaKey key;
+  private final boolean adaptive;
+  private final int configuredLimit;
+  private final int minLimit;
+  private final int maxLimit;
+  private final Ticker ticker;
+
+  @GuardedBy("this")
+  private double limit;
+
+  @GuardedBy("this")
+  private int leasedAmount;
+
+  @GuardedBy("this")
+  private int waitingCount;
+
+  @GuardedBy("this")
+  private long leaseCount;
+
+  @GuardedBy("this")
+  private long totalWaitNanos;
+
+  @GuardedBy("this")
+  private long maxWaitNanos;
+
+  /** The best latency seen, in nanoseconds per unit. 0 if not measured yet. */
+  @GuardedBy("this")
+  private double baselineLatency;
+
+  /** The number of released leases since the last decrease of the limit. */
+  @GuardedBy("this")
+  private long releasedCountSinceDecrease;
+
+  QuotaPermits(QuotaKey key, int limit, boolean adaptive, Ticker ticker) {
+    this.key = key;
+    this.adaptive = adaptive;
+    this.configuredLimit = limit;
+    this.minLimit = adaptive ? 1 : limit;
+    this.maxLimit = adaptive ? Math.max(limit, limit * MAX_LIMIT_FACTOR) : limit;
+    this.ticker = ticker;
+    this.limit = limit;
+  }
+
+  /**
+   * Acquires the given amount of permits, and returns the time of the acquisition from the ticker.
+   *
+   * <p>If adaptive, an amount larger than the current limit but not larger than the configured
+   * limit can still be acquired when no permits are leased, so a shrunk limit never blocks a lease
+   * forever. Otherwise, the limit is strict like a semaphore.
+   */
+  synchronized long acquire(int amount) throws InterruptedException {
+    long startNanos = ticker.read();
+    waitingCount++;
+    try {
+      while (!canAcquire(amount)) {
+        wait();
+      }
+    } finally {
+      waitingCount--;
+    }
+    long acquiredNanos = ticker.read();
+    onAcquired(amount, acquiredNanos - startNanos);
+    return acquiredNanos;
+  }
+
+  /**
+   * Tries to acquire the given amount of permits.
+   *
+   * @return the time of the acquisition from the ticker, or empty if there are not enough permits
+   */
+  synchronized OptionalLong tryAcquire(int amount) {
+    if (!canAcquire(amount)) {
+      return OptionalLong.empty();
+    }
+    long acquiredNanos = ticker.read();
+    onAcquired(amount, /* waitNanos= */ 0L);
+    return OptionalLong.of(acquiredNanos);
+  }
+
+  /**
+   * Releases the given amount of permits.
+   *
+   * @param acquiredNanos the time of the acquisition returned by {@link #acquire}
+   * @param payloadSize the payload size of the lease, or 0 if unknown
+   */
+  synchronized void release(int amount, long acquiredNanos, long payloadSize) {
+    leasedAmount -= amount;
+    if (adaptive) {
+      long latencyNanos = ticker.read() - acquiredNanos;
+      adjustLimit(
+          payloadSize > 0L
+              ? latencyNanos * (double) BYTES_PER_MB / payloadSize
+              : (double) latencyNanos / amount);
+    }
+    notifyAll();
+  }
+
+  synchronized QuotaStats getStats() {
+    return QuotaStats.of(
+        (int) limit,
+        leasedAmount,
+        waitingCount,
+        leaseCount,
+        Duration.ofNanos(totalWaitNanos),
+        Duration.ofNanos(maxWaitNanos));
+  }
+
+  @GuardedBy("this")
+  private boolean canAcquire(int amount) {
+    return leasedAmount + amount <= (int) limit
+        || (adaptive && leasedAmount == 0 && amount <= configuredLimit);
+  }
+
+  @GuardedBy("this")
+  private void onAcquired(int amount, long waitNanos) {
+    leasedAmount += amount;
+    leaseCount++;
+    totalWaitNanos += waitNanos;
+    maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+  }
+
+  @GuardedBy("this")
+  private void adjustLimit(double latency) {
+    releasedCountSinceDecrease++;
+    if (baselineLatency == 0.0 || latency < baselineLatency) {
+      baselineLatency = latency;
+    } else {
+      baselineLatency += (latency - baselineLatency) * BASELINE_DRIFT;
+    }
+
+    int oldLimit = (int) limit;
+    if (latency > baselineLatency * CONGESTION_FACTOR) {
+      // Decreases at most once per round of leases, whose latencies are affected by the old limit.
+      if (releasedCountSinceDecrease >= oldLimit) {
+        limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+        releasedCountSinceDecrease = 0L;
+      }
+    } else if (latency < baselineLatency * NO_CONGESTION_FACTOR && waitingCount > 0) {
+      limit = Math.min(maxLimit, limit + 1.0 / limit);
+    }
+    if ((int) limit != oldLimit) {
+      logger.atInfo().log(
+          "Adjusted limit of QuotaKey %s from %d to %d, stats: %s",
+          key, oldLimit, (int) limit, getStats());
+    }
+  }
+}
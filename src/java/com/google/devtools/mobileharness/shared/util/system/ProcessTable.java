@@ -0,0 +1,233 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.system;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A snapshot of the processes of the host, read from procfs directly rather than by parsing the
+ * output of "ps" or "lsof" in subprocesses. It is only available on Linux.
+ *
+ * <p>Like "ps", processes which exit during the snapshot are skipped. Snapshots are never reused,
+ * since callers often list processes right before and after killing some of them.
+ */
+class ProcessTable {
+
+  /** A process in the table. */
+  static class ProcessEntry {
+
+    final String user;
+    final int pid;
+    final int ppid;
+    final int pgid;
+    final String command;
+
+    private ProcessEntry(String user, int pid, int ppid, int pgid, String command) {
+      this.user = user;
+      this.pid = pid;
+      this.ppid = ppid;
+      this.pgid = pgid;
+      this.command = command;
+    }
+
+    /**
+     * Returns a line like the output of "ps aux" without the resource usage columns between the pid
+     * and the command, which keywords of processes are matched against.
+     */
+    String toKeywordLine() {
+      return String.format("%s %d %s", user, pid, command);
+    }
+
+    /** Returns a line like the output of "ps xao user,pid,ppid,pgid,command". */
+    @Override
+    public String toString() {
+      return String.format("%s %d %d %d %s", user, pid, ppid, pgid, command);
+    }
+  }
+
+  private static final Path DEFAULT_PROC_DIR = Path.of("/proc");
+
+  /** The "st" value of a listening socket in /proc/net/tcp and /proc/net/tcp6. */
+  private static final String TCP_LISTEN_STATE = "0A";
+
+  private static final Splitter WHITESPACE_SPLITTER =
+      Splitter.onPattern("\\s+").omitEmptyStrings();
+
+  /** {uid, user name}. */
+  @GuardedBy("itself")
+  private static final Map<Integer, String> USER_NAMES = new HashMap<>();
+
+  /** Returns whether procfs is available on this host. */
+  static boolean isAvailable() {
+    return Files.isReadable(DEFAULT_PROC_DIR.resolve("self").resolve("stat"));
+  }
+
+  /** Gets a new snapshot of the processes. */
+  static ProcessTable get() throws IOException {
+    return read(DEFAULT_PROC_DIR);
+  }
+
+  @VisibleForTesting
+  static ProcessTable read(Path procDir) throws IOException {
+    Map<Integer, ProcessEntry> processes = new TreeMap<>();
+    try (DirectoryStream<Path> processDirs = Files.newDirectoryStream(procDir)) {
+      for (Path processDir : processDirs) {
+        int pid;
+        try {
+          pid = Integer.parseInt(processDir.getFileName().toString());
+        } catch (NumberFormatException e) {
+          continue;
+        }
+        readProcess(processDir, pid).ifPresent(process -> processes.put(pid, process));
+      }
+    }
+    return new ProcessTable(procDir, ImmutableMap.copyOf(processes));
+  }
+
+  private final Path procDir;
+
+  /** {pid, process} in ascending pid order. */
+  private final ImmutableMap<Integer, ProcessEntry> processes;
+
+  private ProcessTable(Path procDir, ImmutableMap<Integer, ProcessEntry> processes) {
+    this.procDir = procDir;
+    this.processes = processes;
+  }
+
+  ImmutableList<ProcessEntry> getProcesses() {
+    return processes.values().asList();
+  }
+
+  Optional<ProcessEntry> getProcess(int pid) {
+    return Optional.ofNullable(processes.get(pid));
+  }
+
+  /** Gets the IDs of the processes which have listening TCP sockets on the given port. */
+  ImmutableSet<Integer> getListeningProcessIds(int port) throws IOException {
+    Set<String> socketInodes = new HashSet<>();
+    for (String tcpFile : ImmutableList.of("tcp", "tcp6")) {
+      Path path = procDir.resolve("net").resolve(tcpFile);
+      if (!Files.isReadable(path)) {
+        continue;
+      }
+      // Example line, whose columns are "sl local_address rem_address st ... uid timeout inode":
+      //   0: 00000000:270F 00000000:0000 0A 00000000:00000000 00:00000000 00000000  1000  0 58627
+      List<String> lines = Files.readAllLines(path, UTF_8);
+      for (int i = 1; i < lines.size(); i++) {
+        List<String> columns = WHITESPACE_SPLITTER.splitToList(lines.get(i));
+        if (columns.size() < 10 || !columns.get(3).equals(TCP_LISTEN_STATE)) {
+          continue;
+        }
+        String localAddress = columns.get(1);
+        int localPort =
+            Integer.parseInt(localAddress.substring(localAddress.lastIndexOf(':') + 1), 16);
+        if (localPort == port) {
+          socketInodes.add(columns.get(9));
+        }
+      }
+    }
+    if (socketInodes.isEmpty()) {
+      return ImmutableSet.of();
+    }
+
+    ImmutableSet.Builder<Integer> processIds = ImmutableSet.builder();
+    for (int pid : processes.keySet()) {
+      try (DirectoryStream<Path> fds = Files.newDirectoryStream(procDir.resolve(pid + "/fd"))) {
+        for (Path fd : fds) {
+          String target;
+          try {
+            target = Files.readSymbolicLink(fd).toString();
+          } catch (IOException e) {
+            continue;
+          }
+          // The target is like "socket:[58627]".
+          if (target.startsWith("socket:[")
+              && socketInodes.contains(target.substring(8, target.length() - 1))) {
+            processIds.add(pid);
+            break;
+          }
+        }
+      } catch (IOException e) {
+        // The process has exited or is not accessible, like in the output of "lsof".
+      }
+    }
+    return processIds.build();
+  }
+
+  private static Optional<ProcessEntry> readProcess(Path processDir, int pid) {
+    try {
+      // The content is like "pid (comm) state ppid pgrp ...", where comm may contain spaces.
+      String stat = new String(Files.readAllBytes(processDir.resolve("stat")), UTF_8);
+      int commEnd = stat.lastIndexOf(')');
+      if (commEnd == -1) {
+        return Optional.empty();
+      }
+      List<String> fields = WHITESPACE_SPLITTER.splitToList(stat.substring(commEnd + 1));
+      if (fields.size() < 3) {
+        return Optional.empty();
+      }
+      int ppid = Integer.parseInt(fields.get(1));
+      int pgid = Integer.parseInt(fields.get(2));
+
+      // Arguments in cmdline are separated by NUL. It is empty for kernel threads, for which "ps"
+      // shows "[comm]".
+      byte[] cmdline = Files.readAllBytes(processDir.resolve("cmdline"));
+      String command;
+      if (cmdline.length == 0) {
+        command = "[" + stat.substring(stat.indexOf('(') + 1, commEnd) + "]";
+      } else {
+        int length = cmdline[cmdline.length - 1] == 0 ? cmdline.length - 1 : cmdline.length;
+        command = new String(cmdline, 0, length, UTF_8).replace('\0', ' ');
+      }
+
+      return Optional.of(new ProcessEntry(getUserName(processDir), pid, ppid, pgid, command));
+    } catch (IOException | RuntimeException e) {
+      // The process has exited.
+      return Optional.empty();
+    }
+  }
+
+  private static String getUserName(Path processDir) throws IOException {
+    int uid = (Integer) Files.getAttribute(processDir, "unix:uid");
+    synchronized (USER_NAMES) {
+      String userName = USER_NAMES.get(uid);
+      if (userName == null) {
+        userName = Files.getOwner(processDir).getName();
+        USER_NAMES.put(uid, userName);
+      }
+      return userName;
+    }
+  }
+}
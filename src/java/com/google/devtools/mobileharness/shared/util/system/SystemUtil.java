@@ -39,6 +39,7 @@ import com.google.devtools.mobileharness.shared.util.command.CommandFailureExcep
 import com.google.devtools.mobileharness.shared.util.command.java.JavaCommandCreator;
 import com.google.devtools.mobileharness.shared.util.flags.Flags;
 import com.google.devtools.mobileharness.shared.util.path.PathUtil;
+import com.google.devtools.mobileharness.shared.util.system.ProcessTable.ProcessEntry;
 import com.google.errorprone.annotations.DoNotCall;
 import com.google.wireless.qa.mobileharness.shared.constant.ExitCode;
 import java.io.BufferedReader;
@@ -51,6 +52,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
@@ -430,12 +432,25 @@ public class SystemUtil {
   /**
    * Gets the IDs of the processes who have all the given keywords in its "ps aux" output.
    *
+   * <p>If the processes are read from procfs on Linux, the keywords are matched against the "ps
+   * aux" line without the resource usage columns, i.e., "user pid command".
+   *
    * @param keywords the keywords to filter the processes
    * @return the IDs of the processes, or empty if no process has the keywords
    */
   public Set<Integer> getProcessIds(String... keywords)
       throws MobileHarnessException, InterruptedException {
     Set<Integer> processIds = new HashSet<>();
+    Optional<ProcessTable> processTable = getProcessTable();
+    if (processTable.isPresent()) {
+      for (ProcessEntry process : processTable.get().getProcesses()) {
+        if (containsAll(process.toKeywordLine(), keywords)) {
+          processIds.add(process.pid);
+        }
+      }
+      return processIds;
+    }
+
     String output = getProcesses();
     // Example output on Linux:
     // USER    PID %CPU %MEM    VSZ   RSS TTY      STAT START   TIME COMMAND
@@ -493,10 +508,25 @@ public class SystemUtil {
     return processIds;
   }
 
-  /** Returns the process information which contains the keywords. */
+  /**
+   * Returns the process information which contains the keywords, in the same line format as {@link
+   * #getProcessIds}.
+   */
   public String getProcessesByKeywords(String... keywords)
       throws MobileHarnessException, InterruptedException {
     String processes = "";
+    Optional<ProcessTable> processTable = getProcessTable();
+    if (processTable.isPresent()) {
+      StringBuilder matchedProcesses = new StringBuilder();
+      for (ProcessEntry process : processTable.get().getProcesses()) {
+        String line = process.toKeywordLine();
+        if (containsAll(line, keywords)) {
+          matchedProcesses.append(line).append('\n');
+        }
+      }
+      return matchedProcesses.toString();
+    }
+
     String output = getProcesses();
     List<String> lines = Splitter.on('\n').splitToList(output);
     if (lines.size() < 1) {
@@ -534,6 +564,19 @@ public class SystemUtil {
   public Set<Integer> getProcessesByPort(int port)
       throws MobileHarnessException, InterruptedException {
     Set<Integer> processIds = new HashSet<>();
+    Optional<ProcessTable> processTable = getProcessTable();
+    if (processTable.isPresent()) {
+      try {
+        processIds.addAll(processTable.get().getListeningProcessIds(port));
+      } catch (IOException e) {
+        throw new MobileHarnessException(
+            BasicErrorId.SYSTEM_LIST_PROCESSES_ERROR,
+            "Failed to read listening sockets from /proc",
+            e);
+      }
+      return processIds;
+    }
+
     String output;
     try {
       output =
@@ -655,14 +698,23 @@ public class SystemUtil {
     // will keep running and won't be considered "zombie". There's nothing we can do since the
     // "init process" pid changes every time.
     String output;
-    try {
-      output =
-          executor
-              .exec(Command.of("ps", "xao", "user,pid,ppid,pgid,command"))
-              .stdoutWithoutTrailingLineTerminator();
-    } catch (CommandException e) {
-      throw new MobileHarnessException(
-          BasicErrorId.SYSTEM_LIST_PROCESSES_ERROR, "Failed to list processes.", e);
+    Optional<ProcessTable> processTable = getProcessTable();
+    if (processTable.isPresent()) {
+      StringBuilder processes = new StringBuilder("USER PID PPID PGID COMMAND");
+      for (ProcessEntry process : processTable.get().getProcesses()) {
+        processes.append('\n').append(process);
+      }
+      output = processes.toString();
+    } else {
+      try {
+        output =
+            executor
+                .exec(Command.of("ps", "xao", "user,pid,ppid,pgid,command"))
+                .stdoutWithoutTrailingLineTerminator();
+      } catch (CommandException e) {
+        throw new MobileHarnessException(
+            BasicErrorId.SYSTEM_LIST_PROCESSES_ERROR, "Failed to list processes.", e);
+      }
     }
     // Format output with only: process id (pid), parent process id (ppid), process group id (pgid).
     //
@@ -1272,6 +1324,31 @@ public class SystemUtil {
     }
   }
 
+  /**
+   * Gets a snapshot of the processes from procfs, which avoids running "ps"/"lsof", or empty if
+   * procfs is not available.
+   */
+  private Optional<ProcessTable> getProcessTable() throws MobileHarnessException {
+    if (!isOnLinux() || !ProcessTable.isAvailable()) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(ProcessTable.get());
+    } catch (IOException e) {
+      throw new MobileHarnessException(
+          BasicErrorId.SYSTEM_LIST_PROCESSES_ERROR, "Failed to read processes from /proc", e);
+    }
+  }
+
+  private static boolean containsAll(String line, String... keywords) {
+    for (String keyword : keywords) {
+      if (!line.contains(keyword)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /** A simple data structure for tree traversal in {@link #killDescendantAndZombieProcesses}. */
   private static class ProcessInfo {
     public final String user;
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.api.driver;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+
+/**
+ * Cache of the listing results of xTS directories, shared by all {@link XtsTradefedTest} runs of
+ * the process, so that shards running on the same xTS root directory do not walk the same
+ * directory trees repeatedly.
+ *
+ * <p>A cached result is used only if the last modified times of all the listed directories do not
+ * change, including all the sub-directories of a recursive listing. Adding, removing or replacing a
+ * file or a sub-directory changes the last modified time of its parent directory, so validating a
+ * cached result only needs to stat the directories rather than to walk them again.
+ */
+class XtsDirListingCache {
+
+  private static final long MAX_CACHED_DIR_NUM = 50_000L;
+
+  private static final XtsDirListingCache INSTANCE = new XtsDirListingCache(new LocalFileUtil());
+
+  static XtsDirListingCache getInstance() {
+    return INSTANCE;
+  }
+
+  @AutoValue
+  abstract static class Key {
+
+    abstract Path dir();
+
+    abstract Kind kind();
+
+    static Key of(Path dir, Kind kind) {
+      return new AutoValue_XtsDirListingCache_Key(dir, kind);
+    }
+  }
+
+  @AutoValue
+  abstract static class Listing {
+
+    /** The last modified times of the listed directory and its listed sub-directories. */
+    abstract ImmutableMap<Path, Instant> dirLastModifiedTimes();
+
+    abstract ImmutableList<Path> paths();
+
+    static Listing of(ImmutableMap<Path, Instant> dirLastModifiedTimes, ImmutableList<Path> paths) {
+      return new AutoValue_XtsDirListingCache_Listing(dirLastModifiedTimes, paths);
+    }
+  }
+
+  enum Kind {
+    CHILDREN,
+    JARS,
+    JARS_RECURSIVELY,
+  }
+
+  private final LocalFileUtil localFileUtil;
+
+  private final Cache<Key, Listing> listings =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_DIR_NUM).build();
+
+  @VisibleForTesting
+  XtsDirListingCache(LocalFileUtil localFileUtil) {
+    this.localFileUtil = localFileUtil;
+  }
+
+  /** Lists the paths of the sub-files and sub-directories directly under the given directory. */
+  ImmutableList<Path> listChildren(Path dir) throws MobileHarnessException {
+    return list(dir, Kind.CHILDREN);
+  }
+
+  /**
+   * Lists the paths of the jar files in the given directory.
+   *
+   * @param dir a directory which is not a symlink
+   */
+  ImmutableList<Path> listJars(Path dir, boolean recursively) throws MobileHarnessException {
+    return list(dir, recursively ? Kind.JARS_RECURSIVELY : Kind.JARS);
+  }
+
+  private ImmutableList<Path> list(Path dir, Kind kind) throws MobileHarnessException {
+    Key key = Key.of(dir, kind);
+    Instant dirLastModifiedTime = localFileUtil.getFileLastModifiedTime(dir);
+    Listing listing = listings.getIfPresent(key);
+    if (listing != null && isUpToDate(listing, dir, dirLastModifiedTime)) {
+      return listing.paths();
+    }
+
+    // Gets the last modified times before listing so that changes during listing are detected by
+    // the next call.
+    ImmutableMap<Path, Instant> dirLastModifiedTimes =
+        kind == Kind.JARS_RECURSIVELY
+            ? getDirLastModifiedTimesRecursively(dir, dirLastModifiedTime)
+            : ImmutableMap.of(dir, dirLastModifiedTime);
+
+    ImmutableList<Path> paths;
+    switch (kind) {
+      case CHILDREN:
+        paths =
+            localFileUtil.listFileOrDirPaths(dir.toString()).stream()
+                .map(Path::of)
+                .collect(toImmutableList());
+        break;
+      case JARS:
+      case JARS_RECURSIVELY:
+        paths =
+            ImmutableList.copyOf(
+                localFileUtil.listFilePaths(
+                    dir,
+                    /* recursively= */ kind == Kind.JARS_RECURSIVELY,
+                    path -> path.getFileName().toString().endsWith(".jar")));
+        break;
+      default:
+        throw new AssertionError("Unknown listing kind: " + kind);
+    }
+    listings.put(key, Listing.of(dirLastModifiedTimes, paths));
+    return paths;
+  }
+
+  private boolean isUpToDate(Listing listing, Path dir, Instant dirLastModifiedTime) {
+    for (Map.Entry<Path, Instant> entry : listing.dirLastModifiedTimes().entrySet()) {
+      Instant lastModifiedTime;
+      if (entry.getKey().equals(dir)) {
+        lastModifiedTime = dirLastModifiedTime;
+      } else {
+        try {
+          lastModifiedTime = localFileUtil.getFileLastModifiedTime(entry.getKey());
+        } catch (MobileHarnessException e) {
+          // The sub-directory has been removed.
+          return false;
+        }
+      }
+      if (!lastModifiedTime.equals(entry.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the last modified times of the given directory and all its sub-directories. Symlinks are
+   * not followed, the same as {@link LocalFileUtil#listFilePaths(Path, boolean,
+   * java.nio.file.DirectoryStream.Filter)}.
+   */
+  private ImmutableMap<Path, Instant> getDirLastModifiedTimesRecursively(
+      Path dir, Instant dirLastModifiedTime) throws MobileHarnessException {
+    ImmutableMap.Builder<Path, Instant> dirLastModifiedTimes = ImmutableMap.builder();
+    dirLastModifiedTimes.put(dir, dirLastModifiedTime);
+    Deque<Path> dirsToVisit = new ArrayDeque<>();
+    dirsToVisit.add(dir);
+    while (!dirsToVisit.isEmpty()) {
+      for (Path subDir : localFileUtil.listDirs(dirsToVisit.remove())) {
+        if (!Files.isSymbolicLink(subDir)) {
+          dirLastModifiedTimes.put(subDir, localFileUtil.getFileLastModifiedTime(subDir));
+          dirsToVisit.add(subDir);
+        }
+      }
+    }
+    return dirLastModifiedTimes.buildOrThrow();
+  }
+}
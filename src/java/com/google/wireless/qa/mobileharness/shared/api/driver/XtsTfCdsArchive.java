@@ -0,0 +1,215 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.api.driver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * Class data sharing archive of TF, which reduces the startup time of TF of {@link
+ * XtsTradefedTest}.
+ *
+ * <p>An archive is named by the xTS type, the real path of the xTS tools directory, the TF jar and
+ * the Java binary, so a new xTS version or a new JDK uses a new archive rather than recreating an
+ * existing one. An existing archive is only read by TF processes and is never copied or written.
+ *
+ * <p>If the archive does not exist, the first TF process which gets the lock of the archive dumps
+ * it to a temp file when it exits, and {@link #close} moves the temp file to the archive
+ * atomically. Other TF processes run without the archive in the meantime.
+ */
+class XtsTfCdsArchive implements AutoCloseable {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  @VisibleForTesting static final String TF_JAR_NAME = "tradefed.jar";
+
+  private final Path archive;
+
+  /** The temp file which the TF process dumps the archive to, or null if the archive exists. */
+  @Nullable private final Path dumpedArchive;
+
+  /** The lock of the archive, or null if the archive exists. */
+  @Nullable private final FileChannel lockChannel;
+
+  @Nullable private final FileLock lock;
+
+  private XtsTfCdsArchive(
+      Path archive,
+      @Nullable Path dumpedArchive,
+      @Nullable FileChannel lockChannel,
+      @Nullable FileLock lock) {
+    this.archive = archive;
+    this.dumpedArchive = dumpedArchive;
+    this.lockChannel = lockChannel;
+    this.lock = lock;
+  }
+
+  /**
+   * Prepares the archive of TF in the given xTS root directory.
+   *
+   * @param archiveDir the value of {@code --xts_tf_cds_archive_dir}, empty to disable the archive
+   * @param javaBinary the Java binary which runs TF
+   * @return empty if the archive is disabled, or if the archive does not exist and another TF
+   *     process is creating it
+   */
+  static Optional<XtsTfCdsArchive> prepare(
+      String archiveDir, String xtsType, Path toolsDir, Path javaBinary) throws IOException {
+    if (archiveDir.isEmpty()) {
+      return Optional.empty();
+    }
+    Path dir = Path.of(archiveDir);
+    Files.createDirectories(dir);
+    String archiveName = getArchiveName(xtsType, toolsDir.toRealPath(), javaBinary.toRealPath());
+    Path archive = dir.resolve(archiveName);
+    if (Files.exists(archive)) {
+      return Optional.of(new XtsTfCdsArchive(archive, null, null, null));
+    }
+
+    FileChannel lockChannel =
+        FileChannel.open(
+            dir.resolve(archiveName + ".lock"),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE);
+    try {
+      FileLock lock = null;
+      try {
+        lock = lockChannel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        // The lock is held by another TF run of this process.
+      }
+      if (lock == null) {
+        logger.atInfo().log(
+            "TF class data sharing archive %s is being created by another TF process", archive);
+        return Optional.empty();
+      }
+      // Another TF process may create the archive and release the lock after the check above.
+      if (Files.exists(archive)) {
+        return Optional.of(new XtsTfCdsArchive(archive, null, null, null));
+      }
+      // Stays in the same directory so that it can be moved to the archive atomically.
+      Path dumpedArchive =
+          dir.resolve(String.format("%s.%s.tmp", archiveName, UUID.randomUUID()));
+      XtsTfCdsArchive result = new XtsTfCdsArchive(archive, dumpedArchive, lockChannel, lock);
+      // The lock is released by close() of the result.
+      lockChannel = null;
+      return Optional.of(result);
+    } finally {
+      if (lockChannel != null) {
+        lockChannel.close();
+      }
+    }
+  }
+
+  /**
+   * Gets the name of the archive. Jars in the classpath of TF are under the temp work dir of each
+   * test but they are symlinks to the same real files, so the real path of the tools directory
+   * identifies the archive of tests running on the same xTS root directory.
+   */
+  @VisibleForTesting
+  static String getArchiveName(String xtsType, Path realToolsDir, Path realJavaBinary)
+      throws IOException {
+    Hasher hasher =
+        Hashing.sha256()
+            .newHasher()
+            .putString(realToolsDir.toString(), UTF_8)
+            .putChar('\n')
+            .putString(realJavaBinary.toString(), UTF_8)
+            .putChar('\n')
+            .putLong(Files.getLastModifiedTime(realJavaBinary).toMillis());
+    Path tfJar = realToolsDir.resolve(TF_JAR_NAME);
+    if (Files.exists(tfJar)) {
+      hasher
+          .putLong(Files.size(tfJar))
+          .putLong(Files.getLastModifiedTime(tfJar).toMillis());
+    }
+    return String.format("%s_tf_%s.jsa", xtsType, hasher.hash());
+  }
+
+  /** Gets the JVM flags of the TF process to use or to create the archive. */
+  ImmutableList<String> getJvmFlags() {
+    return ImmutableList.of(
+        // Dynamic archives are not supported before JDK 13.
+        "-XX:+IgnoreUnrecognizedVMOptions",
+        dumpedArchive == null
+            ? "-XX:SharedArchiveFile=" + archive
+            : "-XX:ArchiveClassesAtExit=" + dumpedArchive);
+  }
+
+  @VisibleForTesting
+  Path getArchive() {
+    return archive;
+  }
+
+  @VisibleForTesting
+  Optional<Path> getDumpedArchive() {
+    return Optional.ofNullable(dumpedArchive);
+  }
+
+  /**
+   * Moves the archive dumped by the TF process, if any, to the archive atomically and releases the
+   * lock of the archive.
+   */
+  @Override
+  public void close() {
+    if (dumpedArchive == null) {
+      return;
+    }
+    try {
+      if (Files.exists(dumpedArchive) && Files.size(dumpedArchive) > 0L) {
+        Files.move(dumpedArchive, archive, StandardCopyOption.ATOMIC_MOVE);
+        logger.atInfo().log("Created TF class data sharing archive %s", archive);
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to create TF class data sharing archive %s from %s", archive, dumpedArchive);
+    } finally {
+      try {
+        Files.deleteIfExists(dumpedArchive);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Failed to delete TF class data sharing archive %s", dumpedArchive);
+      }
+      try {
+        if (lock != null) {
+          lock.release();
+        }
+        if (lockChannel != null) {
+          lockChannel.close();
+        }
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Failed to release the lock of TF class data sharing archive %s", archive);
+      }
+    }
+  }
+}
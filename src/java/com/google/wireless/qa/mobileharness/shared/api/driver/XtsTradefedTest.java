@@ -116,8 +116,8 @@ public class XtsTradefedTest extends BaseDriver
           "ats_console_deploy.jar",
           "ats_olc_server_deploy.jar",
           "ats_olc_server_local_mode_deploy.jar");
-  private static final ImmutableList<String> EXCLUDED_JAR_FILE_PATTERNS =
-      ImmutableList.of("art-run-test.*", "art-gtest-jars.*");
+  private static final ImmutableList<Pattern> EXCLUDED_JAR_FILE_PATTERNS =
+      ImmutableList.of(Pattern.compile("art-run-test.*"), Pattern.compile("art-gtest-jars.*"));
 
   private static final String TF_PATH_KEY = "TF_PATH";
 
@@ -134,6 +134,7 @@ public class XtsTradefedTest extends BaseDriver
   private final LogRecorder logRecorder;
   private final ListeningExecutorService threadPool;
   private final Sleeper sleeper;
+  private final XtsDirListingCache xtsDirListingCache;
 
   @Inject
   XtsTradefedTest(
@@ -158,7 +159,8 @@ public class XtsTradefedTest extends BaseDriver
         aapt,
         threadPool,
         sleeper,
-        LogRecorder.getInstance());
+        LogRecorder.getInstance(),
+        XtsDirListingCache.getInstance());
   }
 
   @VisibleForTesting
@@ -173,7 +175,8 @@ public class XtsTradefedTest extends BaseDriver
       Aapt aapt,
       ListeningExecutorService threadPool,
       Sleeper sleeper,
-      LogRecorder logRecorder) {
+      LogRecorder logRecorder,
+      XtsDirListingCache xtsDirListingCache) {
     super(device, testInfo);
     this.cmdExecutor = cmdExecutor;
     this.localFileUtil = localFileUtil;
@@ -184,6 +187,7 @@ public class XtsTradefedTest extends BaseDriver
     this.threadPool = threadPool;
     this.sleeper = sleeper;
     this.logRecorder = logRecorder;
+    this.xtsDirListingCache = xtsDirListingCache;
   }
 
   @Override
@@ -341,14 +345,29 @@ public class XtsTradefedTest extends BaseDriver
   private boolean runXtsCommand(
       TestInfo testInfo, XtsTradefedTestDriverSpec spec, Path tmpXtsRootDir, String xtsType)
       throws MobileHarnessException, InterruptedException {
+    Optional<XtsTfCdsArchive> tfCdsArchive = prepareTfCdsArchive(tmpXtsRootDir, xtsType);
+    try {
+      return runXtsCommand(
+          testInfo, spec, tmpXtsRootDir, xtsType, getTfJvmFlags(tfCdsArchive.orElse(null)));
+    } finally {
+      tfCdsArchive.ifPresent(XtsTfCdsArchive::close);
+    }
+  }
+
+  private boolean runXtsCommand(
+      TestInfo testInfo,
+      XtsTradefedTestDriverSpec spec,
+      Path tmpXtsRootDir,
+      String xtsType,
+      ImmutableList<String> tfJvmFlags)
+      throws MobileHarnessException, InterruptedException {
     ImmutableMap<String, String> env =
         getEnvironmentToTradefedConsole(tmpXtsRootDir, xtsType, spec);
     ImmutableList<String> cmd =
         XtsCommandUtil.getXtsJavaCommand(
             xtsType,
             tmpXtsRootDir,
-            ImmutableList.of(
-                "-Xmx" + Flags.instance().xtsTfXmx.getNonNull(), "-XX:+HeapDumpOnOutOfMemoryError"),
+            tfJvmFlags,
             requireNonNull(
                 env.getOrDefault(
                     TF_PATH_KEY, getConcatenatedJarPath(tmpXtsRootDir, spec, xtsType))),
@@ -515,13 +534,39 @@ public class XtsTradefedTest extends BaseDriver
     }
   }
 
+  private static ImmutableList<String> getTfJvmFlags(@Nullable XtsTfCdsArchive tfCdsArchive) {
+    ImmutableList.Builder<String> jvmFlags =
+        ImmutableList.<String>builder()
+            .add("-Xmx" + Flags.instance().xtsTfXmx.getNonNull())
+            .add("-XX:+HeapDumpOnOutOfMemoryError");
+    if (tfCdsArchive != null) {
+      jvmFlags.addAll(tfCdsArchive.getJvmFlags());
+    }
+    return jvmFlags.build();
+  }
+
+  private static Optional<XtsTfCdsArchive> prepareTfCdsArchive(
+      Path tmpXtsRootDir, String xtsType) {
+    String cdsArchiveDir = Flags.instance().xtsTfCdsArchiveDir.getNonNull();
+    try {
+      return XtsTfCdsArchive.prepare(
+          cdsArchiveDir,
+          xtsType,
+          XtsDirUtil.getXtsToolsDir(tmpXtsRootDir, xtsType),
+          XtsCommandUtil.getJavaBinary(xtsType, tmpXtsRootDir));
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to prepare TF class data sharing archive in %s", cdsArchiveDir);
+      return Optional.empty();
+    }
+  }
+
   private static boolean tfFinished(String line) {
     return line.contains("CommandScheduler: All done");
   }
 
-  private boolean isJarFileIncluded(
-      String fileName, ImmutableList<Pattern> excludedJarFilePatterns) {
-    return excludedJarFilePatterns.stream()
+  private static boolean isJarFileIncluded(String fileName) {
+    return EXCLUDED_JAR_FILE_PATTERNS.stream()
         .map(pattern -> pattern.matcher(fileName))
         .noneMatch(Matcher::matches);
   }
@@ -529,8 +574,6 @@ public class XtsTradefedTest extends BaseDriver
   private String getConcatenatedJarPath(
       Path tmpXtsRootDir, XtsTradefedTestDriverSpec spec, String xtsType)
       throws MobileHarnessException {
-    ImmutableList<Pattern> excludedJarFilePatterns =
-        EXCLUDED_JAR_FILE_PATTERNS.stream().map(Pattern::compile).collect(toImmutableList());
     Set<String> leadingJarsSet = getLeadingJarsInClasspath(spec);
 
     ListMultimap<String, Path> foundLeadingJars = ArrayListMultimap.create();
@@ -541,13 +584,8 @@ public class XtsTradefedTest extends BaseDriver
       Path linkXtsTestcasesDir = XtsDirUtil.getXtsTestCasesDir(tmpXtsRootDir, xtsType);
       Path linkXtsTestcasesDirRealPath = linkXtsTestcasesDir.toRealPath();
 
-      localFileUtil
-          .listFilePaths(
-              linkXtsToolsDirRealPath,
-              /* recursively= */ false,
-              path ->
-                  path.getFileName().toString().endsWith(".jar")
-                      && !EXCLUDED_JAR_FILES.contains(path.getFileName().toString()))
+      xtsDirListingCache.listJars(linkXtsToolsDirRealPath, /* recursively= */ false).stream()
+          .filter(path -> !EXCLUDED_JAR_FILES.contains(path.getFileName().toString()))
           .forEach(
               jar -> {
                 Path newJarPath = replacePathPrefix(jar, linkXtsToolsDirRealPath, linkXtsToolsDir);
@@ -567,8 +605,7 @@ public class XtsTradefedTest extends BaseDriver
               fileOrDir ->
                   Files.isRegularFile(fileOrDir)
                       && fileOrDir.getFileName().toString().endsWith(".jar")
-                      && isJarFileIncluded(
-                          fileOrDir.getFileName().toString(), excludedJarFilePatterns))
+                      && isJarFileIncluded(fileOrDir.getFileName().toString()))
           .forEach(
               jar -> {
                 if (leadingJarsSet.contains(jar.getFileName().toString())) {
@@ -581,14 +618,12 @@ public class XtsTradefedTest extends BaseDriver
       List<Path> linkXtsTestcasesSubDirPaths = localFileUtil.listDirs(linkXtsTestcasesDirRealPath);
       for (Path linkXtsTestcasesSubDirPath : linkXtsTestcasesSubDirPaths) {
         Path linkXtsTestcasesSubDirRealPath = linkXtsTestcasesSubDirPath.toRealPath();
-        localFileUtil
-            .listFilePaths(
-                linkXtsTestcasesSubDirRealPath,
-                /* recursively= */ true,
-                path ->
-                    path.getFileName().toString().endsWith(".jar")
-                        && isJarFileIncluded(
-                            path.getFileName().toString(), excludedJarFilePatterns))
+        // Recursively listing a sub-directory is the slowest part, so the result is cached for
+        // other runs on the same xTS root directory.
+        xtsDirListingCache
+            .listJars(linkXtsTestcasesSubDirRealPath, /* recursively= */ true)
+            .stream()
+            .filter(path -> isJarFileIncluded(path.getFileName().toString()))
             .forEach(
                 jar -> {
                   Path newJarPath =
@@ -960,9 +995,7 @@ public class XtsTradefedTest extends BaseDriver
     }
 
     // Create symlink to the immediate subfiles and subdirectories of the xts test cases
-    List<String> subTestCases = localFileUtil.listFileOrDirPaths(target.toString());
-    for (String subTestCase : subTestCases) {
-      Path subTestCasePath = Path.of(subTestCase);
+    for (Path subTestCasePath : xtsDirListingCache.listChildren(target)) {
       Path tmpXtsTestcasePath = link.resolve(subTestCasePath.getFileName().toString());
       createSymlink(tmpXtsTestcasePath, subTestCasePath);
     }
@@ -83,7 +83,16 @@ public interface PropertyName {
     UPLOAD_RUNFILES,
 
     /** The master spec. */
-    MASTER_SPEC
+    MASTER_SPEC,
+
+    /** The number of times the job runner wakes up to check the job. */
+    JOB_RUNNER_WAKEUP_COUNT,
+
+    /** The number of job runner wakeups triggered by test events rather than timers. */
+    JOB_RUNNER_EVENT_WAKEUP_COUNT,
+
+    /** The max latency in milliseconds between a test event and the job runner handling it. */
+    JOB_RUNNER_MAX_EVENT_LATENCY_MS
   }
 
   /** Mobile Harness test property name constants. */
@@ -92,7 +92,7 @@ public class JobScheduleUnit implements Cloneable {
     this(other.locator, other.jobUser, other.type, other.setting, (Timing) other.timing().clone());
 
     this.params.addAll(other.params.getAll());
-    this.scopedSpecs.addAll(other.scopedSpecs.getAll());
+    this.scopedSpecs.addAll(other.scopedSpecs);
     this.subDeviceSpecs.addAllSubDevices(other.subDeviceSpecs.getAllSubDevices());
     this.timing.setModifyTime(other.timing.getModifyTime());
   }
@@ -18,7 +18,6 @@ package com.google.wireless.qa.mobileharness.shared.model.job;
 
 import com.google.common.annotations.Beta;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Suppliers;
 import com.google.common.collect.Lists;
 import com.google.devtools.mobileharness.api.model.error.BasicErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
@@ -42,20 +41,25 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
-import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
 /** A thread-safe data model containing all information of a single test. */
 public class TestInfo extends TestScheduleUnit implements Cloneable {
 
+  /**
+   * Shared by the tests which don't specify their own one, since it is stateless and a large job
+   * may have a huge number of tests.
+   */
+  private static final LocalFileUtil DEFAULT_FILE_UTIL = new LocalFileUtil();
+
   /** The job that this test belongs to. */
   private final JobInfo jobInfo;
 
   /** The parent test. Null when this is a root test. */
   @Nullable private final TestInfo parentTest;
 
-  /** The direct sub tests. */
-  private final TestInfos subTests;
+  /** The direct sub tests. Created lazily since most tests don't have sub tests. */
+  @Nullable private volatile TestInfos subTests;
 
   /** Test specific files. */
   private final Files files;
@@ -83,7 +87,8 @@ public class TestInfo extends TestScheduleUnit implements Cloneable {
 
   private final CountDownTimer timer = new TestTimer();
 
-  private final Supplier<TestExecutionUnit> testExecutionUnitSupplier;
+  /** Created lazily. */
+  @Nullable private volatile TestExecutionUnit testExecutionUnit;
 
   /**
    * Creates a TestInfo with all the required final fields. Note: please don't make this public at
@@ -103,8 +108,7 @@ public class TestInfo extends TestScheduleUnit implements Cloneable {
     super(testLocator, timing);
     this.jobInfo = jobInfo;
     this.parentTest = parentTest;
-    this.subTests = new TestInfos(jobInfo, this);
-    this.fileUtil = new LocalFileUtil();
+    this.fileUtil = DEFAULT_FILE_UTIL;
     this.files = new Files(timing(), this.fileUtil);
     this.remoteGenFiles = remoteGenFiles;
     this.status = status;
@@ -112,13 +116,6 @@ public class TestInfo extends TestScheduleUnit implements Cloneable {
     this.log = log;
     this.properties = properties;
     this.errors = errors;
-    testExecutionUnitSupplier =
-        Suppliers.memoize(
-            () ->
-                new TestExecutionUnit(
-                    locator().toNewTestLocator(),
-                    timing().toNewTiming(),
-                    jobInfo().toJobExecutionUnit()));
   }
 
   /** Creates a TestInfo. */
@@ -132,9 +129,7 @@ public class TestInfo extends TestScheduleUnit implements Cloneable {
 
     jobInfo = builder.jobInfo;
     parentTest = builder.parentTest;
-    subTests = new TestInfos(jobInfo, this);
-
-    fileUtil = builder.fileUtil == null ? new LocalFileUtil() : builder.fileUtil;
+    fileUtil = builder.fileUtil == null ? DEFAULT_FILE_UTIL : builder.fileUtil;
 
     log = new Log(timing());
     files = new Files(timing(), fileUtil);
@@ -154,13 +149,6 @@ public class TestInfo extends TestScheduleUnit implements Cloneable {
     properties = new Properties(timing());
     result = new Result(timing(), jobInfo.params());
     status = new Status(timing());
-    testExecutionUnitSupplier =
-        Suppliers.memoize(
-            () ->
-                new TestExecutionUnit(
-                    locator().toNewTestLocator(),
-                    timing().toNewTiming(),
-                    jobInfo().toJobExecutionUnit()));
   }
 
   /**
@@ -243,9 +231,28 @@ public class TestInfo extends TestScheduleUnit implements Cloneable {
     return parentTest;
   }
 
+  /**
+   * Returns whether the test has any direct sub test. Unlike {@link #subTests()}, it does not
+   * create the sub tests if the test never has any, so read-only callers should check it first.
+   */
+  public boolean hasSubTests() {
+    TestInfos result = subTests;
+    return result != null && !result.isEmpty();
+  }
+
   /** The direct sub tests. */
   public TestInfos subTests() {
-    return subTests;
+    TestInfos result = subTests;
+    if (result == null) {
+      synchronized (this) {
+        result = subTests;
+        if (result == null) {
+          result = new TestInfos(jobInfo, this);
+          subTests = result;
+        }
+      }
+    }
+    return result;
   }
 
   /** Input files. */
@@ -377,7 +384,21 @@ public class TestInfo extends TestScheduleUnit implements Cloneable {
    */
   @Beta
   public TestExecutionUnit toTestExecutionUnit() {
-    return testExecutionUnitSupplier.get();
+    TestExecutionUnit result = testExecutionUnit;
+    if (result == null) {
+      synchronized (this) {
+        result = testExecutionUnit;
+        if (result == null) {
+          result =
+              new TestExecutionUnit(
+                  locator().toNewTestLocator(),
+                  timing().toNewTiming(),
+                  jobInfo().toJobExecutionUnit());
+          testExecutionUnit = result;
+        }
+      }
+    }
+    return result;
   }
 
   /**
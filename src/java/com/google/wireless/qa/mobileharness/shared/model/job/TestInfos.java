@@ -20,28 +20,42 @@ import static java.util.Collections.min;
 
 import com.google.common.base.Ascii;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
 import com.google.devtools.mobileharness.api.model.error.BasicErrorId;
 import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
 import com.google.devtools.mobileharness.api.model.proto.Job.Retry;
 import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.wireless.qa.mobileharness.shared.constant.PropertyName.Test;
+import com.google.wireless.qa.mobileharness.shared.model.job.out.Status;
 import com.google.wireless.qa.mobileharness.shared.model.job.out.Timing;
 import com.google.wireless.qa.mobileharness.shared.model.job.util.ResultComparator;
 import com.google.wireless.qa.mobileharness.shared.proto.Job.TestResult;
 import com.google.wireless.qa.mobileharness.shared.proto.Job.TestStatus;
 import java.time.Instant;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 
-/** A set of tests that belongs to the same job. */
+/**
+ * A set of tests that belongs to the same job.
+ *
+ * <p>The tests are also indexed by their status, which is updated by the status changes of the
+ * tests, so the status queries like {@link #allDone()} don't iterate the tests or wait for the
+ * lock of this object.
+ */
 public class TestInfos {
 
   /** The job that these tests belongs to. */
@@ -54,7 +68,20 @@ public class TestInfos {
   private final ListMultimap<String, TestInfo> testsByName = LinkedListMultimap.create();
 
   /** All the tests in this job group indexed by test id. */
-  private final Map<String, TestInfo> testsById = new HashMap<>();
+  private final Map<String, TestInfo> testsById = new ConcurrentHashMap<>();
+
+  /** All the tests in this job group grouped by status. */
+  private final ImmutableMap<TestStatus, Set<TestInfo>> testsByStatus;
+
+  /**
+   * The number of the tests which are not {@link TestStatus#DONE}. It is updated together with
+   * {@link #testsByStatus} in the status listener of a test, so a test changing between two not
+   * done statuses never changes it, and {@link #allDone()} reads a consistent value.
+   */
+  private final AtomicInteger notDoneTestCount = new AtomicInteger();
+
+  /** Increased when any test is added/removed. */
+  private final AtomicLong testSetVersion = new AtomicLong();
 
   /**
    * Creates a test set. Only visible for this package. API users shouldn't directly create an
@@ -71,6 +98,11 @@ public class TestInfos {
   TestInfos(JobInfo jobInfo, @Nullable TestInfo parentTest) {
     this.jobInfo = jobInfo;
     this.parentTest = parentTest;
+    Map<TestStatus, Set<TestInfo>> testsByStatus = new EnumMap<>(TestStatus.class);
+    for (TestStatus status : TestStatus.values()) {
+      testsByStatus.put(status, ConcurrentHashMap.newKeySet());
+    }
+    this.testsByStatus = Maps.immutableEnumMap(testsByStatus);
   }
 
   /**
@@ -156,8 +188,10 @@ public class TestInfos {
           BasicErrorId.TEST_ADD_TEST_WITH_DUPLICATED_ID, "Test " + testId + " already exists");
     }
 
+    testInfo.status().addListener(new TestStatusIndexer(testInfo));
     testsById.put(testId, testInfo);
     testsByName.put(testLocator.getName(), testInfo);
+    testSetVersion.incrementAndGet();
     jobInfo.timing().touch();
     return this;
   }
@@ -186,9 +220,16 @@ public class TestInfos {
         testInfo -> {
           TestLocator testLocator = testInfo.locator();
           String testId = testLocator.getId();
-          testsById.put(testId, testInfo);
+          TestInfo oldTestInfo = testsById.put(testId, testInfo);
+          if (oldTestInfo != testInfo) {
+            if (oldTestInfo != null) {
+              oldTestInfo.status().removeListener(new TestStatusIndexer(oldTestInfo));
+            }
+            testInfo.status().addListener(new TestStatusIndexer(testInfo));
+          }
           testsByName.put(testLocator.getName(), testInfo);
         });
+    testSetVersion.incrementAndGet();
     return this;
   }
 
@@ -211,6 +252,8 @@ public class TestInfos {
       }
       testsByName.remove(testInfo.locator().getName(), testInfo);
       testsById.remove(testId);
+      testInfo.status().removeListener(new TestStatusIndexer(testInfo));
+      testSetVersion.incrementAndGet();
       jobInfo.timing().touch();
     }
     return testInfo;
@@ -218,8 +261,12 @@ public class TestInfos {
 
   /** Remove all the {@link TestInfo} of the current job. */
   public synchronized void clear() {
+    for (TestInfo testInfo : testsById.values()) {
+      testInfo.status().removeListener(new TestStatusIndexer(testInfo));
+    }
     testsByName.clear();
     testsById.clear();
+    testSetVersion.incrementAndGet();
     jobInfo.timing().touch();
   }
 
@@ -230,7 +277,7 @@ public class TestInfos {
 
   /** Returns the {@link TestInfo} object with the given test id, or null if test not exists. */
   @Nullable
-  public synchronized TestInfo getById(String testId) {
+  public TestInfo getById(String testId) {
     return testsById.get(testId);
   }
 
@@ -238,50 +285,33 @@ public class TestInfos {
    * Returns the {@link TestInfo} object with the given test id, or throws {@link
    * NullPointerException} if test not exists.
    */
-  public synchronized TestInfo getByIdNonNull(String testId) {
+  public TestInfo getByIdNonNull(String testId) {
     return Preconditions.checkNotNull(getById(testId));
   }
 
   /** Whether the job contains any tests. */
-  public synchronized boolean isEmpty() {
+  public boolean isEmpty() {
     return testsById.isEmpty();
   }
 
   /** Gets the number of the tests. */
-  public synchronized int size() {
+  public int size() {
     return testsById.size();
   }
 
   /** Gets the number of the tests which are new, not assigned and not suspended. */
-  public synchronized int getNewTestCount() {
-    int count = 0;
-    for (TestInfo testInfo : testsById.values()) {
-      if (testInfo.status().get() == TestStatus.NEW) {
-        count++;
-      }
-    }
-    return count;
+  public int getNewTestCount() {
+    return testsByStatus.get(TestStatus.NEW).size();
   }
 
   /** Gets the number of the suspended tests, which are not assigned due to quota issues. */
-  public synchronized int getSuspendedTestCount() {
-    int count = 0;
-    for (TestInfo testInfo : testsById.values()) {
-      if (testInfo.status().get() == TestStatus.SUSPENDED) {
-        count++;
-      }
-    }
-    return count;
+  public int getSuspendedTestCount() {
+    return testsByStatus.get(TestStatus.SUSPENDED).size();
   }
 
   /** Returns whether all the tests in this job are finished. */
-  public synchronized boolean allDone() {
-    for (TestInfo testInfo : testsById.values()) {
-      if (testInfo.status().get() != TestStatus.DONE) {
-        return false;
-      }
-    }
-    return true;
+  public boolean allDone() {
+    return notDoneTestCount.get() == 0;
   }
 
   /** Returns all the {@link TestInfo} of the current job. */
@@ -289,6 +319,23 @@ public class TestInfos {
     return LinkedListMultimap.create(testsByName);
   }
 
+  /**
+   * Returns an unmodifiable live view of all the {@link TestInfo} of the current job without
+   * copying them. The order is undefined, and the iteration is weakly consistent with the
+   * concurrent changes.
+   */
+  public Collection<TestInfo> getAllAsView() {
+    return Collections.unmodifiableCollection(testsById.values());
+  }
+
+  /**
+   * Gets the version of the test set, which increases when any test is added/removed. It doesn't
+   * change when the status of a test changes.
+   */
+  public long getTestSetVersion() {
+    return testSetVersion.get();
+  }
+
   /**
    * Returns the only {@linkplain TestInfo test} of the current job.
    *
@@ -376,4 +423,52 @@ public class TestInfos {
           }
         });
   }
+
+  /** Keeps {@link #testsByStatus} updated with the status of a test. */
+  private class TestStatusIndexer implements Status.Listener {
+
+    private final TestInfo testInfo;
+
+    private TestStatusIndexer(TestInfo testInfo) {
+      this.testInfo = testInfo;
+    }
+
+    @Override
+    public void onStatusChanged(@Nullable TestStatus oldStatus, @Nullable TestStatus newStatus) {
+      // Adds the test to the new status before removing it from the old one, so the concurrent
+      // status counts never miss the test.
+      if (newStatus != null) {
+        testsByStatus.get(newStatus).add(testInfo);
+      }
+      if (oldStatus != null) {
+        testsByStatus.get(oldStatus).remove(testInfo);
+      }
+      int notDoneDelta = (isNotDone(newStatus) ? 1 : 0) - (isNotDone(oldStatus) ? 1 : 0);
+      if (notDoneDelta != 0) {
+        notDoneTestCount.addAndGet(notDoneDelta);
+      }
+    }
+
+    private boolean isNotDone(@Nullable TestStatus status) {
+      return status != null && status != TestStatus.DONE;
+    }
+
+    private TestInfos owner() {
+      return TestInfos.this;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof TestStatusIndexer)) {
+        return false;
+      }
+      TestStatusIndexer other = (TestStatusIndexer) obj;
+      return other.owner() == TestInfos.this && other.testInfo == testInfo;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(testInfo);
+    }
+  }
 }
@@ -39,6 +39,8 @@ import com.google.wireless.qa.mobileharness.shared.proto.spec.JobSpec;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.annotation.Nullable;
 
 /** Scoped specs. Users could store same tags with different values under different namespace. */
@@ -51,11 +53,11 @@ public class ScopedSpecs implements JobSpecWrapper {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   /**
-   * Parameters belongs to each namespace. The key is namespace name, value is a json element
-   * contains all necessary data.
+   * Parameters belongs to each namespace. The key is namespace name, value is the immutable specs
+   * of the namespace, which can be shared with other scoped specs.
    */
-  private final Map<String, JsonObject> specs =
-      Collections.synchronizedMap(new HashMap<String, JsonObject>());
+  private final Map<String, NamespaceSpecs> specs =
+      Collections.synchronizedMap(new HashMap<String, NamespaceSpecs>());
 
   /** The time records. */
   @Nullable private final Timing timing;
@@ -85,7 +87,8 @@ public class ScopedSpecs implements JobSpecWrapper {
         JsonElement jsonElement = JsonParser.parseString(scopedSpecsJsonString);
         if (jsonElement.isJsonObject()) {
           for (Map.Entry<String, JsonElement> entry : jsonElement.getAsJsonObject().entrySet()) {
-            this.specs.put(entry.getKey(), deepCopy(entry.getValue().getAsJsonObject()));
+            this.specs.put(
+                entry.getKey(), NamespaceSpecs.ofJson(entry.getValue().getAsJsonObject()));
           }
         }
       } catch (JsonSyntaxException | IllegalStateException e) {
@@ -98,12 +101,15 @@ public class ScopedSpecs implements JobSpecWrapper {
   /** Adds the json object {@code specs}. */
   @CanIgnoreReturnValue
   public ScopedSpecs add(String namespace, JsonObject specs) {
-    this.specs.put(namespace, deepCopy(specs));
+    this.specs.put(namespace, NamespaceSpecs.ofJson(specs.deepCopy()));
     touch();
     return this;
   }
 
-  /** Adds the proto buffer {@code message}. */
+  /**
+   * Adds the proto buffer {@code message}. The message is kept so that {@link #getSpec} of the
+   * same class does not need to parse it back from the json.
+   */
   @CanIgnoreReturnValue
   public ScopedSpecs add(String namespace, Message message) throws MobileHarnessException {
     JsonObject json;
@@ -112,10 +118,10 @@ public class ScopedSpecs implements JobSpecWrapper {
     } catch (IllegalStateException e) {
       throw new MobileHarnessException(
           BasicErrorId.JOB_SPEC_PARSE_JSON_ERROR,
-          "Failed to convert message to an json object:" + specs,
+          "Failed to convert message to an json object:" + message,
           e);
     }
-    this.specs.put(namespace, json);
+    this.specs.put(namespace, NamespaceSpecs.ofMessage(message, json));
     touch();
     return this;
   }
@@ -169,15 +175,24 @@ public class ScopedSpecs implements JobSpecWrapper {
   /** Adds every entry in {@code specs}. */
   @CanIgnoreReturnValue
   public ScopedSpecs addAll(Map<String, JsonObject> specs) {
-    // No easy way to deep copy a JsonObject, we just serialize it to string then
-    // deserialize it back.
     for (Map.Entry<String, JsonObject> entry : specs.entrySet()) {
-      this.specs.put(entry.getKey(), deepCopy(entry.getValue()));
+      this.specs.put(entry.getKey(), NamespaceSpecs.ofJson(entry.getValue().deepCopy()));
     }
     touch();
     return this;
   }
 
+  /**
+   * Adds every entry in {@code other}. The specs are immutable so they are shared rather than
+   * copied.
+   */
+  @CanIgnoreReturnValue
+  public ScopedSpecs addAll(ScopedSpecs other) {
+    this.specs.putAll(other.snapshot());
+    touch();
+    return this;
+  }
+
   /**
    * Adds every spec extensions in {@code jobSpec}. The namespace of each spec is the simple message
    * name.
@@ -200,9 +215,13 @@ public class ScopedSpecs implements JobSpecWrapper {
     }
   }
 
-  /** Copies data from {@code other}. All existing data will be wiped out before copying. */
+  /** Gets copies of the json objects of all namespaces. */
   public ImmutableMap<String, JsonObject> getAll() {
-    return ImmutableMap.copyOf(specs);
+    ImmutableMap.Builder<String, JsonObject> all = ImmutableMap.builder();
+    for (Map.Entry<String, NamespaceSpecs> entry : snapshot().entrySet()) {
+      all.put(entry.getKey(), entry.getValue().json().deepCopy());
+    }
+    return all.buildOrThrow();
   }
 
   /**
@@ -211,10 +230,7 @@ public class ScopedSpecs implements JobSpecWrapper {
    * find one.
    */
   public Specs get(String namespace, boolean mergeGlobalParams) {
-    JsonObject specs = this.specs.get(namespace);
-    if (specs == null) {
-      specs = new JsonObject();
-    }
+    JsonObject specs = getNamespaceSpecs(namespace).json().deepCopy();
     if (mergeGlobalParams) {
       return new Specs(specs, globalParams);
     }
@@ -233,7 +249,7 @@ public class ScopedSpecs implements JobSpecWrapper {
    */
   @Override
   public <T extends Message> T getSpec(Class<T> specClass) throws MobileHarnessException {
-    return get(specClass.getSimpleName()).asMessage(specClass);
+    return getNamespaceSpecs(specClass.getSimpleName()).getSpec(specClass);
   }
 
   /**
@@ -241,7 +257,7 @@ public class ScopedSpecs implements JobSpecWrapper {
    * global specs which has the same key. Returns an empty specs if failed to find one.
    */
   public <T extends Message> T getMergedSpec(Class<T> specClass) throws MobileHarnessException {
-    return get(specClass.getSimpleName(), true).asMessage(specClass);
+    return getNamespaceSpecs(specClass.getSimpleName()).getMergedSpec(specClass, globalParams);
   }
 
   /**
@@ -260,23 +276,34 @@ public class ScopedSpecs implements JobSpecWrapper {
     return files;
   }
 
-  /** Deep copy json object {@code object}. */
-  private JsonObject deepCopy(JsonObject object) {
-    return (JsonObject) JsonParser.parseString(object.toString());
-  }
-
   /** Converts current scoped specs into a json object. */
   public JsonObject asJsonObject() {
+    return toJsonObject().deepCopy();
+  }
+
+  /** Gets the json string of current scoped specs. */
+  public String toJsonString() {
+    return GsonHolder.gson.toJson(toJsonObject());
+  }
+
+  /** Converts current scoped specs into a json object which shares the json of the namespaces. */
+  private JsonObject toJsonObject() {
     JsonObject object = new JsonObject();
-    for (Map.Entry<String, JsonObject> entry : specs.entrySet()) {
-      object.add(entry.getKey(), entry.getValue());
+    for (Map.Entry<String, NamespaceSpecs> entry : snapshot().entrySet()) {
+      object.add(entry.getKey(), entry.getValue().json());
     }
     return object;
   }
 
-  /** Gets the json string of current scoped specs. */
-  public String toJsonString() {
-    return GsonHolder.gson.toJson(asJsonObject());
+  private ImmutableMap<String, NamespaceSpecs> snapshot() {
+    synchronized (specs) {
+      return ImmutableMap.copyOf(specs);
+    }
+  }
+
+  private NamespaceSpecs getNamespaceSpecs(String namespace) {
+    NamespaceSpecs namespaceSpecs = specs.get(namespace);
+    return namespaceSpecs == null ? NamespaceSpecs.EMPTY : namespaceSpecs;
   }
 
   /**
@@ -286,17 +313,16 @@ public class ScopedSpecs implements JobSpecWrapper {
   public JobSpec toJobSpec(JobSpecHelper helper) {
     JobSpec.Builder jobSpec = JobSpec.newBuilder();
     for (Class<? extends Message> specClass : helper.getRegisteredExtensionClasses()) {
-      String className = specClass.getSimpleName();
-      if (!specs.containsKey(className)) {
+      NamespaceSpecs spec = specs.get(specClass.getSimpleName());
+      if (spec == null) {
         continue;
       }
-      Specs spec = get(className);
       try {
-        Message message = spec.asMessage(specClass);
+        Message message = spec.getSpec(specClass);
         helper.setSpec(jobSpec, message);
       } catch (MobileHarnessException e) {
         logger.atWarning().log(
-            "Failed to add scoped spec to a JobSpec: %s\n%s", e.getMessage(), spec);
+            "Failed to add scoped spec to a JobSpec: %s\n%s", e.getMessage(), spec.json());
       }
     }
     return jobSpec.build();
@@ -314,12 +340,12 @@ public class ScopedSpecs implements JobSpecWrapper {
     if (!(other instanceof ScopedSpecs)) {
       return false;
     }
-    return ((ScopedSpecs) other).asJsonObject().equals(asJsonObject());
+    return ((ScopedSpecs) other).toJsonObject().equals(toJsonObject());
   }
 
   @Override
   public int hashCode() {
-    return asJsonObject().hashCode();
+    return toJsonObject().hashCode();
   }
 
   @Override
@@ -327,6 +353,62 @@ public class ScopedSpecs implements JobSpecWrapper {
     return toJsonString();
   }
 
+  /**
+   * Specs of a namespace, which are immutable after creation. The messages converted from its json
+   * are memoized.
+   */
+  private static final class NamespaceSpecs {
+
+    private static final NamespaceSpecs EMPTY = ofJson(new JsonObject());
+
+    /** The message which the specs are created from, or null if they are created from json. */
+    @Nullable private final Message message;
+
+    /** The json of the specs, which must not be modified. */
+    private final JsonObject json;
+
+    /** {spec class, spec converted from the json without global params}. */
+    private final ConcurrentMap<Class<?>, Message> specs = new ConcurrentHashMap<>();
+
+    /** Creates specs which take the ownership of {@code json}. */
+    private static NamespaceSpecs ofJson(JsonObject json) {
+      return new NamespaceSpecs(null, json);
+    }
+
+    /** Creates specs of {@code message} which take the ownership of its {@code json}. */
+    private static NamespaceSpecs ofMessage(Message message, JsonObject json) {
+      return new NamespaceSpecs(message, json);
+    }
+
+    private NamespaceSpecs(@Nullable Message message, JsonObject json) {
+      this.message = message;
+      this.json = json;
+    }
+
+    /** Returns the json of the specs, which must not be modified. */
+    private JsonObject json() {
+      return json;
+    }
+
+    private <T extends Message> T getSpec(Class<T> specClass) throws MobileHarnessException {
+      Message spec = specs.get(specClass);
+      if (spec == null) {
+        T specFromJson =
+            specClass.isInstance(message)
+                ? specClass.cast(message)
+                : Specs.parseMessage(json(), specClass);
+        spec = Specs.mergeWithParams(new Params((Timing) null), specClass, specFromJson);
+        specs.putIfAbsent(specClass, spec);
+      }
+      return specClass.cast(spec);
+    }
+
+    private <T extends Message> T getMergedSpec(Class<T> specClass, Params globalParams)
+        throws MobileHarnessException {
+      return Specs.mergeWithParams(globalParams, specClass, getSpec(specClass));
+    }
+  }
+
   /** Holder of a gson object. */
   private static class GsonHolder {
     private static final Gson gson =
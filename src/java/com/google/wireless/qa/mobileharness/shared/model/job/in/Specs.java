@@ -147,15 +147,19 @@ public class Specs {
    *
    * @throws MobileHarnessException if failed to convert specs to class {@code message}
    */
-  @SuppressWarnings("unchecked")
   public <T extends Message> T asMessage(Class<T> message) throws MobileHarnessException {
-    try {
-      ParamsJobSpec paramsJobSpec = new ParamsJobSpec(globalParam, true);
-      T messageFromParams = paramsJobSpec.getSpec(message);
-
-      T fromJson = MessageGsonHolder.gson.fromJson(json, message);
+    return mergeWithParams(globalParam, message, parseMessage(json, message));
+  }
 
-      return (T) messageFromParams.toBuilder().mergeFrom(fromJson).build();
+  /**
+   * Converts {@code json} to a message of protobuf {@code message}, without merging global specs.
+   *
+   * @throws MobileHarnessException if failed to convert specs to class {@code message}
+   */
+  static <T extends Message> T parseMessage(JsonObject json, Class<T> message)
+      throws MobileHarnessException {
+    try {
+      return MessageGsonHolder.gson.fromJson(json, message);
     } catch (JsonSyntaxException e) {
       throw new MobileHarnessException(
           BasicErrorId.JOB_SPEC_PARSE_JSON_ERROR,
@@ -164,6 +168,14 @@ public class Specs {
     }
   }
 
+  /** Merges {@code spec} into the message of protobuf {@code message} converted from params. */
+  @SuppressWarnings("unchecked")
+  static <T extends Message> T mergeWithParams(Params params, Class<T> message, T spec)
+      throws MobileHarnessException {
+    T messageFromParams = new ParamsJobSpec(params, true).getSpec(message);
+    return (T) messageFromParams.toBuilder().mergeFrom(spec).build();
+  }
+
   /** Gets value of {@code name} as a specs. */
   public Specs getSpecs(String name) {
     return new Specs(json.get(name).getAsJsonObject());
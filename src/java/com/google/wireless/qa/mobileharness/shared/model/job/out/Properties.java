@@ -29,6 +29,14 @@ import javax.annotation.Nullable;
 
 /** Output properties of a job/test. */
 public class Properties {
+
+  /**
+   * {property name, property key}. Shares the keys of the same property name among all jobs/tests,
+   * rather than creating a key string every time.
+   */
+  private static final ConcurrentMap<PropertyName, String> PROPERTY_KEYS =
+      new ConcurrentHashMap<>();
+
   /** Properties generated during execution. */
   private final ConcurrentMap<String, String> properties = new ConcurrentHashMap<>();
 
@@ -64,7 +72,7 @@ public class Properties {
    * @throws NullPointerException if the specified key or value is null
    */
   public String add(PropertyName key, String value) {
-    return add(key.toString().toLowerCase(), value);
+    return add(getKey(key), value);
   }
 
   /**
@@ -91,7 +99,7 @@ public class Properties {
    * @throws NullPointerException if the specified key or value is null
    */
   public String addIfAbsent(PropertyName key, String value) {
-    return addIfAbsent(key.toString().toLowerCase(), value);
+    return addIfAbsent(getKey(key), value);
   }
 
   /**
@@ -130,7 +138,7 @@ public class Properties {
    */
   @Nullable
   public String get(PropertyName key) {
-    return get(key.toString().toLowerCase());
+    return get(getKey(key));
   }
 
   /**
@@ -150,7 +158,7 @@ public class Properties {
    * @return the value of the given if the key exists; else, return Optional.empty
    */
   public Optional<String> getOptional(PropertyName key) {
-    return getOptional(Ascii.toLowerCase(key.toString()));
+    return getOptional(getKey(key));
   }
 
   /** Checks whether there is a property with the given name. */
@@ -160,7 +168,7 @@ public class Properties {
 
   /** Checks whether there is a property with the given property name. */
   public boolean has(PropertyName key) {
-    return has(Ascii.toLowerCase(key.toString()));
+    return has(getKey(key));
   }
 
   /**
@@ -180,7 +188,7 @@ public class Properties {
    * properties contains no mapping for the key or the value is not a valid long.
    */
   public Optional<Long> getLong(PropertyName key) {
-    return getLong(key.toString().toLowerCase());
+    return getLong(getKey(key));
   }
 
   /**
@@ -225,7 +233,7 @@ public class Properties {
    * @throws NullPointerException if the key is {@code null}
    */
   public long plusLong(PropertyName key, long delta) {
-    return plusLong(key.toString().toLowerCase(), delta);
+    return plusLong(getKey(key), delta);
   }
 
   /**
@@ -250,7 +258,7 @@ public class Properties {
    * returned.
    */
   public Optional<Boolean> getBoolean(PropertyName key) {
-    return getBoolean(key.toString().toLowerCase());
+    return getBoolean(getKey(key));
   }
 
   /** Returns all the properties. */
@@ -280,6 +288,10 @@ public class Properties {
    * @throws NullPointerException if the specified key is null
    */
   public String remove(PropertyName key) {
-    return remove(key.toString().toLowerCase());
+    return remove(getKey(key));
+  }
+
+  private static String getKey(PropertyName propertyName) {
+    return PROPERTY_KEYS.computeIfAbsent(propertyName, name -> Ascii.toLowerCase(name.toString()));
   }
 }
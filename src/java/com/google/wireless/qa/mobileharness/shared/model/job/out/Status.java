@@ -19,9 +19,25 @@ package com.google.wireless.qa.mobileharness.shared.model.job.out;
 import com.google.common.flogger.FluentLogger;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.wireless.qa.mobileharness.shared.proto.Job.TestStatus;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /** Status of a job/test. */
 public class Status {
+
+  /** Listener of the status changes of a job/test. */
+  public interface Listener {
+
+    /**
+     * Invoked when the status changes, with the lock of the status held. It is also invoked with a
+     * null old status when the listener is added, and with a null new status when the listener is
+     * removed. It should return quickly and should not block.
+     */
+    void onStatusChanged(@Nullable TestStatus oldStatus, @Nullable TestStatus newStatus);
+  }
+
   // TODO: Rename TestStatus proto to Status.
   /** Status of this job/test. */
   private volatile TestStatus status = TestStatus.NEW;
@@ -32,6 +48,11 @@ public class Status {
   /** The time records of the job/test. */
   private final Timing timing;
 
+  /** Null if there is no listener, to save memory for the jobs/tests without listeners. */
+  @GuardedBy("this")
+  @Nullable
+  private List<Listener> listeners;
+
   /** Creates the status of a job/test. */
   public Status(Timing timing) {
     this.timing = timing;
@@ -65,10 +86,47 @@ public class Status {
     } else {
       timing.touch();
     }
+    TestStatus oldStatus = this.status;
     this.status = status;
+    if (listeners != null) {
+      for (Listener listener : listeners) {
+        listener.onStatusChanged(oldStatus, status);
+      }
+    }
     return this;
   }
 
+  /**
+   * Adds a listener of the status changes. The listener is invoked with the current status before
+   * this method returns, atomically with respect to the status changes.
+   */
+  public synchronized void addListener(Listener listener) {
+    if (listeners == null) {
+      listeners = new ArrayList<>(1);
+    }
+    listeners.add(listener);
+    listener.onStatusChanged(null, status);
+  }
+
+  /**
+   * Removes a listener which is equal to the given one. The removed listener is invoked with the
+   * current status before this method returns.
+   */
+  public synchronized void removeListener(Listener listener) {
+    if (listeners == null) {
+      return;
+    }
+    int index = listeners.indexOf(listener);
+    if (index == -1) {
+      return;
+    }
+    Listener removedListener = listeners.remove(index);
+    if (listeners.isEmpty()) {
+      listeners = null;
+    }
+    removedListener.onStatusChanged(status, null);
+  }
+
   /** Gets the current status. */
   public TestStatus get() {
     return status;
@@ -16,18 +16,24 @@
 
 package com.google.devtools.deviceaction.common.utils;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.AdditionalMatchers.not;
 import static org.mockito.AdditionalMatchers.or;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.endsWith;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -36,11 +42,25 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.deviceaction.common.error.DeviceActionException;
 import com.google.devtools.deviceaction.common.utils.GCSUtil.ListResult;
 import com.google.devtools.deviceaction.framework.proto.FileSpec;
 import com.google.devtools.deviceaction.framework.proto.GCSFile;
 import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
 import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.stream.Stream;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -88,16 +108,18 @@ public final class GCSResolverTest {
   private File o1;
   private File o2;
   private File o3;
+  private File serviceAccountKey;
+  private StorageObject storageObject1;
   private GCSResolver resolver;
 
   @Before
   public void setUp() throws Exception {
     File rootDir = tmpFolder.getRoot();
-    File serviceAccountKey = tmpFolder.newFile("key.json");
+    serviceAccountKey = tmpFolder.newFile("key.json");
     d1 = tmpFolder.newFolder("d1/");
     tmpFolder.newFolder(D2_PATH);
     o1 = tmpFolder.newFile(O1_PATH);
-    StorageObject storageObject1 = setUpPath(O1_PATH);
+    storageObject1 = setUpPath(O1_PATH);
     o2 = tmpFolder.newFile(O2_PATH);
     StorageObject storageObject2 = setUpPath(O2_PATH);
     o3 = tmpFolder.newFile(O3_PATH);
@@ -134,6 +156,164 @@ public final class GCSResolverTest {
     verify(mockUtil).copyFileItemToLocal(BUCKET, O3_PATH, o3.toPath());
   }
 
+  @Test
+  public void resolveFile_withCacheDir_downloadOnce() throws Exception {
+    byte[] content = "content of o1".getBytes(UTF_8);
+    storageObject1
+        .setBucket(BUCKET)
+        .setSize(BigInteger.valueOf(content.length))
+        .setGeneration(1L)
+        .setCrc32c(
+            BaseEncoding.base64()
+                .encode(Ints.toByteArray(Hashing.crc32c().hashBytes(content).asInt())));
+    doAnswer(
+            invocation -> {
+              Files.write(invocation.getArgument(2, Path.class), content);
+              return null;
+            })
+        .when(mockUtil)
+        .copyFileItemToLocal(eq(BUCKET), eq(O1_PATH), any(Path.class), eq(1L), anyInt());
+    Optional<Path> cacheDir = Optional.of(tmpFolder.newFolder("cache").toPath());
+
+    for (String rootDirName : ImmutableList.of("root1", "root2")) {
+      File rootDir = tmpFolder.newFolder(rootDirName);
+      GCSResolver cachedResolver =
+          new GCSResolver(
+              new LocalFileUtil(),
+              serviceAccountKey,
+              rootDir,
+              storageCache,
+              cacheDir,
+              /* cacheMaxSize= */ Long.MAX_VALUE,
+              MoreExecutors.newDirectExecutorService());
+
+      File result = cachedResolver.resolveFile(GCS_FILE);
+
+      assertThat(Files.readAllBytes(result.toPath().resolve("o1"))).isEqualTo(content);
+      assertThat(Files.getPosixFilePermissions(result.toPath().resolve("o1")))
+          .doesNotContain(PosixFilePermission.OWNER_WRITE);
+    }
+    verify(mockUtil, times(1))
+        .copyFileItemToLocal(eq(BUCKET), eq(O1_PATH), any(Path.class), eq(1L), anyInt());
+  }
+
+  @Test
+  public void resolveFile_withCacheDirChecksumMismatch_throwAndDeleteTempFile() throws Exception {
+    storageObject1
+        .setBucket(BUCKET)
+        .setSize(BigInteger.ONE)
+        .setGeneration(1L)
+        .setCrc32c(BaseEncoding.base64().encode(Ints.toByteArray(0)));
+    doAnswer(
+            invocation -> {
+              Files.write(invocation.getArgument(2, Path.class), "corrupted".getBytes(UTF_8));
+              return null;
+            })
+        .when(mockUtil)
+        .copyFileItemToLocal(eq(BUCKET), eq(O1_PATH), any(Path.class), eq(1L), anyInt());
+    Path cacheDir = tmpFolder.newFolder("cache").toPath();
+    GCSResolver cachedResolver =
+        new GCSResolver(
+            new LocalFileUtil(),
+            serviceAccountKey,
+            tmpFolder.newFolder("root"),
+            storageCache,
+            Optional.of(cacheDir),
+            /* cacheMaxSize= */ Long.MAX_VALUE,
+            MoreExecutors.newDirectExecutorService());
+
+    DeviceActionException e =
+        assertThrows(DeviceActionException.class, () -> cachedResolver.resolveFile(GCS_FILE));
+
+    assertThat(e).hasMessageThat().contains("CRC32C");
+    try (Stream<Path> cachedFiles = Files.walk(cacheDir)) {
+      assertThat(cachedFiles.filter(Files::isRegularFile).collect(toImmutableList())).isEmpty();
+    }
+  }
+
+  @Test
+  public void resolveFile_withCacheDirLargerThanMaxSize_deleteLeastRecentlyUsedFiles()
+      throws Exception {
+    Path cacheDir = tmpFolder.newFolder("cache").toPath();
+    byte[] content1 = "content of o1 v1".getBytes(UTF_8);
+    byte[] content2 = "content of o1 v2".getBytes(UTF_8);
+    setUpCachedO1(/* generation= */ 1L, content1);
+    createCachedResolver("root1", cacheDir, content1.length).resolveFile(GCS_FILE);
+    setIdle(cacheDir);
+    setUpCachedO1(/* generation= */ 2L, content2);
+
+    File result = createCachedResolver("root2", cacheDir, content2.length).resolveFile(GCS_FILE);
+
+    assertThat(Files.readAllBytes(result.toPath().resolve("o1"))).isEqualTo(content2);
+    ImmutableList<Path> cacheFiles = listCacheFiles(cacheDir);
+    assertThat(cacheFiles).hasSize(1);
+    assertThat(cacheFiles.get(0).getFileName().toString()).startsWith("2_");
+  }
+
+  @Test
+  public void resolveFile_withCacheDirLargerThanMaxSize_keepRecentlyUsedFiles() throws Exception {
+    Path cacheDir = tmpFolder.newFolder("cache").toPath();
+    byte[] content1 = "content of o1 v1".getBytes(UTF_8);
+    byte[] content2 = "content of o1 v2".getBytes(UTF_8);
+    setUpCachedO1(/* generation= */ 1L, content1);
+    createCachedResolver("root1", cacheDir, content1.length).resolveFile(GCS_FILE);
+    setIdle(cacheDir);
+    // Uses the cache file again.
+    createCachedResolver("root2", cacheDir, content1.length).resolveFile(GCS_FILE);
+    setUpCachedO1(/* generation= */ 2L, content2);
+
+    createCachedResolver("root3", cacheDir, content2.length).resolveFile(GCS_FILE);
+
+    assertThat(listCacheFiles(cacheDir)).hasSize(2);
+  }
+
+  private void setUpCachedO1(long generation, byte[] content) throws Exception {
+    storageObject1
+        .setBucket(BUCKET)
+        .setSize(BigInteger.valueOf(content.length))
+        .setGeneration(generation)
+        .setCrc32c(
+            BaseEncoding.base64()
+                .encode(Ints.toByteArray(Hashing.crc32c().hashBytes(content).asInt())));
+    doAnswer(
+            invocation -> {
+              Files.write(invocation.getArgument(2, Path.class), content);
+              return null;
+            })
+        .when(mockUtil)
+        .copyFileItemToLocal(eq(BUCKET), eq(O1_PATH), any(Path.class), eq(generation), anyInt());
+  }
+
+  private GCSResolver createCachedResolver(String rootDirName, Path cacheDir, long cacheMaxSize)
+      throws Exception {
+    return new GCSResolver(
+        new LocalFileUtil(),
+        serviceAccountKey,
+        tmpFolder.newFolder(rootDirName),
+        storageCache,
+        Optional.of(cacheDir),
+        cacheMaxSize,
+        MoreExecutors.newDirectExecutorService());
+  }
+
+  /** Makes all cache files look unused for longer than the min idle time. */
+  private static void setIdle(Path cacheDir) throws Exception {
+    FileTime idleTime =
+        FileTime.from(
+            Instant.now()
+                .minus(GCSResolver.CACHE_FILE_MIN_IDLE_TIME)
+                .minus(Duration.ofMinutes(1L)));
+    for (Path cacheFile : listCacheFiles(cacheDir)) {
+      Files.setLastModifiedTime(cacheFile, idleTime);
+    }
+  }
+
+  private static ImmutableList<Path> listCacheFiles(Path cacheDir) throws Exception {
+    try (Stream<Path> cachedFiles = Files.walk(cacheDir)) {
+      return cachedFiles.filter(Files::isRegularFile).collect(toImmutableList());
+    }
+  }
+
   private StorageObject setUpPath(String relativePath) {
     StorageObject storageObject1 = new StorageObject();
     storageObject1.setName(relativePath);
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.deviceaction.common.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.storage.Storage;
+import com.google.devtools.deviceaction.common.error.DeviceActionException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class GCSUtilTest {
+
+  private static final String BUCKET = "bucket";
+  private static final String ITEM = "item";
+  private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(UTF_8);
+  private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  /** The URLs and ranges of the download requests. */
+  private final List<String> requests = new ArrayList<>();
+
+  /** The number of bytes returned by each download response before it fails, or -1 to succeed. */
+  private final List<Integer> failAfterBytes = new ArrayList<>();
+
+  private GCSUtil gcsUtil;
+  private Path dest;
+
+  @Before
+  public void setUp() throws Exception {
+    MockHttpTransport transport =
+        new MockHttpTransport() {
+          @Override
+          public LowLevelHttpRequest buildRequest(String method, String url) {
+            return new MockLowLevelHttpRequest(url) {
+              @Override
+              public LowLevelHttpResponse execute() {
+                return download(url, getFirstHeaderValue("Range"));
+              }
+            };
+          }
+        };
+    gcsUtil =
+        new GCSUtil(
+            new Storage.Builder(transport, GsonFactory.getDefaultInstance(), null)
+                .setApplicationName("test")
+                .build());
+    dest = tmpFolder.getRoot().toPath().resolve("dest");
+  }
+
+  @Test
+  public void copyFileItemRangeToLocal_resumeFromWrittenBytes() throws Exception {
+    Files.write(dest, new byte[CONTENT.length]);
+    failAfterBytes.add(3);
+
+    gcsUtil.copyFileItemRangeToLocal(
+        BUCKET,
+        ITEM,
+        dest,
+        /* generation= */ 7L,
+        /* firstBytePos= */ 5L,
+        /* lastBytePos= */ 14L,
+        /* maxAttempts= */ 2);
+
+    byte[] expected = new byte[CONTENT.length];
+    System.arraycopy(CONTENT, 5, expected, 5, 10);
+    assertThat(Files.readAllBytes(dest)).isEqualTo(expected);
+    assertThat(requests).hasSize(2);
+    assertThat(requests.get(0)).contains("generation=7");
+    assertThat(requests.get(0)).endsWith("bytes=5-14");
+    assertThat(requests.get(1)).contains("generation=7");
+    assertThat(requests.get(1)).endsWith("bytes=8-14");
+  }
+
+  @Test
+  public void copyFileItemToLocal_resumeAndTruncate() throws Exception {
+    Files.write(dest, "stale content which is longer than the item".getBytes(UTF_8));
+    failAfterBytes.add(4);
+    failAfterBytes.add(0);
+
+    gcsUtil.copyFileItemToLocal(BUCKET, ITEM, dest, /* generation= */ null, /* maxAttempts= */ 3);
+
+    assertThat(Files.readAllBytes(dest)).isEqualTo(CONTENT);
+    assertThat(requests).hasSize(3);
+    assertThat(requests.get(0)).doesNotContain("generation=");
+    assertThat(requests.get(1)).endsWith("bytes=4-");
+    assertThat(requests.get(2)).endsWith("bytes=4-");
+  }
+
+  @Test
+  public void copyFileItemRangeToLocal_exceedMaxAttempts_throw() {
+    failAfterBytes.add(1);
+    failAfterBytes.add(1);
+
+    assertThrows(
+        DeviceActionException.class,
+        () ->
+            gcsUtil.copyFileItemRangeToLocal(
+                BUCKET,
+                ITEM,
+                dest,
+                /* generation= */ 7L,
+                /* firstBytePos= */ 0L,
+                /* lastBytePos= */ 9L,
+                /* maxAttempts= */ 2));
+    assertThat(requests).hasSize(2);
+  }
+
+  private LowLevelHttpResponse download(String url, String range) {
+    requests.add(url + " " + range);
+    int first = 0;
+    int last = CONTENT.length - 1;
+    if (range != null) {
+      Matcher matcher = RANGE_PATTERN.matcher(range);
+      assertThat(matcher.matches()).isTrue();
+      first = Integer.parseInt(matcher.group(1));
+      if (!matcher.group(2).isEmpty()) {
+        last = Integer.parseInt(matcher.group(2));
+      }
+    }
+    byte[] body = Arrays.copyOfRange(CONTENT, first, last + 1);
+    int failAfter = failAfterBytes.isEmpty() ? -1 : failAfterBytes.remove(0);
+    InputStream content =
+        failAfter < 0 ? new ByteArrayInputStream(body) : new FailingInputStream(body, failAfter);
+    return new MockLowLevelHttpResponse()
+        .setStatusCode(range == null ? 200 : 206)
+        .setContentLength(body.length)
+        .setContent(content);
+  }
+
+  /** An input stream which fails after returning some bytes, like a broken connection. */
+  private static class FailingInputStream extends InputStream {
+
+    private final byte[] body;
+    private final int failAfter;
+    private int position;
+
+    private FailingInputStream(byte[] body, int failAfter) {
+      this.body = body;
+      this.failAfter = failAfter;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (position >= failAfter) {
+        throw new IOException("Connection reset");
+      }
+      return body[position++];
+    }
+  }
+}
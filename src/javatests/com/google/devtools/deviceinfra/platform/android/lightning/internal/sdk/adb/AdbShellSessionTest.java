@@ -0,0 +1,195 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.deviceinfra.platform.android.lightning.internal.sdk.adb;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.shared.util.command.Command;
+import com.google.devtools.mobileharness.shared.util.command.CommandProcess;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public class AdbShellSessionTest {
+
+  private static final String SERIAL = "serial";
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(5L);
+
+  /** The line written to the stdin of the session for a command. */
+  private static final Pattern COMMAND_LINE =
+      Pattern.compile("\\((.*)\\) </dev/null 2>&1; printf '\\\\n(\\S+)%d\\\\n' \\$\\?\n");
+
+  @Rule public final MockitoRule mocks = MockitoJUnit.rule();
+
+  @Mock private Adb adb;
+  @Mock private CommandProcess process;
+
+  /** {command, [output, exit code]} of the fake device. */
+  private final Map<String, Object[]> deviceCommands = new HashMap<>();
+
+  private Command sessionCommand;
+  private AdbShellSession session;
+
+  @Before
+  public void setUp() throws Exception {
+    when(adb.getAdbCommand()).thenReturn(Command.of("adb"));
+    when(adb.runAsync(any()))
+        .thenAnswer(
+            invocation -> {
+              sessionCommand = invocation.getArgument(0);
+              return process;
+            });
+    when(process.stdinWriter()).thenReturn(new FakeDeviceWriter());
+    doAnswer(
+            invocation -> {
+              sessionCommand.getExitCallback().get().accept(null);
+              return null;
+            })
+        .when(process)
+        .kill();
+
+    session = AdbShellSession.getOrStart(adb, SERIAL);
+  }
+
+  @After
+  public void tearDown() {
+    session.close();
+  }
+
+  @Test
+  public void getOrStart() throws Exception {
+    assertThat(sessionCommand.getArguments()).containsExactly("-s", SERIAL, "shell").inOrder();
+    assertThat(AdbShellSession.getOrStart(adb, SERIAL)).isSameInstanceAs(session);
+    verify(adb, times(1)).runAsync(any());
+  }
+
+  @Test
+  public void tryRun_multipleLines() throws Exception {
+    deviceCommands.put("ls", new Object[] {"a\nb\n", 0});
+
+    AdbShellSession.Result result = session.tryRun("ls", TIMEOUT).get();
+
+    assertThat(result.output()).isEqualTo("a\nb\n");
+    assertThat(result.exitCode()).isEqualTo(0);
+  }
+
+  @Test
+  public void tryRun_outputWithoutTrailingLineSeparator() throws Exception {
+    deviceCommands.put("echo -n abc", new Object[] {"abc", 0});
+
+    assertThat(session.tryRun("echo -n abc", TIMEOUT).get().output()).isEqualTo("abc");
+  }
+
+  @Test
+  public void tryRun_nonZeroExitCode() throws Exception {
+    deviceCommands.put("cat foo", new Object[] {"cat: foo: No such file or directory\n", 1});
+    deviceCommands.put("true", new Object[] {"", 0});
+
+    AdbShellSession.Result result = session.tryRun("cat foo", TIMEOUT).get();
+
+    assertThat(result.output()).isEqualTo("cat: foo: No such file or directory\n");
+    assertThat(result.exitCode()).isEqualTo(1);
+    // The session is still usable.
+    assertThat(session.tryRun("true", TIMEOUT).get().output()).isEmpty();
+  }
+
+  @Test
+  public void tryRun_ignoreOutputWithoutCommand() throws Exception {
+    sessionCommand.getStdoutLineCallback().get().onLine("motd");
+    deviceCommands.put("true", new Object[] {"", 0});
+
+    assertThat(session.tryRun("true", TIMEOUT).get().output()).isEmpty();
+  }
+
+  @Test
+  public void tryRun_timeout_closeSession() throws Exception {
+    MobileHarnessException e =
+        assertThrows(
+            MobileHarnessException.class,
+            () -> session.tryRun("sleep 10", Duration.ofMillis(10L)));
+
+    assertThat(e).hasMessageThat().contains("sleep 10");
+    verify(process).kill();
+    assertThat(session.tryRun("true", TIMEOUT)).isEmpty();
+    AdbShellSession newSession = AdbShellSession.getOrStart(adb, SERIAL);
+    assertThat(newSession).isNotSameInstanceAs(session);
+    newSession.close();
+  }
+
+  @Test
+  public void tryRun_sessionExited() throws Exception {
+    sessionCommand.getExitCallback().get().accept(null);
+
+    assertThat(session.tryRun("true", TIMEOUT)).isEmpty();
+  }
+
+  /**
+   * Writer of the stdin of the session, which prints the output and the sentinel line of each
+   * command in {@link #deviceCommands} when it is flushed, like the shell of the device.
+   */
+  private class FakeDeviceWriter extends Writer {
+
+    private final StringBuilder input = new StringBuilder();
+
+    @Override
+    public void write(char[] buffer, int offset, int length) {
+      input.append(buffer, offset, length);
+    }
+
+    @Override
+    public void flush() {
+      Matcher matcher = COMMAND_LINE.matcher(input);
+      input.setLength(0);
+      if (!matcher.matches() || !deviceCommands.containsKey(matcher.group(1))) {
+        return;
+      }
+      Object[] result = deviceCommands.get(matcher.group(1));
+      String stdout = result[0] + "\n" + matcher.group(2) + result[1] + "\n";
+      for (String line : stdout.substring(0, stdout.length() - 1).split("\n", -1)) {
+        try {
+          sessionCommand.getStdoutLineCallback().get().onLine(line);
+        } catch (Exception e) {
+          throw new AssertionError(e);
+        }
+      }
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.client.api.controller.job;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class JobRunnerWakeUpSignalTest {
+
+  private static final Duration LONG_WAIT = Duration.ofMinutes(1L);
+
+  private final Clock clock = Clock.systemUTC();
+  private final JobRunnerWakeUpSignal signal = new JobRunnerWakeUpSignal(clock);
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void await_signalBeforeWait_returnImmediately() throws Exception {
+    Instant beforeSignal = clock.instant();
+    signal.signal();
+
+    Optional<Instant> signalTime = signal.await(clock.instant().plus(LONG_WAIT));
+
+    assertThat(signalTime).isPresent();
+    assertThat(signalTime.get()).isAtLeast(beforeSignal);
+  }
+
+  @Test
+  public void await_multipleSignals_returnFirstSignalTimeAndConsumeAll() throws Exception {
+    FakeClock fakeClock = new FakeClock(Instant.ofEpochSecond(100L));
+    JobRunnerWakeUpSignal signal = new JobRunnerWakeUpSignal(fakeClock);
+    signal.signal();
+    fakeClock.now = Instant.ofEpochSecond(200L);
+    signal.signal();
+
+    assertThat(signal.await(Instant.ofEpochSecond(300L))).hasValue(Instant.ofEpochSecond(100L));
+    // All the signals are consumed by the last call, and the deadline has been reached.
+    assertThat(signal.await(Instant.ofEpochSecond(200L))).isEmpty();
+  }
+
+  @Test
+  public void await_signalWhileWaiting_wakeUp() throws Exception {
+    CountDownLatch waiting = new CountDownLatch(1);
+    Future<Optional<Instant>> result =
+        executor.submit(
+            () -> {
+              waiting.countDown();
+              return signal.await(clock.instant().plus(LONG_WAIT));
+            });
+    waiting.await();
+
+    signal.signal();
+
+    // Whether the signal is sent before or after the waiter starts waiting, it is not lost.
+    assertThat(result.get(LONG_WAIT.toSeconds() / 2, TimeUnit.SECONDS)).isPresent();
+  }
+
+  @Test
+  public void await_noSignal_timeout() throws Exception {
+    Duration timeout = Duration.ofMillis(100L);
+    Instant start = clock.instant();
+
+    Optional<Instant> signalTime = signal.await(start.plus(timeout));
+
+    assertThat(signalTime).isEmpty();
+    assertThat(Duration.between(start, clock.instant())).isAtLeast(timeout);
+  }
+
+  @Test
+  public void await_deadlinePassed_returnEmptyWithoutWaiting() throws Exception {
+    assertThat(signal.await(clock.instant().minus(LONG_WAIT))).isEmpty();
+  }
+
+  @Test
+  public void await_interrupted_throw() throws Exception {
+    Future<Optional<Instant>> result =
+        executor.submit(() -> signal.await(clock.instant().plus(LONG_WAIT)));
+
+    executor.shutdownNow();
+
+    ExecutionException exception =
+        assertThrows(
+            ExecutionException.class,
+            () -> result.get(LONG_WAIT.toSeconds() / 2, TimeUnit.SECONDS));
+    assertThat(exception).hasCauseThat().isInstanceOf(InterruptedException.class);
+  }
+
+  /** A clock whose time is set by the test. */
+  private static class FakeClock extends Clock {
+
+    private volatile Instant now;
+
+    private FakeClock(Instant now) {
+      this.now = now;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.client.api.mode.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GenFileChange;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GenFileChangeDownloaderTest {
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private final List<Runnable> pendingTasks = new ArrayList<>();
+  private final ExecutorService threadPool = Executors.newSingleThreadExecutor();
+
+  private Path remoteGenFileDir;
+  private Path genFileDir;
+
+  @Before
+  public void setUp() throws Exception {
+    remoteGenFileDir = tmpFolder.newFolder("remote_gen_file_dir").toPath();
+    genFileDir = tmpFolder.newFolder("gen_file_dir").toPath();
+  }
+
+  @After
+  public void tearDown() {
+    threadPool.shutdownNow();
+  }
+
+  @Test
+  public void submit_downloadInBackground() throws Exception {
+    GenFileChange change = writeRemoteFile("sub_dir/log.txt", "log");
+    GenFileChangeDownloader downloader =
+        new GenFileChangeDownloader(new LocalFileUtil(), pendingTasks::add);
+
+    downloader.submit(
+        "test_id", genFileDir.toString(), remoteGenFileDir.toString(), ImmutableList.of(change));
+
+    // Nothing is copied on the calling thread.
+    assertThat(Files.exists(genFileDir.resolve("sub_dir/log.txt"))).isFalse();
+
+    runPendingTasks();
+
+    assertThat(Files.readString(genFileDir.resolve("sub_dir/log.txt"))).isEqualTo("log");
+  }
+
+  @Test
+  public void submit_checksumMismatch_removeFile() throws Exception {
+    GenFileChange change =
+        writeRemoteFile("log.txt", "log").toBuilder().setCrc32C(crc32c("old log")).build();
+    GenFileChangeDownloader downloader =
+        new GenFileChangeDownloader(new LocalFileUtil(), pendingTasks::add);
+
+    downloader.submit(
+        "test_id", genFileDir.toString(), remoteGenFileDir.toString(), ImmutableList.of(change));
+    runPendingTasks();
+
+    assertThat(Files.exists(genFileDir.resolve("log.txt"))).isFalse();
+  }
+
+  @Test
+  public void submit_remoteDirNotReachable_skip() throws Exception {
+    GenFileChange change = writeRemoteFile("log.txt", "log");
+    GenFileChangeDownloader downloader =
+        new GenFileChangeDownloader(new LocalFileUtil(), pendingTasks::add);
+
+    downloader.submit(
+        "test_id",
+        genFileDir.toString(),
+        remoteGenFileDir.resolve("not_exist").toString(),
+        ImmutableList.of(change));
+    runPendingTasks();
+
+    assertThat(Files.exists(genFileDir.resolve("log.txt"))).isFalse();
+  }
+
+  @Test
+  public void awaitDownloads_waitForAllDownloads() throws Exception {
+    GenFileChange change1 = writeRemoteFile("log1.txt", "log1");
+    GenFileChange change2 = writeRemoteFile("log2.txt", "log2");
+    GenFileChangeDownloader downloader =
+        new GenFileChangeDownloader(new LocalFileUtil(), threadPool);
+
+    downloader.submit(
+        "test_id", genFileDir.toString(), remoteGenFileDir.toString(), ImmutableList.of(change1));
+    downloader.submit(
+        "test_id", genFileDir.toString(), remoteGenFileDir.toString(), ImmutableList.of(change2));
+
+    assertThat(downloader.awaitDownloads(Duration.ofMinutes(1L))).isTrue();
+    assertThat(Files.readString(genFileDir.resolve("log1.txt"))).isEqualTo("log1");
+    assertThat(Files.readString(genFileDir.resolve("log2.txt"))).isEqualTo("log2");
+  }
+
+  @Test
+  public void awaitDownloads_noDownload() throws Exception {
+    GenFileChangeDownloader downloader =
+        new GenFileChangeDownloader(new LocalFileUtil(), pendingTasks::add);
+
+    assertThat(downloader.awaitDownloads(Duration.ZERO)).isTrue();
+  }
+
+  @Test
+  public void awaitDownloads_timeout() throws Exception {
+    GenFileChange change = writeRemoteFile("log.txt", "log");
+    GenFileChangeDownloader downloader =
+        new GenFileChangeDownloader(new LocalFileUtil(), pendingTasks::add);
+    downloader.submit(
+        "test_id", genFileDir.toString(), remoteGenFileDir.toString(), ImmutableList.of(change));
+
+    assertThat(downloader.awaitDownloads(Duration.ofMillis(100L))).isFalse();
+  }
+
+  private GenFileChange writeRemoteFile(String relatedPath, String content) throws Exception {
+    Path file = remoteGenFileDir.resolve(relatedPath);
+    Files.createDirectories(file.getParent());
+    Files.writeString(file, content);
+    return GenFileChange.newBuilder()
+        .setGenFileRelatedPath(relatedPath)
+        .setSize(content.length())
+        .setCrc32C(crc32c(content))
+        .build();
+  }
+
+  private void runPendingTasks() {
+    while (!pendingTasks.isEmpty()) {
+      pendingTasks.remove(0).run();
+    }
+  }
+
+  private static int crc32c(String content) {
+    return Hashing.crc32c().hashString(content, UTF_8).asInt();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.client.api.mode.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusResponse;
+import com.google.wireless.qa.mobileharness.shared.proto.Job.TestStatus;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestStatusSubscriberTest {
+
+  private static final Duration LONG_STALL_TIMEOUT = Duration.ofMinutes(1L);
+
+  private static final GetTestStatusResponse RUNNING_RESPONSE =
+      GetTestStatusResponse.newBuilder().setTestStatus(TestStatus.RUNNING).build();
+  private static final GetTestStatusResponse DONE_RESPONSE =
+      GetTestStatusResponse.newBuilder().setTestStatus(TestStatus.DONE).build();
+
+  private final TestStatusSubscriber subscriber = new TestStatusSubscriber();
+  private final List<GetTestStatusResponse> handledResponses = new ArrayList<>();
+
+  @Test
+  public void awaitDone_testDone() throws Exception {
+    subscriber.onNext(RUNNING_RESPONSE);
+    subscriber.onNext(DONE_RESPONSE);
+    subscriber.onCompleted();
+
+    assertThat(subscriber.awaitDone(LONG_STALL_TIMEOUT, this::handle)).isTrue();
+    assertThat(handledResponses).containsExactly(RUNNING_RESPONSE, DONE_RESPONSE).inOrder();
+  }
+
+  @Test
+  public void awaitDone_responseFromOtherThread() throws Exception {
+    Thread publisher =
+        new Thread(
+            () -> {
+              subscriber.onNext(RUNNING_RESPONSE);
+              subscriber.onNext(DONE_RESPONSE);
+            });
+    publisher.start();
+
+    assertThat(subscriber.awaitDone(LONG_STALL_TIMEOUT, this::handle)).isTrue();
+    publisher.join();
+    assertThat(handledResponses).containsExactly(RUNNING_RESPONSE, DONE_RESPONSE).inOrder();
+  }
+
+  @Test
+  public void awaitDone_stalled_fallBack() throws Exception {
+    subscriber.onNext(RUNNING_RESPONSE);
+
+    assertThat(subscriber.awaitDone(Duration.ofMillis(100L), this::handle)).isFalse();
+    assertThat(handledResponses).containsExactly(RUNNING_RESPONSE);
+  }
+
+  @Test
+  public void awaitDone_streamError_fallBack() throws Exception {
+    subscriber.onNext(RUNNING_RESPONSE);
+    subscriber.onError(new IllegalStateException("Connection reset"));
+
+    assertThat(subscriber.awaitDone(LONG_STALL_TIMEOUT, this::handle)).isFalse();
+    assertThat(handledResponses).containsExactly(RUNNING_RESPONSE);
+  }
+
+  @Test
+  public void awaitDone_streamCompletedBeforeDone_fallBack() throws Exception {
+    subscriber.onNext(RUNNING_RESPONSE);
+    subscriber.onCompleted();
+
+    assertThat(subscriber.awaitDone(LONG_STALL_TIMEOUT, this::handle)).isFalse();
+    assertThat(handledResponses).containsExactly(RUNNING_RESPONSE);
+  }
+
+  @Test
+  public void awaitDone_handlerError_throw() throws Exception {
+    subscriber.onNext(RUNNING_RESPONSE);
+    MobileHarnessException error =
+        new MobileHarnessException(
+            InfraErrorId.CLIENT_REMOTE_MODE_UPDATE_DEVICE_FEATURE_ERROR, "Failed to update");
+
+    assertThat(
+            assertThrows(
+                MobileHarnessException.class,
+                () ->
+                    subscriber.awaitDone(
+                        LONG_STALL_TIMEOUT,
+                        response -> {
+                          throw error;
+                        })))
+        .isSameInstanceAs(error);
+  }
+
+  private boolean handle(GetTestStatusResponse response) {
+    handledResponses.add(response);
+    return response.getTestStatus() == TestStatus.DONE;
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.controller.plugin;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.ByteStreams;
+import com.google.devtools.mobileharness.infra.controller.plugin.PluginClassIndex.AnnotatedClassNames;
+import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
+import com.google.wireless.qa.mobileharness.shared.controller.plugin.Plugin;
+import com.google.wireless.qa.mobileharness.shared.controller.plugin.Plugin.PluginType;
+import com.google.wireless.qa.mobileharness.shared.controller.plugin.PluginModule;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PluginClassIndexTest {
+
+  @Plugin(type = PluginType.LAB)
+  public static class FakePlugin {}
+
+  @PluginModule(type = PluginType.LAB)
+  public static class FakePluginModule {}
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private URL jarUrl;
+  private String indexDir;
+
+  @Before
+  public void setUp() throws Exception {
+    jarUrl = createJar(tmpFolder.newFile("plugin.jar"), FakePlugin.class, FakePluginModule.class);
+    indexDir = tmpFolder.newFolder("index").getAbsolutePath();
+  }
+
+  @Test
+  public void getAnnotatedClassNames_scanJar() throws Exception {
+    PluginClassIndex index = new PluginClassIndex(new LocalFileUtil(), /* indexDir= */ "");
+
+    AnnotatedClassNames classNames = index.getAnnotatedClassNames(jarUrl, getClassLoader());
+
+    assertThat(classNames.pluginClassNames()).containsExactly(FakePlugin.class.getName());
+    assertThat(classNames.pluginModuleClassNames())
+        .containsExactly(FakePluginModule.class.getName());
+  }
+
+  @Test
+  public void getAnnotatedClassNames_indexInMemory() throws Exception {
+    PluginClassIndex index = new PluginClassIndex(new LocalFileUtil(), indexDir);
+    AnnotatedClassNames classNames = index.getAnnotatedClassNames(jarUrl, getClassLoader());
+    Files.writeString(getIndexFile(), "plugin:com.example.OtherPlugin\n");
+
+    assertThat(index.getAnnotatedClassNames(jarUrl, getClassLoader())).isEqualTo(classNames);
+  }
+
+  @Test
+  public void getAnnotatedClassNames_persistIndex() throws Exception {
+    new PluginClassIndex(new LocalFileUtil(), indexDir)
+        .getAnnotatedClassNames(jarUrl, getClassLoader());
+
+    assertThat(Files.readAllLines(getIndexFile(), UTF_8))
+        .containsExactly(
+            "plugin:" + FakePlugin.class.getName(), "module:" + FakePluginModule.class.getName());
+  }
+
+  @Test
+  public void getAnnotatedClassNames_readPersistedIndex() throws Exception {
+    new PluginClassIndex(new LocalFileUtil(), indexDir)
+        .getAnnotatedClassNames(jarUrl, getClassLoader());
+    Files.writeString(
+        getIndexFile(), "plugin:com.example.OtherPlugin\nmodule:com.example.OtherModule\n");
+
+    // The jar is not scanned by another index which shares the directory.
+    AnnotatedClassNames classNames =
+        new PluginClassIndex(new LocalFileUtil(), indexDir)
+            .getAnnotatedClassNames(jarUrl, getClassLoader());
+
+    assertThat(classNames.pluginClassNames()).containsExactly("com.example.OtherPlugin");
+    assertThat(classNames.pluginModuleClassNames()).containsExactly("com.example.OtherModule");
+  }
+
+  @Test
+  public void getAnnotatedClassNames_changedJar() throws Exception {
+    PluginClassIndex index = new PluginClassIndex(new LocalFileUtil(), indexDir);
+    index.getAnnotatedClassNames(jarUrl, getClassLoader());
+
+    createJar(new File(jarUrl.toURI()), FakePlugin.class);
+
+    AnnotatedClassNames classNames = index.getAnnotatedClassNames(jarUrl, getClassLoader());
+    assertThat(classNames.pluginClassNames()).containsExactly(FakePlugin.class.getName());
+    assertThat(classNames.pluginModuleClassNames()).isEmpty();
+  }
+
+  private Path getIndexFile() throws IOException {
+    try (Stream<Path> files = Files.list(Path.of(indexDir))) {
+      List<Path> indexFiles = files.collect(toImmutableList());
+      assertThat(indexFiles).hasSize(1);
+      return indexFiles.get(0);
+    }
+  }
+
+  private ClassLoader getClassLoader() {
+    return getClass().getClassLoader();
+  }
+
+  /** Creates a jar which contains the class files of the given classes. */
+  static URL createJar(File jarFile, Class<?>... classes) throws IOException {
+    try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(jarFile))) {
+      for (Class<?> clazz : classes) {
+        String classFile = clazz.getName().replace('.', '/') + ".class";
+        jar.putNextEntry(new JarEntry(classFile));
+        try (InputStream classContent = clazz.getClassLoader().getResourceAsStream(classFile)) {
+          ByteStreams.copy(classContent, jar);
+        }
+        jar.closeEntry();
+      }
+    }
+    return jarFile.toURI().toURL();
+  }
+}
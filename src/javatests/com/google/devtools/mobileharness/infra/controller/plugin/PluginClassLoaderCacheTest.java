@@ -0,0 +1,151 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.controller.plugin;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PluginClassLoaderCacheTest {
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private final ClassLoader parentClassLoader = getClass().getClassLoader();
+
+  private PluginClassLoaderCache cache;
+  private URL jarUrl;
+
+  @Before
+  public void setUp() throws Exception {
+    cache = new PluginClassLoaderCache();
+    jarUrl = createJar("plugin.jar");
+  }
+
+  @Test
+  public void acquire_sameJars_shareClassLoader() throws Exception {
+    URLClassLoader classLoader = cache.acquire(ImmutableList.of(jarUrl), parentClassLoader, null);
+
+    assertThat(cache.acquire(ImmutableList.of(jarUrl), parentClassLoader, null))
+        .isSameInstanceAs(classLoader);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void acquire_differentSettings_differentClassLoaders() throws Exception {
+    URLClassLoader classLoader = cache.acquire(ImmutableList.of(jarUrl), parentClassLoader, null);
+
+    assertThat(cache.acquire(ImmutableList.of(jarUrl), parentClassLoader, "com\\.example\\..*"))
+        .isNotSameInstanceAs(classLoader);
+    assertThat(
+            cache.acquire(ImmutableList.of(jarUrl), ClassLoader.getPlatformClassLoader(), null))
+        .isNotSameInstanceAs(classLoader);
+    assertThat(cache.size()).isEqualTo(3);
+  }
+
+  @Test
+  public void acquire_changedJar_newClassLoader() throws Exception {
+    URLClassLoader classLoader = cache.acquire(ImmutableList.of(jarUrl), parentClassLoader, null);
+
+    PluginClassIndexTest.createJar(
+        new File(jarUrl.toURI()),
+        PluginClassIndexTest.FakePlugin.class,
+        PluginClassIndexTest.FakePluginModule.class);
+
+    assertThat(cache.acquire(ImmutableList.of(jarUrl), parentClassLoader, null))
+        .isNotSameInstanceAs(classLoader);
+  }
+
+  @Test
+  public void acquire_nonLocalJar_notShared() throws Exception {
+    URL remoteJarUrl = new URL("http://localhost/plugin.jar");
+
+    URLClassLoader classLoader =
+        cache.acquire(ImmutableList.of(remoteJarUrl), parentClassLoader, null);
+
+    assertThat(cache.acquire(ImmutableList.of(remoteJarUrl), parentClassLoader, null))
+        .isNotSameInstanceAs(classLoader);
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void release_keepIdleClassLoader() throws Exception {
+    URLClassLoader classLoader = cache.acquire(ImmutableList.of(jarUrl), parentClassLoader, null);
+    cache.release(classLoader);
+
+    assertThat(cache.acquire(ImmutableList.of(jarUrl), parentClassLoader, null))
+        .isSameInstanceAs(classLoader);
+  }
+
+  @Test
+  public void release_closeLeastRecentlyUsedIdleClassLoaders() throws Exception {
+    List<URL> jarUrls = new ArrayList<>();
+    List<URLClassLoader> classLoaders = new ArrayList<>();
+    for (int i = 0; i <= PluginClassLoaderCache.MAX_IDLE_CLASS_LOADER_NUM; i++) {
+      jarUrls.add(createJar("plugin_" + i + ".jar"));
+      classLoaders.add(cache.acquire(ImmutableList.of(jarUrls.get(i)), parentClassLoader, null));
+    }
+
+    for (URLClassLoader classLoader : classLoaders) {
+      cache.release(classLoader);
+    }
+
+    assertThat(cache.size()).isEqualTo(PluginClassLoaderCache.MAX_IDLE_CLASS_LOADER_NUM);
+    assertThat(cache.acquire(ImmutableList.of(jarUrls.get(0)), parentClassLoader, null))
+        .isNotSameInstanceAs(classLoaders.get(0));
+    assertThat(cache.acquire(ImmutableList.of(jarUrls.get(1)), parentClassLoader, null))
+        .isSameInstanceAs(classLoaders.get(1));
+  }
+
+  @Test
+  public void release_keepClassLoadersInUse() throws Exception {
+    // The least recently used class loader is still used by another plugin after it is released.
+    cache.acquire(ImmutableList.of(jarUrl), parentClassLoader, null);
+    URLClassLoader inUse = cache.acquire(ImmutableList.of(jarUrl), parentClassLoader, null);
+    List<URLClassLoader> classLoaders = new ArrayList<>();
+    for (int i = 0; i <= PluginClassLoaderCache.MAX_IDLE_CLASS_LOADER_NUM; i++) {
+      classLoaders.add(
+          cache.acquire(
+              ImmutableList.of(createJar("plugin_" + i + ".jar")), parentClassLoader, null));
+    }
+
+    cache.release(inUse);
+    for (URLClassLoader classLoader : classLoaders) {
+      cache.release(classLoader);
+    }
+
+    assertThat(cache.size()).isEqualTo(PluginClassLoaderCache.MAX_IDLE_CLASS_LOADER_NUM + 1);
+    assertThat(cache.acquire(ImmutableList.of(jarUrl), parentClassLoader, null))
+        .isSameInstanceAs(inUse);
+  }
+
+  private URL createJar(String name) throws Exception {
+    return PluginClassIndexTest.createJar(
+        tmpFolder.newFile(name), PluginClassIndexTest.FakePluginModule.class);
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.lab.controller;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.mobileharness.api.deviceconfig.proto.Basic.BasicDeviceConfig;
+import com.google.devtools.mobileharness.api.deviceconfig.proto.Device.DeviceConfig;
+import com.google.devtools.mobileharness.api.deviceconfig.proto.Device.DeviceLocator;
+import com.google.devtools.mobileharness.api.deviceconfig.proto.Device.DeviceLocatorConfigPair;
+import com.google.devtools.mobileharness.api.deviceconfig.proto.Lab.LabConfig;
+import com.google.devtools.mobileharness.infra.controller.device.DeviceIdManager;
+import com.google.devtools.mobileharness.infra.controller.device.LocalDeviceManager;
+import com.google.devtools.mobileharness.infra.controller.device.config.ApiConfig;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public class DeviceConfigManagerTest {
+
+  private static final String TESTBED_UUID = "testbed_uuid";
+
+  private static final DeviceConfig DEVICE_CONFIG =
+      DeviceConfig.newBuilder()
+          .setUuid(TESTBED_UUID)
+          .setBasicConfig(BasicDeviceConfig.newBuilder().addOwner("owner"))
+          .build();
+
+  @Rule public final MockitoRule mocks = MockitoJUnit.rule();
+
+  @Mock private LocalDeviceManager localDeviceManager;
+  @Mock private DeviceIdManager deviceIdManager;
+  @Mock private ApiConfig apiConfig;
+
+  private FakeDeviceConfigManager deviceConfigManager;
+
+  @Before
+  public void setUp() {
+    when(deviceIdManager.getUuidToDeviceIdMap()).thenReturn(ImmutableMap.of());
+    when(apiConfig.getTestbedUuidList()).thenReturn(ImmutableList.of(TESTBED_UUID));
+    when(apiConfig.getDeviceConfigToStore(TESTBED_UUID)).thenReturn(Optional.empty());
+    deviceConfigManager =
+        new FakeDeviceConfigManager(localDeviceManager, deviceIdManager, apiConfig);
+  }
+
+  @Test
+  public void refreshDeviceConfigs_updateChangedConfigToLocal() throws Exception {
+    deviceConfigManager.remoteDeviceConfigs.put(TESTBED_UUID, DEVICE_CONFIG);
+
+    deviceConfigManager.refreshDeviceConfigs();
+
+    verify(apiConfig).setDeviceConfigs(ImmutableMap.of(TESTBED_UUID, DEVICE_CONFIG));
+    assertThat(deviceConfigManager.updatedToLocalCount).isEqualTo(1);
+
+    // The local config is the same as the remote one.
+    when(apiConfig.getDeviceConfigToStore(TESTBED_UUID)).thenReturn(Optional.of(DEVICE_CONFIG));
+    deviceConfigManager.refreshDeviceConfigs();
+
+    verify(apiConfig).setDeviceConfigs(any());
+    assertThat(deviceConfigManager.updatedToLocalCount).isEqualTo(1);
+  }
+
+  @Test
+  public void refreshDeviceConfigs_localConfigChangedByOthers_updateAgain() throws Exception {
+    deviceConfigManager.remoteDeviceConfigs.put(TESTBED_UUID, DEVICE_CONFIG);
+    deviceConfigManager.refreshDeviceConfigs();
+
+    // The local config is reset after the remote config is updated to local.
+    when(apiConfig.getDeviceConfigToStore(TESTBED_UUID))
+        .thenReturn(Optional.of(DEVICE_CONFIG.toBuilder().clearBasicConfig().build()));
+    deviceConfigManager.refreshDeviceConfigs();
+
+    verify(apiConfig, times(2)).setDeviceConfigs(ImmutableMap.of(TESTBED_UUID, DEVICE_CONFIG));
+    assertThat(deviceConfigManager.updatedToLocalCount).isEqualTo(2);
+  }
+
+  @Test
+  public void refreshDeviceConfigs_remoteConfigChanged_updateAgain() throws Exception {
+    deviceConfigManager.remoteDeviceConfigs.put(TESTBED_UUID, DEVICE_CONFIG);
+    deviceConfigManager.refreshDeviceConfigs();
+    when(apiConfig.getDeviceConfigToStore(TESTBED_UUID)).thenReturn(Optional.of(DEVICE_CONFIG));
+
+    DeviceConfig newDeviceConfig = DEVICE_CONFIG.toBuilder().clearBasicConfig().build();
+    deviceConfigManager.remoteDeviceConfigs.put(TESTBED_UUID, newDeviceConfig);
+    deviceConfigManager.refreshDeviceConfigs();
+
+    verify(apiConfig).setDeviceConfigs(ImmutableMap.of(TESTBED_UUID, newDeviceConfig));
+    assertThat(deviceConfigManager.updatedToLocalCount).isEqualTo(2);
+  }
+
+  @Test
+  public void refreshDeviceConfigs_noRemoteConfig_notUpdateLocal() throws Exception {
+    deviceConfigManager.refreshDeviceConfigs();
+
+    verify(apiConfig, never()).setDeviceConfigs(any());
+    assertThat(deviceConfigManager.updatedToLocalCount).isEqualTo(0);
+    // Inactive testbeds are not stored.
+    assertThat(deviceConfigManager.storedDeviceConfigs).isEmpty();
+  }
+
+  private static class FakeDeviceConfigManager extends DeviceConfigManager {
+
+    private final Map<String, DeviceConfig> remoteDeviceConfigs = new HashMap<>();
+    private final List<DeviceLocatorConfigPair> storedDeviceConfigs = new ArrayList<>();
+    private int updatedToLocalCount;
+
+    private FakeDeviceConfigManager(
+        LocalDeviceManager localDeviceManager,
+        DeviceIdManager deviceIdManager,
+        ApiConfig apiConfig) {
+      super(localDeviceManager, deviceIdManager, apiConfig, "host_name");
+    }
+
+    @Override
+    protected boolean beginUsingLongCheckInterval(long checkCount) {
+      return false;
+    }
+
+    @Override
+    protected Optional<LabConfig> loadLabConfig(String hostName) {
+      return Optional.empty();
+    }
+
+    @Override
+    protected void storeLabConfig(LabConfig labConfig) {}
+
+    @Override
+    protected List<DeviceConfig> loadDeviceConfigs(List<DeviceLocator> deviceLocators) {
+      List<DeviceConfig> deviceConfigs = new ArrayList<>();
+      for (DeviceLocator deviceLocator : deviceLocators) {
+        DeviceConfig deviceConfig = remoteDeviceConfigs.get(deviceLocator.getDeviceUuid());
+        if (deviceConfig != null) {
+          deviceConfigs.add(deviceConfig);
+        }
+      }
+      return deviceConfigs;
+    }
+
+    @Override
+    protected void storeDeviceConfigs(List<DeviceLocatorConfigPair> deviceConfigs) {
+      storedDeviceConfigs.addAll(deviceConfigs);
+    }
+
+    @Override
+    protected void onDeviceConfigUpdatedToLocal() {
+      updatedToLocalCount++;
+    }
+  }
+}
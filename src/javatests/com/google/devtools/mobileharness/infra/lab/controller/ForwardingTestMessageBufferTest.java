@@ -0,0 +1,186 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.lab.controller;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.infra.controller.test.TestInfoManager;
+import com.google.devtools.mobileharness.shared.util.comm.messaging.message.TestMessageInfo;
+import com.google.wireless.qa.mobileharness.shared.comm.message.event.TestMessageEvent;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public class ForwardingTestMessageBufferTest {
+
+  private static final Instant START_TIME = Instant.ofEpochSecond(1000L);
+
+  @Rule public final MockitoRule mocks = MockitoJUnit.rule();
+
+  @Mock private TestInfoManager testInfoManager;
+  @Mock private Timer cleanerTimer;
+  @Mock private Clock clock;
+
+  private ForwardingTestMessageBuffer buffer;
+
+  @Before
+  public void setUp() {
+    when(clock.instant()).thenReturn(START_TIME);
+    buffer = new ForwardingTestMessageBuffer(testInfoManager, cleanerTimer, clock);
+  }
+
+  @Test
+  public void pollForwardingTestMessages() {
+    TestMessageInfo message1 = createMessage("root_test_1", "1");
+    TestMessageInfo message2 = createMessage("root_test_2", "2");
+    TestMessageInfo message3 = createMessage("root_test_1", "3");
+    List<String> notifiedTestIds = new ArrayList<>();
+    buffer.addMessageListener(notifiedTestIds::add);
+
+    buffer.addForwardingTestMessage(createEvent(message1));
+    buffer.addForwardingTestMessage(createEvent(message2));
+    buffer.addForwardingTestMessage(createEvent(message3));
+    buffer.addForwardingTestMessage(
+        createEvent(
+            TestMessageInfo.of(
+                "root_test_1", ImmutableMap.of(), ImmutableList.of(), /* isRemote= */ true)));
+
+    assertThat(notifiedTestIds).containsExactly("root_test_1", "root_test_2", "root_test_1");
+    assertThat(buffer.pollForwardingTestMessages("root_test_1"))
+        .containsExactly(message1, message3)
+        .inOrder();
+    assertThat(buffer.pollForwardingTestMessages("root_test_1")).isEmpty();
+    assertThat(buffer.pollForwardingTestMessages("root_test_2")).containsExactly(message2);
+    assertThat(buffer.pollForwardingTestMessages("root_test_3")).isEmpty();
+  }
+
+  @Test
+  public void addForwardingTestMessage_dropOldestMessageIfFull() {
+    for (int i = 0; i <= ForwardingTestMessageBuffer.MAX_BUFFERED_MESSAGE_NUM_PER_TEST; i++) {
+      buffer.addForwardingTestMessage(createEvent(createMessage("root_test", String.valueOf(i))));
+    }
+
+    List<TestMessageInfo> messages = buffer.pollForwardingTestMessages("root_test");
+
+    assertThat(messages).hasSize(ForwardingTestMessageBuffer.MAX_BUFFERED_MESSAGE_NUM_PER_TEST);
+    assertThat(messages.get(0)).isEqualTo(createMessage("root_test", "1"));
+  }
+
+  @Test
+  public void onRootTestEnded_removeMessagesAfterPolled() {
+    TestMessageInfo message = createMessage("root_test", "1");
+    buffer.addForwardingTestMessage(createEvent(message));
+
+    buffer.onRootTestEnded("root_test");
+
+    assertThat(buffer.bufferedMessages).containsKey("root_test");
+    assertThat(buffer.pollForwardingTestMessages("root_test")).containsExactly(message);
+    assertThat(buffer.bufferedMessages).isEmpty();
+  }
+
+  @Test
+  public void pollForwardingTestMessages_concurrentWithAdd_noMessageLost() throws Exception {
+    int messageNum = 5_000;
+    List<TestMessageEvent> events = new ArrayList<>();
+    for (int i = 0; i < messageNum; i++) {
+      events.add(createEvent(createMessage("root_test", String.valueOf(i))));
+    }
+    List<TestMessageInfo> polledMessages = new ArrayList<>();
+    AtomicBoolean addingDone = new AtomicBoolean();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> adding =
+          executor.submit(
+              () -> {
+                events.forEach(buffer::addForwardingTestMessage);
+                addingDone.set(true);
+              });
+      while (!addingDone.get()) {
+        // Ends the test repeatedly so that its queue keeps being removed once it becomes empty.
+        buffer.onRootTestEnded("root_test");
+        polledMessages.addAll(buffer.pollForwardingTestMessages("root_test"));
+      }
+      adding.get();
+    } finally {
+      executor.shutdownNow();
+    }
+    polledMessages.addAll(buffer.pollForwardingTestMessages("root_test"));
+
+    assertThat(polledMessages).hasSize(messageNum);
+  }
+
+  @Test
+  public void cleanUp() throws Exception {
+    buffer.addForwardingTestMessage(createEvent(createMessage("ended_test", "1")));
+    buffer.addForwardingTestMessage(createEvent(createMessage("removed_test", "2")));
+    buffer.addForwardingTestMessage(createEvent(createMessage("running_test", "3")));
+    buffer.onRootTestEnded("ended_test");
+    when(testInfoManager.getTestInfo("removed_test"))
+        .thenThrow(new MobileHarnessException(InfraErrorId.TM_TEST_NOT_FOUND, "Not found"));
+
+    buffer.cleanUp();
+
+    assertThat(buffer.bufferedMessages.keySet()).containsExactly("ended_test", "running_test");
+
+    when(clock.instant())
+        .thenReturn(START_TIME.plus(ForwardingTestMessageBuffer.MAX_BUFFERED_MESSAGE_AGE));
+    buffer.addForwardingTestMessage(createEvent(createMessage("running_test", "4")));
+    when(clock.instant())
+        .thenReturn(
+            START_TIME
+                .plus(ForwardingTestMessageBuffer.MAX_BUFFERED_MESSAGE_AGE)
+                .plusSeconds(1L));
+
+    buffer.cleanUp();
+
+    assertThat(buffer.bufferedMessages.keySet()).containsExactly("running_test");
+    assertThat(buffer.pollForwardingTestMessages("running_test"))
+        .containsExactly(createMessage("running_test", "4"));
+  }
+
+  private static TestMessageInfo createMessage(String rootTestId, String value) {
+    return TestMessageInfo.of(
+        rootTestId, ImmutableMap.of("key", value), ImmutableList.of(), /* isRemote= */ false);
+  }
+
+  private static TestMessageEvent createEvent(TestMessageInfo message) {
+    TestMessageEvent event = mock(TestMessageEvent.class);
+    when(event.getTestMessageInfo()).thenReturn(message);
+    return event;
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.lab.controller;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GenFileChange;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.CRC32C;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public class GenFileChangeFeedTest {
+
+  private static final Instant START_TIME = Instant.ofEpochSecond(1000L);
+
+  @Rule public final MockitoRule mocks = MockitoJUnit.rule();
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Mock private Clock clock;
+
+  private Instant now;
+  private Path genFileDir;
+  private GenFileChangeFeed feed;
+
+  @Before
+  public void setUp() throws Exception {
+    now = START_TIME;
+    when(clock.instant()).thenAnswer(invocation -> now);
+    genFileDir = tmpFolder.newFolder("gen").toPath();
+    feed = new GenFileChangeFeed(genFileDir, /* initialSequence= */ 0L, clock);
+  }
+
+  @After
+  public void tearDown() {
+    feed.close();
+  }
+
+  @Test
+  public void getChangesAfter_publishStableFile() throws Exception {
+    writeFile("sub/a.txt", "a", /* lastModifiedSecond= */ 1L);
+
+    feed.scanIfNeeded();
+    assertThat(feed.getChangesAfter(0L)).isEmpty();
+
+    advanceToNextRescan();
+    feed.scanIfNeeded();
+    assertThat(feed.getChangesAfter(0L))
+        .containsExactly(createChange("sub/a.txt", "a", /* lastModifiedSecond= */ 1L, 1L));
+  }
+
+  @Test
+  public void getChangesAfter_notScan() throws Exception {
+    writeFile("a.txt", "a", /* lastModifiedSecond= */ 1L);
+    feed.onTestDone();
+
+    assertThat(feed.getChangesAfter(0L)).isEmpty();
+  }
+
+  @Test
+  public void getChangesAfter_testDone() throws Exception {
+    writeFile("a.txt", "a", /* lastModifiedSecond= */ 1L);
+
+    feed.onTestDone();
+    feed.scanIfNeeded();
+
+    assertThat(feed.getChangesAfter(0L))
+        .containsExactly(createChange("a.txt", "a", /* lastModifiedSecond= */ 1L, 1L));
+  }
+
+  @Test
+  public void getChangesAfter_initialSequence() throws Exception {
+    writeFile("a.txt", "a", /* lastModifiedSecond= */ 1L);
+    GenFileChangeFeed newFeed = new GenFileChangeFeed(genFileDir, /* initialSequence= */ 5L, clock);
+
+    newFeed.onTestDone();
+    newFeed.scanIfNeeded();
+
+    assertThat(newFeed.getChangesAfter(5L))
+        .containsExactly(createChange("a.txt", "a", /* lastModifiedSecond= */ 1L, 6L));
+    newFeed.close();
+  }
+
+  @Test
+  public void getChangesAfter_fileChanged() throws Exception {
+    writeFile("a.txt", "a", /* lastModifiedSecond= */ 1L);
+    writeFile("b.txt", "b", /* lastModifiedSecond= */ 1L);
+    feed.onTestDone();
+    feed.scanIfNeeded();
+
+    // The same content is not published again.
+    writeFile("a.txt", "a", /* lastModifiedSecond= */ 2L);
+    writeFile("b.txt", "bb", /* lastModifiedSecond= */ 2L);
+    feed.scanIfNeeded();
+
+    ImmutableList<GenFileChange> changes = feed.getChangesAfter(2L);
+    assertThat(changes)
+        .containsExactly(createChange("b.txt", "bb", /* lastModifiedSecond= */ 2L, 3L));
+    // Only the latest change of a file is kept.
+    assertThat(feed.getChangesAfter(0L)).hasSize(2);
+  }
+
+  @Test
+  public void getChangesAfter_fileChangedBeforeTestDone() throws Exception {
+    writeFile("a.txt", "a", /* lastModifiedSecond= */ 1L);
+    feed.scanIfNeeded();
+    advanceToNextRescan();
+    feed.scanIfNeeded();
+
+    writeFile("a.txt", "aa", /* lastModifiedSecond= */ 2L);
+    advanceToNextRescan();
+    feed.scanIfNeeded();
+    assertThat(feed.getChangesAfter(1L)).isEmpty();
+    advanceToNextRescan();
+    feed.scanIfNeeded();
+
+    assertThat(feed.getChangesAfter(1L))
+        .containsExactly(createChange("a.txt", "aa", /* lastModifiedSecond= */ 2L, 2L));
+  }
+
+  @Test
+  public void getChangesAfter_fileDeleted() throws Exception {
+    writeFile("a.txt", "a", /* lastModifiedSecond= */ 1L);
+    feed.onTestDone();
+    feed.scanIfNeeded();
+
+    Files.delete(genFileDir.resolve("a.txt"));
+    feed.scanIfNeeded();
+
+    assertThat(feed.getChangesAfter(0L)).isEmpty();
+  }
+
+  @Test
+  public void scanInBackground() throws Exception {
+    ScheduledExecutorService scanExecutor = Executors.newSingleThreadScheduledExecutor();
+    writeFile("a.txt", "a", /* lastModifiedSecond= */ 1L);
+    GenFileChangeFeed backgroundFeed =
+        new GenFileChangeFeed(genFileDir, /* initialSequence= */ 0L, scanExecutor);
+    try {
+      Instant deadline = Instant.now().plus(GenFileChangeFeed.RESCAN_INTERVAL.multipliedBy(2L));
+      while (backgroundFeed.getChangesAfter(0L).isEmpty() && Instant.now().isBefore(deadline)) {
+        Thread.sleep(100L);
+      }
+
+      assertThat(backgroundFeed.getChangesAfter(0L))
+          .containsExactly(createChange("a.txt", "a", /* lastModifiedSecond= */ 1L, 1L));
+    } finally {
+      backgroundFeed.close();
+      scanExecutor.shutdownNow();
+    }
+  }
+
+  private void advanceToNextRescan() {
+    now = now.plus(GenFileChangeFeed.RESCAN_INTERVAL);
+  }
+
+  private void writeFile(String relatedPath, String content, long lastModifiedSecond)
+      throws Exception {
+    Path file = genFileDir.resolve(relatedPath);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(UTF_8));
+    Files.setLastModifiedTime(file, FileTime.from(Instant.ofEpochSecond(lastModifiedSecond)));
+  }
+
+  private static GenFileChange createChange(
+      String relatedPath, String content, long lastModifiedSecond, long sequence) {
+    CRC32C crc32c = new CRC32C();
+    crc32c.update(content.getBytes(UTF_8));
+    return GenFileChange.newBuilder()
+        .setGenFileRelatedPath(relatedPath)
+        .setSize(content.length())
+        .setLastModifiedMs(lastModifiedSecond * 1000L)
+        .setCrc32C((int) crc32c.getValue())
+        .setSequence(sequence)
+        .build();
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.lab.controller;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.mobileharness.api.deviceconfig.proto.Basic.BasicDeviceConfig;
+import com.google.devtools.mobileharness.api.deviceconfig.proto.Device.DeviceConfig;
+import com.google.devtools.mobileharness.api.deviceconfig.proto.Device.DeviceLocator;
+import com.google.devtools.mobileharness.api.deviceconfig.proto.Lab.LabConfig;
+import com.google.devtools.mobileharness.infra.controller.device.DeviceIdManager;
+import com.google.devtools.mobileharness.infra.controller.device.LocalDeviceManager;
+import com.google.devtools.mobileharness.infra.controller.device.config.ApiConfig;
+import com.google.devtools.mobileharness.infra.controller.device.config.ApiConfigFileProcessor;
+import com.google.devtools.mobileharness.infra.controller.device.config.ApiConfigFileProcessor.LabConfigAndDeviceConfigs;
+import com.google.devtools.mobileharness.shared.util.flags.Flags;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public class LocalFileBasedDeviceConfigManagerTest {
+
+  private static final DeviceConfig DEVICE_CONFIG_1 =
+      DeviceConfig.newBuilder()
+          .setUuid("uuid_1")
+          .setBasicConfig(BasicDeviceConfig.newBuilder().addOwner("owner_1"))
+          .build();
+  private static final DeviceConfig DEVICE_CONFIG_2 =
+      DeviceConfig.newBuilder()
+          .setUuid("uuid_2")
+          .setBasicConfig(BasicDeviceConfig.newBuilder().addOwner("owner_2"))
+          .build();
+
+  @Rule public final MockitoRule mocks = MockitoJUnit.rule();
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Mock private LocalDeviceManager localDeviceManager;
+  @Mock private DeviceIdManager deviceIdManager;
+  @Mock private ApiConfig apiConfig;
+  @Mock private ApiConfigFileProcessor apiConfigFileProcessor;
+
+  private Path configFile;
+  private LocalFileBasedDeviceConfigManager deviceConfigManager;
+
+  @Before
+  public void setUp() throws Exception {
+    configFile = tmpFolder.newFile("api_config.textproto").toPath();
+    when(apiConfigFileProcessor.readApiConfigFile())
+        .thenReturn(
+            Optional.of(
+                LabConfigAndDeviceConfigs.of(
+                    LabConfig.getDefaultInstance(),
+                    ImmutableList.of(DEVICE_CONFIG_1, DEVICE_CONFIG_2))));
+    deviceConfigManager =
+        new LocalFileBasedDeviceConfigManager(
+            localDeviceManager, deviceIdManager, apiConfig, apiConfigFileProcessor);
+  }
+
+  @After
+  public void tearDown() {
+    Flags.resetToDefault();
+  }
+
+  @Test
+  public void loadDeviceConfigs_indexByUuid() throws Exception {
+    assertThat(
+            deviceConfigManager.loadDeviceConfigs(
+                ImmutableList.of(
+                    getDeviceLocator("uuid_2"),
+                    getDeviceLocator("uuid_3"),
+                    getDeviceLocator("uuid_2"))))
+        .containsExactly(DEVICE_CONFIG_2);
+  }
+
+  @Test
+  public void loadDeviceConfigs_readFileOnlyAfterChange() throws Exception {
+    Flags.parse(new String[] {"--api_config=" + configFile});
+
+    deviceConfigManager.loadDeviceConfigs(ImmutableList.of(getDeviceLocator("uuid_1")));
+    deviceConfigManager.loadLabConfig("");
+    deviceConfigManager.loadDeviceConfigs(ImmutableList.of(getDeviceLocator("uuid_1")));
+
+    verify(apiConfigFileProcessor).readApiConfigFile();
+
+    Files.writeString(configFile, "changed");
+    long startNanos = System.nanoTime();
+    deviceConfigManager.waitForNextCheck(Duration.ofMinutes(1L));
+
+    // The wait ends because of the change of the file.
+    assertThat(Duration.ofNanos(System.nanoTime() - startNanos))
+        .isLessThan(Duration.ofMinutes(1L));
+    assertThat(deviceConfigManager.loadDeviceConfigs(ImmutableList.of(getDeviceLocator("uuid_1"))))
+        .containsExactly(DEVICE_CONFIG_1);
+    verify(apiConfigFileProcessor, times(2)).readApiConfigFile();
+  }
+
+  @Test
+  public void waitForNextCheck_otherFileChanged_keepWaiting() throws Exception {
+    Flags.parse(new String[] {"--api_config=" + configFile});
+    deviceConfigManager.loadDeviceConfigs(ImmutableList.of(getDeviceLocator("uuid_1")));
+
+    Files.writeString(configFile.resolveSibling("other_file"), "changed");
+    deviceConfigManager.waitForNextCheck(Duration.ofMillis(200L));
+    deviceConfigManager.loadDeviceConfigs(ImmutableList.of(getDeviceLocator("uuid_1")));
+
+    verify(apiConfigFileProcessor).readApiConfigFile();
+  }
+
+  @Test
+  public void loadDeviceConfigs_fileNotWatched_readFileEveryTime() throws Exception {
+    deviceConfigManager.loadDeviceConfigs(ImmutableList.of(getDeviceLocator("uuid_1")));
+    deviceConfigManager.loadDeviceConfigs(ImmutableList.of(getDeviceLocator("uuid_1")));
+
+    verify(apiConfigFileProcessor, times(2)).readApiConfigFile();
+  }
+
+  private static DeviceLocator getDeviceLocator(String deviceUuid) {
+    return DeviceLocator.newBuilder().setDeviceUuid(deviceUuid).build();
+  }
+}
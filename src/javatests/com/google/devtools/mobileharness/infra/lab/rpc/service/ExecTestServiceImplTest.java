@@ -0,0 +1,132 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.lab.rpc.service;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.ListenableScheduledFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.infra.controller.device.DeviceHelperFactory;
+import com.google.devtools.mobileharness.infra.lab.controller.ForwardingTestMessageBuffer;
+import com.google.devtools.mobileharness.infra.lab.controller.LabDirectTestRunnerHolder;
+import com.google.devtools.mobileharness.infra.lab.rpc.service.util.LabResponseProtoGenerator;
+import com.google.devtools.mobileharness.infra.lab.rpc.service.util.TestInfoCreator;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusRequest;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusesRequest;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusesResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusesResponse.TestStatusResult;
+import com.google.wireless.qa.mobileharness.shared.comm.message.TestMessageManager;
+import com.google.wireless.qa.mobileharness.shared.model.job.TestInfo;
+import com.google.wireless.qa.mobileharness.shared.proto.Job.TestStatus;
+import java.time.Duration;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public class ExecTestServiceImplTest {
+
+  @Rule public final MockitoRule mocks = MockitoJUnit.rule();
+
+  @Mock private LabDirectTestRunnerHolder testRunnerHolder;
+  @Mock private DeviceHelperFactory deviceHelperFactory;
+  @Mock private LabResponseProtoGenerator labResponseProtoGenerator;
+  @Mock private ListeningExecutorService threadPool;
+  @Mock private ListeningScheduledExecutorService testStatusPublisherThreadPool;
+  @Mock private TestMessageManager testMessageManager;
+  @Mock private ForwardingTestMessageBuffer forwardingTestMessageBuffer;
+  @Mock private TestInfoCreator testInfoCreator;
+  @Mock private TestInfo runningTestInfo;
+
+  private ExecTestServiceImpl execTestService;
+
+  @Before
+  public void setUp() throws Exception {
+    when(testStatusPublisherThreadPool.scheduleWithFixedDelay(
+            any(Runnable.class), any(Duration.class), any(Duration.class)))
+        .thenAnswer(invocation -> mock(ListenableScheduledFuture.class));
+    when(testRunnerHolder.getTestInfo("running_test")).thenReturn(runningTestInfo);
+    when(testRunnerHolder.getDeviceFeatures("running_test")).thenReturn(Optional.empty());
+    when(testRunnerHolder.getTestInfo("missing_test"))
+        .thenThrow(new MobileHarnessException(InfraErrorId.TM_TEST_NOT_FOUND, "Test not found"));
+    when(labResponseProtoGenerator.createGetTestStatusResponse(
+            eq(runningTestInfo), any(), any(), any(), anyBoolean()))
+        .thenAnswer(
+            invocation -> GetTestStatusResponse.newBuilder().setTestStatus(TestStatus.RUNNING));
+
+    execTestService =
+        new ExecTestServiceImpl(
+            testRunnerHolder,
+            deviceHelperFactory,
+            labResponseProtoGenerator,
+            threadPool,
+            testStatusPublisherThreadPool,
+            /* globalInternalEventBus= */ null,
+            testMessageManager,
+            forwardingTestMessageBuffer,
+            testInfoCreator);
+  }
+
+  @Test
+  public void getTestStatuses() {
+    GetTestStatusesResponse response =
+        execTestService.getTestStatuses(
+            GetTestStatusesRequest.newBuilder()
+                .addGetTestStatusRequest(createRequest("running_test"))
+                .addGetTestStatusRequest(createRequest("missing_test"))
+                .build());
+
+    assertThat(response.getTestStatusResultCount()).isEqualTo(2);
+    TestStatusResult runningTestResult = response.getTestStatusResult(0);
+    assertThat(runningTestResult.getTestId()).isEqualTo("running_test");
+    assertThat(runningTestResult.getGetTestStatusResponse().getTestStatus())
+        .isEqualTo(TestStatus.RUNNING);
+    // A test which is not found does not fail the other tests.
+    TestStatusResult missingTestResult = response.getTestStatusResult(1);
+    assertThat(missingTestResult.getTestId()).isEqualTo("missing_test");
+    assertThat(missingTestResult.hasError()).isTrue();
+    assertThat(missingTestResult.hasGetTestStatusResponse()).isFalse();
+  }
+
+  @Test
+  public void getTestStatuses_empty() {
+    assertThat(
+            execTestService
+                .getTestStatuses(GetTestStatusesRequest.getDefaultInstance())
+                .getTestStatusResultList())
+        .isEmpty();
+  }
+
+  private static GetTestStatusRequest createRequest(String testId) {
+    return GetTestStatusRequest.newBuilder().setJobId("job_id").setTestId(testId).build();
+  }
+}
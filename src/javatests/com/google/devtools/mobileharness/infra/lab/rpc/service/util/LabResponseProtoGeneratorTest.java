@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.lab.rpc.service.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.testing.FakeTicker;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.mobileharness.infra.lab.controller.FilePublisher;
+import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GenFileChange;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LabResponseProtoGeneratorTest {
+
+  private static final Duration WAIT_TIMEOUT = Duration.ofSeconds(30L);
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final ListeningScheduledExecutorService scanThreadPool =
+      MoreExecutors.listeningDecorator(Executors.newSingleThreadScheduledExecutor());
+
+  private String genFileDir;
+  private LabResponseProtoGenerator generator;
+
+  @Before
+  public void setUp() throws Exception {
+    Path dir = tmpFolder.newFolder("gen_file_dir").toPath();
+    Files.writeString(dir.resolve("log.txt"), "log");
+    genFileDir = dir.toString();
+    generator =
+        new LabResponseProtoGenerator(
+            new FilePublisher(), new LocalFileUtil(), scanThreadPool, ticker);
+  }
+
+  @After
+  public void tearDown() {
+    scanThreadPool.shutdownNow();
+  }
+
+  @Test
+  public void addGenFileChanges() throws Exception {
+    GetTestStatusResponse response = waitForGenFileChanges(/* sequence= */ 0L);
+
+    assertThat(response.getGenFileDir()).isEqualTo(genFileDir);
+    assertThat(response.getGenFileChangeCount()).isEqualTo(1);
+    GenFileChange change = response.getGenFileChange(0);
+    assertThat(change.getGenFileRelatedPath()).isEqualTo("log.txt");
+    assertThat(change.getSize()).isEqualTo(3L);
+
+    // The changes which the client has retrieved are not sent again.
+    GetTestStatusResponse.Builder builder = GetTestStatusResponse.newBuilder();
+    generator.addGenFileChanges(
+        builder, "test_id", genFileDir, change.getSequence(), /* testDone= */ true);
+    assertThat(builder.getGenFileChangeCount()).isEqualTo(0);
+    assertThat(builder.getGenFileDir()).isEmpty();
+  }
+
+  @Test
+  public void addGenFileChanges_newFeed_numberChangesAfterRequestedSequence() throws Exception {
+    GetTestStatusResponse response = waitForGenFileChanges(/* sequence= */ 5L);
+
+    assertThat(response.getGenFileChange(0).getSequence()).isEqualTo(6L);
+  }
+
+  @Test
+  public void cleanUpGenFileChangeFeeds_closeExpiredFeeds() throws Exception {
+    generator.addGenFileChanges(
+        GetTestStatusResponse.newBuilder(), "test_1", genFileDir, 0L, /* testDone= */ false);
+    ticker.advance(LabResponseProtoGenerator.GEN_FILE_CHANGE_FEED_EXPIRATION.dividedBy(2L));
+    generator.addGenFileChanges(
+        GetTestStatusResponse.newBuilder(), "test_2", genFileDir, 0L, /* testDone= */ false);
+    ticker.advance(LabResponseProtoGenerator.GEN_FILE_CHANGE_FEED_EXPIRATION.dividedBy(2L));
+    ticker.advance(Duration.ofSeconds(1L));
+
+    generator.cleanUpGenFileChangeFeeds();
+
+    assertThat(generator.getGenFileChangeFeedCount()).isEqualTo(1L);
+  }
+
+  /** Gets the changes after the given sequence until the feed publishes the gen file. */
+  private GetTestStatusResponse waitForGenFileChanges(long sequence) throws Exception {
+    Instant deadline = Instant.now().plus(WAIT_TIMEOUT);
+    while (true) {
+      GetTestStatusResponse.Builder builder = GetTestStatusResponse.newBuilder();
+      generator.addGenFileChanges(builder, "test_id", genFileDir, sequence, /* testDone= */ true);
+      if (builder.getGenFileChangeCount() > 0 || Instant.now().isAfter(deadline)) {
+        return builder.build();
+      }
+      Thread.sleep(50L);
+    }
+  }
+}
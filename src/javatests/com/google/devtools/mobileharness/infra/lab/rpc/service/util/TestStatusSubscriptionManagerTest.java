@@ -0,0 +1,221 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.infra.lab.rpc.service.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.ListenableScheduledFuture;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GenFileChange;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusRequest;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.GetTestStatusResponse;
+import com.google.wireless.qa.mobileharness.lab.proto.ExecTestServ.SubTestStatusResponse;
+import com.google.wireless.qa.mobileharness.shared.proto.Job.TestResult;
+import com.google.wireless.qa.mobileharness.shared.proto.Job.TestStatus;
+import io.grpc.stub.StreamObserver;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public class TestStatusSubscriptionManagerTest {
+
+  private static final Instant START_TIME = Instant.ofEpochSecond(1000L);
+
+  @Rule public final MockitoRule mocks = MockitoJUnit.rule();
+
+  @Mock private ListeningScheduledExecutorService scheduledThreadPool;
+  @Mock private Clock clock;
+
+  private final List<GetTestStatusRequest> requests = new ArrayList<>();
+  private final RecordingObserver observer = new RecordingObserver();
+
+  private GetTestStatusResponse currentStatus;
+  private MobileHarnessException currentError;
+
+  private TestStatusSubscriptionManager manager;
+
+  @Before
+  public void setUp() {
+    when(scheduledThreadPool.scheduleWithFixedDelay(
+            any(Runnable.class), any(Duration.class), any(Duration.class)))
+        .thenAnswer(invocation -> mock(ListenableScheduledFuture.class));
+    when(clock.instant()).thenReturn(START_TIME);
+    currentStatus = createResponse(TestStatus.RUNNING, "");
+    manager =
+        new TestStatusSubscriptionManager(
+            request -> {
+              requests.add(request);
+              if (currentError != null) {
+                throw currentError;
+              }
+              return currentStatus;
+            },
+            scheduledThreadPool,
+            clock);
+  }
+
+  @Test
+  public void subscribe_onlyPushChanges() {
+    manager.subscribe(createRequest(/* offset= */ 5), observer);
+    assertThat(observer.responses).hasSize(1);
+
+    manager.pushAll();
+    assertThat(observer.responses).hasSize(1);
+
+    currentStatus = createResponse(TestStatus.RUNNING, "new log");
+    manager.pushAll();
+    assertThat(observer.responses).hasSize(2);
+    assertThat(requests.get(requests.size() - 1).getTestLogOffset()).isEqualTo(5);
+
+    currentStatus = createResponse(TestStatus.RUNNING, "");
+    manager.pushAll();
+    assertThat(observer.responses).hasSize(2);
+    assertThat(requests.get(requests.size() - 1).getTestLogOffset()).isEqualTo(12);
+
+    currentStatus = createResponse(TestStatus.DONE, "");
+    manager.pushAll();
+    assertThat(observer.responses).hasSize(3);
+    assertThat(observer.completed).isTrue();
+    assertThat(manager.getSubscriptionCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void subscribe_heartbeat() {
+    manager.subscribe(createRequest(/* offset= */ 0), observer);
+    when(clock.instant())
+        .thenReturn(START_TIME.plus(TestStatusSubscriptionManager.HEARTBEAT_INTERVAL));
+
+    manager.pushAll();
+
+    assertThat(observer.responses).hasSize(2);
+  }
+
+  @Test
+  public void subscribe_testNotFound() {
+    currentError =
+        new MobileHarnessException(InfraErrorId.TM_TEST_NOT_FOUND, "Test not found");
+
+    manager.subscribe(createRequest(/* offset= */ 0), observer);
+
+    assertThat(observer.error).isNotNull();
+    assertThat(manager.getSubscriptionCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void createNextRequest_addNewSubTests() {
+    GetTestStatusResponse response =
+        createResponse(TestStatus.RUNNING, "log")
+            .toBuilder()
+            .addSubTest(
+                SubTestStatusResponse.newBuilder()
+                    .setTestId("sub_test_id")
+                    .setStatus(createResponse(TestStatus.RUNNING, "sub_test_log")))
+            .build();
+
+    GetTestStatusRequest nextRequest =
+        TestStatusSubscriptionManager.createNextRequest(createRequest(/* offset= */ 1), response);
+
+    assertThat(nextRequest.getTestLogOffset()).isEqualTo(4);
+    assertThat(nextRequest.getSubTestList())
+        .containsExactly(
+            GetTestStatusRequest.newBuilder()
+                .setJobId("job_id")
+                .setTestId("sub_test_id")
+                .setTestLogOffset(12)
+                .build());
+  }
+
+  @Test
+  public void createNextRequest_genFileChangeSequence() {
+    GetTestStatusResponse response =
+        createResponse(TestStatus.RUNNING, "")
+            .toBuilder()
+            .addGenFileChange(GenFileChange.newBuilder().setSequence(3L))
+            .addGenFileChange(GenFileChange.newBuilder().setSequence(5L))
+            .addSubTest(
+                SubTestStatusResponse.newBuilder()
+                    .setTestId("sub_test_id")
+                    .setStatus(createResponse(TestStatus.RUNNING, "")))
+            .build();
+
+    GetTestStatusRequest nextRequest =
+        TestStatusSubscriptionManager.createNextRequest(
+            createRequest(/* offset= */ 0).toBuilder().setGenFileChangeSequence(2L).build(),
+            response);
+
+    assertThat(nextRequest.getGenFileChangeSequence()).isEqualTo(5L);
+    assertThat(nextRequest.getSubTest(0).hasGenFileChangeSequence()).isTrue();
+    assertThat(nextRequest.getSubTest(0).getGenFileChangeSequence()).isEqualTo(0L);
+    GetTestStatusRequest nextRequestWithoutGenFileChanges =
+        TestStatusSubscriptionManager.createNextRequest(createRequest(/* offset= */ 0), response);
+    assertThat(nextRequestWithoutGenFileChanges.hasGenFileChangeSequence()).isFalse();
+  }
+
+  private static GetTestStatusRequest createRequest(int offset) {
+    return GetTestStatusRequest.newBuilder()
+        .setJobId("job_id")
+        .setTestId("test_id")
+        .setTestLogOffset(offset)
+        .build();
+  }
+
+  private static GetTestStatusResponse createResponse(TestStatus status, String log) {
+    return GetTestStatusResponse.newBuilder()
+        .setTestStatus(status)
+        .setTestResult(TestResult.UNKNOWN)
+        .setTestLog(log)
+        .build();
+  }
+
+  private static class RecordingObserver implements StreamObserver<GetTestStatusResponse> {
+
+    private final List<GetTestStatusResponse> responses = new ArrayList<>();
+    private Throwable error;
+    private boolean completed;
+
+    @Override
+    public void onNext(GetTestStatusResponse response) {
+      responses.add(response);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      this.error = error;
+    }
+
+    @Override
+    public void onCompleted() {
+      completed = true;
+    }
+  }
+}
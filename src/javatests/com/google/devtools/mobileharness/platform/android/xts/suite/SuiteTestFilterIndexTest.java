@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.platform.android.xts.suite;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class SuiteTestFilterIndexTest {
+
+  private static final ImmutableList<String> ABIS = ImmutableList.of("arm64-v8a", "armeabi-v7a");
+
+  @Test
+  public void getModuleMatchedFilters() {
+    SuiteTestFilterIndex index =
+        SuiteTestFilterIndex.ofFilterStrings(
+            ImmutableList.of(
+                "arm64-v8a module1 class#test1",
+                "module1",
+                "armeabi-v7a module1 class#test2",
+                "module1[instant] class#test3",
+                "module2"));
+
+    assertThat(index.getModuleMatchedFilters("module1", "arm64-v8a", /* moduleParameter= */ null))
+        .containsExactly(
+            SuiteTestFilter.create("arm64-v8a module1 class#test1"),
+            SuiteTestFilter.create("module1"))
+        .inOrder();
+    assertThat(index.getModuleMatchedFilters("module1", "arm64-v8a", "instant"))
+        .containsExactly(SuiteTestFilter.create("module1[instant] class#test3"));
+    assertThat(index.getModuleMatchedFilters("module3", "arm64-v8a", /* moduleParameter= */ null))
+        .isEmpty();
+
+    assertThat(index.matchEntireModule("module1", "armeabi-v7a", /* moduleParameter= */ null))
+        .isTrue();
+    assertThat(index.matchEntireModule("module1", "armeabi-v7a", "instant")).isFalse();
+    assertThat(index.matchTestInModule("module1", "armeabi-v7a", "instant")).isTrue();
+    assertThat(index.matchTestInModule("module2", "armeabi-v7a", /* moduleParameter= */ null))
+        .isFalse();
+  }
+
+  @Test
+  public void matchModuleName() {
+    SuiteTestFilterIndex index =
+        SuiteTestFilterIndex.ofFilterStrings(
+            ImmutableList.of("arm64-v8a module1[instant] class#test", "module2"));
+
+    assertThat(index.matchModuleName("module1")).isTrue();
+    assertThat(index.matchModuleName("module2")).isTrue();
+    assertThat(index.matchModuleName("module1[instant]")).isFalse();
+    assertThat(index.matchModuleName("module3")).isFalse();
+  }
+
+  /**
+   * Checks that the index gives the same result as matching all filters one by one, with a filter
+   * set of the size of a retry subplan of a full CTS run.
+   */
+  @Test
+  public void matchModule_sameAsLinearMatching_largeFilterSet() {
+    List<String> filterStrings = new ArrayList<>();
+    for (int module = 0; module < 500; module++) {
+      for (int test = 0; test < 40; test++) {
+        filterStrings.add(
+            String.format(
+                "%s Module%d%s android.module%d.Class#test%d",
+                ABIS.get(test % 2), module, module % 7 == 0 ? "[instant]" : "", module, test));
+      }
+      if (module % 3 == 0) {
+        filterStrings.add("Module" + module);
+      }
+    }
+    ImmutableList<SuiteTestFilter> filters =
+        filterStrings.stream().map(SuiteTestFilter::create).collect(toImmutableList());
+    SuiteTestFilterIndex index = SuiteTestFilterIndex.of(filters);
+
+    for (int module = 0; module < 600; module += 11) {
+      String moduleName = "Module" + module;
+      for (String abi : ABIS) {
+        for (String parameter : new String[] {null, "instant"}) {
+          ImmutableList<SuiteTestFilter> expected =
+              filters.stream()
+                  .filter(filter -> filter.matchModule(moduleName, abi, parameter))
+                  .collect(toImmutableList());
+          assertThat(index.getModuleMatchedFilters(moduleName, abi, parameter))
+              .containsExactlyElementsIn(expected)
+              .inOrder();
+          assertThat(index.matchModule(moduleName, abi, parameter))
+              .isEqualTo(!expected.isEmpty());
+        }
+      }
+      assertThat(index.matchModuleName(moduleName))
+          .isEqualTo(filters.stream().anyMatch(filter -> filter.matchModuleName(moduleName)));
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.commandhistory.controller;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.mobileharness.shared.util.time.TimeUtils.toProtoDuration;
+import static com.google.devtools.mobileharness.shared.util.time.TimeUtils.toProtoTimestamp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.testing.FakeTicker;
+import com.google.devtools.mobileharness.shared.commandhistory.proto.CommandRecordProto.LocalCommandRecord;
+import com.google.devtools.mobileharness.shared.commandhistory.proto.CommandRecordProto.LocalCommandRecord.CommandStartedEvent;
+import com.google.devtools.mobileharness.shared.commandhistory.proto.CommandRecordProto.LocalCommandRecords;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LocalCommandHistoryRecorderTest {
+
+  private static final ImmutableList<String> COMMAND = ImmutableList.of("echo", "hello");
+  private static final Instant NOW = Instant.ofEpochSecond(1_700_000_000L);
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final Clock clock = Clock.fixed(NOW, ZoneOffset.UTC);
+
+  private LocalCommandHistoryManager manager;
+  private LocalCommandHistoryRecorder recorder;
+
+  @Before
+  public void setUp() {
+    manager = new LocalCommandHistoryManager();
+    recorder = new LocalCommandHistoryRecorder(manager, ticker, clock);
+  }
+
+  @Test
+  public void start_recordStartTime() {
+    ticker.advance(Duration.ofSeconds(5L));
+
+    recorder.start();
+
+    LocalCommandRecords records = manager.getAll();
+    assertThat(records.getLocalStartElapsedTime())
+        .isEqualTo(toProtoDuration(Duration.ofSeconds(5L)));
+    assertThat(records.getLocalStartTimestamp()).isEqualTo(toProtoTimestamp(NOW));
+  }
+
+  @Test
+  public void onProcessStarted_processExited_recordStartedAndEndedEvents() {
+    FakeProcess process = new FakeProcess(/* pid= */ 123L);
+
+    recorder.onProcessStarted(COMMAND, process, /* exception= */ null, currentStackTrace());
+    ticker.advance(Duration.ofSeconds(1L));
+    process.exit(/* exitCode= */ 2);
+
+    List<LocalCommandRecord> records = manager.getAll().getRecordList();
+    assertThat(records).hasSize(2);
+
+    LocalCommandRecord startedRecord = records.get(0);
+    assertThat(startedRecord.getLocalCommandSequenceNumber()).isEqualTo(0L);
+    assertThat(startedRecord.getLocalElapsedTime()).isEqualTo(toProtoDuration(Duration.ZERO));
+    assertThat(startedRecord.getLocalTimestamp()).isEqualTo(toProtoTimestamp(NOW));
+    CommandStartedEvent startedEvent = startedRecord.getCommandStartedEvent();
+    assertThat(startedEvent.getCommandList()).containsExactlyElementsIn(COMMAND).inOrder();
+    assertThat(startedEvent.getStartSuccess().getPid()).isEqualTo(123L);
+    assertThat(startedEvent.getInvocationInfo().getThreadName())
+        .isEqualTo(Thread.currentThread().getName());
+
+    LocalCommandRecord endedRecord = records.get(1);
+    assertThat(endedRecord.getLocalCommandSequenceNumber()).isEqualTo(0L);
+    assertThat(endedRecord.getLocalElapsedTime())
+        .isEqualTo(toProtoDuration(Duration.ofSeconds(1L)));
+    assertThat(endedRecord.getCommandEndedEvent().getExitCode()).isEqualTo(2);
+  }
+
+  @Test
+  public void onProcessStarted_startFailure_recordFailure() {
+    recorder.onProcessStarted(
+        COMMAND,
+        /* process= */ null,
+        new IllegalStateException("Failed to start"),
+        currentStackTrace());
+
+    LocalCommandRecords records = manager.getAll();
+    assertThat(records.getRecordCount()).isEqualTo(1);
+    CommandStartedEvent startedEvent = records.getRecord(0).getCommandStartedEvent();
+    assertThat(startedEvent.hasStartFailure()).isTrue();
+    assertThat(startedEvent.getStartFailure().getException().getSummary().getMessage())
+        .isEqualTo("Failed to start");
+  }
+
+  @Test
+  public void onProcessStarted_sameStackTrace_shareStackTraceId() {
+    List<StackTraceElement> stackTrace = currentStackTrace();
+
+    recorder.onProcessStarted(COMMAND, new FakeProcess(1L), /* exception= */ null, stackTrace);
+    recorder.onProcessStarted(COMMAND, new FakeProcess(2L), /* exception= */ null, stackTrace);
+
+    LocalCommandRecords records = manager.getAll();
+    assertThat(records.getRecordCount()).isEqualTo(2);
+    long firstId =
+        records.getRecord(0).getCommandStartedEvent().getInvocationInfo().getStackTraceId();
+    long secondId =
+        records.getRecord(1).getCommandStartedEvent().getInvocationInfo().getStackTraceId();
+    assertThat(firstId).isGreaterThan(0L);
+    assertThat(secondId).isEqualTo(firstId);
+    assertThat(records.getStackTraceMap()).containsKey(firstId);
+    assertThat(records.getRecord(1).getLocalCommandSequenceNumber()).isEqualTo(1L);
+  }
+
+  private static ImmutableList<StackTraceElement> currentStackTrace() {
+    return ImmutableList.copyOf(new Throwable().getStackTrace());
+  }
+
+  /** A process which exits when {@link #exit} is called. */
+  private static class FakeProcess extends Process {
+
+    private final long pid;
+    private final CompletableFuture<Process> onExit = new CompletableFuture<>();
+    private volatile int exitCode = -1;
+
+    private FakeProcess(long pid) {
+      this.pid = pid;
+    }
+
+    private void exit(int exitCode) {
+      this.exitCode = exitCode;
+      onExit.complete(this);
+    }
+
+    @Override
+    public long pid() {
+      return pid;
+    }
+
+    @Override
+    public CompletableFuture<Process> onExit() {
+      return onExit;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return OutputStream.nullOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return InputStream.nullInputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return InputStream.nullInputStream();
+    }
+
+    @Override
+    public int waitFor() {
+      return onExit.join().exitValue();
+    }
+
+    @Override
+    public int exitValue() {
+      if (!onExit.isDone()) {
+        throw new IllegalThreadStateException("Process has not exited");
+      }
+      return exitCode;
+    }
+
+    @Override
+    public void destroy() {
+      exit(/* exitCode= */ 143);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.logging.controller.handler;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.zip.GZIPInputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link AsyncFileHandler}. */
+@RunWith(JUnit4.class)
+public class AsyncFileHandlerTest {
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private File logDir;
+
+  @Before
+  public void setUp() throws Exception {
+    logDir = tmpFolder.newFolder("log");
+  }
+
+  @Test
+  public void publish() throws Exception {
+    AsyncFileHandler handler = createHandler(/* sizeLimit= */ 0L, /* count= */ 3);
+
+    handler.publish(new LogRecord(Level.INFO, "message 1"));
+    handler.publish(new LogRecord(Level.INFO, "message 2"));
+    handler.close();
+
+    assertThat(readFile("log0.txt")).isEqualTo("message 1\nmessage 2\n");
+    assertThat(handler.getDroppedRecordCount()).isEqualTo(0L);
+  }
+
+  @Test
+  public void publish_parametersChangedAfterPublish() throws Exception {
+    AsyncFileHandler handler = createHandler(/* sizeLimit= */ 0L, /* count= */ 1);
+    StringBuilder parameter = new StringBuilder("before");
+    LogRecord logRecord = new LogRecord(Level.INFO, "message {0}");
+    logRecord.setParameters(new Object[] {parameter});
+
+    handler.publish(logRecord);
+    parameter.replace(0, parameter.length(), "after");
+    handler.close();
+
+    assertThat(readFile("log0.txt")).isEqualTo("message before\n");
+  }
+
+  @Test
+  public void publish_immutableParameters_formatInWriterThread() throws Exception {
+    AsyncFileHandler handler = createHandler(/* sizeLimit= */ 0L, /* count= */ 1);
+    List<String> formattingThreadNames = new CopyOnWriteArrayList<>();
+    handler.setFormatter(
+        new Formatter() {
+          @Override
+          public String format(LogRecord logRecord) {
+            formattingThreadNames.add(Thread.currentThread().getName());
+            return formatMessage(logRecord) + "\n";
+          }
+        });
+    LogRecord logRecord = new LogRecord(Level.INFO, "message {0} {1,number,#.0}");
+    logRecord.setParameters(new Object[] {"string", 1.25});
+
+    handler.publish(logRecord);
+    handler.close();
+
+    assertThat(readFile("log0.txt")).isEqualTo("message string 1.2\n");
+    assertThat(formattingThreadNames).containsExactly("async-log-file-writer");
+  }
+
+  @Test
+  public void flush_waitUntilQueuedRecordsWritten() throws Exception {
+    AsyncFileHandler handler = createHandler(/* sizeLimit= */ 0L, /* count= */ 1);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      handler.publish(new LogRecord(Level.INFO, "message " + i));
+      expected.append("message ").append(i).append('\n');
+    }
+
+    handler.flush();
+
+    assertThat(readFile("log0.txt")).isEqualTo(expected.toString());
+    handler.close();
+  }
+
+  @Test
+  public void publish_rotateAndCompress() throws Exception {
+    AsyncFileHandler handler = createHandler(/* sizeLimit= */ 15L, /* count= */ 3);
+
+    handler.publish(new LogRecord(Level.INFO, "message 1"));
+    handler.publish(new LogRecord(Level.INFO, "message 2"));
+    handler.publish(new LogRecord(Level.INFO, "message 3"));
+    handler.publish(new LogRecord(Level.INFO, "message 4"));
+    handler.close();
+
+    assertThat(readFile("log0.txt")).isEqualTo("message 4\n");
+    assertThat(readCompressedFile("log1.txt.gz")).isEqualTo("message 3\n");
+    assertThat(readCompressedFile("log2.txt.gz")).isEqualTo("message 2\n");
+    assertThat(logDir.toPath().resolve("log1.txt").toFile().exists()).isFalse();
+  }
+
+  @Test
+  public void create_rotatePreviousFile() throws Exception {
+    Files.write(logDir.toPath().resolve("log0.txt"), "previous\n".getBytes(UTF_8));
+
+    AsyncFileHandler handler = createHandler(/* sizeLimit= */ 0L, /* count= */ 3);
+    handler.publish(new LogRecord(Level.INFO, "message"));
+    handler.close();
+
+    assertThat(readFile("log0.txt")).isEqualTo("message\n");
+    assertThat(readCompressedFile("log1.txt.gz")).isEqualTo("previous\n");
+  }
+
+  @Test
+  public void publish_afterClose() throws Exception {
+    AsyncFileHandler handler = createHandler(/* sizeLimit= */ 0L, /* count= */ 1);
+    handler.close();
+
+    handler.publish(new LogRecord(Level.INFO, "message"));
+
+    assertThat(readFile("log0.txt")).isEmpty();
+  }
+
+  private AsyncFileHandler createHandler(long sizeLimit, int count) throws Exception {
+    AsyncFileHandler handler =
+        new AsyncFileHandler(
+            logDir.toPath().resolve("log%g.txt").toString(),
+            sizeLimit,
+            count,
+            /* rotationInterval= */ null,
+            /* queueCapacity= */ 100);
+    handler.setFormatter(
+        new Formatter() {
+          @Override
+          public String format(LogRecord logRecord) {
+            return formatMessage(logRecord) + "\n";
+          }
+        });
+    return handler;
+  }
+
+  private String readFile(String fileName) throws Exception {
+    return new String(Files.readAllBytes(logDir.toPath().resolve(fileName)), UTF_8);
+  }
+
+  private String readCompressedFile(String fileName) throws Exception {
+    Path file = logDir.toPath().resolve(fileName);
+    try (InputStream input = new GZIPInputStream(Files.newInputStream(file))) {
+      return new String(input.readAllBytes(), UTF_8);
+    }
+  }
+}
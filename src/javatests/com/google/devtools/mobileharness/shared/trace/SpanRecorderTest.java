@@ -0,0 +1,143 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.trace;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Span;
+import com.google.devtools.mobileharness.shared.trace.proto.SpanProto.Type.SpanType;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public final class SpanRecorderTest {
+
+  private static final String TEST_ID = "test_id";
+  private static final Instant START = Instant.ofEpochSecond(1_000L);
+
+  @Rule public final MockitoRule mockito = MockitoJUnit.rule();
+
+  @Mock private Clock clock;
+
+  @Test
+  public void startSpan_nestedSpans_criticalPath() {
+    when(clock.instant())
+        .thenReturn(
+            START,
+            START.plusSeconds(1L),
+            START.plusSeconds(3L),
+            START.plusSeconds(4L),
+            START.plusSeconds(6L),
+            START.plusSeconds(10L));
+    SpanRecorder recorder = new SpanRecorder(SpanRecorder.DEFAULT_CAPACITY, clock);
+    String testIdTag = SpanRecorder.testIdTag(TEST_ID);
+
+    String rootId;
+    try (TraceSpan root = recorder.startSpan(SpanType.RUN_TEST, "root", testIdTag)) {
+      rootId = root.id();
+      try (TraceSpan ignored = recorder.startSpan(SpanType.SEND_FILE, "child1", testIdTag)) {
+        assertThat(recorder.getCurrentSpanId()).isPresent();
+      }
+      try (TraceSpan ignored = recorder.startSpan(SpanType.EXEC_COMMAND, "child2", testIdTag)) {
+        assertThat(recorder.getCurrentSpanId()).isPresent();
+      }
+      assertThat(recorder.getCurrentSpanId()).hasValue(rootId);
+    }
+
+    assertThat(recorder.getCurrentSpanId()).isEmpty();
+    ImmutableList<Span> spans = recorder.getSpans();
+    assertThat(spans).hasSize(3);
+    assertThat(spans.get(0).getParentId()).isEqualTo(rootId);
+    assertThat(spans.get(1).getParentId()).isEqualTo(rootId);
+    assertThat(spans.get(2).getParentId()).isEmpty();
+
+    CriticalPath criticalPath = CriticalPath.of(spans, TEST_ID);
+    assertThat(criticalPath.totalTime()).isEqualTo(Duration.ofSeconds(10L));
+    assertThat(criticalPath.untrackedTime()).isEqualTo(Duration.ZERO);
+    assertThat(
+            criticalPath.segments().stream()
+                .map(segment -> segment.span().getName().getName())
+                .collect(ImmutableList.toImmutableList()))
+        .containsExactly("root", "child1", "child2")
+        .inOrder();
+    // 10 sec - 2 sec (child1) - 2 sec (child2).
+    assertThat(criticalPath.segments().get(0).selfTime()).isEqualTo(Duration.ofSeconds(6L));
+  }
+
+  @Test
+  public void criticalPathOfTests_indexSpansByTestId() {
+    when(clock.instant())
+        .thenReturn(
+            START,
+            START.plusSeconds(2L),
+            START.plusSeconds(3L),
+            START.plusSeconds(7L),
+            START.plusSeconds(8L),
+            START.plusSeconds(9L));
+    SpanRecorder recorder = new SpanRecorder(SpanRecorder.DEFAULT_CAPACITY, clock);
+    try (TraceSpan ignored =
+        recorder.startSpan(SpanType.RUN_TEST, "test1", SpanRecorder.testIdTag("test1"))) {
+      // Does nothing.
+    }
+    try (TraceSpan ignored =
+        recorder.startSpan(SpanType.RUN_TEST, "test2", SpanRecorder.testIdTag("test2"))) {
+      // Does nothing.
+    }
+    try (TraceSpan ignored =
+        recorder.startSpan(SpanType.RUN_TEST, "other", SpanRecorder.testIdTag("other"))) {
+      // Does nothing.
+    }
+
+    ImmutableMap<String, CriticalPath> criticalPaths =
+        CriticalPath.ofTests(recorder.getSpans(), ImmutableSet.of("test1", "test2", "test3"));
+
+    assertThat(criticalPaths.keySet()).containsExactly("test1", "test2");
+    assertThat(criticalPaths.get("test1")).isEqualTo(CriticalPath.of(recorder.getSpans(), "test1"));
+    assertThat(criticalPaths.get("test2").totalTime()).isEqualTo(Duration.ofSeconds(4L));
+  }
+
+  @Test
+  public void getSpans_overwriteOldestSpans() {
+    when(clock.instant()).thenReturn(START);
+    SpanRecorder recorder = new SpanRecorder(/* capacity= */ 2, clock);
+
+    for (String name : ImmutableList.of("span1", "span2", "span3")) {
+      try (TraceSpan ignored = recorder.startSpan(SpanType.RUN_TEST, name)) {
+        // Does nothing.
+      }
+    }
+
+    assertThat(
+            recorder.getSpans().stream()
+                .map(span -> span.getName().getName())
+                .collect(ImmutableList.toImmutableList()))
+        .containsExactly("span2", "span3")
+        .inOrder();
+  }
+}
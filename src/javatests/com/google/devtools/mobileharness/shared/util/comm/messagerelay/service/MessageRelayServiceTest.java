@@ -18,6 +18,7 @@ package com.google.devtools.mobileharness.shared.util.comm.messagerelay.service;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.truth.Correspondence;
 import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
 import com.google.devtools.mobileharness.shared.util.comm.messagerelay.proto.MessageRelayServiceGrpc;
@@ -99,6 +100,39 @@ public final class MessageRelayServiceTest {
     assertThat(resObs2.receivedMessages).containsExactly(testMsg);
   }
 
+  @Test
+  public void relay_requestsToSameHost_balancedAcrossStreams() {
+    FakeObserver resObs1 = new FakeObserver();
+    StreamObserver<RelayMessage> reqObs1 = stub.relay(resObs1);
+    FakeObserver resObs2 = new FakeObserver();
+    StreamObserver<RelayMessage> reqObs2 = stub.relay(resObs2);
+    FakeObserver resObs3 = new FakeObserver();
+    StreamObserver<RelayMessage> reqObs3 = stub.relay(resObs3);
+
+    reqObs1.onNext(genWithStreamInfo(HOST1));
+    reqObs2.onNext(genWithStreamInfo(HOST2));
+    reqObs3.onNext(genWithStreamInfo(HOST2));
+    RelayMessage request1 =
+        genWithUnaryMessage("request_1", MessageType.REQUEST, HOST1, HOST2, UNARY_PAYLOAD);
+    RelayMessage request2 =
+        genWithUnaryMessage("request_2", MessageType.REQUEST, HOST1, HOST2, UNARY_PAYLOAD);
+    reqObs1.onNext(request1);
+    reqObs1.onNext(request2);
+    reqObs1.onCompleted();
+    reqObs2.onCompleted();
+    reqObs3.onCompleted();
+
+    assertThat(resObs2.receivedMessages).hasSize(1);
+    assertThat(resObs3.receivedMessages).hasSize(1);
+    assertThat(
+            ImmutableList.builder()
+                .addAll(resObs2.receivedMessages)
+                .addAll(resObs3.receivedMessages)
+                .build())
+        .containsExactly(request1, request2);
+    assertThat(streamManager.getStreamSize(HOST2)).isEqualTo(0);
+  }
+
   @Test
   public void relay_noStreamInfo_errorAndCloseStream() {
     FakeObserver resObs1 = new FakeObserver();
@@ -120,10 +154,15 @@ public final class MessageRelayServiceTest {
 
   private RelayMessage genWithUnaryMessage(
       MessageType type, String src, String dst, String strPayload) {
+    return genWithUnaryMessage(MESSAGE_ID, type, src, dst, strPayload);
+  }
+
+  private RelayMessage genWithUnaryMessage(
+      String messageId, MessageType type, String src, String dst, String strPayload) {
     return RelayMessage.newBuilder()
         .setUnaryMessage(
             UnaryMessage.newBuilder()
-                .setId(MESSAGE_ID)
+                .setId(messageId)
                 .setLocator(
                     Locator.newBuilder()
                         .setSource(src)
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.comm.messagerelay.service;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.devtools.mobileharness.api.model.error.InfraErrorId;
+import com.google.devtools.mobileharness.api.model.error.MobileHarnessException;
+import com.google.devtools.mobileharness.shared.util.comm.messagerelay.proto.MessageRelayServiceProto.Locator;
+import com.google.devtools.mobileharness.shared.util.comm.messagerelay.proto.MessageRelayServiceProto.MessageType;
+import com.google.devtools.mobileharness.shared.util.comm.messagerelay.proto.MessageRelayServiceProto.RelayMessage;
+import com.google.devtools.mobileharness.shared.util.comm.messagerelay.proto.MessageRelayServiceProto.UnaryMessage;
+import com.google.devtools.mobileharness.shared.util.comm.messagerelay.service.StreamManager.RelayStream;
+import io.grpc.stub.ServerCallStreamObserver;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class StreamManagerTest {
+
+  private static final String SOURCE_HOST = "stream_manager_test_source";
+  private static final String DESTINATION_HOST = "stream_manager_test_destination";
+
+  private final StreamManager streamManager = StreamManager.getInstance();
+
+  private FakeServerCallStreamObserver observer;
+  private RelayStream stream;
+
+  @Before
+  public void setUp() {
+    observer = new FakeServerCallStreamObserver();
+    stream = RelayStream.create(DESTINATION_HOST, "stream_id", observer);
+    streamManager.addStream(stream);
+  }
+
+  @After
+  public void tearDown() {
+    streamManager.removeStream(stream);
+  }
+
+  @Test
+  public void forward_streamNotReady_waitForReady() throws Exception {
+    observer.ready = false;
+
+    streamManager.forward(genMessage("response", MessageType.RESPONSE), System.nanoTime());
+
+    assertThat(observer.receivedMessages).isEmpty();
+    assertThat(stream.getOutstandingMessageCount()).isEqualTo(1);
+
+    observer.ready = true;
+    streamManager.onStreamReady(stream);
+
+    assertThat(observer.receivedMessages).hasSize(1);
+    assertThat(stream.getOutstandingMessageCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void forward_tooManyPendingMessages_reject() throws Exception {
+    observer.ready = false;
+    for (int i = 0; i < StreamManager.MAX_PENDING_MESSAGE_COUNT; i++) {
+      streamManager.forward(genMessage("response_" + i, MessageType.RESPONSE), System.nanoTime());
+    }
+    long rejectedMessageCount = streamManager.getStats().getRejectedMessageCount();
+
+    MobileHarnessException e =
+        assertThrows(
+            MobileHarnessException.class,
+            () -> streamManager.forward(genMessage("request", MessageType.REQUEST), 0L));
+
+    assertThat(e.getErrorId()).isEqualTo(InfraErrorId.MESSAGE_RELAY_STREAM_QUEUE_FULL);
+    // The rejected request is not outstanding.
+    assertThat(stream.getOutstandingMessageCount())
+        .isEqualTo(StreamManager.MAX_PENDING_MESSAGE_COUNT);
+    assertThat(streamManager.getStats().getRejectedMessageCount())
+        .isEqualTo(rejectedMessageCount + 1);
+
+    observer.ready = true;
+    streamManager.onStreamReady(stream);
+
+    assertThat(observer.receivedMessages).hasSize(StreamManager.MAX_PENDING_MESSAGE_COUNT);
+    assertThat(stream.getOutstandingMessageCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void removeStream_rejectMessages() throws Exception {
+    streamManager.removeStream(stream);
+
+    MobileHarnessException e =
+        assertThrows(
+            MobileHarnessException.class,
+            () -> streamManager.forward(genMessage("request", MessageType.REQUEST), 0L));
+
+    assertThat(e.getErrorId()).isEqualTo(InfraErrorId.MESSAGE_RELAY_NO_AVAILABLE_STREAM);
+  }
+
+  private static RelayMessage genMessage(String messageId, MessageType type) {
+    return RelayMessage.newBuilder()
+        .setUnaryMessage(
+            UnaryMessage.newBuilder()
+                .setId(messageId)
+                .setLocator(
+                    Locator.newBuilder()
+                        .setSource(SOURCE_HOST)
+                        .setDestination(DESTINATION_HOST)
+                        .setType(type)))
+        .build();
+  }
+
+  private static class FakeServerCallStreamObserver extends ServerCallStreamObserver<RelayMessage> {
+
+    private final List<RelayMessage> receivedMessages = new ArrayList<>();
+    private volatile boolean ready = true;
+
+    @Override
+    public boolean isReady() {
+      return ready;
+    }
+
+    @Override
+    public void onNext(RelayMessage value) {
+      receivedMessages.add(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {}
+
+    @Override
+    public void onCompleted() {}
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public void setOnCancelHandler(Runnable onCancelHandler) {}
+
+    @Override
+    public void setCompression(String compression) {}
+
+    @Override
+    public void setOnReadyHandler(Runnable onReadyHandler) {}
+
+    @Override
+    public void disableAutoInboundFlowControl() {}
+
+    @Override
+    public void request(int count) {}
+
+    @Override
+    public void setMessageCompression(boolean enable) {}
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.command;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.mobileharness.shared.util.flags.Flags;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CommandExecutor} with {@code --command_async_wait}. */
+@RunWith(JUnit4.class)
+public class CommandExecutorTest {
+
+  private final CommandExecutor executor = new CommandExecutor();
+
+  @Before
+  public void setUp() {
+    Flags.parse(new String[] {"--command_async_wait=true"});
+  }
+
+  @After
+  public void tearDown() {
+    Flags.resetToDefault();
+  }
+
+  @Test
+  public void exec() throws Exception {
+    CommandResult result = executor.exec(Command.of("sh", "-c", "echo out; echo err >&2"));
+
+    assertThat(result.exitCode()).isEqualTo(0);
+    assertThat(result.stdout()).isEqualTo("out\n");
+    assertThat(result.stderr()).isEqualTo("err\n");
+  }
+
+  @Test
+  public void exec_exitBeforeOutputDrained() throws Exception {
+    // The shell exits at once, while its background child keeps writing to the inherited stdout.
+    CommandResult result =
+        executor.exec(Command.of("sh", "-c", "(sleep 1; echo late) & echo early"));
+
+    assertThat(result.exitCode()).isEqualTo(0);
+    assertThat(result.stdout()).isEqualTo("early\nlate\n");
+  }
+
+  @Test
+  public void exec_largeOutput() throws Exception {
+    CommandResult result = executor.exec(Command.of("seq", "1", "100000"));
+
+    assertThat(result.stdout()).startsWith("1\n2\n");
+    assertThat(result.stdout()).endsWith("\n99999\n100000\n");
+    assertThat(result.stdout().split("\n", -1)).hasLength(100_001);
+  }
+
+  @Test
+  public void exec_failure() throws Exception {
+    CommandFailureException e =
+        assertThrows(
+            CommandFailureException.class,
+            () -> executor.exec(Command.of("sh", "-c", "echo out; exit 3")));
+
+    assertThat(e.result().exitCode()).isEqualTo(3);
+    assertThat(e.result().stdout()).isEqualTo("out\n");
+  }
+
+  @Test
+  public void exec_timeout() throws Exception {
+    CountDownLatch timeoutCallbackCalled = new CountDownLatch(1);
+
+    CommandTimeoutException e =
+        assertThrows(
+            CommandTimeoutException.class,
+            () ->
+                executor.exec(
+                    Command.of("sleep", "10")
+                        .timeout(Duration.ofMillis(500L))
+                        .onTimeout(timeoutCallbackCalled::countDown)));
+
+    assertThat(e.result().isTimeout()).isTrue();
+    assertThat(timeoutCallbackCalled.await(5L, SECONDS)).isTrue();
+  }
+
+  @Test
+  public void start_exitCallbackAndAwait() throws Exception {
+    SettableFuture<CommandResult> exitCallbackResult = SettableFuture.create();
+
+    CommandProcess process =
+        executor.start(
+            Command.of("sh", "-c", "echo out; exit 2")
+                .successExitCodes(0, 2)
+                .onExit(exitCallbackResult::set));
+    CommandResult result = process.await();
+
+    assertThat(result.exitCode()).isEqualTo(2);
+    assertThat(result.stdout()).isEqualTo("out\n");
+    assertThat(exitCallbackResult.get(5L, SECONDS)).isEqualTo(result);
+    assertThat(process.isAlive()).isFalse();
+  }
+
+  @Test
+  public void start_awaitWithTimeout() throws Exception {
+    CommandProcess process = executor.start(Command.of("sleep", "10"));
+
+    assertThrows(TimeoutException.class, () -> process.await(Duration.ofMillis(200L)));
+    assertThat(process.isAlive()).isTrue();
+
+    process.stop();
+    CommandResult result = process.await(Duration.ofSeconds(5L));
+
+    assertThat(result.isStopped()).isTrue();
+    assertThat(process.isAlive()).isFalse();
+  }
+}
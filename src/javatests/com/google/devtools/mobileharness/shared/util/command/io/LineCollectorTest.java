@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.command.io;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LineCollectorTest {
+
+  @Test
+  public void waitForAllLines_keepOriginalOutput() throws Exception {
+    LineCollector lineCollector = new LineCollector(/* numSource= */ 1, /* needAllLines= */ true);
+    LineReader lineReader = new LineReader();
+    lineReader.start(lineCollector);
+    String output = "中文\r\nb\rc\n€";
+
+    OutputStream outputStream = lineReader.openStream();
+    byte[] data = output.getBytes(UTF_8);
+    // Splits a multi-byte character and the CRLF between writes.
+    outputStream.write(data, 0, 2);
+    outputStream.write(data, 2, 5);
+    outputStream.write(data, 7, data.length - 7);
+    assertThat(lineCollector.notAllSourceClosed()).isTrue();
+    outputStream.close();
+
+    assertThat(lineCollector.notAllSourceClosed()).isFalse();
+    assertThat(lineCollector.waitForAllLines()).isEqualTo(output);
+  }
+
+  @Test
+  public void waitForAllLines_multipleSources() throws Exception {
+    LineCollector lineCollector = new LineCollector(/* numSource= */ 2, /* needAllLines= */ true);
+    LineReader lineReader1 = new LineReader();
+    LineReader lineReader2 = new LineReader();
+    lineReader1.start(lineCollector);
+    lineReader2.start(lineCollector);
+
+    lineReader1.openStream().write("a\n".getBytes(UTF_8));
+    lineReader1.openStream().close();
+    assertThat(lineCollector.waitForAllLines(Duration.ofMillis(10L))).isEqualTo("a\n");
+    lineReader2.openStream().write("b".getBytes(UTF_8));
+    lineReader2.openStream().close();
+
+    assertThat(lineCollector.notAllSourceClosed()).isFalse();
+    assertThat(lineCollector.waitForAllLines()).isEqualTo("a\nb");
+  }
+
+  @Test
+  public void lineConsumer() throws Exception {
+    LineCollector lineCollector = new LineCollector(/* numSource= */ 1, /* needAllLines= */ false);
+    List<String> lines = new ArrayList<>();
+    lineCollector.setLineConsumer(
+        line -> {
+          lines.add(line);
+          return line.equals("stop");
+        });
+    LineReader lineReader = new LineReader();
+    lineReader.start(lineCollector);
+
+    lineReader.openStream().write("ü\r\nstop\nc\n".getBytes(UTF_8));
+    lineReader.openStream().close();
+
+    assertThat(lines).containsExactly("ü", "stop").inOrder();
+    assertThat(lineCollector.waitForAllLines()).isEmpty();
+  }
+
+  @Test
+  public void stopConsumingLines_keepCollectingLines() throws Exception {
+    LineCollector lineCollector = new LineCollector(/* numSource= */ 1, /* needAllLines= */ true);
+    List<String> lines = new ArrayList<>();
+    lineCollector.setLineConsumer(
+        line -> {
+          lines.add(line);
+          return false;
+        });
+    LineReader lineReader = new LineReader();
+    lineReader.start(lineCollector);
+
+    lineReader.openStream().write("a\n".getBytes(UTF_8));
+    lineCollector.stopConsumingLines();
+    lineReader.openStream().write("b\n".getBytes(UTF_8));
+    lineReader.openStream().close();
+
+    assertThat(lines).containsExactly("a");
+    assertThat(lineCollector.waitForAllLines()).isEqualTo("a\nb\n");
+  }
+}
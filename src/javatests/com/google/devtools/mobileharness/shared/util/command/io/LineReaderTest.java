@@ -0,0 +1,176 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.command.io;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.mobileharness.shared.util.command.io.LineReader.LineHandler;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LineReaderTest {
+
+  private LineReader lineReader;
+  private RecordingLineHandler lineHandler;
+
+  @Before
+  public void setUp() {
+    lineReader = new LineReader();
+    lineHandler = new RecordingLineHandler();
+  }
+
+  @Test
+  public void lineSeparators() throws Exception {
+    lineReader.start(lineHandler);
+
+    write("a\nb\r\nc\rd\n\n");
+
+    assertThat(lineHandler.lines)
+        .containsExactly("a[\n]", "b[\r\n]", "c[\r]", "d[\n]", "[\n]")
+        .inOrder();
+    assertThat(lineHandler.closed).isFalse();
+  }
+
+  @Test
+  public void crlfSplitAcrossWrites() throws Exception {
+    lineReader.start(lineHandler);
+
+    write("a\r");
+    assertThat(lineHandler.lines).isEmpty();
+    write("\nb\r");
+    write("c\r");
+    write("\r\n");
+
+    assertThat(lineHandler.lines)
+        .containsExactly("a[\r\n]", "b[\r]", "c[\r]", "[\r\n]")
+        .inOrder();
+  }
+
+  @Test
+  public void lineSplitAcrossWrites() throws Exception {
+    lineReader.start(lineHandler);
+
+    write("ab");
+    write("cd");
+    write("e\nf");
+    write("\n");
+
+    assertThat(lineHandler.lines).containsExactly("abcde[\n]", "f[\n]").inOrder();
+  }
+
+  @Test
+  public void partialLastLine() throws Exception {
+    lineReader.start(lineHandler);
+
+    write("a\nb");
+    assertThat(lineHandler.lines).containsExactly("a[\n]");
+    lineReader.openStream().close();
+
+    assertThat(lineHandler.lines).containsExactly("a[\n]", "b[]").inOrder();
+    assertThat(lineHandler.closed).isTrue();
+  }
+
+  @Test
+  public void crAtEndOfStream() throws Exception {
+    lineReader.start(lineHandler);
+
+    write("a\r");
+    lineReader.openStream().close();
+
+    assertThat(lineHandler.lines).containsExactly("a[\r]");
+  }
+
+  @Test
+  public void multiByteCharactersSplitAcrossWrites() throws Exception {
+    lineReader.start(lineHandler);
+    byte[] data = "中文\nüñí\r\n€".getBytes(UTF_8);
+
+    OutputStream outputStream = lineReader.openStream();
+    for (byte b : data) {
+      outputStream.write(b);
+    }
+    outputStream.close();
+
+    assertThat(lineHandler.lines).containsExactly("中文[\n]", "üñí[\r\n]", "€[]").inOrder();
+  }
+
+  @Test
+  public void longLine() throws Exception {
+    lineReader.start(lineHandler);
+    String longLine = "x".repeat(100_000);
+
+    write(longLine.substring(0, 1));
+    write(longLine.substring(1) + "\n");
+    write("y\n");
+
+    assertThat(lineHandler.lines).containsExactly(longLine + "[\n]", "y[\n]").inOrder();
+  }
+
+  @Test
+  public void start_handleDataWrittenBefore() throws Exception {
+    write("a\nb");
+    lineReader.openStream().close();
+    write("ignored after close\n");
+
+    lineReader.start(lineHandler);
+
+    assertThat(lineHandler.lines).containsExactly("a[\n]", "b[]").inOrder();
+    assertThat(lineHandler.closed).isTrue();
+  }
+
+  @Test
+  public void stopHandling() throws Exception {
+    lineHandler.stopAfterLines = 1;
+    lineReader.start(lineHandler);
+
+    write("a\nb\nc");
+    lineReader.openStream().close();
+
+    assertThat(lineHandler.lines).containsExactly("a[\n]");
+    assertThat(lineHandler.closed).isTrue();
+  }
+
+  private void write(String data) throws Exception {
+    lineReader.openStream().write(data.getBytes(UTF_8));
+  }
+
+  /** Records each line with its line separator in brackets. */
+  private static class RecordingLineHandler implements LineHandler {
+
+    private final List<String> lines = new ArrayList<>();
+    private int stopAfterLines = Integer.MAX_VALUE;
+    private boolean closed;
+
+    @Override
+    public boolean handleLine(byte[] buffer, int offset, int length, String end) {
+      lines.add(new String(buffer, offset, length, UTF_8) + "[" + end + "]");
+      return lines.size() >= stopAfterLines;
+    }
+
+    @Override
+    public void onSourceClosed() {
+      closed = true;
+    }
+  }
+}
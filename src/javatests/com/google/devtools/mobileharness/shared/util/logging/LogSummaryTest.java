@@ -0,0 +1,145 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.logging;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LogSummaryTest {
+
+  private static final Duration PERIOD = Duration.ofSeconds(10L);
+
+  private final AtomicBoolean enabled = new AtomicBoolean(true);
+  private final AtomicLong nanoTime = new AtomicLong();
+  private final List<String> summaries = Collections.synchronizedList(new ArrayList<>());
+
+  private LogSummary logSummary;
+
+  @Before
+  public void setUp() {
+    logSummary = new LogSummary(enabled::get, PERIOD, nanoTime::get, summaries::add);
+  }
+
+  @Test
+  public void rateLimitSeconds() {
+    assertThat(logSummary.rateLimitSeconds()).isEqualTo(1);
+
+    enabled.set(false);
+    assertThat(logSummary.rateLimitSeconds()).isEqualTo(0);
+  }
+
+  @Test
+  public void count_disabled_noSummary() {
+    enabled.set(false);
+
+    logSummary.count("a");
+    nanoTime.addAndGet(PERIOD.toNanos());
+    logSummary.count("a");
+
+    assertThat(summaries).isEmpty();
+  }
+
+  @Test
+  public void count_periodNotEnded_noSummary() {
+    logSummary.count("a");
+    nanoTime.addAndGet(PERIOD.toNanos() - 1L);
+    logSummary.count("a");
+
+    assertThat(summaries).isEmpty();
+  }
+
+  @Test
+  public void count_periodEnded_logSortedSummary() {
+    logSummary.count("b");
+    logSummary.count("a");
+    nanoTime.addAndGet(PERIOD.toNanos());
+    logSummary.count("a");
+
+    assertThat(summaries).containsExactly("a=2, b=1");
+  }
+
+  @Test
+  public void count_afterSummary_resetCounts() {
+    logSummary.count("a");
+    nanoTime.addAndGet(PERIOD.toNanos());
+    logSummary.count("b");
+
+    logSummary.count("b");
+    nanoTime.addAndGet(PERIOD.toNanos() - 1L);
+    logSummary.count("b");
+    assertThat(summaries).containsExactly("a=1, b=1");
+
+    nanoTime.addAndGet(1L);
+    logSummary.count("c");
+    assertThat(summaries).containsExactly("a=1, b=1", "b=2, c=1").inOrder();
+  }
+
+  @Test
+  public void count_concurrent_logOneSummaryPerPeriod() throws Exception {
+    int threadCount = 8;
+    int countPerThread = 1_000;
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      nanoTime.addAndGet(PERIOD.toNanos());
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < threadCount; i++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  for (int j = 0; j < countPerThread; j++) {
+                    logSummary.count("a");
+                  }
+                  return null;
+                }));
+      }
+      start.countDown();
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(summaries).hasSize(1);
+
+    nanoTime.addAndGet(PERIOD.toNanos());
+    logSummary.count("a");
+    long total = 0L;
+    for (String summary : summaries) {
+      total += Long.parseLong(summary.substring("a=".length()));
+    }
+    assertThat(summaries).hasSize(2);
+    assertThat(total).isEqualTo(threadCount * countPerThread + 1L);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Ticker;
+import com.google.devtools.mobileharness.shared.util.quota.proto.Quota.QuotaKey;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class QuotaPermitsTest {
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final Ticker ticker =
+      new Ticker() {
+        @Override
+        public long read() {
+          return nanos.get();
+        }
+      };
+
+  @Test
+  public void tryAcquire_notAdaptive_strictLimit() {
+    QuotaPermits permits = new QuotaPermits(QuotaKey.ADB_PUSH_LARGE_FILE, 2, false, ticker);
+
+    assertThat(permits.tryAcquire(3)).isEmpty();
+    assertThat(permits.tryAcquire(2)).isPresent();
+    assertThat(permits.tryAcquire(1)).isEmpty();
+    assertThat(permits.getStats().leasedAmount()).isEqualTo(2);
+  }
+
+  @Test
+  public void tryAcquire_notAdaptiveZeroLimit_notAcquired() {
+    QuotaPermits permits = new QuotaPermits(QuotaKey.ADB_PUSH_LARGE_FILE, 0, false, ticker);
+
+    assertThat(permits.tryAcquire(1)).isEmpty();
+  }
+
+  @Test
+  public void release_notAdaptive_limitNotChanged() {
+    QuotaPermits permits = new QuotaPermits(QuotaKey.ADB_PUSH_LARGE_FILE, 2, false, ticker);
+
+    releaseWithLatency(permits, 10L);
+    for (int i = 0; i < 10; i++) {
+      releaseWithLatency(permits, 1000L);
+    }
+
+    assertThat(permits.getStats().limit()).isEqualTo(2);
+  }
+
+  @Test
+  public void release_adaptiveCongested_decreaseLimit() {
+    QuotaPermits permits = new QuotaPermits(QuotaKey.ADB_PUSH_LARGE_FILE, 4, true, ticker);
+
+    releaseWithLatency(permits, 10L);
+    releaseWithLatency(permits, 100L);
+    releaseWithLatency(permits, 100L);
+    assertThat(permits.getStats().limit()).isEqualTo(4);
+
+    // Decreases once the number of released leases reaches the old limit.
+    releaseWithLatency(permits, 100L);
+    assertThat(permits.getStats().limit()).isEqualTo(3);
+
+    // A shrunk limit doesn't block an amount up to the configured limit when nothing is leased.
+    assertThat(permits.tryAcquire(5)).isEmpty();
+    assertThat(permits.tryAcquire(4)).isPresent();
+  }
+
+  @Test
+  public void release_adaptiveWithWaitingThread_increaseLimit() throws Exception {
+    QuotaPermits permits = new QuotaPermits(QuotaKey.ADB_PUSH_LARGE_FILE, 1, true, ticker);
+    long acquiredNanos = permits.tryAcquire(1).getAsLong();
+    Thread waitingThread =
+        new Thread(
+            () -> {
+              try {
+                permits.acquire(1);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    waitingThread.start();
+    while (permits.getStats().waitingCount() == 0) {
+      Thread.sleep(1L);
+    }
+
+    nanos.addAndGet(10L);
+    permits.release(1, acquiredNanos, /* payloadSize= */ 0L);
+    waitingThread.join();
+
+    assertThat(permits.getStats().limit()).isEqualTo(2);
+    assertThat(permits.getStats().leasedAmount()).isEqualTo(1);
+  }
+
+  @Test
+  public void release_adaptiveWithoutWaitingThread_limitNotIncreased() {
+    QuotaPermits permits = new QuotaPermits(QuotaKey.ADB_PUSH_LARGE_FILE, 1, true, ticker);
+
+    for (int i = 0; i < 100; i++) {
+      releaseWithLatency(permits, 10L);
+    }
+
+    assertThat(permits.getStats().limit()).isEqualTo(1);
+  }
+
+  private void releaseWithLatency(QuotaPermits permits, long latencyNanos) {
+    long acquiredNanos = permits.tryAcquire(1).getAsLong();
+    nanos.addAndGet(latencyNanos);
+    permits.release(1, acquiredNanos, /* payloadSize= */ 0L);
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.mobileharness.shared.util.system;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.mobileharness.shared.util.system.ProcessTable.ProcessEntry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ProcessTableTest {
+
+  @Rule public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private Path procDir;
+  private String user;
+
+  @Before
+  public void setUp() throws Exception {
+    procDir = tmpFolder.newFolder("proc").toPath();
+    user = Files.getOwner(procDir).getName();
+  }
+
+  @Test
+  public void read() throws Exception {
+    writeProcess(100, "100 (java) S 1 100 100 0 -1", "java\0-jar\0server.jar\0");
+    writeProcess(2, "2 (kthreadd) S 0 0 0 0 -1", "");
+
+    ProcessTable processTable = ProcessTable.read(procDir);
+
+    assertThat(processTable.getProcesses()).hasSize(2);
+    ProcessEntry process = processTable.getProcess(100).orElseThrow();
+    assertThat(process.ppid).isEqualTo(1);
+    assertThat(process.pgid).isEqualTo(100);
+    assertThat(process.command).isEqualTo("java -jar server.jar");
+    assertThat(process.toString()).isEqualTo(user + " 100 1 100 java -jar server.jar");
+    assertThat(process.toKeywordLine()).isEqualTo(user + " 100 java -jar server.jar");
+    assertThat(processTable.getProcess(2).orElseThrow().command).isEqualTo("[kthreadd]");
+  }
+
+  @Test
+  public void read_commWithSpacesAndParentheses() throws Exception {
+    writeProcess(200, "200 (my ) (prog) R 150 120 120 0 -1", "");
+
+    ProcessEntry process = ProcessTable.read(procDir).getProcess(200).orElseThrow();
+
+    assertThat(process.ppid).isEqualTo(150);
+    assertThat(process.pgid).isEqualTo(120);
+    assertThat(process.command).isEqualTo("[my ) (prog]");
+  }
+
+  @Test
+  public void read_skipInvalidProcesses() throws Exception {
+    writeProcess(300, "300 (truncated", "truncated\0");
+    writeProcess(301, "301 (short) S", "short\0");
+    Files.createDirectories(procDir.resolve("302"));
+    Files.createDirectories(procDir.resolve("self"));
+
+    assertThat(ProcessTable.read(procDir).getProcesses()).isEmpty();
+  }
+
+  @Test
+  public void getListeningProcessIds() throws Exception {
+    writeProcess(400, "400 (server) S 1 400 400 0 -1", "server\0");
+    writeProcess(401, "401 (client) S 1 401 401 0 -1", "client\0");
+    Path netDir = Files.createDirectories(procDir.resolve("net"));
+    Files.write(
+        netDir.resolve("tcp"),
+        ("  sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout"
+                + " inode\n"
+                + "   0: 00000000:270F 00000000:0000 0A 00000000:00000000 00:00000000 00000000"
+                + "  1000        0 1111 1 0000000000000000 100 0 0 10 0\n"
+                + "   1: 0100007F:270F 0100007F:A000 01 00000000:00000000 00:00000000 00000000"
+                + "  1000        0 2222 1 0000000000000000 20 4 30 10 -1\n")
+            .getBytes(UTF_8));
+    Path serverFdDir = Files.createDirectories(procDir.resolve("400/fd"));
+    Files.createSymbolicLink(serverFdDir.resolve("3"), Path.of("socket:[1111]"));
+    Path clientFdDir = Files.createDirectories(procDir.resolve("401/fd"));
+    Files.createSymbolicLink(clientFdDir.resolve("3"), Path.of("socket:[2222]"));
+
+    ProcessTable processTable = ProcessTable.read(procDir);
+
+    assertThat(processTable.getListeningProcessIds(9999)).containsExactly(400);
+    assertThat(processTable.getListeningProcessIds(8888)).isEmpty();
+  }
+
+  private void writeProcess(int pid, String stat, String cmdline) throws Exception {
+    Path processDir = Files.createDirectories(procDir.resolve(String.valueOf(pid)));
+    Files.write(processDir.resolve("stat"), stat.getBytes(UTF_8));
+    Files.write(processDir.resolve("cmdline"), cmdline.getBytes(UTF_8));
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.api.driver;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.mobileharness.shared.util.file.local.LocalFileUtil;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link XtsDirListingCache}. */
+@RunWith(JUnit4.class)
+public class XtsDirListingCacheTest {
+
+  private static final FileTime DIR_LAST_MODIFIED_TIME =
+      FileTime.from(Instant.ofEpochSecond(1_700_000_000L));
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path dir;
+  private XtsDirListingCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = temporaryFolder.newFolder("tools").toPath();
+    Files.createFile(dir.resolve("a.jar"));
+    Files.createFile(dir.resolve("a.txt"));
+    Files.createDirectories(dir.resolve("sub"));
+    Files.createFile(dir.resolve("sub").resolve("b.jar"));
+    Files.setLastModifiedTime(dir.resolve("sub"), DIR_LAST_MODIFIED_TIME);
+    Files.setLastModifiedTime(dir, DIR_LAST_MODIFIED_TIME);
+    cache = new XtsDirListingCache(new LocalFileUtil());
+  }
+
+  @Test
+  public void listJars() throws Exception {
+    assertThat(cache.listJars(dir, /* recursively= */ false)).containsExactly(dir.resolve("a.jar"));
+    assertThat(cache.listJars(dir, /* recursively= */ true))
+        .containsExactly(dir.resolve("a.jar"), dir.resolve("sub").resolve("b.jar"));
+  }
+
+  @Test
+  public void listChildren() throws Exception {
+    assertThat(cache.listChildren(dir))
+        .containsExactly(dir.resolve("a.jar"), dir.resolve("a.txt"), dir.resolve("sub"));
+  }
+
+  @Test
+  public void listJars_dirNotModified_useCachedListing() throws Exception {
+    assertThat(cache.listJars(dir, /* recursively= */ false)).containsExactly(dir.resolve("a.jar"));
+
+    Files.createFile(dir.resolve("c.jar"));
+    Files.setLastModifiedTime(dir, DIR_LAST_MODIFIED_TIME);
+
+    assertThat(cache.listJars(dir, /* recursively= */ false)).containsExactly(dir.resolve("a.jar"));
+  }
+
+  @Test
+  public void listJars_dirModified_listAgain() throws Exception {
+    assertThat(cache.listJars(dir, /* recursively= */ false)).containsExactly(dir.resolve("a.jar"));
+
+    Files.createFile(dir.resolve("c.jar"));
+    Files.setLastModifiedTime(
+        dir, FileTime.from(DIR_LAST_MODIFIED_TIME.toInstant().plusSeconds(1L)));
+
+    assertThat(cache.listJars(dir, /* recursively= */ false))
+        .containsExactly(dir.resolve("a.jar"), dir.resolve("c.jar"));
+  }
+
+  @Test
+  public void listJarsRecursively_subDirNotModified_useCachedListing() throws Exception {
+    assertThat(cache.listJars(dir, /* recursively= */ true))
+        .containsExactly(dir.resolve("a.jar"), dir.resolve("sub").resolve("b.jar"));
+
+    Files.createFile(dir.resolve("sub").resolve("c.jar"));
+    Files.setLastModifiedTime(dir.resolve("sub"), DIR_LAST_MODIFIED_TIME);
+
+    assertThat(cache.listJars(dir, /* recursively= */ true))
+        .containsExactly(dir.resolve("a.jar"), dir.resolve("sub").resolve("b.jar"));
+  }
+
+  @Test
+  public void listJarsRecursively_subDirModified_listAgain() throws Exception {
+    assertThat(cache.listJars(dir, /* recursively= */ true))
+        .containsExactly(dir.resolve("a.jar"), dir.resolve("sub").resolve("b.jar"));
+
+    Files.createFile(dir.resolve("sub").resolve("c.jar"));
+    Files.setLastModifiedTime(
+        dir.resolve("sub"), FileTime.from(DIR_LAST_MODIFIED_TIME.toInstant().plusSeconds(1L)));
+
+    assertThat(cache.listJars(dir, /* recursively= */ true))
+        .containsExactly(
+            dir.resolve("a.jar"),
+            dir.resolve("sub").resolve("b.jar"),
+            dir.resolve("sub").resolve("c.jar"));
+  }
+
+  @Test
+  public void listJarsRecursively_subDirReplaced_listAgain() throws Exception {
+    Path subSubDir = Files.createDirectories(dir.resolve("sub").resolve("module"));
+    Files.createFile(subSubDir.resolve("d.jar"));
+    Files.setLastModifiedTime(subSubDir, DIR_LAST_MODIFIED_TIME);
+    Files.setLastModifiedTime(dir.resolve("sub"), DIR_LAST_MODIFIED_TIME);
+    assertThat(cache.listJars(dir, /* recursively= */ true))
+        .containsExactly(
+            dir.resolve("a.jar"), dir.resolve("sub").resolve("b.jar"), subSubDir.resolve("d.jar"));
+
+    // Replaces the module in place without changing the last modified times of its ancestors.
+    Files.delete(subSubDir.resolve("d.jar"));
+    Files.delete(subSubDir);
+    Files.createDirectories(subSubDir);
+    Files.createFile(subSubDir.resolve("e.jar"));
+    Files.setLastModifiedTime(
+        subSubDir, FileTime.from(DIR_LAST_MODIFIED_TIME.toInstant().plusSeconds(1L)));
+    Files.setLastModifiedTime(dir.resolve("sub"), DIR_LAST_MODIFIED_TIME);
+
+    assertThat(cache.listJars(dir, /* recursively= */ true))
+        .containsExactly(
+            dir.resolve("a.jar"), dir.resolve("sub").resolve("b.jar"), subSubDir.resolve("e.jar"));
+  }
+
+  @Test
+  public void listJars_differentKinds_cachedSeparately() throws Exception {
+    assertThat(cache.listChildren(dir)).hasSize(3);
+
+    assertThat(cache.listJars(dir, /* recursively= */ false)).containsExactly(dir.resolve("a.jar"));
+  }
+}
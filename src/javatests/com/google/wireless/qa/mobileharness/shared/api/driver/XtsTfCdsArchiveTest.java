@@ -0,0 +1,176 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.api.driver;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link XtsTfCdsArchive}. */
+@RunWith(JUnit4.class)
+public class XtsTfCdsArchiveTest {
+
+  private static final FileTime LAST_MODIFIED_TIME =
+      FileTime.from(Instant.ofEpochSecond(1_700_000_000L));
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private String archiveDir;
+  private Path toolsDir;
+  private Path javaBinary;
+
+  @Before
+  public void setUp() throws Exception {
+    archiveDir = temporaryFolder.getRoot().toPath().resolve("cds").toString();
+    toolsDir = temporaryFolder.newFolder("tools").toPath();
+    Files.write(toolsDir.resolve(XtsTfCdsArchive.TF_JAR_NAME), new byte[] {1, 2, 3});
+    Files.setLastModifiedTime(toolsDir.resolve(XtsTfCdsArchive.TF_JAR_NAME), LAST_MODIFIED_TIME);
+    javaBinary = temporaryFolder.newFile("java").toPath();
+    Files.setLastModifiedTime(javaBinary, LAST_MODIFIED_TIME);
+  }
+
+  @Test
+  public void getArchiveName() throws Exception {
+    String archiveName = XtsTfCdsArchive.getArchiveName("cts", toolsDir, javaBinary);
+
+    assertThat(archiveName).startsWith("cts_tf_");
+    assertThat(archiveName).endsWith(".jsa");
+    assertThat(XtsTfCdsArchive.getArchiveName("cts", toolsDir, javaBinary))
+        .isEqualTo(archiveName);
+    assertThat(XtsTfCdsArchive.getArchiveName("mcts", toolsDir, javaBinary))
+        .isNotEqualTo(archiveName);
+  }
+
+  @Test
+  public void getArchiveName_differentToolsDir() throws Exception {
+    Path otherToolsDir = temporaryFolder.newFolder("other_tools").toPath();
+    Files.copy(
+        toolsDir.resolve(XtsTfCdsArchive.TF_JAR_NAME),
+        otherToolsDir.resolve(XtsTfCdsArchive.TF_JAR_NAME));
+
+    assertThat(XtsTfCdsArchive.getArchiveName("cts", otherToolsDir, javaBinary))
+        .isNotEqualTo(XtsTfCdsArchive.getArchiveName("cts", toolsDir, javaBinary));
+  }
+
+  @Test
+  public void getArchiveName_differentTfVersion() throws Exception {
+    String archiveName = XtsTfCdsArchive.getArchiveName("cts", toolsDir, javaBinary);
+
+    Files.write(toolsDir.resolve(XtsTfCdsArchive.TF_JAR_NAME), new byte[] {1, 2, 3, 4});
+    Files.setLastModifiedTime(toolsDir.resolve(XtsTfCdsArchive.TF_JAR_NAME), LAST_MODIFIED_TIME);
+
+    assertThat(XtsTfCdsArchive.getArchiveName("cts", toolsDir, javaBinary))
+        .isNotEqualTo(archiveName);
+  }
+
+  @Test
+  public void getArchiveName_differentJdk() throws Exception {
+    String archiveName = XtsTfCdsArchive.getArchiveName("cts", toolsDir, javaBinary);
+    Path otherJavaBinary = temporaryFolder.newFile("other_java").toPath();
+    Files.setLastModifiedTime(otherJavaBinary, LAST_MODIFIED_TIME);
+
+    assertThat(XtsTfCdsArchive.getArchiveName("cts", toolsDir, otherJavaBinary))
+        .isNotEqualTo(archiveName);
+
+    Files.setLastModifiedTime(javaBinary, FileTime.from(Instant.ofEpochSecond(1_800_000_000L)));
+
+    assertThat(XtsTfCdsArchive.getArchiveName("cts", toolsDir, javaBinary))
+        .isNotEqualTo(archiveName);
+  }
+
+  @Test
+  public void prepare_flagEmpty_noArchive() throws Exception {
+    assertThat(XtsTfCdsArchive.prepare("", "cts", toolsDir, javaBinary)).isEmpty();
+  }
+
+  @Test
+  public void prepare_archiveExists_readArchive() throws Exception {
+    Path archive =
+        Path.of(archiveDir, XtsTfCdsArchive.getArchiveName("cts", toolsDir, javaBinary));
+    Files.createDirectories(archive.getParent());
+    Files.write(archive, new byte[] {1});
+
+    Optional<XtsTfCdsArchive> tfCdsArchive =
+        XtsTfCdsArchive.prepare(archiveDir, "cts", toolsDir, javaBinary);
+
+    assertThat(tfCdsArchive).isPresent();
+    assertThat(tfCdsArchive.get().getDumpedArchive()).isEmpty();
+    assertThat(tfCdsArchive.get().getJvmFlags())
+        .containsExactly("-XX:+IgnoreUnrecognizedVMOptions", "-XX:SharedArchiveFile=" + archive)
+        .inOrder();
+
+    tfCdsArchive.get().close();
+
+    assertThat(Files.readAllBytes(archive)).isEqualTo(new byte[] {1});
+  }
+
+  @Test
+  public void prepare_archiveNotExist_createArchiveOnce() throws Exception {
+    Optional<XtsTfCdsArchive> creator =
+        XtsTfCdsArchive.prepare(archiveDir, "cts", toolsDir, javaBinary);
+
+    assertThat(creator).isPresent();
+    Path archive = creator.get().getArchive();
+    Path dumpedArchive = creator.get().getDumpedArchive().orElseThrow();
+    assertThat(dumpedArchive.getParent()).isEqualTo(archive.getParent());
+    assertThat(creator.get().getJvmFlags())
+        .containsExactly(
+            "-XX:+IgnoreUnrecognizedVMOptions", "-XX:ArchiveClassesAtExit=" + dumpedArchive)
+        .inOrder();
+
+    // Another TF run does not use the archive while it is being created.
+    assertThat(XtsTfCdsArchive.prepare(archiveDir, "cts", toolsDir, javaBinary)).isEmpty();
+
+    // Simulates that the TF process dumps the archive when it exits.
+    Files.write(dumpedArchive, new byte[] {1});
+    creator.get().close();
+
+    assertThat(Files.exists(dumpedArchive)).isFalse();
+    assertThat(Files.readAllBytes(archive)).isEqualTo(new byte[] {1});
+    Optional<XtsTfCdsArchive> reader =
+        XtsTfCdsArchive.prepare(archiveDir, "cts", toolsDir, javaBinary);
+    assertThat(reader).isPresent();
+    assertThat(reader.get().getDumpedArchive()).isEmpty();
+  }
+
+  @Test
+  public void prepare_archiveNotDumped_createArchiveAgain() throws Exception {
+    Optional<XtsTfCdsArchive> creator =
+        XtsTfCdsArchive.prepare(archiveDir, "cts", toolsDir, javaBinary);
+    assertThat(creator).isPresent();
+
+    // Simulates that the TF process fails to dump the archive.
+    creator.get().close();
+
+    assertThat(Files.exists(creator.get().getArchive())).isFalse();
+    Optional<XtsTfCdsArchive> nextCreator =
+        XtsTfCdsArchive.prepare(archiveDir, "cts", toolsDir, javaBinary);
+    assertThat(nextCreator).isPresent();
+    assertThat(nextCreator.get().getDumpedArchive()).isPresent();
+    nextCreator.get().close();
+  }
+}
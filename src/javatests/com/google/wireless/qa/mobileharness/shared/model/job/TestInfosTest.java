@@ -0,0 +1,206 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.model.job;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.wireless.qa.mobileharness.shared.proto.Job.JobType;
+import com.google.wireless.qa.mobileharness.shared.proto.Job.TestStatus;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestInfosTest {
+
+  private JobInfo jobInfo;
+  private TestInfos tests;
+
+  @Before
+  public void setUp() {
+    jobInfo =
+        JobInfo.newBuilder()
+            .setLocator(new JobLocator("job_id", "job_name"))
+            .setType(JobType.newBuilder().setDriver("driver").setDevice("device").build())
+            .build();
+    tests = jobInfo.tests();
+  }
+
+  @Test
+  public void add_indexedByStatus() throws Exception {
+    TestInfo test1 = tests.add("test_1");
+    tests.add("test_2");
+
+    assertThat(tests.getNewTestCount()).isEqualTo(2);
+    assertThat(tests.allDone()).isFalse();
+
+    test1.status().set(TestStatus.SUSPENDED);
+    assertThat(tests.getNewTestCount()).isEqualTo(1);
+    assertThat(tests.getSuspendedTestCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void remove_removedFromIndex() throws Exception {
+    TestInfo test1 = tests.add("test_1");
+    TestInfo test2 = tests.add("test_2");
+    test2.status().set(TestStatus.DONE);
+
+    tests.remove(test1.locator().getId());
+
+    assertThat(tests.getNewTestCount()).isEqualTo(0);
+    assertThat(tests.allDone()).isTrue();
+    // The removed test no longer updates the index.
+    test1.status().set(TestStatus.ASSIGNED);
+    assertThat(tests.allDone()).isTrue();
+  }
+
+  @Test
+  public void addAll_replaceTest() throws Exception {
+    TestInfo oldTest = tests.add("test_id", "test_name");
+    TestInfo newTest =
+        TestInfo.newBuilder().setId("test_id").setName("test_name").setJobInfo(jobInfo).build();
+    newTest.status().set(TestStatus.DONE);
+
+    tests.addAll(ImmutableList.of(newTest));
+
+    assertThat(tests.getById("test_id")).isSameInstanceAs(newTest);
+    assertThat(tests.getNewTestCount()).isEqualTo(0);
+    assertThat(tests.allDone()).isTrue();
+    oldTest.status().set(TestStatus.SUSPENDED);
+    assertThat(tests.getSuspendedTestCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void clear() throws Exception {
+    TestInfo test = tests.add("test_1");
+    tests.add("test_2");
+    long testSetVersion = tests.getTestSetVersion();
+
+    tests.clear();
+
+    assertThat(tests.isEmpty()).isTrue();
+    assertThat(tests.getNewTestCount()).isEqualTo(0);
+    assertThat(tests.allDone()).isTrue();
+    assertThat(tests.getTestSetVersion()).isGreaterThan(testSetVersion);
+    test.status().set(TestStatus.SUSPENDED);
+    assertThat(tests.getSuspendedTestCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void getTestSetVersion_onlyChangedByAddingOrRemovingTests() throws Exception {
+    long testSetVersion = tests.getTestSetVersion();
+
+    TestInfo test = tests.add("test");
+    assertThat(tests.getTestSetVersion()).isGreaterThan(testSetVersion);
+
+    testSetVersion = tests.getTestSetVersion();
+    test.status().set(TestStatus.ASSIGNED);
+    test.status().set(TestStatus.DONE);
+    assertThat(tests.getTestSetVersion()).isEqualTo(testSetVersion);
+
+    tests.remove(test.locator().getId());
+    assertThat(tests.getTestSetVersion()).isGreaterThan(testSetVersion);
+  }
+
+  @Test
+  public void allDone_suspendedToNew() throws Exception {
+    TestInfo test = tests.add("test");
+    test.status().set(TestStatus.SUSPENDED);
+    assertThat(tests.allDone()).isFalse();
+
+    test.status().set(TestStatus.NEW);
+    assertThat(tests.allDone()).isFalse();
+    assertThat(tests.getNewTestCount()).isEqualTo(1);
+    assertThat(tests.getSuspendedTestCount()).isEqualTo(0);
+
+    test.status().set(TestStatus.DONE);
+    assertThat(tests.allDone()).isTrue();
+  }
+
+  @Test
+  public void allDone_notDoneDuringSuspendedToNew() throws Exception {
+    TestInfo test = tests.add("test");
+    AtomicBoolean stopped = new AtomicBoolean();
+    AtomicBoolean allDoneSeen = new AtomicBoolean();
+    Thread checker =
+        new Thread(
+            () -> {
+              while (!stopped.get()) {
+                if (tests.allDone()) {
+                  allDoneSeen.set(true);
+                }
+              }
+            });
+    checker.start();
+    try {
+      for (int i = 0; i < 10_000; i++) {
+        test.status().set(TestStatus.SUSPENDED);
+        test.status().set(TestStatus.NEW);
+      }
+    } finally {
+      stopped.set(true);
+      checker.join();
+    }
+
+    assertThat(allDoneSeen.get()).isFalse();
+  }
+
+  @Test
+  public void hasSubTests() throws Exception {
+    TestInfo test = tests.add("test");
+
+    assertThat(test.hasSubTests()).isFalse();
+
+    test.subTests().add("sub_test");
+    assertThat(test.hasSubTests()).isTrue();
+
+    test.subTests().clear();
+    assertThat(test.hasSubTests()).isFalse();
+  }
+
+  @Test
+  public void allDone_notDoneDuringStatusChanges() throws Exception {
+    TestInfo test = tests.add("test");
+    AtomicBoolean stopped = new AtomicBoolean();
+    AtomicBoolean allDoneSeen = new AtomicBoolean();
+    Thread checker =
+        new Thread(
+            () -> {
+              while (!stopped.get()) {
+                if (tests.allDone()) {
+                  allDoneSeen.set(true);
+                }
+              }
+            });
+    checker.start();
+    try {
+      for (int i = 0; i < 1000; i++) {
+        test.status().set(TestStatus.ASSIGNED);
+        test.status().set(TestStatus.SUSPENDED);
+        test.status().set(TestStatus.NEW);
+      }
+    } finally {
+      stopped.set(true);
+      checker.join();
+    }
+
+    assertThat(allDoneSeen.get()).isFalse();
+  }
+}
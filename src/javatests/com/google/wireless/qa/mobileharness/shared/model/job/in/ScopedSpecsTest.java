@@ -0,0 +1,87 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wireless.qa.mobileharness.shared.model.job.in;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gson.JsonObject;
+import com.google.wireless.qa.mobileharness.shared.model.job.out.Timing;
+import com.google.wireless.qa.mobileharness.shared.proto.spec.driver.NoOpDriverSpec;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ScopedSpecsTest {
+
+  private static final NoOpDriverSpec SPEC =
+      NoOpDriverSpec.newBuilder().setSleepTimeSec(2).setTestResultReason("reason").build();
+
+  @Test
+  public void getAll_returnCopies() throws Exception {
+    JsonObject json = new JsonObject();
+    json.addProperty("key", "value");
+    ScopedSpecs specs = new ScopedSpecs(new Timing()).add("namespace", json);
+
+    json.addProperty("key", "changed_in_added_json");
+    specs.getAll().get("namespace").addProperty("key", "changed_in_get_all");
+    specs.get("namespace").asJson().addProperty("key", "changed_in_get");
+    specs.asJsonObject().getAsJsonObject("namespace").addProperty("key", "changed_in_json");
+
+    assertThat(specs.get("namespace").asJson().get("key").getAsString()).isEqualTo("value");
+  }
+
+  @Test
+  public void addMessage_convertToJson() throws Exception {
+    ScopedSpecs specs = new ScopedSpecs(new Timing()).add("NoOpDriverSpec", SPEC);
+
+    ScopedSpecs recovered = new ScopedSpecs(new Timing()).addJson(specs.toJsonString());
+
+    assertThat(recovered.getSpec(NoOpDriverSpec.class)).isEqualTo(SPEC);
+    assertThat(recovered).isEqualTo(specs);
+  }
+
+  @Test
+  public void addAll_shareSpecs() throws Exception {
+    ScopedSpecs specs = new ScopedSpecs(new Timing()).add("NoOpDriverSpec", SPEC);
+
+    ScopedSpecs copy = new ScopedSpecs(new Timing()).addAll(specs);
+    assertThat(copy.getSpec(NoOpDriverSpec.class)).isEqualTo(SPEC);
+    assertThat(copy).isEqualTo(specs);
+
+    copy.add("NoOpDriverSpec", NoOpDriverSpec.newBuilder().setSleepTimeSec(3).build());
+    assertThat(copy.getSpec(NoOpDriverSpec.class).getSleepTimeSec()).isEqualTo(3);
+    assertThat(specs.getSpec(NoOpDriverSpec.class)).isEqualTo(SPEC);
+  }
+
+  @Test
+  public void getMergedSpec_useCurrentParams() throws Exception {
+    Params params = new Params(new Timing());
+    ScopedSpecs specs = new ScopedSpecs(params, new Timing()).add("NoOpDriverSpec", SPEC);
+
+    params.add("dummy_int", "1");
+    params.add("sleep_time_sec", "10");
+    NoOpDriverSpec merged = specs.getMergedSpec(NoOpDriverSpec.class);
+    assertThat(merged.getDummyInt()).isEqualTo(1);
+    assertThat(merged.getSleepTimeSec()).isEqualTo(2);
+    assertThat(merged.getTestResultReason()).isEqualTo("reason");
+
+    params.add("dummy_int", "3");
+    assertThat(specs.getMergedSpec(NoOpDriverSpec.class).getDummyInt()).isEqualTo(3);
+    assertThat(specs.getSpec(NoOpDriverSpec.class)).isEqualTo(SPEC);
+  }
+}